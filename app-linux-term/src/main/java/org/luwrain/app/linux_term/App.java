@@ -4,8 +4,9 @@
 package org.luwrain.app.linux_term;
 
 import java.util.*;
-import java.util.concurrent.*;
 import java.io.*;
+import java.time.*;
+import java.time.format.*;
 import org.apache.logging.log4j.*;
 
 import com.pty4j.*;
@@ -13,21 +14,29 @@ import com.pty4j.unix.*;
 
 import org.luwrain.core.*;
 import org.luwrain.app.base.*;
+import org.luwrain.linux.*;
+import org.luwrain.linux.term.*;
 
 import static java.util.Objects.*;
 
 public final class App extends AppBase<Strings>
 {
     static private final Logger log = LogManager.getLogger();
-    static private final long LISTENING_DELAY = 10;
+    //The size of the terminal until the area becomes visible
+    static final int
+	INITIAL_ROWS = 25,
+	INITIAL_COLS = 80;
+    //The directory for the recordings of the sessions, the sessions aren't recorded if it isn't set
+    static private final String RECORD_DIR_PROP = "luwrain.linux.term.recordDir";
 
     final String startingDir;
     private UnixPtyProcess  pty;
+    private Terminal terminal;
+    private Recorder recorder = null;
+    //Accessed only from the UI thread
+    private boolean flushScheduled = false;
     private MainLayout layout;
 
-    private volatile StringBuilder termOutput = new StringBuilder();
-    private volatile long latestOutputTimestamp = new Date().getTime();
-
     public App()
     {
 	super(Strings.class, "luwrain.linux.term");
@@ -48,132 +57,142 @@ public final class App extends AppBase<Strings>
 				    .setEnvironment(env)
 				    .setDirectory((this.startingDir != null && !startingDir.isEmpty())?startingDir:getLuwrain().getPath("~"))
 				    .setConsole(false)
+				    .setInitialRows(INITIAL_ROWS)
+				    .setInitialColumns(INITIAL_COLS)
 				    .start());
-	getLuwrain().executeBkg(new FutureTask<>(()->readOutput(), null));
-		getLuwrain().executeBkg(new FutureTask<>(()->listening(), null));
+	pty.onExit().thenAccept(p->log.debug("Exit value is {}", p.exitValue()));
+	this.terminal = new Terminal(new PtyConnection(), INITIAL_ROWS, INITIAL_COLS);
+	startRecording();
 	setAppName(getStrings().appName());
-	this.layout = new MainLayout(this);
+	this.layout = new MainLayout(this, terminal);
+	terminal.start(ProcessEngine.getDefault(), getLuwrain()::runUiSafely, layout);
 	return layout.getLayout();
     }
 
-    private void readOutput()
+    /**
+     * Sends the typed character. The keystrokes are collected in the
+     * buffer and flushed after the UI thread handles the events already
+     * queued, so the batch of the keystrokes, like the typing of the
+     * script, goes to the PTY in one write.
+     */
+    void sendChar(int ch)
     {
 	try {
-	    try (final InputStream is = pty.getInputStream()) {
-		try (final InputStreamReader r = new InputStreamReader(is, "UTF-8")) {
-		    while(pty.isRunning())
-		    {
-			final int c = r.read();
-			//log.trace("Input {} ({})", (char)c, c);
-			if (c < 0)
-			{
-			    log.trace("Negative character from the terminal: {}", c);
-			    break;
-			}
-			synchronized(App.this) {
-			    this.termOutput.append((char)c);
-			    this.latestOutputTimestamp = new Date().getTime();
-			}
-		    }
-		    log.debug("Closing the terminal");
-		    //FIXME: Read complete output
-		}
-	    }
-	    try {
-		pty.waitFor();
-	    }
-	    catch(InterruptedException e)
-	    {
-		Thread.currentThread().interrupt();
-	    }
-	    log.debug("Exit value is {}", pty.exitValue());
+	    terminal.getWriter().write(ch);
 	}
-	catch(Throwable e)
+	catch(IOException e)
 	{
-	    log.error("PPTY failure", e);
-	    crash(e);
+	    getLuwrain().crash(e);
+	    return;
 	}
+	scheduleFlush();
     }
 
-    private void listening()
+    void sendChar(byte[] ch)
     {
 	try {
-	    while(pty.isRunning())
-	    {
-		try {
-		    Thread.sleep(LISTENING_DELAY);
-		}
-		catch(InterruptedException e)
-		{
-		    Thread.currentThread().interrupt();
-		    return;
-		}
-		final String output;
-		synchronized(App.this) { 
-		    if (this.termOutput.length() == 0)
-			continue;
-		    final long timestamp = new Date().getTime();
-		    if (timestamp - latestOutputTimestamp < LISTENING_DELAY)
-			continue;
-		    output = new String(this.termOutput);
-		    this.termOutput = new StringBuilder();
-		}
-		getLuwrain().runUiSafely(()->{
-			if (layout != null)
-			    layout.termText(output);
-		    });
-	    }
+	    terminal.getWriter().write(ch);
 	}
-	finally {
-	    log.trace("Finishing listening thread, running=" + pty.isRunning());
-	    synchronized(App.this) {
-		final String output = new String(this.termOutput);
-		this.termOutput = new StringBuilder();
-		if (!output.isEmpty())
-		    getLuwrain().runUiSafely(()->{
-			    if (layout != null)
-				layout.termText(output);
-			});
-	    };
+	catch(IOException e)
+	{
+	    getLuwrain().crash(e);
+	    return;
 	}
+	scheduleFlush();
     }
 
-void sendChar(int ch)
+    boolean paste(String text)
     {
+	if (text == null || text.isEmpty())
+	    return false;
 	try {
-	    	if (ch < 128)
-	{
-	    pty.getOutputStream().write(ch);
-	    pty.getOutputStream().flush();
-	    return;
+	    terminal.paste(text);
 	}
-	    final OutputStreamWriter w = new OutputStreamWriter(pty.getOutputStream(), "UTF-8");
-	    w.write(ch);
-	    w.flush();
-	    	}
 	catch(IOException e)
 	{
 	    getLuwrain().crash(e);
 	}
-	    }
+	return true;
+    }
 
-    void sendChar(byte[] ch)
+    private void scheduleFlush()
     {
+	if (flushScheduled)
+	    return;
+	flushScheduled = true;
+	getLuwrain().runUiSafely(()->{
+		flushScheduled = false;
+		try {
+		    terminal.getWriter().flush();
+		}
+		catch(IOException e)
+		{
+		    getLuwrain().crash(e);
+		}
+	    });
+    }
+
+    private void startRecording()
+    {
+	final File dir = getLuwrain().getFileProperty(RECORD_DIR_PROP);
+	if (dir == null)
+	    return;
+	final File file = new File(dir, "term-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".cast");
 	try {
-	    pty.getOutputStream().write(ch);
-	    pty.getOutputStream().flush();
+	    this.recorder = new Recorder(file, INITIAL_ROWS, INITIAL_COLS);
+	    terminal.setRecorder(recorder);
+	    log.debug("Recording the terminal session to {}", file.getAbsolutePath());
 	}
 	catch(IOException e)
 	{
-	    getLuwrain().crash(e);
+	    log.error("Unable to start recording to " + file.getAbsolutePath(), e);
 	}
-	    }
-
+    }
 
     @Override public void closeApp()
     {
 	pty.hangup();
 	pty.destroy();
+	if (recorder != null)
+	{
+	    terminal.setRecorder(null);
+	    try {
+		recorder.close();
+	    }
+	    catch(IOException e)
+	    {
+		log.error("Unable to close the recording " + recorder.getFile().getAbsolutePath(), e);
+	    }
+	}
 	super.closeApp();
     }
+
+    //Setting the window size of the PTY makes the kernel send SIGWINCH to the foreground process group
+    private final class PtyConnection implements Terminal.Connection
+    {
+	@Override public InputStream getInputStream()
+	{
+	    return pty.getInputStream();
+	}
+	@Override public OutputStream getOutputStream()
+	{
+	    return pty.getOutputStream();
+	}
+	@Override public void setWinSize(int rows, int cols)
+	{
+	    if (!pty.isRunning())
+		return;
+	    log.trace("Setting the terminal size to {}x{}", cols, rows);
+	    pty.setWinSize(new WinSize(cols, rows));
+	}
+	@Override public boolean isAlive()
+	{
+	    return pty.isRunning();
+	}
+	@Override public void close()
+	{
+	    pty.hangup();
+	    pty.destroy();
+	}
+    }
 }
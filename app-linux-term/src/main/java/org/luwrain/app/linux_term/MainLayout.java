@@ -11,23 +11,27 @@ import org.luwrain.core.events.*;
 import org.luwrain.controls.*;
 import org.luwrain.util.*;
 import org.luwrain.app.base.*;
+import org.luwrain.linux.term.*;
 
-final class MainLayout extends LayoutBase
+final class MainLayout extends LayoutBase implements Terminal.Listener
 {
     static private final Logger log = LogManager.getLogger();
+    static private final int MIN_ROWS = 2, MIN_COLS = 10;
     
     private final App app;
-    private final TermText termText = new TermText(25, 80);
-    private final TermInterpreter term ;
+    private final Terminal term;
+    private final TermText termText;
     private final NavigationArea termArea;
+    private String title = "";
     private List<String> lines = new ArrayList<>();
     private int oldHotPointX = -1;
     private int oldHotPointY = -1;
 
-    MainLayout(App app)
+    MainLayout(App app, Terminal term)
     {
 	this.app = app;
-	this.term = new TermInterpreter(app.getLuwrain(), termText);
+	this.term = term;
+	this.termText = term.getText();
 	this.termArea = new NavigationArea(new DefaultControlContext(app.getLuwrain())){
 		@Override public boolean onInputEvent(InputEvent event)
 		{
@@ -59,6 +63,8 @@ final class MainLayout extends LayoutBase
 			case CLOSE:
 			    			    app.closeApp();
 			    return true;
+			case CLIPBOARD_PASTE:
+			    return app.paste(app.getLuwrain().getClipboard().getString("\n"));
 			}
 		    if (app.onSystemEvent(this, event))
 			return true;
@@ -78,13 +84,14 @@ final class MainLayout extends LayoutBase
 		}
 		@Override public String getAreaName()
 		{
-		    return app.getStrings().areaName();
+		    return !title.isEmpty()?title:app.getStrings().areaName();
 		}
 	    };
     }
 
     private boolean onInputEvent(InputEvent event)
     {
+	checkSize();
 			    if (event.isSpecial() && !event.isModified())
 			switch(event.getSpecial())
 			{
@@ -101,17 +108,17 @@ app.sendChar('\t');
 			    app.closeApp();
 			    return true;
 			    			    		    			case 			    ALTERNATIVE_ARROW_UP:
-											    														    app.sendChar(new byte[]{ '\033', '[', 'A' });
+											    														    sendCursorKey('A');
 																									    			    return true;
 																												    			    			    		    			case 			    ALTERNATIVE_ARROW_DOWN:
-											    														    app.sendChar(new byte[]{ '\033', '[', 'B' });
+											    														    sendCursorKey('B');
 																									    			    return true;
 
 			    			    			    		    			case 			    ALTERNATIVE_ARROW_LEFT:
-														    app.sendChar(new byte[]{ '\033', '[', 'D' });
+														    sendCursorKey('D');
 			    return true;
 			    			    			    			    		    			case 			    ALTERNATIVE_ARROW_RIGHT:
-														    app.sendChar(new byte[]{ '\033', '[', 'C' });
+														    sendCursorKey('C');
 			    return true;
 
 			}
@@ -130,6 +137,12 @@ app.sendChar('\t');
 		    return false;
     }
 
+    //The cursor keys send ESC O instead of CSI in the application mode
+    private void sendCursorKey(char key)
+    {
+	app.sendChar(new byte[]{ '\033', (byte)(term.isAppCursorKeys()?'O':'['), (byte)key });
+    }
+
     void update(char ch)
     {
 		    /*
@@ -159,19 +172,77 @@ app.sendChar('\t');
 	    */
 	    }
 
-    //Receives new term text for processing
-    void termText(String text)
+    @Override public void onUpdate(Terminal terminal, List<ScreenDiff.Change> changes, boolean bell)
     {
-	final var p = new Parser();
-	final var cmd = p.parse(text);
-	for(var i: cmd)
+	checkSize();
+	if (!term.getTitle().equals(title))
 	{
-	    if (i instanceof Parser.AnsiCommand)
-	    log.trace(i.toString());
-	    term.onCommand(i);
+	    title = term.getTitle();
+	    app.getLuwrain().onAreaNewName(termArea);
 	}
+	if (!changes.isEmpty())
+	    app.getLuwrain().onAreaNewContent(termArea);
 	termArea.setHotPoint(termText.getHotPointX(), termText.getHotPointY());
-	term.speak();	
+	speak(changes, bell);
+    }
+
+    @Override public void onClose(Terminal terminal, Throwable error)
+    {
+	if (error != null)
+	    app.crash(error);
+    }
+
+    /**
+     * Speaks the changes of the screen. The lines only moved by scrolling
+     * and the parts of the screen redrawn with the same content are not
+     * spoken.
+     */
+    private void speak(List<ScreenDiff.Change> changes, boolean bell)
+    {
+	final StringBuilder speaking = new StringBuilder();
+	for(ScreenDiff.Change c: changes)
+	{
+	    final String t = c.text.trim();
+	    if (t.isEmpty())
+		continue;
+	    if (speaking.length()> 0)
+		speaking.append(' ');
+	    speaking.append(t);
+	}
+	final var text = new String(speaking);
+	if (text.trim().isEmpty() && !bell)
+	    return;
+	if (bell)
+	    		app.getLuwrain().playSound(Sounds.TERM_BELL);
+	final StringBuilder str = new StringBuilder();
+	for(int i = 0;i < text.length();i++)
+	{
+	    final char ch = text.charAt(i);
+	    if (ch < 32)
+		str.append(" "); else
+	    str.append(ch);
+	}
+	final String toSpeak = new String(str).trim();
+	if (toSpeak.isEmpty())
+	    return;
+	if (toSpeak.length() == 1)
+	    app.getLuwrain().speakLetter(toSpeak.charAt(0)); else
+	    app.getLuwrain().speak(app.getLuwrain().getSpeakableText(toSpeak, Luwrain.SpeakableTextType.PROGRAMMING));
+    }
+
+    /**
+     * Resizes the terminal to the visible size of the area, if it has
+     * changed. Luwrain has no notification about the change of the area
+     * size, so it's checked on every output and on every keystroke.
+     */
+    private void checkSize()
+    {
+	final int
+	rows = app.getLuwrain().getAreaVisibleHeight(termArea),
+	cols = app.getLuwrain().getAreaVisibleWidth(termArea);
+	if (rows < MIN_ROWS || cols < MIN_COLS)
+	    return;
+	term.resize(rows, cols);
     }
 
     AreaLayout getLayout()
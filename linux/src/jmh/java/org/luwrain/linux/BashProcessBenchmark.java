@@ -0,0 +1,33 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The latency of running the process from its launch to the delivery of
+ * all its output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BashProcessBenchmark
+{
+    @Param({"true", "seq 1 1000"})
+    public String command;
+
+    @Benchmark public int spawn() throws IOException
+    {
+	final BashProcessOutput output = new BashProcessOutput();
+	final BashProcess p = new BashProcess(command, output);
+	p.run();
+	if (p.waitFor() != 0)
+	    throw new IllegalStateException("The process exited with the code " + String.valueOf(p.waitFor()));
+	return output.getOutput().size();
+    }
+}
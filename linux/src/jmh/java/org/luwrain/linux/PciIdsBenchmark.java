@@ -0,0 +1,103 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Loading of the PCI ids database and lookups in it. The database is
+ * generated with the size close to the real {@code pci.ids}, so the
+ * results don't depend on the version installed in the system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PciIdsBenchmark
+{
+    static private final int
+	VENDOR_COUNT = 2500,
+	DEVICES_PER_VENDOR = 10,
+	CLASS_COUNT = 20,
+	LOOKUP_COUNT = 1024;
+
+    private File file;
+    private PciIds ids;
+    private String[] vendorCodes, deviceCodes, classCodes;
+
+    @Setup(Level.Trial) public void setup() throws IOException
+    {
+	file = File.createTempFile("luwrain-pci-", ".ids");
+	try (final PrintWriter w = new PrintWriter(new FileWriter(file))) {
+	    w.println("# Generated for benchmarks");
+	    for(int i = 0;i < VENDOR_COUNT;i++)
+	    {
+		w.println(String.format("%04x  Vendor number %d", i, i));
+		for(int j = 0;j < DEVICES_PER_VENDOR;j++)
+		{
+		    w.println(String.format("\t%04x  Device number %d of the vendor %d", j, j, i));
+		    w.println(String.format("\t\t%04x %04x  Subsystem %d", i, j, j));
+		}
+	    }
+	    for(int i = 0;i < CLASS_COUNT;i++)
+	    {
+		w.println(String.format("C %02x  Class number %d", i, i));
+		w.println(String.format("\t00  Subclass of the class %d", i));
+	    }
+	}
+	ids = new PciIds();
+	ids.load(file);
+	final Random rand = new Random(1);
+	vendorCodes = new String[LOOKUP_COUNT];
+	deviceCodes = new String[LOOKUP_COUNT];
+	classCodes = new String[LOOKUP_COUNT];
+	for(int i = 0;i < LOOKUP_COUNT;i++)
+	{
+	    vendorCodes[i] = String.format("%04x", rand.nextInt(VENDOR_COUNT));
+	    deviceCodes[i] = String.format("%04x", rand.nextInt(DEVICES_PER_VENDOR));
+	    classCodes[i] = String.format("%02x0000", rand.nextInt(CLASS_COUNT));
+	}
+    }
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+	file.delete();
+    }
+
+    @Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS) public PciIds load()
+    {
+	final PciIds res = new PciIds();
+	res.load(file);
+	return res;
+    }
+
+    @Benchmark @OperationsPerInvocation(LOOKUP_COUNT) public int findVendor()
+    {
+	int res = 0;
+	for(String c: vendorCodes)
+	    if (ids.findVendor(c) != null)
+		res++;
+	return res;
+    }
+
+    @Benchmark @OperationsPerInvocation(LOOKUP_COUNT) public int findDevice()
+    {
+	int res = 0;
+	for(int i = 0;i < LOOKUP_COUNT;i++)
+	    if (ids.findDevice(vendorCodes[i], deviceCodes[i]) != null)
+		res++;
+	return res;
+    }
+
+    @Benchmark @OperationsPerInvocation(LOOKUP_COUNT) public int findClass()
+    {
+	int res = 0;
+	for(String c: classCodes)
+	    if (ids.findClass(c) != null)
+		res++;
+	return res;
+    }
+}
@@ -0,0 +1,59 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parsing of the terminfo description and the lookup of the key
+ * sequences. The description of the {@code linux} terminal is taken from
+ * the resources, so {@code infocmp} isn't called.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TermInfoBenchmark
+{
+    static private final String[] SEQS = new String[]{
+	"\033[A", "\033[B", "\033[C", "\033[D",
+	"\033[1~", "\033[4~", "\033[5~", "\033[6~",
+	"\033[[A", "\033[21~", "\033[24~", "\033[3~",
+	"\033[", "\033[1;31m", "\033[?", "\033O",
+    };
+
+    private String text;
+    private TermInfo termInfo;
+
+    @Setup(Level.Trial) public void setup() throws IOException
+    {
+	final StringBuilder b = new StringBuilder();
+	try (final BufferedReader r = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("linux.terminfo"), StandardCharsets.UTF_8))) {
+	    for(String line = r.readLine();line != null;line = r.readLine())
+		if (!line.isEmpty() && !line.startsWith("#"))
+		    b.append(line);
+	}
+	text = new String(b);
+	termInfo = new TermInfo(text);
+	termInfo.read();
+    }
+
+    @Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS) public TermInfo read()
+    {
+	final TermInfo res = new TermInfo(text);
+	res.read();
+	return res;
+    }
+
+    @Benchmark @OperationsPerInvocation(16) public int find()
+    {
+	int res = 0;
+	for(String s: SEQS)
+	    if (termInfo.find(s) != null)
+		res++;
+	return res;
+    }
+}
@@ -0,0 +1,47 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parsing of the {@code nmcli -m multiline device wifi list} output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NmCliBenchmark
+{
+    @Param({"10", "200"})
+    public int networkCount;
+
+    private NmCli nmCli;
+
+    @Setup(Level.Trial) public void setup()
+    {
+	final List<String> lines = new ArrayList<>();
+	for(int i = 0;i < networkCount;i++)
+	{
+	    lines.add("IN-USE:                                 " + (i == 0?"*":""));
+	    lines.add(String.format("BSSID:                                  00:11:22:33:%02X:%02X", i / 256, i % 256));
+	    lines.add("SSID:                                   Network " + String.valueOf(i));
+	    lines.add("MODE:                                   Infra");
+	    lines.add("CHAN:                                   " + String.valueOf(1 + i % 13));
+	    lines.add("RATE:                                   270 Mbit/s");
+	    lines.add("SIGNAL:                                 " + String.valueOf(i % 100));
+	    lines.add("BARS:                                   ▂▄▆_");
+	    lines.add("SECURITY:                               WPA2");
+	}
+	final String[] output = lines.toArray(new String[lines.size()]);
+	nmCli = new NmCli((args)->output);
+    }
+
+    @Benchmark public int scan() throws IOException
+    {
+	return nmCli.scan().length;
+    }
+}
@@ -0,0 +1,60 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Processing of the {@code udisksctl monitor} output: the devices
+ * appearing in the system and the changes of their properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UdisksCliMonitorBenchmark
+{
+    static private final int DEVICE_COUNT = 16;
+
+    private String[] lines;
+
+    @Setup(Level.Trial) public void setup()
+    {
+	final List<String> res = new ArrayList<>();
+	for(int i = 0;i < DEVICE_COUNT;i++)
+	{
+	    final String
+	    drive = "/org/freedesktop/UDisks2/drives/Flash_Disk_" + String.valueOf(i),
+	    block = "/org/freedesktop/UDisks2/block_devices/sd" + (char)('a' + i) + "1";
+	    res.add("12:00:00.000: Added " + drive);
+	    res.add("  org.freedesktop.UDisks2.Drive:");
+	    res.add("    Ejectable:                  true");
+	    res.add("    Model:                      Flash Disk");
+	    res.add("    Removable:                  true");
+	    res.add("    Size:                       16008609792");
+	    res.add("    Vendor:                     Generic");
+	    res.add("12:00:00.010: Added " + block);
+	    res.add("  org.freedesktop.UDisks2.Block:");
+	    res.add("    Device:                     /dev/sd" + (char)('a' + i) + "1");
+	    res.add("    Drive:                      '" + drive + "'");
+	    res.add("    IdType:                     vfat");
+	    res.add("    Size:                       16007561216");
+	    res.add("  org.freedesktop.UDisks2.Filesystem:");
+	    res.add("    MountPoints:");
+	    res.add("12:00:01.000: " + block + ": org.freedesktop.UDisks2.Filesystem: Properties Changed");
+	    res.add("  MountPoints:                   /media/flash" + String.valueOf(i));
+	}
+	lines = res.toArray(new String[res.size()]);
+    }
+
+    @Benchmark public UdisksCliMonitor onOutputLine()
+    {
+	final UdisksCliMonitor m = new UdisksCliMonitor();
+	for(String l: lines)
+	    m.onOutputLine(l);
+	m.flush();
+	return m;
+    }
+}
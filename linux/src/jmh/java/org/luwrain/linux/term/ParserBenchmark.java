@@ -0,0 +1,70 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parsing of the terminal output of different kinds: the plain text, the
+ * coloured listings and the full-screen applications moving the cursor.
+ * The throughput is measured in bytes of the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark
+{
+    static private final int
+	SIZE = 64 * 1024,
+	CHUNK_SIZE = 4096;
+
+    @Param({"plain", "sgr", "cursor"})
+    public String kind;
+
+    private String input;
+    private char[] chars;
+    private final Parser parser = new Parser();
+
+    @Setup(Level.Trial) public void setup()
+    {
+	final Random rand = new Random(1);
+	final StringBuilder b = new StringBuilder();
+	while (b.length() < SIZE)
+	    switch(kind)
+	    {
+	    case "plain":
+		b.append("drwxr-xr-x  2 user user  4096 Jan  1 12:00 directory").append(String.valueOf(rand.nextInt(1000))).append("\r\n");
+		break;
+	    case "sgr":
+		b.append("\033[0m\033[01;34mdirectory").append(String.valueOf(rand.nextInt(1000))).append("\033[0m  ")
+		.append("\033[01;32mscript.sh\033[0m  file.txt\r\n");
+		break;
+	    case "cursor":
+		b.append("\033[").append(String.valueOf(1 + rand.nextInt(24))).append(";").append(String.valueOf(1 + rand.nextInt(80))).append("H")
+		.append("\033[K\033[7m status \033[27m\033[?25l")
+		.append("\033[2J\033[H\033[1;24r\033[?1049h text\033[?1049l");
+		break;
+	    default:
+		throw new IllegalArgumentException(kind);
+	    }
+	input = new String(b);
+	chars = input.toCharArray();
+    }
+
+    @Benchmark @OperationsPerInvocation(SIZE) public List<Parser.Output> parse()
+    {
+	return new Parser().parse(input);
+    }
+
+    //The output is delivered in chunks to the same parser, as the terminal does
+    @Benchmark @OperationsPerInvocation(SIZE) public int parseChunks()
+    {
+	final int[] count = new int[1];
+	for(int i = 0;i < chars.length;i += CHUNK_SIZE)
+	    parser.parse(chars, i, Math.min(CHUNK_SIZE, chars.length - i), o->count[0]++);
+	return count[0];
+    }
+}
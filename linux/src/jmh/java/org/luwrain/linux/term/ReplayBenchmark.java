@@ -0,0 +1,70 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Replaying of the terminal session through the parser and the screen,
+ * the throughput is also measured in characters of the output. The
+ * recording is taken from the file given by the "file" parameter, the
+ * synthetic session with the shell output and a full-screen application
+ * is made if it's empty.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReplayBenchmark
+{
+    static private final int EVENTS = 2000;
+
+    @Param({""})
+    public String file;
+
+    private Replay replay;
+
+    @Setup(Level.Trial) public void setup() throws IOException
+    {
+	if (!file.isEmpty())
+	{
+	    replay = Replay.read(new File(file));
+	    return;
+	}
+	final File f = File.createTempFile("luwrain-replay-", ".cast");
+	f.deleteOnExit();
+	final Random rand = new Random(1);
+	try (final Recorder r = new Recorder(f, 24, 80)) {
+	    for(int i = 0;i < EVENTS;i++)
+		if (i % 2 == 0)
+		    r.output("\033[0m\033[01;34mdirectory" + String.valueOf(rand.nextInt(1000)) + "\033[0m  file.txt\r\n"); else
+		    r.output("\033[" + String.valueOf(1 + rand.nextInt(24)) + ";" + String.valueOf(1 + rand.nextInt(80)) + "H\033[K\033[7m status \033[27m" +
+			     "\033[?1049h\033[2J\033[H text\033[L\033[2P\033[?1049l");
+	}
+	replay = Replay.read(f);
+    }
+
+    /**
+     * The replayed characters and events reported along with the
+     * operations, so their rates are given in the results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    static public class Counters
+    {
+	public long characters;
+	public long events;
+    }
+
+    @Benchmark public TermText replay(Counters counters)
+    {
+	replay.seek(-1);
+	replay.playToEnd();
+	counters.characters += replay.getOutputLength();
+	counters.events += replay.getEventCount();
+	return replay.getText();
+    }
+}
@@ -0,0 +1,56 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The output of characters to the screen, scrolling and resizing of the
+ * screen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TermTextBenchmark
+{
+    static private final int
+	ROWS = 24,
+	COLS = 80;
+
+    private TermText text;
+
+    @Setup(Level.Iteration) public void setup()
+    {
+	text = new TermText(ROWS, COLS);
+	for(int i = 0;i < ROWS;i++)
+	{
+	    text.setCursorPos(i, 0);
+	    for(int j = 0;j < COLS;j++)
+		text.writeChar((char)('a' + (i + j) % 26));
+	}
+    }
+
+    @Benchmark @OperationsPerInvocation(COLS) public TermText writeChar()
+    {
+	text.cursorHome();
+	for(int i = 0;i < COLS;i++)
+	    text.writeChar((char)('A' + i % 26));
+	return text;
+    }
+
+    @Benchmark public TermText scrollUp()
+    {
+	text.scrollUp(1);
+	return text;
+    }
+
+    //The window dragged back and forth
+    @Benchmark @OperationsPerInvocation(2) public TermText resize()
+    {
+	text.resize(ROWS / 2, COLS + 40);
+	text.resize(ROWS, COLS);
+	return text;
+    }
+}
@@ -4,8 +4,10 @@
 package org.luwrain.linux;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.io.*;
+import java.nio.file.*;
 import org.apache.logging.log4j.*;
 
 import org.luwrain.core.*;
@@ -25,26 +27,57 @@ public final class BashProcess
 	void onFinishing(int exitCode);
     }
 
+    /**
+     * Receives the output by chunks of complete lines. The chunks are reused
+     * and valid only until the methods return, so the listener scanning the
+     * lines in place doesn't cause any allocation per line.
+     */
+    public interface ChunkListener
+    {
+	void onOutputChunk(LineChunk chunk);
+	void onErrorChunk(LineChunk chunk);
+	void onFinishing(int exitCode);
+    }
+
     private final String command;
     private final String dir;
     private final Set<Flags> flags;
-    private final Listener listener;
+    private final ChunkListener listener;
+    private final ProcessEngine engine;
     private Process p = null;
-    private int pid = -1;
+    //Stopped before launching
+    private boolean stopped = false;
     private int exitCode = -1;
     private final AtomicBoolean done = new AtomicBoolean(false);
     private final AtomicBoolean doneOutput = new AtomicBoolean(false);
     private final AtomicBoolean doneErrors = new AtomicBoolean(false);
 
-    public BashProcess(String command, String dir, Set<Flags> flags, Listener listener)
+    public BashProcess(String command, String dir, Set<Flags> flags, ChunkListener listener, ProcessEngine engine)
     {
 	NullCheck.notEmpty(command, "command");
 	requireNonNull(flags, "flags can't be null");
 	requireNonNull(listener, "listener can't be null");
+	requireNonNull(engine, "engine can't be null");
 	this.command = command;
 	this.dir = dir != null?dir:"/";
 	this.flags = flags;
 	this.listener = listener;
+	this.engine = engine;
+    }
+
+    public BashProcess(String command, String dir, Set<Flags> flags, ChunkListener listener)
+    {
+	this(command, dir, flags, listener, ProcessEngine.getDefault());
+    }
+
+    public BashProcess(String command, String dir, Set<Flags> flags, Listener listener, ProcessEngine engine)
+    {
+	this(command, dir, flags, new LineAdapter(listener), engine);
+    }
+
+    public BashProcess(String command, String dir, Set<Flags> flags, Listener listener)
+    {
+	this(command, dir, flags, new LineAdapter(listener), ProcessEngine.getDefault());
     }
 
     public BashProcess(String command, Set<Flags> flags, Listener listener)
@@ -72,51 +105,130 @@ public final class BashProcess
     {
 	final String[] cmd = prepareCmd();
 	log.debug("Running bash process: " + Arrays.toString(cmd));
-	this.p = new ProcessBuilder(cmd).start();
+	synchronized(this) {
+	    if (stopped)
+		throw new IOException("The bash process '" + command + "' is stopped before launching");
+	    try {
+		this.p = new ProcessBuilder(cmd).start();
+	    }
+	    catch(IOException e)
+	    {
+		markFailed();
+		throw e;
+	    }
+	}
+	final var exit = engine.register(p);
 	p.getOutputStream().close();
-	final BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
-	final String pidStr = r.readLine();
-	if (pidStr == null)
-	    throw new IOException("Bash process didn't return its pid");
 	try {
-	    this.pid = Integer.parseInt(pidStr);
+	    readStream(p.getInputStream(), false, doneOutput);
+	    readStream(p.getErrorStream(), true, doneErrors);
 	}
-	catch(NumberFormatException e)
+	catch(RejectedExecutionException e)
 	{
-	    log.error(e);
-	    throw new IOException("'" + pidStr + "' is not a valid pid");
+	    p.destroyForcibly();
+	    markFailed();
+	    throw new IOException("Unable to start reading the output of the bash process: " + engine.toString(), e);
 	}
-	readOutput(r);
-	readErrors(new BufferedReader(new InputStreamReader(p.getErrorStream())));
-	new Thread(()->{
+	exit.thenRun(()->{
 		try {
-		    p.waitFor();
-		    this.exitCode = p.exitValue();
-		    synchronized(done){
-			done.set(true);
-			done.notifyAll();
-		    }
-		    listener.onFinishing(exitCode);
+		    engine.execute(this::onExit);
 		}
-		catch(InterruptedException e)
+		catch(RejectedExecutionException e)
 		{
-		    Thread.currentThread().interrupt();
+		    onExit();
 		}
-	}).start();
+	    });
+    }
+
+    //Releases waitFor() callers if the process can't be launched
+    private void markFailed()
+    {
+	for(AtomicBoolean flag: new AtomicBoolean[]{done, doneOutput, doneErrors})
+	    synchronized(flag) {
+		flag.set(true);
+		flag.notifyAll();
+	    }
+    }
+
+    private void onExit()
+    {
+	this.exitCode = p.exitValue();
+	synchronized(done){
+	    done.set(true);
+	    done.notifyAll();
+	}
+	listener.onFinishing(exitCode);
     }
 
+    /**
+     * Kills the whole process group of the command. The group is looked up
+     * through the process handles, so for the processes of the current user
+     * the signal is sent directly without any additional processes. The
+     * processes launched with {@code Flags.ROOT} can be killed only through
+     * {@code sudo}, it takes exactly one extra process in this case. The
+     * process not launched yet won't be launched at all.
+     */
     public void stop()
     {
-	try {
-	    if (flags.contains(Flags.ROOT))
-		new ProcessBuilder("sudo", "bash", "-c", "kill -KILL -" + String.valueOf(pid)).start(); else
-	    new ProcessBuilder("bash", "-c", "kill -KILL -" + String.valueOf(pid)).start();
+	synchronized(this) {
+	    if (p == null)
+	    {
+		stopped = true;
+		markFailed();
+		return;
+	    }
 	}
-	catch(IOException e)
+	final long pgid = findProcessGroup();
+	if (flags.contains(Flags.ROOT))
 	{
-	    log.error(e);
-	    throw new RuntimeException(e);
+	    if (pgid < 0)
+	    {
+		//sudo relays SIGTERM to the command it runs
+		p.destroy();
+		return;
+	    }
+	    try {
+		new ProcessBuilder("sudo", "kill", "-KILL", "--", "-" + String.valueOf(pgid)).start();
+	    }
+	    catch(IOException e)
+	    {
+		log.error(e);
+		throw new RuntimeException(e);
+	    }
+	    return;
 	}
+	if (pgid > 0 && Linux.syscalls.killpg((int)pgid, Syscalls.SIGKILL) == 0)
+	    return;
+	log.debug("Unable to kill the process group of '" + command + "', killing the processes one by one");
+	p.descendants().forEach(ProcessHandle::destroyForcibly);
+	p.destroyForcibly();
+    }
+
+    /**
+     * Returns the pid of the launched process. If the process was launched
+     * with {@code Flags.ROOT}, it is the pid of {@code sudo}.
+     *
+     * @return The pid of the process or -1, if the process isn't launched
+     */
+    public long getPid()
+    {
+	return p != null?p.pid():-1;
+    }
+
+    /**
+     * Looks for the leader of the process group created by {@code setsid}.
+     * Normally it is the launched process itself, since {@code setsid}
+     * doesn't fork, if it isn't a group leader, but with {@code sudo} the
+     * leader is one of its descendants.
+     */
+    private long findProcessGroup()
+    {
+	if (getProcessGroup(p.pid()) == p.pid())
+	    return p.pid();
+	return p.descendants()
+	.mapToLong(ProcessHandle::pid)
+	.filter(pid -> getProcessGroup(pid) == pid)
+	.findFirst().orElse(-1);
     }
 
     public int waitFor()
@@ -151,68 +263,50 @@ public final class BashProcess
 		"setsid",
 		"/bin/bash",
 		"-c",
-		"echo $$; cd " + escape(dir) + "; " + this.command
+		"cd " + escape(dir) + "; " + this.command
 	    };
 	return new String[]{
 	    	    "setsid",
 	    "/bin/bash",
 	    "-c",
-	    "echo $$; cd " + escape(dir) + "; " + this.command
+	    "cd " + escape(dir) + "; " + this.command
 	};
     }
 
-    private void readOutput(BufferedReader r)
+    private void readStream(InputStream is, boolean errors, AtomicBoolean doneFlag)
     {
-	new Thread(()->{
+	engine.execute(()->{
 		try {
 		    try {
-			String line = r.readLine();
-			while (line != null)
-			{
-			    listener.onOutputLine(line);
-			    line = r.readLine();
-			}
+			new LineChunkReader(is).read(errors?listener::onErrorChunk:listener::onOutputChunk);
 		    }
 		    finally {
-			r.close();
-			synchronized(doneOutput) {
-			    doneOutput.set(true);
-			    doneOutput.notifyAll();
+			is.close();
+			synchronized(doneFlag) {
+			    doneFlag.set(true);
+			    doneFlag.notifyAll();
 			}
 		    }
 		}
 		catch(IOException e)
 		{
-		    log.error("Unable to read the output of the bash process '" + command, e);
+		    log.error("Unable to read the " + (errors?"errors":"output") + " of the bash process '" + command + "'", e);
 		}
-	}).start();
+	    });
     }
 
-    private void readErrors(BufferedReader r)
+    static long getProcessGroup(long pid)
     {
-	new Thread(()->{
-		try {
-		    try {
-			String line = r.readLine();
-			while (line != null)
-			{
-			    listener.onErrorLine(line);
-			    line = r.readLine();
-			}
-		    }
-		    finally {
-			r.close();
-			synchronized(doneErrors) {
-			    doneErrors.set(true);
-			    doneErrors.notifyAll();
-			}
-		    }
-		}
-		catch(IOException e)
-		{
-		    log.error("Unable to read the errors of the bash process '" + command + "': ");
-		}
-	}).start();
+	try {
+	    final String stat = new String(Files.readAllBytes(Paths.get("/proc", String.valueOf(pid), "stat")));
+	    //The second field is the command name in parentheses which can contain spaces
+	    final String[] fields = stat.substring(stat.lastIndexOf(')') + 1).trim().split(" ");
+	    return fields.length > 2?Long.parseLong(fields[2]):-1;
+	}
+	catch(IOException | NumberFormatException e)
+	{
+	    return -1;
+	}
     }
 
     static public String escape(String value)
@@ -220,6 +314,26 @@ public final class BashProcess
 	return "'" + value.replaceAll("'", "'\\\\''") + "'";
     }
 
+    /**
+     * Delivers the output chunks to the line listener line by line.
+     */
+    static public final class LineAdapter implements ChunkListener
+    {
+	private final Listener listener;
+	public LineAdapter(Listener listener) { this.listener = requireNonNull(listener, "listener can't be null"); }
+	@Override public void onOutputChunk(LineChunk chunk)
+	{
+	    for(int i = 0;i < chunk.getLineCount();i++)
+		listener.onOutputLine(chunk.getLine(i));
+	}
+	@Override public void onErrorChunk(LineChunk chunk)
+	{
+	    for(int i = 0;i < chunk.getLineCount();i++)
+		listener.onErrorLine(chunk.getLine(i));
+	}
+	@Override public void onFinishing(int exitCode) { listener.onFinishing(exitCode); }
+    }
+
     static public final class EmptyListener implements Listener
     {
 	@Override public void onOutputLine(String line) {}
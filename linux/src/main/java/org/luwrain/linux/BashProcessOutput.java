@@ -5,19 +5,32 @@ package org.luwrain.linux;
 
 import java.util.*;
 
+import static java.util.Objects.*;
+
 public class BashProcessOutput implements BashProcess.Listener
 {
-    protected final List<String>
-	output = new ArrayList<>(),
-	errors = new ArrayList<>();
+    protected final LineBuffer output, errors;
 
     protected final boolean errToOutput, skipEmpty;
     protected int exitCode = -1;
 
-    public BashProcessOutput(boolean errToOutput, boolean skipEmpty)
+    /**
+     * @param errToOutput Put the error lines to the output
+     * @param skipEmpty Ignore empty lines
+     * @param output The storage of the output lines
+     * @param errors The storage of the error lines
+     */
+    public BashProcessOutput(boolean errToOutput, boolean skipEmpty, LineBuffer output, LineBuffer errors)
     {
 	this.errToOutput = errToOutput;
 	this.skipEmpty = skipEmpty;
+	this.output = requireNonNull(output, "output can't be null");
+	this.errors = requireNonNull(errors, "errors can't be null");
+    }
+
+    public BashProcessOutput(boolean errToOutput, boolean skipEmpty)
+    {
+	this(errToOutput, skipEmpty, new LineBuffer(), new LineBuffer());
     }
 
     public BashProcessOutput(boolean errToOutput)
@@ -53,22 +66,22 @@ public class BashProcessOutput implements BashProcess.Listener
 
     public List<String> getOutput()
     {
-	return Collections.unmodifiableList(output);
+	return output.asList();
     }
 
-    public synchronized String[] getOutputAsArray()
+    public String[] getOutputAsArray()
     {
-	return output.toArray(new String[output.size()]);
+	return output.toArray();
     }
 
         public List<String> getErrors()
     {
-		return Collections.unmodifiableList(errors);
+		return errors.asList();
     }
 
-    public synchronized String[] getErrorsAsArray()
+    public String[] getErrorsAsArray()
     {
-		return errors.toArray(new String[errors.size()]);
+		return errors.toArray();
     }
 
     public boolean isFinished()
@@ -0,0 +1,195 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.io.*;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The immutable trie of the byte sequences, each mapped to the integer
+ * value. The nodes are stored in the flat arrays: the edges of every node
+ * are contiguous and sorted by the byte, so the lookup costs one binary
+ * search over the few edges of the node per byte of the sequence. The
+ * trie tells the complete sequence from its prefix, so the caller knows
+ * whether to wait for more bytes.
+ */
+final class ByteTrie
+{
+    /** The sequence is neither in the trie nor a prefix of any sequence. */
+    static final int NO_MATCH = -1;
+    /** The sequence is the prefix of some sequences in the trie. */
+    static final int PREFIX = -2;
+
+    //The edges of the node i are in the range [edgeStart[i], edgeStart[i + 1])
+    private final int[] edgeStart;
+    private final byte[] labels;
+    private final int[] targets;
+    //The value of the sequence ending at the node, NO_MATCH if there is no such sequence
+    private final int[] values;
+
+    private ByteTrie(int[] edgeStart, byte[] labels, int[] targets, int[] values)
+    {
+	this.edgeStart = edgeStart;
+	this.labels = labels;
+	this.targets = targets;
+	this.values = values;
+    }
+
+    /**
+     * Looks up the sequence of the characters, treating every character as
+     * the byte. The characters above 255 never match.
+     *
+     * @return The value of the sequence, {@link #PREFIX} or {@link #NO_MATCH}
+     */
+    int find(CharSequence seq)
+    {
+	int node = 0;
+	for(int i = 0;i < seq.length();i++)
+	{
+	    final char ch = seq.charAt(i);
+	    if (ch > 255)
+		return NO_MATCH;
+	    node = child(node, ch);
+	    if (node < 0)
+		return NO_MATCH;
+	}
+	if (values[node] >= 0)
+	    return values[node];
+	return edgeStart[node + 1] > edgeStart[node]?PREFIX:NO_MATCH;
+    }
+
+    int getNodeCount()
+    {
+	return values.length;
+    }
+
+    private int child(int node, int b)
+    {
+	int lo = edgeStart[node], hi = edgeStart[node + 1] - 1;
+	while (lo <= hi)
+	{
+	    final int mid = (lo + hi) >>> 1;
+	    final int label = labels[mid] & 0xff;
+	    if (label < b)
+		lo = mid + 1; else
+		if (label > b)
+		    hi = mid - 1; else
+		    return targets[mid];
+	}
+	return -1;
+    }
+
+    void write(DataOutput out) throws IOException
+    {
+	out.writeInt(values.length);
+	for(int i = 0;i < values.length;i++)
+	{
+	    out.writeInt(values[i]);
+	    out.writeInt(edgeStart[i]);
+	}
+	out.writeInt(edgeStart[values.length]);
+	out.write(labels);
+	for(int t: targets)
+	    out.writeInt(t);
+    }
+
+    /**
+     * Reads the trie written by {@link #write(DataOutput)}, checking its
+     * consistency.
+     *
+     * @param maxBytes The number of bytes available in the input, to refuse the sizes not fitting there
+     * @param valueCount The upper bound of the values
+     */
+    static ByteTrie read(DataInput in, long maxBytes, int valueCount) throws IOException
+    {
+	final int nodeCount = in.readInt();
+	//Every node takes at least 8 bytes
+	if (nodeCount <= 0 || nodeCount > maxBytes / 8)
+	    throw new IOException("Invalid number of the trie nodes: " + String.valueOf(nodeCount));
+	final int[] values = new int[nodeCount], edgeStart = new int[nodeCount + 1];
+	for(int i = 0;i < nodeCount;i++)
+	{
+	    values[i] = in.readInt();
+	    if (values[i] != NO_MATCH && (values[i] < 0 || values[i] >= valueCount))
+		throw new IOException("Invalid value in the trie: " + String.valueOf(values[i]));
+	    edgeStart[i] = in.readInt();
+	}
+	final int edgeCount = in.readInt();
+	edgeStart[nodeCount] = edgeCount;
+	if (edgeCount != nodeCount - 1)
+	    throw new IOException("Invalid number of the trie edges: " + String.valueOf(edgeCount));
+	for(int i = 0;i < nodeCount;i++)
+	    if (edgeStart[i] < 0 || edgeStart[i] > edgeStart[i + 1])
+		throw new IOException("Corrupted trie");
+	final byte[] labels = new byte[edgeCount];
+	in.readFully(labels);
+	final int[] targets = new int[edgeCount];
+	for(int i = 0;i < edgeCount;i++)
+	{
+	    targets[i] = in.readInt();
+	    if (targets[i] <= 0 || targets[i] >= nodeCount)
+		throw new IOException("Corrupted trie");
+	}
+	return new ByteTrie(edgeStart, labels, targets, values);
+    }
+
+    static final class Builder
+    {
+	static private final class Node
+	{
+	    final TreeMap<Integer, Node> children = new TreeMap<>();
+	    int value = NO_MATCH;
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * Adds the sequence, replacing the value of the same sequence added
+	 * before.
+	 *
+	 * @param seq The sequence of the bytes
+	 * @param value The non-negative value
+	 */
+	Builder add(byte[] seq, int value)
+	{
+	    requireNonNull(seq, "seq can't be null");
+	    if (value < 0)
+		throw new IllegalArgumentException("value can't be negative");
+	    Node node = root;
+	    for(byte b: seq)
+		node = node.children.computeIfAbsent(Integer.valueOf(b & 0xff), k->new Node());
+	    node.value = value;
+	    return this;
+	}
+
+	//The nodes are numbered in the breadth-first order, so the edges of every node go contiguously
+	ByteTrie build()
+	{
+	    final List<Node> nodes = new ArrayList<>();
+	    nodes.add(root);
+	    for(int i = 0;i < nodes.size();i++)
+		nodes.addAll(nodes.get(i).children.values());
+	    final int count = nodes.size();
+	    final int[] edgeStart = new int[count + 1], values = new int[count], targets = new int[count - 1];
+	    final byte[] labels = new byte[count - 1];
+	    int edge = 0, next = 1;
+	    for(int i = 0;i < count;i++)
+	    {
+		final Node n = nodes.get(i);
+		values[i] = n.value;
+		edgeStart[i] = edge;
+		for(Map.Entry<Integer, Node> e: n.children.entrySet())
+		{
+		    labels[edge] = (byte)e.getKey().intValue();
+		    targets[edge] = next++;
+		    edge++;
+		}
+	    }
+	    edgeStart[count] = edge;
+	    return new ByteTrie(edgeStart, labels, targets, values);
+	}
+    }
+}
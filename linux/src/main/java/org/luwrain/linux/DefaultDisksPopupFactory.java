@@ -4,6 +4,7 @@
 package org.luwrain.linux;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import org.apache.logging.log4j.*;
@@ -18,93 +19,157 @@ public final class DefaultDisksPopupFactory implements DisksPopup.Factory
 {
     static private final Logger log = LogManager.getLogger();
 
-    private final UdisksCliMonitor monitor;
-    DefaultDisksPopupFactory(UdisksCliMonitor monitor) { this.monitor = monitor; }
+    //The time the popup waits for the operation before leaving it in background
+    static private final long WAIT_MILLIS = 1000;
+
+    private final UdisksMonitor monitor;
+    private final DiskOperations ops;
+    DefaultDisksPopupFactory(UdisksMonitor monitor, DiskOperations ops)
+    {
+	this.monitor = monitor;
+	this.ops = ops;
+    }
 
     @Override public DisksPopup.Disks newDisks(Luwrain luwrain)
     {
-	return new DisksImpl(monitor);
+	return new DisksImpl(luwrain, monitor, ops);
     }
 
     static final class DisksImpl implements DisksPopup.Disks
     {
-	final UdisksCliMonitor monitor;
-	DisksImpl(UdisksCliMonitor monitor) { this.monitor = requireNonNull(monitor, "monitor can't be null"); }
-	@Override public DisksPopup.Disk[] getDisks(Set<DisksPopup.Flags> flags)
+	final Luwrain luwrain;
+	final UdisksMonitor monitor;
+	final DiskOperations ops;
+	//The disks made of the snapshot with the version, reused while the snapshot stays the same
+	private long version = -1;
+	private DiskImpl[] disks = new DiskImpl[0];
+	DisksImpl(Luwrain luwrain, UdisksMonitor monitor, DiskOperations ops)
 	{
+	    this.luwrain = requireNonNull(luwrain, "luwrain can't be null");
+	    this.monitor = requireNonNull(monitor, "monitor can't be null");
+	    this.ops = requireNonNull(ops, "ops can't be null");
+	}
+	@Override public synchronized DisksPopup.Disk[] getDisks(Set<DisksPopup.Flags> flags)
+	{
+	    final DeviceSnapshot snapshot = monitor.getSnapshot();
+	    if (!snapshot.isChangedSince(version))
+		return disks.clone();
 	    final List<DiskImpl> res = new ArrayList<>();
-	    monitor.enumRemovableBlockDevices((m)->{
-		    final String
-		    obj = m.containsKey("obj")?m.get("obj").toString():"",
-		    device = m.containsKey("device")?m.get("device").toString():"",
-		    fsType = m.containsKey("fsType")?m.get("fsType").toString():"",
-		    mountPoints = m.containsKey("mountPoints")?m.get("mountPoints").toString():"";
-		    final boolean
-		    ejectable = m.containsKey("ejectable")?((Boolean)m.get("ejectable")).booleanValue():false,
-		    removable = m.containsKey("removable")?((Boolean)m.get("removable")).booleanValue():false;
-		    if (removable && !fsType.trim().isEmpty())
-			res.add(new DiskImpl(device, mountPoints));
-		});
-	    return res.toArray(new DisksPopup.Disk[res.size()]);
+	    for(Map<String, Object> m: snapshot.getDevices())
+	    {
+		final String
+		obj = m.containsKey("obj")?m.get("obj").toString():"",
+		device = m.containsKey("device")?m.get("device").toString():"",
+		fsType = m.containsKey("fsType")?m.get("fsType").toString():"",
+		mountPoints = m.containsKey("mountPoints")?m.get("mountPoints").toString():"";
+		final boolean
+		ejectable = m.containsKey("ejectable")?((Boolean)m.get("ejectable")).booleanValue():false,
+		removable = m.containsKey("removable")?((Boolean)m.get("removable")).booleanValue():false;
+		if (removable && !fsType.trim().isEmpty())
+		    res.add(new DiskImpl(luwrain, ops, device, mountPoints));
+	    }
+	    this.disks = res.toArray(new DiskImpl[res.size()]);
+	    this.version = snapshot.getVersion();
+	    return disks.clone();
 	}
     }
 
+    /**
+     * The disk of the popup. The operations go to {@link DiskOperations},
+     * and the popup waits for them only for {@link #WAIT_MILLIS}, so the
+     * slow drives don't freeze the interface. If the operation doesn't
+     * finish in this time, it's reported as not done and its result is
+     * announced on completion.
+     */
     static final class DiskImpl implements DisksPopup.Disk
     {
+	final Luwrain luwrain;
+	final DiskOperations ops;
 	final String
 	    title, device;
-	private String mountPoint = null;
-	DiskImpl(String device, String mountPoint)
+	private volatile String mountPoint = null;
+	DiskImpl(Luwrain luwrain, DiskOperations ops, String device, String mountPoint)
 	{
+	    this.luwrain = luwrain;
+	    this.ops = ops;
 	    this.title = device.startsWith("/dev/")?device.substring(5):device;
 	    this.device = device;
 	    this.mountPoint = mountPoint;
 	}
 	@Override public boolean isActivated()
 	{
-	    return mountPoint != null && !mountPoint.trim().isEmpty();
+	    final String m = mountPoint;
+	    return m != null && !m.trim().isEmpty();
 	}
+	/**
+	 * Returns null if the mounting takes too long, the mount point is
+	 * announced later. The null is also returned if the mount point isn't
+	 * known, as it was with the synchronous mounting.
+	 */
 	@Override public File activate(Set<DisksPopup.Flags> flags)
 	{
-	    if (mountPoint != null && !mountPoint.trim().isEmpty())
-		return new File(mountPoint);
-	    final UdisksCli u = new UdisksCli();
-	    try {
-		return u.mount(device);
-	    }
-	    catch(Throwable e)
-	    {
-		throw new RuntimeException(e);
-	    }
+	    final String m = mountPoint;
+	    if (m != null && !m.trim().isEmpty())
+		return new File(m);
+	    final CompletableFuture<File> f = ops.mount(device, null);
+	    if (!await(f))
+		return null;
+	    final File res = f.join();
+	    if (res != null)
+		mountPoint = res.getAbsolutePath();
+	    return res;
 	}
+	/** Returns false if the unmounting takes too long, its result is announced later. */
 	@Override public boolean deactivate(Set<DisksPopup.Flags> flags)
 	{
-	    final UdisksCli u = new UdisksCli();
+	    final CompletableFuture<File> f = ops.unmount(device, null);
+	    f.thenRun(()->{ mountPoint = null; });
+	    return await(f);
+	}
+	/** Returns false if the powering off takes too long, its result is announced later. */
+	@Override public boolean poweroff(Set<DisksPopup.Flags> flags)
+	{
+	    return await(ops.powerOff(device, null));
+	}
+	/**
+	 * Waits for the operation for {@link #WAIT_MILLIS}.
+	 *
+	 * @return True if the operation is finished, false if it goes on in background
+	 */
+	private boolean await(CompletableFuture<File> f)
+	{
 	    try {
-		u.unmount(device);
-		mountPoint = null;
+		f.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
 		return true;
 	    }
-	    catch(Throwable e)
+	    catch(ExecutionException e)
 	    {
-		log.error(e);
-		throw new RuntimeException(e);
+		log.error(e.getCause());
+		throw new RuntimeException(e.getCause());
 	    }
-	}
-
-@Override public boolean poweroff(Set<DisksPopup.Flags> flags)
-	{
-	    final UdisksCli u = new UdisksCli();
-	    try {
-		u.poweroff(device);
-		return true;
+	    catch(TimeoutException e)
+	    {
+		announceOnCompletion(f);
+		return false;
 	    }
-	    catch(Throwable e)
+	    catch(InterruptedException e)
 	    {
-		log.error(e);
-		throw new RuntimeException(e);
+		Thread.currentThread().interrupt();
+		announceOnCompletion(f);
+		return false;
 	    }
 	}
+	private void announceOnCompletion(CompletableFuture<File> f)
+	{
+	    f.whenComplete((res, ex)->luwrain.runUiSafely(()->{
+			if (ex != null)
+			{
+			    log.error(ex);
+			    luwrain.message(ex.getMessage(), Luwrain.MessageType.ERROR);
+			} else
+			    luwrain.message(res != null?res.getAbsolutePath():title, Luwrain.MessageType.DONE);
+		    }));
+	}
 
 	@Override public String toString()
 	{
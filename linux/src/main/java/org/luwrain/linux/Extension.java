@@ -12,6 +12,7 @@ import org.luwrain.core.*;
 import org.luwrain.script.core.*;
 import org.luwrain .script.*;
 import org.luwrain.linux.services.*;
+import org.luwrain.linux.lib.*;
 
 import static java.util.Objects.*;
 
@@ -21,6 +22,12 @@ public final class Extension extends EmptyExtension
     static private final String
 	LOG_COMPONENT = Linux.LOG_COMPONENT;
 
+    static private final String
+	PROP_DIR_APP_DATA = "luwrain.dir.appdata",
+	JOB_HISTORY_DIR = "linux-jobs",
+	TERMINFO_CACHE_FILE = "linux-terminfo.cache",
+	DISKS_CACHE_FILE = "linux-disks.cache";
+
     static private final String PREFIX_INPUT_POINTER = "--linux-input-pointer=";
     static private final String PREFIX_INPUT_FIFO = "--linux-input-fifo=";
 
@@ -28,32 +35,43 @@ public final class Extension extends EmptyExtension
 
     private ScriptCore scriptCore = null;
     private TermInfo termInfo = null;
-    private UdisksCliMonitor udisksMonitor = null;
+    private JobHistory jobHistory = null;
+    private UdisksMonitor udisksMonitor = null;
+    private DiskOperations diskOperations = null;
     private PointerInputListening[] pointerInputs = null;
     private FifoInputListening[] fifoInputs = null;
 
     @Override public String init(Luwrain luwrain)
     {
 	loadScriptCore(luwrain);
+	final File appDataDir = luwrain.getFileProperty(PROP_DIR_APP_DATA);
 	try {
-	    this.termInfo = new TermInfo();
-	    this.termInfo.read();
+	    this.termInfo = TermInfo.load(appDataDir != null?new File(appDataDir, TERMINFO_CACHE_FILE):null);
 	}
 	catch(IOException e)
 	{
 	    Log.error(LOG_COMPONENT, "unable to load terminfo: " + e.getClass().getName() + ": " + e.getMessage());
 	    this.termInfo = null;
 	}
-	/*
+	if (appDataDir != null)
+	    try {
+		this.jobHistory = new JobHistory(new File(appDataDir, JOB_HISTORY_DIR));
+		SysJob.setHistory(jobHistory);
+	    }
+	    catch(IOException e)
+	    {
+		Log.error(LOG_COMPONENT, "unable to open the job history: " + e.getClass().getName() + ": " + e.getMessage());
+		this.jobHistory = null;
+	    }
 	try {
-	    	    udisksMonitor = new UdisksCliMonitor(luwrain);
+	    udisksMonitor = new UdisksDBusMonitor(luwrain, appDataDir != null?new File(appDataDir, DISKS_CACHE_FILE):null);
 	}
 	catch(IOException e)
 	{
-	    Log.info(LOG_COMPONENT, "no udisks monitor service, the process can't be launched");
+	    Log.info(LOG_COMPONENT, "no udisks monitor service: " + e.getClass().getName() + ": " + e.getMessage());
 	    udisksMonitor = null;
 	}
-	*/
+	this.diskOperations = new DiskOperations(new UdisksCli(), DiskOperations.DEFAULT_PARALLELISM);
 	final List<PointerInputListening> inputs = new ArrayList<>();
 	final List<FifoInputListening> fifos = new ArrayList<>();
 	/*
@@ -76,6 +94,13 @@ public final class Extension extends EmptyExtension
     {
 	if (udisksMonitor != null)
 	    udisksMonitor.close();
+	if (diskOperations != null)
+	    diskOperations.close();
+	if (jobHistory != null)
+	{
+	    SysJob.setHistory(null);
+	    jobHistory.close();
+	}
     }
 
     private void loadScriptCore(Luwrain luwrain)
@@ -119,7 +144,7 @@ public final class Extension extends EmptyExtension
     @Override public ExtensionObject[] getExtObjects(Luwrain luwrain)
     {
 	final List<ExtensionObject> res = new ArrayList<>();
-	res.add(new SimpleObjFactory("disks-popup-factory", "org.luwrain.linux.DefaultDisksPopupFactory", ()->new DefaultDisksPopupFactory(udisksMonitor)));
+	res.add(new SimpleObjFactory("disks-popup-factory", "org.luwrain.linux.DefaultDisksPopupFactory", ()->new DefaultDisksPopupFactory(udisksMonitor, diskOperations)));
 		res.add(new DefaultShortcut("parted", org.luwrain.app.parted.App.class));
 	res.add(new DefaultShortcut("install", org.luwrain.app.install.App.class));
 
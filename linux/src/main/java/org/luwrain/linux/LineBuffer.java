@@ -0,0 +1,426 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The storage of text lines with the limited memory consumption. The
+ * lines are kept in UTF-8 in blocks of bytes, so there is no object per
+ * line. The blocks start small and grow up to their maximum size, so the
+ * short output takes little memory. When the limit is reached, the blocks
+ * are either moved to the spill file, remaining accessible by their
+ * indices, or dropped. The spill file has its own limit, with the
+ * {@code TAIL} retention the oldest lines are dropped from it and the
+ * space occupied by them is reclaimed. The spill file gets the random name
+ * and the access only for its owner, it's removed from the directory right
+ * after the creation, so nobody can substitute it and it never outlives
+ * the buffer. With the {@code TAIL} retention the oldest lines are
+ * removed, with the {@code HEAD} retention the new lines don't replace
+ * the retained ones.
+ */
+public final class LineBuffer implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+
+    public enum Retention {HEAD, TAIL};
+
+    static public final long
+	DEFAULT_MAX_BYTES = 32 * 1024 * 1024,
+	DEFAULT_MAX_SPILL_BYTES = 256 * 1024 * 1024;
+    static private final int
+	MIN_BLOCK_SIZE = 256,
+	MAX_BLOCK_SIZE = 64 * 1024;
+
+    private final Retention retention;
+    private final long maxBytes, maxSpillBytes;
+    private final int maxLines;
+    private final int blockSize;
+    private final File spillDir;
+    private FileChannel spill = null;
+    //The bytes before spillStart belong to the dropped lines
+    private long spillStart = 0, spillSize = 0;
+
+    //The blocks before the first one are dropped and cleared from time to time
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private int first = 0;
+    //With the TAIL retention the spilled blocks always go before the ones in memory
+    private int firstInMemory = 0;
+    private Block openBlock = null;
+    private long memBytes = 0;
+    //The absolute index of the first accessible line
+    private long base = 0;
+    private long totalLines = 0, droppedLines = 0;
+
+    /**
+     * @param retention The lines to keep in memory when the limit is reached
+     * @param maxBytes The approximate limit of the memory occupied by the lines
+     * @param maxLines The maximum number of accessible lines, including the lines in the spill file
+     * @param spillDir The directory for the file with the lines not fitting in memory or {@code null}, if these lines must be dropped
+     * @param maxSpillBytes The approximate limit of the size of the spill file
+     */
+    public LineBuffer(Retention retention, long maxBytes, int maxLines, File spillDir, long maxSpillBytes)
+    {
+	requireNonNull(retention, "retention can't be null");
+	if (maxBytes <= 0)
+	    throw new IllegalArgumentException("maxBytes must be greater than zero");
+	if (maxLines <= 0)
+	    throw new IllegalArgumentException("maxLines must be greater than zero");
+	if (maxSpillBytes < 0)
+	    throw new IllegalArgumentException("maxSpillBytes can't be negative");
+	this.retention = retention;
+	this.maxBytes = maxBytes;
+	this.maxLines = maxLines;
+	this.blockSize = (int)Math.max(64, Math.min(MAX_BLOCK_SIZE, maxBytes / 4));
+	this.spillDir = spillDir;
+	this.maxSpillBytes = spillDir != null?maxSpillBytes:0;
+    }
+
+    public LineBuffer(Retention retention, long maxBytes, int maxLines, File spillDir)
+    {
+	this(retention, maxBytes, maxLines, spillDir, DEFAULT_MAX_SPILL_BYTES);
+    }
+
+    public LineBuffer(Retention retention, long maxBytes, File spillDir)
+    {
+	this(retention, maxBytes, Integer.MAX_VALUE, spillDir);
+    }
+
+    public LineBuffer(Retention retention, long maxBytes, int maxLines)
+    {
+	this(retention, maxBytes, maxLines, null);
+    }
+
+    public LineBuffer(Retention retention, long maxBytes)
+    {
+	this(retention, maxBytes, Integer.MAX_VALUE, null);
+    }
+
+    public LineBuffer()
+    {
+	this(Retention.TAIL, DEFAULT_MAX_BYTES, Integer.MAX_VALUE, null);
+    }
+
+    public synchronized void add(String line)
+    {
+	requireNonNull(line, "line can't be null");
+	final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+	totalLines++;
+	if (retention == Retention.HEAD && (memBytes + spillSize + bytes.length > maxBytes + maxSpillBytes || count() >= maxLines))
+	{
+	    droppedLines++;
+	    return;
+	}
+	if (openBlock == null || !openBlock.ensure(bytes.length))
+	    openBlock(bytes.length);
+	openBlock.add(bytes);
+	memBytes += bytes.length;
+	if (retention == Retention.TAIL)
+	{
+	    evictOldest();
+	    evictExtraLines();
+	    if (spill != null && spillStart > 0 && spillStart >= spillSize - spillStart)
+		compactSpill();
+	}
+    }
+
+    /**
+     * The number of accessible lines, including the lines in the spill file.
+     */
+    public synchronized int size()
+    {
+	return (int)Math.min(Integer.MAX_VALUE, count());
+    }
+
+    public synchronized String get(int index)
+    {
+	if (index < 0 || index >= size())
+	    throw new IndexOutOfBoundsException("Illegal line index: " + String.valueOf(index) + ", the buffer has " + String.valueOf(size()) + " lines");
+	final long abs = base + index;
+	int l = first, r = blocks.size() - 1;
+	while (l < r)
+	{
+	    final int m = (l + r + 1) / 2;
+	    if (blocks.get(m).firstLine <= abs)
+		l = m; else
+		r = m - 1;
+	}
+	return blocks.get(l).get((int)(abs - blocks.get(l).firstLine));
+    }
+
+    public synchronized String[] toArray()
+    {
+	final String[] res = new String[size()];
+	for(int i = 0;i < res.length;i++)
+	    res[i] = get(i);
+	return res;
+    }
+
+    /**
+     * Provides the list view of the buffer. The view reads the lines on
+     * demand and reflects the changes of the buffer.
+     */
+    public List<String> asList()
+    {
+	return new ListView();
+    }
+
+    /** The number of lines ever added to the buffer. */
+    public synchronized long getTotalLineCount() { return totalLines; }
+
+    /** The number of lines lost because of the capacity limit. */
+    public synchronized long getDroppedLineCount() { return droppedLines; }
+
+    /** The number of bytes occupied by the lines in memory. */
+    public synchronized long getMemoryBytes() { return memBytes; }
+
+    /** The number of bytes occupied by the accessible lines in the spill file. */
+    public synchronized long getSpillBytes() { return spillSize - spillStart; }
+
+    public Retention getRetention() { return retention; }
+
+    @Override public synchronized void close()
+    {
+	blocks.clear();
+	first = 0;
+	firstInMemory = 0;
+	openBlock = null;
+	memBytes = 0;
+	if (spill == null)
+	    return;
+	try {
+	    spill.close();
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to close the spill file", e);
+	}
+	spill = null;
+    }
+
+    private long count()
+    {
+	if (first >= blocks.size())
+	    return 0;
+	final Block last = blocks.get(blocks.size() - 1);
+	return last.firstLine + last.count - base;
+    }
+
+    private void openBlock(int lineLen)
+    {
+	if (openBlock != null)
+	{
+	    openBlock.trim();
+	    //With the HEAD retention the blocks exceeding the limit go to the spill file
+	    if (retention == Retention.HEAD && memBytes > maxBytes)
+		spill(openBlock);
+	}
+	openBlock = new Block(base + count(), Math.max(Math.min(MIN_BLOCK_SIZE, blockSize), lineLen));
+	blocks.add(openBlock);
+    }
+
+    private void evictOldest()
+    {
+	while (memBytes > maxBytes)
+	{
+	    final Block oldest = blocks.get(firstInMemory);
+	    if (oldest == openBlock)
+		return;
+	    if (spillDir != null && spill(oldest))
+	    {
+		firstInMemory++;
+		//The oldest lines go away from the spill file
+		while (spillSize - spillStart > maxSpillBytes && first < firstInMemory)
+		    dropFirst();
+		continue;
+	    }
+	    //No spill file, the lines are lost together with the spilled ones before them
+	    Block dropped;
+	    do {
+		dropped = blocks.get(first);
+		dropFirst();
+	    } while (dropped != oldest);
+	}
+    }
+
+    //The lines of the open block are only skipped, its memory is freed when it's no longer open
+    private void evictExtraLines()
+    {
+	final long extra = count() - maxLines;
+	if (extra <= 0)
+	    return;
+	base += extra;
+	droppedLines += extra;
+	while (blocks.get(first) != openBlock && blocks.get(first).firstLine + blocks.get(first).count <= base)
+	    dropFirst();
+    }
+
+    private void dropFirst()
+    {
+	final Block b = blocks.get(first);
+	blocks.set(first, null);
+	first++;
+	if (firstInMemory < first)
+	    firstInMemory = first;
+	if (b.data != null)
+	    memBytes -= b.len;
+	final long end = b.firstLine + b.count;
+	if (end > base)
+	{
+	    droppedLines += end - base;
+	    base = end;
+	}
+	spillStart = first < firstInMemory?blocks.get(first).fileOffset:spillSize;
+	//Removing the dropped blocks by many at once
+	if (first >= 64 && first * 2 >= blocks.size())
+	{
+	    blocks.subList(0, first).clear();
+	    firstInMemory -= first;
+	    first = 0;
+	}
+    }
+
+    private boolean spill(Block block)
+    {
+	try {
+	    if (spill == null)
+	    {
+		final Path path = Files.createTempFile(spillDir.toPath(), "luwrain-", ".spill");
+		try {
+		    spill = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+		}
+		finally {
+		    Files.deleteIfExists(path);
+		}
+	    }
+	    final ByteBuffer b = ByteBuffer.wrap(block.data, 0, block.len);
+	    long pos = spillSize;
+	    while (b.hasRemaining())
+		pos += spill.write(b, pos);
+	    block.fileOffset = spillSize;
+	    spillSize = pos;
+	    block.data = null;
+	    memBytes -= block.len;
+	    return true;
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to write to the spill file in " + spillDir.getAbsolutePath(), e);
+	    return false;
+	}
+    }
+
+    //Moves the lines in the spill file to its beginning, done when the dropped lines take more space than the remaining ones
+    private void compactSpill()
+    {
+	try {
+	    final ByteBuffer b = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+	    long from = spillStart, to = 0;
+	    while (from < spillSize)
+	    {
+		b.clear();
+		b.limit((int)Math.min(b.capacity(), spillSize - from));
+		final int n = spill.read(b, from);
+		if (n < 0)
+		    throw new EOFException("Unexpected end of the spill file");
+		b.flip();
+		while (b.hasRemaining())
+		    to += spill.write(b, to);
+		from += n;
+	    }
+	    spill.truncate(to);
+	    for(int i = first;i < firstInMemory;i++)
+		blocks.get(i).fileOffset -= spillStart;
+	    spillSize = to;
+	    spillStart = 0;
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to compact the spill file, dropping the lines in it", e);
+	    while (first < firstInMemory)
+		dropFirst();
+	}
+    }
+
+    private final class Block
+    {
+	final long firstLine;
+	byte[] data;
+	int[] offsets = new int[16];
+	int len = 0, count = 0;
+	long fileOffset = -1;
+
+	Block(long firstLine, int capacity)
+	{
+	    this.firstLine = firstLine;
+	    this.data = new byte[capacity];
+	}
+
+	//Grows the block twice until the maximum size, returns false if the line doesn't fit anyway
+	boolean ensure(int lineLen)
+	{
+	    if (data == null)
+		return false;
+	    if (len + lineLen <= data.length)
+		return true;
+	    if (len + lineLen > blockSize)
+		return false;
+	    data = Arrays.copyOf(data, Math.max(len + lineLen, Math.min(blockSize, data.length * 2)));
+	    return true;
+	}
+
+	void add(byte[] bytes)
+	{
+	    if (count + 1 >= offsets.length)
+		offsets = Arrays.copyOf(offsets, offsets.length * 2);
+	    System.arraycopy(bytes, 0, data, len, bytes.length);
+	    offsets[count] = len;
+	    len += bytes.length;
+	    count++;
+	    offsets[count] = len;
+	}
+
+	void trim()
+	{
+	    offsets = Arrays.copyOf(offsets, count + 1);
+	}
+
+	String get(int index)
+	{
+	    final int start = offsets[index], lineLen = offsets[index + 1] - start;
+	    if (data != null)
+		return new String(data, start, lineLen, StandardCharsets.UTF_8);
+	    final ByteBuffer b = ByteBuffer.allocate(lineLen);
+	    try {
+		long pos = fileOffset + start;
+		while (b.hasRemaining())
+		{
+		    final int n = spill.read(b, pos);
+		    if (n < 0)
+			throw new EOFException("Unexpected end of the spill file");
+		    pos += n;
+		}
+	    }
+	    catch(IOException e)
+	    {
+		throw new UncheckedIOException(e);
+	    }
+	    return new String(b.array(), StandardCharsets.UTF_8);
+	}
+    }
+
+    private final class ListView extends AbstractList<String> implements RandomAccess
+    {
+	@Override public String get(int index) { return LineBuffer.this.get(index); }
+	@Override public int size() { return LineBuffer.this.size(); }
+    }
+}
@@ -0,0 +1,132 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.*;
+import java.nio.*;
+
+/**
+ * A portion of the process output consisting of complete lines. The
+ * object and its buffer are reused for all chunks read from the same
+ * stream, so they must not be stored anywhere and are valid only until
+ * the listener returns. The lines are kept in one character array and
+ * can be inspected in place without creating any strings.
+ */
+public final class LineChunk
+{
+    private char[] chars;
+    private CharBuffer view = null;
+    private int[] starts = new int[64], ends = new int[64];
+    private int count = 0;
+
+    LineChunk(char[] chars)
+    {
+	this.chars = chars;
+    }
+
+    /** The number of lines in this chunk. */
+    public int getLineCount()
+    {
+	return count;
+    }
+
+    /** The offset of the first character of the line in the buffer. */
+    public int getLineStart(int index)
+    {
+	checkIndex(index);
+	return starts[index];
+    }
+
+    /** The offset right after the last character of the line in the buffer, without the line terminator. */
+    public int getLineEnd(int index)
+    {
+	checkIndex(index);
+	return ends[index];
+    }
+
+    public int getLineLength(int index)
+    {
+	checkIndex(index);
+	return ends[index] - starts[index];
+    }
+
+    /** The character at the absolute offset in the buffer. */
+    public char charAt(int pos)
+    {
+	return chars[pos];
+    }
+
+    /**
+     * Provides the read-only view of the buffer with the line as its
+     * remaining part. The view is reused, so it's valid only until the next
+     * call.
+     *
+     * @param index The index of the line
+     * @return The buffer with the position and the limit set to the line bounds
+     */
+    public CharBuffer getLineBuffer(int index)
+    {
+	checkIndex(index);
+	if (view == null)
+	    view = CharBuffer.wrap(chars).asReadOnlyBuffer();
+	view.limit(ends[index]).position(starts[index]);
+	return view;
+    }
+
+    public boolean lineStartsWith(int index, String prefix)
+    {
+	checkIndex(index);
+	final int start = starts[index];
+	if (ends[index] - start < prefix.length())
+	    return false;
+	for(int i = 0;i < prefix.length();i++)
+	    if (chars[start + i] != prefix.charAt(i))
+		return false;
+	return true;
+    }
+
+    public boolean isLineEmpty(int index)
+    {
+	checkIndex(index);
+	return starts[index] == ends[index];
+    }
+
+    /** Creates the string with the content of the line. */
+    public String getLine(int index)
+    {
+	checkIndex(index);
+	return new String(chars, starts[index], ends[index] - starts[index]);
+    }
+
+    void setBuffer(char[] chars)
+    {
+	if (this.chars == chars)
+	    return;
+	this.chars = chars;
+	this.view = null;
+    }
+
+    void clear()
+    {
+	count = 0;
+    }
+
+    void addLine(int start, int end)
+    {
+	if (count == starts.length)
+	{
+	    starts = Arrays.copyOf(starts, count * 2);
+	    ends = Arrays.copyOf(ends, count * 2);
+	}
+	starts[count] = start;
+	ends[count] = end;
+	count++;
+    }
+
+    private void checkIndex(int index)
+    {
+	if (index < 0 || index >= count)
+	    throw new IndexOutOfBoundsException("Illegal line index: " + String.valueOf(index) + ", the chunk has " + String.valueOf(count) + " lines");
+    }
+}
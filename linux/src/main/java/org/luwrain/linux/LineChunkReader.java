@@ -0,0 +1,145 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.function.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Reads the stream by blocks and splits it into lines without creating
+ * any objects per line. The lines are terminated the same way as with
+ * {@link BufferedReader#readLine()}: by '\n', '\r' or "\r\n". The line
+ * longer than the buffer makes the buffer grow.
+ */
+final class LineChunkReader
+{
+    static final int DEFAULT_BUF_SIZE = 8192;
+
+    private final InputStream is;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes;
+    private CharBuffer chars;
+    private final LineChunk chunk;
+    private int lineStart = 0, scanPos = 0;
+    private boolean skipLF = false;
+
+    LineChunkReader(InputStream is, Charset charset, int bufSize)
+    {
+	requireNonNull(is, "is can't be null");
+	requireNonNull(charset, "charset can't be null");
+	if (bufSize <= 0)
+	    throw new IllegalArgumentException("bufSize must be greater than zero");
+	this.is = is;
+	this.decoder = charset.newDecoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	this.bytes = ByteBuffer.allocate(bufSize);
+	this.chars = CharBuffer.allocate(bufSize);
+	this.chunk = new LineChunk(chars.array());
+    }
+
+    LineChunkReader(InputStream is)
+    {
+	this(is, Charset.defaultCharset(), DEFAULT_BUF_SIZE);
+    }
+
+    /**
+     * Reads the stream till its end delivering the lines to the consumer.
+     * The last line without the terminator is delivered as well.
+     */
+    void read(Consumer<LineChunk> consumer) throws IOException
+    {
+	requireNonNull(consumer, "consumer can't be null");
+	while(true)
+	{
+	    final int n = is.read(bytes.array(), bytes.position(), bytes.remaining());
+	    if (n < 0)
+		break;
+	    bytes.position(bytes.position() + n);
+	    bytes.flip();
+	    decode(false);
+	    bytes.compact();
+	    scan(consumer);
+	}
+	bytes.flip();
+	decode(true);
+	while(decoder.flush(chars) == CoderResult.OVERFLOW)
+	    grow();
+	scan(consumer);
+	if (chars.position() > lineStart)
+	{
+	    chunk.clear();
+	    chunk.addLine(lineStart, chars.position());
+	    consumer.accept(chunk);
+	}
+	chars.clear();
+	lineStart = 0;
+	scanPos = 0;
+    }
+
+    private void decode(boolean endOfInput) throws IOException
+    {
+	while(true)
+	{
+	    final CoderResult res = decoder.decode(bytes, chars, endOfInput);
+	    if (res.isUnderflow())
+		return;
+	    if (res.isOverflow())
+	    {
+		grow();
+		continue;
+	    }
+	    res.throwException();
+	}
+    }
+
+    private void scan(Consumer<LineChunk> consumer)
+    {
+	final char[] buf = chars.array();
+	final int end = chars.position();
+	chunk.clear();
+	for(;scanPos < end;scanPos++)
+	{
+	    final char c = buf[scanPos];
+	    if (skipLF)
+	    {
+		skipLF = false;
+		if (c == '\n')
+		{
+		    lineStart = scanPos + 1;
+		    continue;
+		}
+	    }
+	    if (c != '\n' && c != '\r')
+		continue;
+	    chunk.addLine(lineStart, scanPos);
+	    lineStart = scanPos + 1;
+	    skipLF = c == '\r';
+	}
+	if (chunk.getLineCount() > 0)
+	    consumer.accept(chunk);
+	//Moving the incomplete line to the beginning of the buffer
+	final int remaining = end - lineStart;
+	if (lineStart > 0)
+	{
+	    System.arraycopy(buf, lineStart, buf, 0, remaining);
+	    chars.position(remaining);
+	    scanPos -= lineStart;
+	    lineStart = 0;
+	}
+    }
+
+    private void grow()
+    {
+	final CharBuffer newChars = CharBuffer.allocate(chars.capacity() * 2);
+	chars.flip();
+	newChars.put(chars);
+	this.chars = newChars;
+	chunk.setBuffer(newChars.array());
+    }
+}
@@ -0,0 +1,122 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Shared pool of threads serving the I/O of child processes. Reading the
+ * output streams of the processes is the only blocking work done here,
+ * waiting for the process termination is delegated to
+ * {@link Process#onExit()}, so no thread is spent on it. The threads are
+ * reused between processes and the pool never grows above the given
+ * limit, trying to launch too many processes simultaneously results in
+ * {@link RejectedExecutionException}.
+ */
+public final class ProcessEngine
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static public final int DEFAULT_MAX_THREADS = 256;
+    static private final long KEEP_ALIVE_SEC = 30;
+
+    static private final ProcessEngine defaultEngine = new ProcessEngine("luwrain-process-io", DEFAULT_MAX_THREADS);
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger
+	activeProcesses = new AtomicInteger(0),
+	threadNum = new AtomicInteger(0);
+    private final AtomicLong
+	launchedProcesses = new AtomicLong(0),
+	rejectedTasks = new AtomicLong(0);
+
+    public ProcessEngine(String name, int maxThreads)
+    {
+	requireNonNull(name, "name can't be null");
+	if (maxThreads <= 0)
+	    throw new IllegalArgumentException("maxThreads must be greater than zero");
+	this.name = name;
+	this.executor = new ThreadPoolExecutor(0, maxThreads, KEEP_ALIVE_SEC, TimeUnit.SECONDS, new SynchronousQueue<>(), r->{
+		final Thread t = new Thread(r, name + "-" + String.valueOf(threadNum.incrementAndGet()));
+		t.setDaemon(true);
+		return t;
+	    });
+    }
+
+    /**
+     * Runs the blocking I/O task on one of the pooled threads.
+     *
+     * @param task The task to run
+     * @throws RejectedExecutionException if all threads of the pool are busy
+     */
+    public void execute(Runnable task)
+    {
+	requireNonNull(task, "task can't be null");
+	try {
+	    executor.execute(task);
+	}
+	catch(RejectedExecutionException e)
+	{
+	    rejectedTasks.incrementAndGet();
+	    log.error("The process engine '" + name + "' is exhausted, " + String.valueOf(executor.getPoolSize()) + " threads are busy");
+	    throw e;
+	}
+    }
+
+    /**
+     * Registers the newly launched process for the metrics tracking. The
+     * process is considered active until its termination.
+     *
+     * @param p The process to register
+     * @return The future completing on the process termination
+     */
+    public CompletableFuture<Process> register(Process p)
+    {
+	requireNonNull(p, "p can't be null");
+	activeProcesses.incrementAndGet();
+	launchedProcesses.incrementAndGet();
+	return p.onExit().whenComplete((proc, ex)->activeProcesses.decrementAndGet());
+    }
+
+    /** The number of processes launched and not yet terminated. */
+    public int getActiveProcessCount() { return activeProcesses.get(); }
+
+    /** The total number of processes launched through this engine. */
+    public long getLaunchedProcessCount() { return launchedProcesses.get(); }
+
+    /** The number of threads currently existing in the pool. */
+    public int getThreadCount() { return executor.getPoolSize(); }
+
+    /** The number of threads busy with I/O at the moment. */
+    public int getBusyThreadCount() { return executor.getActiveCount(); }
+
+    /** The largest number of threads which have ever simultaneously been in the pool. */
+    public int getPeakThreadCount() { return executor.getLargestPoolSize(); }
+
+    public int getMaxThreadCount() { return executor.getMaximumPoolSize(); }
+
+    /** The number of tasks refused because of the pool exhaustion. */
+    public long getRejectedTaskCount() { return rejectedTasks.get(); }
+
+    public String getName() { return name; }
+
+    @Override public String toString()
+    {
+	return name + ": processes=" + String.valueOf(getActiveProcessCount()) +
+	", threads=" + String.valueOf(getThreadCount()) +
+	", busy=" + String.valueOf(getBusyThreadCount()) +
+	", peak=" + String.valueOf(getPeakThreadCount()) +
+	", rejected=" + String.valueOf(getRejectedTaskCount());
+    }
+
+    static public ProcessEngine getDefault()
+    {
+	return defaultEngine;
+    }
+}
@@ -4,12 +4,14 @@
 package org.luwrain.linux;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.io.*;
 
 public final class ShellCmd
 {
     public final Process p;
+    private final ProcessEngine engine;
     public final List<String>
 	output = new ArrayList<>(),
 	error = new ArrayList<>();
@@ -17,12 +19,14 @@ public final class ShellCmd
 	outputComplete = new AtomicBoolean(false),
 	errorComplete = new AtomicBoolean(false);
 
-    public ShellCmd(String cmd, String dir)
+    public ShellCmd(String cmd, String dir, ProcessEngine engine)
     {
+	this.engine = Objects.requireNonNull(engine, "engine can't be null");
 	try {
 	p = new ProcessBuilder("/bin/bash", "-c", cmd)
 	.directory(new File(dir))
 	.start();
+	engine.register(p);
 	}
 	catch(IOException ex)
 	{
@@ -31,6 +35,11 @@ public final class ShellCmd
 	}
     }
 
+    public ShellCmd(String cmd, String dir)
+    {
+	this(cmd, dir, ProcessEngine.getDefault());
+    }
+
     public int waitFor()
     {
 	try {
@@ -41,8 +50,23 @@ public final class ShellCmd
 	    //FIXME: log
 	    throw new RuntimeException(ex);
 	}
-	new Thread(() -> readStream(p.getInputStream(), output, outputComplete)).start();
-	new Thread(() -> readStream(p.getErrorStream(), error, errorComplete)).start();
+	try {
+	    engine.execute(() -> readStream(p.getInputStream(), output, outputComplete));
+	}
+	catch(RejectedExecutionException ex)
+	{
+	    destroy();
+	    throw ex;
+	}
+	try {
+	    engine.execute(() -> readStream(p.getErrorStream(), error, errorComplete));
+	}
+	catch(RejectedExecutionException ex)
+	{
+	    //The reader of the output already started finishes on the end of the stream
+	    destroy();
+	    throw ex;
+	}
 	try {
 	    p.waitFor();
 	    synchronized(this) {
@@ -58,6 +82,13 @@ public final class ShellCmd
 	return -1;
     }
 
+    //The children of bash are killed as well, since they may keep the pipes open
+    private void destroy()
+    {
+	p.descendants().forEach(ProcessHandle::destroyForcibly);
+	p.destroyForcibly();
+    }
+
     private void readStream(InputStream s, List<String> lines, AtomicBoolean complete)
     {
 	try {
@@ -9,6 +9,12 @@ import com.sun.jna.ptr.IntByReference;
 
 public final class Syscalls
 {
+    static public final int
+	SIGHUP = 1,
+	SIGKILL = 9,
+	SIGTERM = 15,
+	SIGWINCH = 28;
+
     private interface C_lib extends Library
     {
 	int kill(int pid, int signal);
@@ -1,165 +1,270 @@
 // SPDX-License-Identifier: BUSL-1.1
-// Copyright 2012-2025 Michael Pozhidaev <msp@luwrain.org>
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
 
 package org.luwrain.linux;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import org.apache.logging.log4j.*;
 
-import org.luwrain.core.*;
+import static java.util.Objects.*;
 
-final class TermInfo
+/**
+ * The terminfo description of the terminal. The descriptions are read
+ * from the compiled terminfo files directly, without {@code infocmp}, and
+ * the recently used ones are kept in memory, so the description of any
+ * terminal type can be taken with {@link #get(String)} on demand. The
+ * string capabilities are compiled to the trie of their byte sequences,
+ * which recognizes the sequence or its prefix in the time of its length.
+ * The description of the default terminal can also be saved to the binary
+ * cache, which is valid while the terminfo file keeps its modification
+ * time.
+ */
+public final class TermInfo
 {
-final String text;
+    static private final Logger log = LogManager.getLogger();
+
+    static public final String DEFAULT_TERM = "linux";
+
+    static private final int
+	MAGIC = 0x4c54494e,//LTIN
+	VERSION = 2,
+	//The magic numbers of the compiled terminfo files with 16-bit and 32-bit numbers
+	DB_MAGIC = 0432,
+	DB_MAGIC_32 = 01036,
+	//The number of the descriptions kept in memory
+	LOADED_MAX = 8;
+
+    //The directories of the terminfo database in the order ncurses looks in them
+    static private final String[] DB_DIRS = new String[]{
+	"/etc/terminfo",
+	"/lib/terminfo",
+	"/usr/share/terminfo",
+	"/usr/lib/terminfo",
+    };
+
+    //The recently used descriptions by the terminal names, the least recently used one is dropped first
+    static private final Map<String, TermInfo> loaded = new LinkedHashMap<String, TermInfo>(16, 0.75f, true){
+	    @Override protected boolean removeEldestEntry(Map.Entry<String, TermInfo> entry)
+	    {
+		return size() > LOADED_MAX;
+	    }
+	};
+
+    /** Reads the description when the cache is outdated. */
+    interface Source
+    {
+	TermInfo read() throws IOException;
+    }
+
+    final String text;
     private String termName = null;
-    private Set<String> values = new HashSet<>();
-    private Map<Character, Map<String, String> > seqs = new HashMap<>();
+    private final Set<String> flags = new HashSet<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+    //The string capabilities in the order of adding, the values of the trie are the indices here
+    private final List<String> names = new ArrayList<>(), seqs = new ArrayList<>();
+    private final Map<String, String> strings = new HashMap<>();
+    private ByteTrie.Builder builder = new ByteTrie.Builder();
+    private ByteTrie trie = null;
+    //The file the description is read from, null if it's read from the infocmp output
+    private File dbFile = null;
+    private long dbTime = 0;
 
-    TermInfo() throws IOException
+    //For benchmarks, takes the output of infocmp without comments
+    TermInfo(String text)
     {
-	final Process p = new ProcessBuilder("infocmp", "linux").start();
-	p.getOutputStream().close();
-		    	final BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
-				final StringBuilder b = new StringBuilder();
-	try {
-	String line = r.readLine();
-	while(line != null)
-	{
-	    if (!line.isEmpty() && !line.startsWith("#"))
-	    b.append(line);
-	    line = r.readLine();
+	this.text = requireNonNull(text, "text can't be null");
+    }
+
+    private TermInfo()
+    {
+	this.text = null;
+    }
+
+    /**
+     * Provides the description of the terminal, reading it from the
+     * terminfo database if it isn't loaded yet or its file has changed.
+     *
+     * @param term The name of the terminal type, like {@code xterm-256color}
+     * @throws FileNotFoundException if there is no description of the terminal
+     */
+    static public TermInfo get(String term) throws IOException
+    {
+	requireNonNull(term, "term can't be null");
+	if (term.isEmpty() || term.indexOf('/') >= 0 || term.startsWith("."))
+	    throw new IllegalArgumentException("Invalid terminal name: " + term);
+	synchronized(loaded) {
+	    final TermInfo res = loaded.get(term);
+	    if (res != null && res.dbFile.lastModified() == res.dbTime)
+		return res;
 	}
+	final File file = findDbFile(term);
+	if (file == null)
+	    throw new FileNotFoundException("No terminfo description of the terminal " + term);
+	final TermInfo res = readDbFile(file);
+	synchronized(loaded) {
+	    loaded.put(term, res);
 	}
-	finally {
-	    r.close();
+	return res;
+    }
+
+    /**
+     * Loads the description of the default terminal from the cache, or
+     * from the terminfo database if the cache is outdated, updating the
+     * cache. If there is no compiled description, {@code infocmp} is
+     * tried without caching.
+     *
+     * @param cacheFile The file of the cache, null disables caching
+     */
+    static TermInfo load(File cacheFile) throws IOException
+    {
+	final File file = findDbFile(DEFAULT_TERM);
+	if (file == null)
+	{
+	    final TermInfo res = new TermInfo(runInfocmp(DEFAULT_TERM));
+	    res.read();
+	    return res;
+	}
+	final TermInfo res = load(cacheFile, file, ()->readDbFile(file));
+	synchronized(loaded) {
+	    loaded.put(DEFAULT_TERM, res);
 	}
+	return res;
+    }
+
+    static TermInfo load(File cacheFile, File dbFile, Source source) throws IOException
+    {
+	requireNonNull(dbFile, "dbFile can't be null");
+	requireNonNull(source, "source can't be null");
+	final long dbTime = dbFile.lastModified(), dbSize = dbFile.length();
+	if (cacheFile == null)
+	    return source.read();
+	final String dbPath = dbFile.getAbsolutePath();
+	if (cacheFile.isFile())
+	    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+		final TermInfo res = readCache(in, cacheFile.length(), dbPath, dbTime, dbSize);
+		if (res != null)
+		{
+		    res.dbFile = dbFile;
+		    res.dbTime = dbTime;
+		    return res;
+		}
+		log.debug("The terminfo cache " + cacheFile.getAbsolutePath() + " is outdated");
+	    }
+	    //Any damage of the cache only makes it rebuilt
+	    catch(IOException | RuntimeException e)
+	    {
+		log.warn("Unable to read the terminfo cache " + cacheFile.getAbsolutePath(), e);
+	    }
+	final TermInfo res = source.read();
+	res.dbFile = dbFile;
+	res.dbTime = dbTime;
 	try {
-	p.waitFor();
+	    res.writeCache(cacheFile, dbPath, dbTime, dbSize);
 	}
-		catch(InterruptedException e)
+	catch(IOException e)
 	{
-	    Thread.currentThread().interrupt();
+	    log.warn("Unable to write the terminfo cache " + cacheFile.getAbsolutePath(), e);
 	}
-	if (p.exitValue() != 0)
-	    throw new IOException("Unable to read the terminfo database, exit value is " + String.valueOf(p.exitValue()));
-	this.text = new String(b);
+	return res;
     }
 
     void read()
     {
-	StringBuilder b = new StringBuilder();
-	try {
-	final StringReader r = new StringReader(text);
-	try {
-	    //This builder being created indicates that we are in the char code reading mode
-	    StringBuilder codeBuilder = null;
-	    for(int n = r.read();n >= 0;n = r.read())
+	final StringBuilder b = new StringBuilder();
+	final int len = text.length();
+	for(int i = 0;i < len;i++)
+	{
+	    final char c = text.charAt(i);
+	    switch(c)
 	    {
-		final char c = (char)n;
-		if (codeBuilder != null)
+	    case ' ':
+		if (b.length() > 0)
+		    b.append(' ');
+		continue;
+	    case '\t':
+		continue;
+	    case ',':
+		processItem(b);
+		b.setLength(0);
+		continue;
+	    case '^':
+		if (i + 1 < len)
 		{
-		    if (c >= '0' && c <= '9')
-		    {
-			codeBuilder.append(c);
-			continue;
-		    }
-		    //The char code sequence ends here, constructing the char and continuing as usual
-		    b.append(buildChar(new String(codeBuilder)));
-		    codeBuilder = null;
-		}
-		switch(c)
+		    final char cc = text.charAt(++i);
+		    b.append(cc == '?'?(char)127:(char)(cc & 0x1f));
+		} else
+		    b.append(c);
+		continue;
+	    case '\\':
+		if (i + 1 >= len)
 		{
-		case ' ':
-		    if (b.length() > 0)
-			b.append(' ');
-		    continue;
-		case '\t':
-		    continue;
-		case ',':
-		    processItem(new String(b));
-		    b = new StringBuilder();
-		    continue;
-		case '\\':
-		    {
-			int nn = r.read();
-			if (nn < 0)
-			{
-			    b.append('\\');
-			    return;
-			}
-			final char cc = (char)nn;
-			switch(cc)
-			{
-			case 'e':
-			case 'E':
-			    b.append((char)27);
-			    continue;
-			case 'n':
-			case 'N':
-			    b.append('\n');
-			    continue;
-			case 'r':
-			case 'R':
-			    b.append('\r');
-			    continue;
-			case 't':
-			case 'T':
-			    b.append('\r');
-			    continue;
-			}
-			if (cc < '0' || cc > '9')
-			{
-			    b.append(cc);
-			    continue;
-			}
-			//Activating the mode of reading the char code
-			codeBuilder = new StringBuilder();
-			codeBuilder.append(cc);
-			continue;
-		    }
-		default:
 		    b.append(c);
+		    continue;
 		}
+		i = readEscape(i + 1, b) - 1;
+		continue;
+	    default:
+		b.append(c);
 	    }
 	}
-	finally {
-	    r.close();
-	    if (b.length() > 0)
-		processItem(new String(b));
-	}
-	}
-	catch(IOException e)
-	{
-	    throw new RuntimeException(e);
-	}
+	if (b.length() > 0)
+	    processItem(b);
+	compile();
     }
 
-    private String buildChar(String code)
+    //Reads the escape after the backslash, returns the position after it
+    private int readEscape(int pos, StringBuilder b)
     {
-	try {
-	    return Character.toString((char)Integer.parseInt(code));
+	final char c = text.charAt(pos);
+	switch(c)
+	{
+	case 'e':
+	case 'E':
+	    b.append((char)27);
+	    return pos + 1;
+	case 'n':
+	case 'l':
+	    b.append('\n');
+	    return pos + 1;
+	case 'r':
+	    b.append('\r');
+	    return pos + 1;
+	case 't':
+	    b.append('\t');
+	    return pos + 1;
+	case 'b':
+	    b.append('\b');
+	    return pos + 1;
+	case 'f':
+	    b.append('\f');
+	    return pos + 1;
+	case 's':
+	    b.append(' ');
+	    return pos + 1;
 	}
-	catch(NumberFormatException e)
+	if (c < '0' || c > '7')
 	{
-	    return "";
+	    b.append(c);
+	    return pos + 1;
 	}
+	int code = 0, i = pos;
+	for(;i < text.length() && i < pos + 3 && text.charAt(i) >= '0' && text.charAt(i) <= '7';i++)
+	    code = code * 8 + (text.charAt(i) - '0');
+	b.append((char)(code & 0xff));
+	return i;
     }
 
-    private void processItem(String text)
+    private void processItem(StringBuilder item)
     {
+	final String text = new String(item);
 	final int pos = text.indexOf("=");
-	if (pos > 0 && pos < text.length() - 1)
+	if (pos > 0)
 	{
-	    final String name = text.substring(0, pos);
-	    final String value = text.substring(pos + 1);
-	    final Character c = new Character(value.charAt(0));
-	    Map<String, String> m = seqs.get(c);
-	    if (m == null)
-	    {
-		m = new HashMap<>();
-	    seqs.put(c, m);
-	    }
-	    m.put(value, name);
+	    addString(text.substring(0, pos), text.substring(pos + 1));
 	    return;
 	}
 	if (termName == null)
@@ -167,9 +272,48 @@ final String text;
 	    termName = text;
 	    return;
 	}
-	values.add(text);
+	//The cancelled capability
+	if (text.endsWith("@"))
+	    return;
+	final int numPos = text.indexOf("#");
+	if (numPos <= 0)
+	{
+	    flags.add(text);
+	    return;
+	}
+	try {
+	    numbers.put(text.substring(0, numPos), Integer.decode(text.substring(numPos + 1)));
+	}
+	catch(NumberFormatException e)
+	{
+	    log.debug("Invalid numeric terminfo capability: " + text);
+	}
+    }
+
+    //The value is the sequence of bytes, one char per byte; the empty values can't be recognized
+    private void addString(String name, String value)
+    {
+	final byte[] seq = new byte[value.length()];
+	for(int i = 0;i < seq.length;i++)
+	    seq[i] = (byte)value.charAt(i);
+	if (seq.length > 0)
+	    builder.add(seq, names.size());
+	names.add(name);
+	seqs.add(value);
+	strings.put(name, value);
     }
 
+    private void compile()
+    {
+	this.trie = builder.build();
+	this.builder = null;
+    }
+
+    /**
+     * Recognizes the sequence of the characters.
+     *
+     * @return The name of the capability, the empty string if more characters are needed, null if there is no such sequence
+     */
     public String find(String seq)
     {
 	if (seq.length() == 1 && seq.charAt(0) == 27)
@@ -179,25 +323,319 @@ final String text;
 	{
 	    if (seq.length() == 2)
 		return "";
-	    if (seq.substring(2).matches("^[0-9;]+$"))
+	    if (isColorPrefix(seq))
 		return "";
 	    if (seq.endsWith("m"))
 		return "color";
 	}
-	final Map<String, String> m = seqs.get(new Character(seq.charAt(0)));
-	if (m == null)
+	final int res = trie.find(seq);
+	if (res >= 0)
+	    return names.get(res);
+	return res == ByteTrie.PREFIX?"":null;
+    }
+
+    /** The names of the terminal separated by the vertical bars, the last one is the description. */
+    public String getTermName()
+    {
+	return termName != null?termName:"";
+    }
+
+    /**
+     * The value of the string capability, one char per byte, with the
+     * parameters and the padding as they are in the description.
+     *
+     * @return The value of the capability, null if the terminal doesn't have it
+     */
+    public String getString(String name)
+    {
+	requireNonNull(name, "name can't be null");
+	return strings.get(name);
+    }
+
+    /**
+     * The value of the numeric capability.
+     *
+     * @return The value of the capability, -1 if the terminal doesn't have it
+     */
+    public int getNumber(String name)
+    {
+	requireNonNull(name, "name can't be null");
+	final Integer res = numbers.get(name);
+	return res != null?res.intValue():-1;
+    }
+
+    public boolean hasFlag(String name)
+    {
+	requireNonNull(name, "name can't be null");
+	return flags.contains(name);
+    }
+
+    //Only digits and semicolons after the CSI
+    static private boolean isColorPrefix(String seq)
+    {
+	for(int i = 2;i < seq.length();i++)
+	{
+	    final char ch = seq.charAt(i);
+	    if ((ch < '0' || ch > '9') && ch != ';')
+		return false;
+	}
+	return true;
+    }
+
+    //Returns null if the cache is made for another terminfo file
+    static private TermInfo readCache(DataInputStream in, long cacheSize, String dbPath, long dbTime, long dbSize) throws IOException
+    {
+	if (in.readInt() != MAGIC || in.readInt() != VERSION)
 	    return null;
-	final String s = m.get(seq);
-	if (s != null)
-	    return s;
-	for(Map.Entry<String, String> e: m.entrySet())
-	    if (e.getKey().startsWith(seq))
-		return "";
+	if (!in.readUTF().equals(dbPath) || in.readLong() != dbTime || in.readLong() != dbSize)
+	    return null;
+	final TermInfo res = new TermInfo();
+	res.termName = in.readUTF();
+	final int flagCount = readCount(in, cacheSize);
+	for(int i = 0;i < flagCount;i++)
+	    res.flags.add(in.readUTF());
+	final int numCount = readCount(in, cacheSize);
+	for(int i = 0;i < numCount;i++)
+	    res.numbers.put(in.readUTF(), Integer.valueOf(in.readInt()));
+	final int strCount = readCount(in, cacheSize);
+	for(int i = 0;i < strCount;i++)
+	{
+	    final String name = in.readUTF(), value = in.readUTF();
+	    res.names.add(name);
+	    res.seqs.add(value);
+	    res.strings.put(name, value);
+	}
+	res.trie = ByteTrie.read(in, cacheSize, res.names.size());
+	res.builder = null;
+	return res;
+    }
+
+    //Every item takes at least two bytes, so the count can't exceed the half of the cache size
+    static private int readCount(DataInput in, long cacheSize) throws IOException
+    {
+	final int res = in.readInt();
+	if (res < 0 || res > cacheSize / 2)
+	    throw new IOException("Corrupted terminfo cache");
+	return res;
+    }
+
+    //The cache is written to the temporary file and renamed, so the interrupted writing doesn't leave the broken cache
+    private void writeCache(File cacheFile, String dbPath, long dbTime, long dbSize) throws IOException
+    {
+	final File dir = cacheFile.getAbsoluteFile().getParentFile();
+	Files.createDirectories(dir.toPath());
+	final File tmpFile = new File(dir, cacheFile.getName() + ".tmp");
+	try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+	    out.writeInt(MAGIC);
+	    out.writeInt(VERSION);
+	    out.writeUTF(dbPath);
+	    out.writeLong(dbTime);
+	    out.writeLong(dbSize);
+	    out.writeUTF(getTermName());
+	    out.writeInt(flags.size());
+	    for(String f: flags)
+		out.writeUTF(f);
+	    out.writeInt(numbers.size());
+	    for(Map.Entry<String, Integer> e: numbers.entrySet())
+	    {
+		out.writeUTF(e.getKey());
+		out.writeInt(e.getValue().intValue());
+	    }
+	    out.writeInt(names.size());
+	    for(int i = 0;i < names.size();i++)
+	    {
+		out.writeUTF(names.get(i));
+		out.writeUTF(seqs.get(i));
+	    }
+	    trie.write(out);
+	}
+	Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static TermInfo readDbFile(File file) throws IOException
+    {
+	final long time = file.lastModified();
+	final TermInfo res = readCompiled(Files.readAllBytes(file.toPath()));
+	res.dbFile = file;
+	res.dbTime = time;
+	return res;
+    }
+
+    /**
+     * Reads the compiled terminfo description in the format of ncurses:
+     * the header, the names of the terminal, the boolean, numeric and
+     * string capabilities by their standard indices and the optional
+     * extended capabilities with their names. All numbers are little-endian.
+     */
+    static TermInfo readCompiled(byte[] data) throws IOException
+    {
+	requireNonNull(data, "data can't be null");
+	final ByteBuffer b = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	try {
+	    final int magic = b.getShort() & 0xffff;
+	    if (magic != DB_MAGIC && magic != DB_MAGIC_32)
+		throw new IOException("Not a compiled terminfo description, the magic number is 0" + Integer.toOctalString(magic));
+	    final boolean wideNumbers = magic == DB_MAGIC_32;
+	    final int
+	    nameSize = b.getShort(),
+	    boolCount = b.getShort(),
+	    numCount = b.getShort(),
+	    strCount = b.getShort(),
+	    tableSize = b.getShort();
+	    if (nameSize < 0 || boolCount < 0 || numCount < 0 || strCount < 0 || tableSize < 0)
+		throw new IOException("Corrupted header of the compiled terminfo description");
+	    final TermInfo res = new TermInfo();
+	    res.termName = readString(data, b.position(), nameSize);
+	    b.position(b.position() + nameSize);
+	    for(int i = 0;i < boolCount;i++)
+		if (b.get() == 1 && i < TermInfoCaps.BOOLEANS.length)
+		    res.flags.add(TermInfoCaps.BOOLEANS[i]);
+	    align(b);
+	    for(int i = 0;i < numCount;i++)
+	    {
+		final int value = wideNumbers?b.getInt():b.getShort();
+		if (value >= 0 && i < TermInfoCaps.NUMBERS.length)
+		    res.numbers.put(TermInfoCaps.NUMBERS[i], Integer.valueOf(value));
+	    }
+	    final int tablePos = b.position() + 2 * strCount;
+	    for(int i = 0;i < strCount;i++)
+	    {
+		final int offset = b.getShort();
+		if (offset >= 0 && offset < tableSize && i < TermInfoCaps.STRINGS.length)
+		    res.addString(TermInfoCaps.STRINGS[i], readString(data, tablePos + offset, tableSize - offset));
+	    }
+	    b.position(tablePos + tableSize);
+	    align(b);
+	    if (b.remaining() >= 10)
+		res.readExtended(b, data, wideNumbers);
+	    res.compile();
+	    return res;
+	}
+	catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+	{
+	    throw new IOException("Truncated compiled terminfo description", e);
+	}
+    }
+
+    //The names of the extended capabilities follow their string values in the string table
+    private void readExtended(ByteBuffer b, byte[] data, boolean wideNumbers) throws IOException
+    {
+	final int
+	boolCount = b.getShort(),
+	numCount = b.getShort(),
+	strCount = b.getShort(),
+	itemCount = b.getShort(),
+	tableSize = b.getShort();
+	if (boolCount < 0 || numCount < 0 || strCount < 0 || itemCount < 0 || tableSize < 0)
+	    throw new IOException("Corrupted header of the extended terminfo capabilities");
+	final byte[] boolValues = new byte[boolCount];
+	b.get(boolValues);
+	align(b);
+	final int[] numValues = new int[numCount];
+	for(int i = 0;i < numCount;i++)
+	    numValues[i] = wideNumbers?b.getInt():b.getShort();
+	final int[] strOffsets = new int[strCount];
+	for(int i = 0;i < strCount;i++)
+	    strOffsets[i] = b.getShort();
+	final int[] nameOffsets = new int[boolCount + numCount + strCount];
+	for(int i = 0;i < nameOffsets.length;i++)
+	    nameOffsets[i] = b.getShort();
+	final int tablePos = b.position();
+	final String[] values = new String[strCount];
+	int namesBase = 0;
+	for(int i = 0;i < strCount;i++)
+	    if (strOffsets[i] >= 0 && strOffsets[i] < tableSize)
+	    {
+		values[i] = readString(data, tablePos + strOffsets[i], tableSize - strOffsets[i]);
+		namesBase += values[i].length() + 1;
+	    }
+	final String[] extNames = new String[nameOffsets.length];
+	for(int i = 0;i < nameOffsets.length;i++)
+	{
+	    final int offset = namesBase + nameOffsets[i];
+	    if (nameOffsets[i] < 0 || offset >= tableSize)
+		throw new IOException("Corrupted names of the extended terminfo capabilities");
+	    extNames[i] = readString(data, tablePos + offset, tableSize - offset);
+	}
+	for(int i = 0;i < boolCount;i++)
+	    if (boolValues[i] == 1)
+		flags.add(extNames[i]);
+	for(int i = 0;i < numCount;i++)
+	    if (numValues[i] >= 0)
+		numbers.put(extNames[boolCount + i], Integer.valueOf(numValues[i]));
+	for(int i = 0;i < strCount;i++)
+	    if (values[i] != null)
+		addString(extNames[boolCount + numCount + i], values[i]);
+    }
+
+    //The null-terminated string, one char per byte
+    static private String readString(byte[] data, int pos, int maxLen)
+    {
+	int len = 0;
+	while (len < maxLen && data[pos + len] != 0)
+	    len++;
+	return new String(data, pos, len, StandardCharsets.ISO_8859_1);
+    }
+
+    //The sections begin at the even offsets
+    static private void align(ByteBuffer b)
+    {
+	if (b.position() % 2 != 0 && b.hasRemaining())
+	    b.position(b.position() + 1);
+    }
+
+    /**
+     * Finds the compiled description of the terminal in the terminfo
+     * database, the same way as ncurses does.
+     *
+     * @return The file of the description, null if there is no such file
+     */
+    static File findDbFile(String term)
+    {
+	final List<String> dirs = new ArrayList<>();
+	final String terminfo = System.getenv("TERMINFO");
+	if (terminfo != null && !terminfo.isEmpty())
+	    dirs.add(terminfo);
+	dirs.add(new File(System.getProperty("user.home"), ".terminfo").getPath());
+	final String terminfoDirs = System.getenv("TERMINFO_DIRS");
+	if (terminfoDirs != null)
+	    for(String d: terminfoDirs.split(":", -1))
+		if (!d.isEmpty())
+		    dirs.add(d);
+	dirs.addAll(Arrays.asList(DB_DIRS));
+	for(String d: dirs)
+	{
+	    //Some systems name the subdirectories by the hex code of the first letter
+	    for(String sub: new String[]{term.substring(0, 1), Integer.toHexString(term.charAt(0))})
+	    {
+		final File f = new File(new File(d, sub), term);
+		if (f.isFile())
+		    return f;
+	    }
+	}
 	return null;
     }
 
-    String getTermName()
+    static private String runInfocmp(String term) throws IOException
     {
-	return termName != null?termName:"";
+	final Process p = new ProcessBuilder("infocmp", term).start();
+	p.getOutputStream().close();
+	final StringBuilder b = new StringBuilder();
+	try (final BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+	    for(String line = r.readLine();line != null;line = r.readLine())
+		if (!line.isEmpty() && !line.startsWith("#"))
+		    b.append(line);
+	}
+	try {
+	    p.waitFor();
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while reading the terminfo database", e);
+	}
+	if (p.exitValue() != 0)
+	    throw new IOException("Unable to read the terminfo database, exit value is " + String.valueOf(p.exitValue()));
+	return new String(b);
     }
 }
@@ -0,0 +1,63 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * The streams over the socket channel, usable for reading and writing
+ * from different threads at once. The streams of {@link Channels} take
+ * the blocking lock of the channel, so the writing waits for the end of
+ * the blocking reading.
+ */
+final class ChannelStreams
+{
+    static InputStream input(ByteChannel channel)
+    {
+	return new InputStream(){
+	    @Override public int read() throws IOException
+	    {
+		final byte[] b = new byte[1];
+		final int n = read(b, 0, 1);
+		return n > 0?(b[0] & 0xff):-1;
+	    }
+	    @Override public int read(byte[] b, int off, int len) throws IOException
+	    {
+		if (len == 0)
+		    return 0;
+		int n = 0;
+		//Zero is possible only in the non-blocking mode
+		while (n == 0)
+		    n = channel.read(ByteBuffer.wrap(b, off, len));
+		return n;
+	    }
+	    @Override public void close() throws IOException
+	    {
+		channel.close();
+	    }
+	};
+    }
+
+    static OutputStream output(ByteChannel channel)
+    {
+	return new OutputStream(){
+	    @Override public void write(int b) throws IOException
+	    {
+		write(new byte[]{ (byte)b }, 0, 1);
+	    }
+	    @Override public void write(byte[] b, int off, int len) throws IOException
+	    {
+		final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+		while (buf.hasRemaining())
+		    channel.write(buf);
+	    }
+	    @Override public void close() throws IOException
+	    {
+		channel.close();
+	    }
+	};
+    }
+}
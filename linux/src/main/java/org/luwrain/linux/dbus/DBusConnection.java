@@ -0,0 +1,413 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.logging.log4j.*;
+
+import org.luwrain.linux.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The connection to the D-Bus message bus over the Unix domain socket.
+ * The connection authenticates with the {@code EXTERNAL} mechanism and
+ * talks the binary protocol directly, without any native library. The
+ * incoming messages are read by one thread of {@link ProcessEngine}: the
+ * replies complete the futures of the calls and the signals go to the
+ * listeners. The listeners are called on the reading thread, so they
+ * must not block, in particular they must not make blocking calls.
+ */
+public final class DBusConnection implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static public final String
+	BUS_NAME = "org.freedesktop.DBus",
+	BUS_PATH = "/org/freedesktop/DBus",
+	DEFAULT_SYSTEM_BUS_ADDRESS = "unix:path=/var/run/dbus/system_bus_socket";
+
+    //The default timeout of libdbus
+    static public final long DEFAULT_TIMEOUT = 25000;
+
+    public interface Listener
+    {
+	void onSignal(DBusConnection connection, DBusMessage signal);
+	/**
+	 * Called once on closing of the connection.
+	 *
+	 * @param error The reason of closing, null if the connection is closed by {@link #close()}
+	 */
+	default void onClose(DBusConnection connection, Throwable error) {}
+    }
+
+    private final SocketChannel channel;
+    private final InputStream is;
+    private final OutputStream os;
+    private final AtomicInteger serials = new AtomicInteger(0);
+    private final Map<Integer, CompletableFuture<DBusMessage>> pending = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+    private String uniqueName = null;
+
+    private DBusConnection(SocketChannel channel)
+    {
+	this.channel = channel;
+	this.is = ChannelStreams.input(channel);
+	this.os = ChannelStreams.output(channel);
+    }
+
+    /**
+     * Connects to the system bus, its address may be overridden by the
+     * {@code DBUS_SYSTEM_BUS_ADDRESS} environment variable.
+     */
+    static public DBusConnection openSystemBus() throws IOException
+    {
+	final String address = System.getenv("DBUS_SYSTEM_BUS_ADDRESS");
+	return open(address != null && !address.isEmpty()?address:DEFAULT_SYSTEM_BUS_ADDRESS, ProcessEngine.getDefault());
+    }
+
+    /**
+     * Connects to the bus.
+     *
+     * @param address The address of the bus, only the {@code unix:path=} transport is supported
+     * @param engine The pool for the thread reading the messages
+     */
+    static public DBusConnection open(String address, ProcessEngine engine) throws IOException
+    {
+	requireNonNull(address, "address can't be null");
+	requireNonNull(engine, "engine can't be null");
+	final SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(parseAddress(address)));
+	final DBusConnection res = new DBusConnection(channel);
+	try {
+	    res.authenticate();
+	    engine.execute(res::readMessages);
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    channel.close();
+	    throw e;
+	}
+	try {
+	    final DBusMessage reply = res.call(DBusMessage.methodCall(BUS_NAME, BUS_PATH, BUS_NAME, "Hello", ""));
+	    res.uniqueName = reply.getArg(0).toString();
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    res.close();
+	    throw e;
+	}
+	log.debug("Connected to D-Bus at " + address + " as " + res.uniqueName);
+	return res;
+    }
+
+    public void addListener(Listener listener)
+    {
+	listeners.add(requireNonNull(listener, "listener can't be null"));
+    }
+
+    public void removeListener(Listener listener)
+    {
+	listeners.remove(listener);
+    }
+
+    /**
+     * Asks the bus to deliver the signals matching the rule.
+     *
+     * @param rule The match rule, like {@code type='signal',sender='org.freedesktop.UDisks2'}
+     */
+    public void addMatch(String rule) throws IOException
+    {
+	requireNonNull(rule, "rule can't be null");
+	call(DBusMessage.methodCall(BUS_NAME, BUS_PATH, BUS_NAME, "AddMatch", "s", rule));
+    }
+
+    /**
+     * Sends the message without waiting for the reply.
+     *
+     * @return The serial number of the sent message
+     */
+    public int send(DBusMessage message) throws IOException
+    {
+	requireNonNull(message, "message can't be null");
+	if (closed)
+	    throw new IOException("The D-Bus connection is closed");
+	final int serial = nextSerial();
+	write(message.marshal(serial));
+	return serial;
+    }
+
+    /**
+     * Calls the method without blocking.
+     *
+     * @return The future of the reply, completed exceptionally with {@link DBusException} on the error reply
+     */
+    public CompletableFuture<DBusMessage> callAsync(DBusMessage call)
+    {
+	requireNonNull(call, "call can't be null");
+	if (call.type != DBusMessage.METHOD_CALL)
+	    throw new IllegalArgumentException("The message must be the method call");
+	final CompletableFuture<DBusMessage> res = new CompletableFuture<>();
+	if (closed)
+	{
+	    res.completeExceptionally(new IOException("The D-Bus connection is closed"));
+	    return res;
+	}
+	final int serial = nextSerial();
+	pending.put(Integer.valueOf(serial), res);
+	//Also on cancelling after the timeout
+	res.whenComplete((reply, e)->pending.remove(Integer.valueOf(serial)));
+	try {
+	    write(call.marshal(serial));
+	}
+	catch(IOException e)
+	{
+	    pending.remove(Integer.valueOf(serial));
+	    res.completeExceptionally(e);
+	}
+	//The reading thread could finish before registering the call
+	if (closed && pending.remove(Integer.valueOf(serial)) != null)
+	    res.completeExceptionally(new IOException("The D-Bus connection is closed"));
+	return res;
+    }
+
+    /**
+     * Calls the method and waits for the reply. Must not be called from
+     * the listeners.
+     */
+    public DBusMessage call(DBusMessage call, long timeoutMillis) throws IOException
+    {
+	final CompletableFuture<DBusMessage> f = callAsync(call);
+	try {
+	    return f.get(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	catch(ExecutionException e)
+	{
+	    if (e.getCause() instanceof IOException)
+		throw (IOException)e.getCause();
+	    throw new IOException(e.getCause());
+	}
+	catch(TimeoutException e)
+	{
+	    f.cancel(false);
+	    throw new IOException("No reply to " + call.toString() + " in " + String.valueOf(timeoutMillis) + " ms");
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	    f.cancel(false);
+	    throw new InterruptedIOException("Interrupted while waiting for the reply to " + call.toString());
+	}
+    }
+
+    public DBusMessage call(DBusMessage call) throws IOException
+    {
+	return call(call, DEFAULT_TIMEOUT);
+    }
+
+    /** The name given to the connection by the bus, like {@code :1.42}. */
+    public String getUniqueName()
+    {
+	return uniqueName;
+    }
+
+    public boolean isClosed()
+    {
+	return closed;
+    }
+
+    @Override public void close()
+    {
+	if (closed)
+	    return;
+	closed = true;
+	try {
+	    channel.close();
+	}
+	catch(IOException e)
+	{
+	    log.debug("Unable to close the D-Bus connection", e);
+	}
+    }
+
+    private int nextSerial()
+    {
+	//Zero isn't allowed
+	final int res = serials.incrementAndGet();
+	return res != 0?res:serials.incrementAndGet();
+    }
+
+    private void write(byte[] bytes) throws IOException
+    {
+	synchronized(os) {
+	    os.write(bytes);
+	    os.flush();
+	}
+    }
+
+    private void authenticate() throws IOException
+    {
+	final StringBuilder uid = new StringBuilder();
+	for(byte b: String.valueOf(getUid()).getBytes(StandardCharsets.US_ASCII))
+	    uid.append(String.format("%02x", b));
+	write(("\0AUTH EXTERNAL " + new String(uid) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+	final String reply = readLine();
+	if (!reply.startsWith("OK "))
+	    throw new IOException("The D-Bus authentication is rejected: " + reply);
+	write("BEGIN\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    //Reads byte by byte, the binary messages may follow the line
+    private String readLine() throws IOException
+    {
+	final ByteArrayOutputStream b = new ByteArrayOutputStream();
+	while(true)
+	{
+	    final int ch = is.read();
+	    if (ch < 0)
+		throw new EOFException("The D-Bus connection is closed during the authentication");
+	    if (ch == '\n')
+		break;
+	    if (ch != '\r')
+		b.write(ch);
+	    if (b.size() > 1024)
+		throw new IOException("Too long line of the D-Bus authentication");
+	}
+	return new String(b.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private void readMessages()
+    {
+	Throwable error = null;
+	try (final InputStream in = new BufferedInputStream(is)) {
+	    for(DBusMessage m = DBusMessage.read(in);m != null;m = DBusMessage.read(in))
+		dispatch(m);
+	    if (!closed)
+		error = new EOFException("The bus has closed the connection");
+	}
+	catch(Throwable e)
+	{
+	    if (!closed)
+	    {
+		log.error("The D-Bus connection failed", e);
+		error = e;
+	    }
+	}
+	finally {
+	    closed = true;
+	    try {
+		channel.close();
+	    }
+	    catch(IOException e)
+	    {
+		log.debug("Unable to close the D-Bus connection", e);
+	    }
+	    final IOException e = new IOException("The D-Bus connection is closed", error);
+	    for(Integer serial: new ArrayList<>(pending.keySet()))
+	    {
+		final CompletableFuture<DBusMessage> f = pending.remove(serial);
+		if (f != null)
+		    f.completeExceptionally(e);
+	    }
+	    for(Listener l: listeners)
+		l.onClose(this, error);
+	}
+    }
+
+    private void dispatch(DBusMessage m) throws IOException
+    {
+	switch(m.type)
+	{
+	case DBusMessage.METHOD_RETURN:
+	case DBusMessage.ERROR:
+	    {
+		final CompletableFuture<DBusMessage> f = pending.remove(Integer.valueOf(m.replySerial));
+		if (f == null)
+		    return;
+		if (m.type == DBusMessage.METHOD_RETURN)
+		    f.complete(m); else
+		    f.completeExceptionally(new DBusException(m.errorName, m.getArgCount() > 0?m.getArg(0).toString():""));
+		return;
+	    }
+	case DBusMessage.SIGNAL:
+	    for(Listener l: listeners)
+		try {
+		    l.onSignal(this, m);
+		}
+		catch(Throwable e)
+		{
+		    log.error("The D-Bus signal listener failed on " + m.toString(), e);
+		}
+	    return;
+	case DBusMessage.METHOD_CALL:
+	    if ((m.flags & DBusMessage.FLAG_NO_REPLY_EXPECTED) != 0)
+		return;
+	    final DBusMessage reply = "org.freedesktop.DBus.Peer".equals(m.iface) && "Ping".equals(m.member)?
+	    DBusMessage.methodReturn(m, ""):
+	    DBusMessage.error(m, "org.freedesktop.DBus.Error.UnknownMethod", "No objects are exported");
+	    write(reply.marshal(nextSerial()));
+	    return;
+	}
+    }
+
+    static private int getUid() throws IOException
+    {
+	final Object uid = Files.getAttribute(Paths.get("/proc/self"), "unix:uid");
+	if (!(uid instanceof Integer))
+	    throw new IOException("Unable to get the user ID");
+	return ((Integer)uid).intValue();
+    }
+
+    /**
+     * Takes the socket path from the address. The address may list several
+     * alternatives separated by semicolons, the first {@code unix:path=}
+     * one is taken.
+     */
+    static String parseAddress(String address) throws IOException
+    {
+	for(String a: address.split(";", -1))
+	{
+	    if (!a.startsWith("unix:"))
+		continue;
+	    for(String kv: a.substring(5).split(",", -1))
+		if (kv.startsWith("path="))
+		    return unescape(kv.substring(5));
+	}
+	throw new IOException("Unsupported D-Bus address: " + address);
+    }
+
+    static private String unescape(String value) throws IOException
+    {
+	if (value.indexOf('%') < 0)
+	    return value;
+	final ByteArrayOutputStream b = new ByteArrayOutputStream();
+	for(int i = 0;i < value.length();i++)
+	{
+	    final char ch = value.charAt(i);
+	    if (ch != '%')
+	    {
+		b.write(ch);
+		continue;
+	    }
+	    if (i + 2 >= value.length())
+		throw new IOException("Invalid escaping in the D-Bus address: " + value);
+	    try {
+		b.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+	    }
+	    catch(NumberFormatException e)
+	    {
+		throw new IOException("Invalid escaping in the D-Bus address: " + value);
+	    }
+	    i += 2;
+	}
+	return new String(b.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,28 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+
+/**
+ * The error reply to the D-Bus method call.
+ */
+public final class DBusException extends IOException
+{
+    static private final long serialVersionUID = 1L;
+
+    private final String name;
+
+    public DBusException(String name, String message)
+    {
+	super(name + ": " + message);
+	this.name = name;
+    }
+
+    /** The name of the error, like {@code org.freedesktop.DBus.Error.ServiceUnknown}. */
+    public String getName()
+    {
+	return name;
+    }
+}
@@ -0,0 +1,311 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The D-Bus message. The messages are immutable; the serial number of
+ * the outgoing message is given by the connection while sending. The
+ * arguments of the received messages are decoded as described in
+ * {@link DBusReader}; for sending they can be given in the same types,
+ * and also as any collections and as {@link Variant}.
+ */
+public final class DBusMessage
+{
+    static public final int
+	METHOD_CALL = 1,
+	METHOD_RETURN = 2,
+	ERROR = 3,
+	SIGNAL = 4;
+
+    static public final int
+	FLAG_NO_REPLY_EXPECTED = 1,
+	FLAG_NO_AUTO_START = 2;
+
+    //The limit of the message size by the specification
+    static final int MAX_SIZE = 128 * 1024 * 1024;
+
+    //The codes of the header fields
+    static private final int
+	F_PATH = 1,
+	F_INTERFACE = 2,
+	F_MEMBER = 3,
+	F_ERROR_NAME = 4,
+	F_REPLY_SERIAL = 5,
+	F_DESTINATION = 6,
+	F_SENDER = 7,
+	F_SIGNATURE = 8;
+
+    /**
+     * The value with the explicit type for the variant arguments.
+     */
+    static public final class Variant
+    {
+	public final String signature;
+	public final Object value;
+	public Variant(String signature, Object value)
+	{
+	    this.signature = requireNonNull(signature, "signature can't be null");
+	    this.value = requireNonNull(value, "value can't be null");
+	    if (signature.isEmpty() || DBusSignature.typeEnd(signature, 0) != signature.length())
+		throw new IllegalArgumentException("The variant must have the single complete type: " + signature);
+	}
+    }
+
+    public final int type, flags, serial, replySerial;
+    public final String path, iface, member, errorName, destination, sender, signature;
+    private final Object[] body;
+
+    DBusMessage(int type, int flags, int serial, int replySerial,
+		String path, String iface, String member, String errorName, String destination, String sender,
+		String signature, Object[] body)
+    {
+	this.type = type;
+	this.flags = flags;
+	this.serial = serial;
+	this.replySerial = replySerial;
+	this.path = path;
+	this.iface = iface;
+	this.member = member;
+	this.errorName = errorName;
+	this.destination = destination;
+	this.sender = sender;
+	this.signature = signature != null?signature:"";
+	this.body = body != null?body:new Object[0];
+    }
+
+    static public DBusMessage methodCall(String destination, String path, String iface, String member, String signature, Object... args)
+    {
+	requireNonNull(path, "path can't be null");
+	requireNonNull(member, "member can't be null");
+	return new DBusMessage(METHOD_CALL, 0, 0, 0, path, iface, member, null, destination, null, signature, args);
+    }
+
+    static public DBusMessage signal(String path, String iface, String member, String signature, Object... args)
+    {
+	requireNonNull(path, "path can't be null");
+	requireNonNull(iface, "iface can't be null");
+	requireNonNull(member, "member can't be null");
+	return new DBusMessage(SIGNAL, 0, 0, 0, path, iface, member, null, null, null, signature, args);
+    }
+
+    static public DBusMessage methodReturn(DBusMessage call, String signature, Object... args)
+    {
+	requireNonNull(call, "call can't be null");
+	return new DBusMessage(METHOD_RETURN, 0, 0, call.serial, null, null, null, null, call.sender, null, signature, args);
+    }
+
+    static public DBusMessage error(DBusMessage call, String errorName, String message)
+    {
+	requireNonNull(call, "call can't be null");
+	requireNonNull(errorName, "errorName can't be null");
+	return new DBusMessage(ERROR, 0, 0, call.serial, null, null, null, errorName, call.sender, null, "s", new Object[]{message != null?message:""});
+    }
+
+    /** The new message with the given sender, for the bus implementations. */
+    public DBusMessage withSender(String sender)
+    {
+	return new DBusMessage(type, flags, serial, replySerial, path, iface, member, errorName, destination, sender, signature, body);
+    }
+
+    /** The new message with the given flags. */
+    public DBusMessage withFlags(int flags)
+    {
+	return new DBusMessage(type, flags, serial, replySerial, path, iface, member, errorName, destination, sender, signature, body);
+    }
+
+    public int getArgCount()
+    {
+	return body.length;
+    }
+
+    public Object getArg(int index)
+    {
+	return body[index];
+    }
+
+    /** The arguments of the message, the array is the copy. */
+    public Object[] getArgs()
+    {
+	return body.clone();
+    }
+
+    /**
+     * Encodes the message in the little-endian byte order.
+     *
+     * @param serial The serial number of the message, must not be zero
+     */
+    public byte[] marshal(int serial)
+    {
+	if (serial == 0)
+	    throw new IllegalArgumentException("serial can't be zero");
+	final DBusWriter b = new DBusWriter(256);
+	b.write(signature, body);
+	final byte[] bodyBytes = b.toByteArray();
+	final List<Object[]> fields = new ArrayList<>();
+	addField(fields, F_PATH, "o", path);
+	addField(fields, F_INTERFACE, "s", iface);
+	addField(fields, F_MEMBER, "s", member);
+	addField(fields, F_ERROR_NAME, "s", errorName);
+	if (replySerial != 0)
+	    addField(fields, F_REPLY_SERIAL, "u", Integer.valueOf(replySerial));
+	addField(fields, F_DESTINATION, "s", destination);
+	addField(fields, F_SENDER, "s", sender);
+	if (!signature.isEmpty())
+	    addField(fields, F_SIGNATURE, "g", signature);
+	final DBusWriter w = new DBusWriter(bodyBytes.length + 128);
+	w.writeByte('l');
+	w.writeByte(type);
+	w.writeByte(flags);
+	w.writeByte(1);
+	w.writeInt(bodyBytes.length);
+	w.writeInt(serial);
+	w.write("a(yv)", fields);
+	w.align(8);
+	w.writeBytes(bodyBytes);
+	if (w.position() > MAX_SIZE)
+	    throw new IllegalArgumentException("The message is too large");
+	return w.toByteArray();
+    }
+
+    /**
+     * Reads the message from the stream.
+     *
+     * @return The message, null on the end of the stream before the message
+     */
+    static public DBusMessage read(InputStream is) throws IOException
+    {
+	requireNonNull(is, "is can't be null");
+	final byte[] fixed = new byte[16];
+	final int first = is.read();
+	if (first < 0)
+	    return null;
+	fixed[0] = (byte)first;
+	readFully(is, fixed, 1, 15);
+	final boolean bigEndian;
+	switch(fixed[0])
+	{
+	case 'l':
+	    bigEndian = false;
+	    break;
+	case 'B':
+	    bigEndian = true;
+	    break;
+	default:
+	    throw new IOException("Invalid byte order of the D-Bus message: " + String.valueOf(fixed[0]));
+	}
+	if (fixed[3] != 1)
+	    throw new IOException("Unsupported version of the D-Bus protocol: " + String.valueOf(fixed[3]));
+	final long
+	bodyLen = DBusReader.getInt(fixed, 4, bigEndian) & 0xffffffffL,
+	fieldsLen = DBusReader.getInt(fixed, 12, bigEndian) & 0xffffffffL,
+	bodyStart = (16 + fieldsLen + 7) / 8 * 8,
+	total = bodyStart + bodyLen;
+	if (total > MAX_SIZE)
+	    throw new IOException("Too large D-Bus message: " + String.valueOf(total) + " bytes");
+	final byte[] buf = new byte[(int)total];
+	System.arraycopy(fixed, 0, buf, 0, fixed.length);
+	readFully(is, buf, fixed.length, buf.length - fixed.length);
+	return decode(buf, bigEndian, (int)fieldsLen, (int)bodyStart);
+    }
+
+    static private DBusMessage decode(byte[] buf, boolean bigEndian, int fieldsLen, int bodyStart) throws IOException
+    {
+	final DBusReader r = new DBusReader(buf, 12, 16 + fieldsLen, bigEndian);
+	final List<?> fields = (List<?>)r.readValue("a(yv)");
+	String path = null, iface = null, member = null, errorName = null, destination = null, sender = null, signature = "";
+	int replySerial = 0;
+	for(Object o: fields)
+	{
+	    final Object[] f = (Object[])o;
+	    final Object value = f[1];
+	    switch(((Byte)f[0]).intValue())
+	    {
+	    case F_PATH:
+		path = value.toString();
+		break;
+	    case F_INTERFACE:
+		iface = value.toString();
+		break;
+	    case F_MEMBER:
+		member = value.toString();
+		break;
+	    case F_ERROR_NAME:
+		errorName = value.toString();
+		break;
+	    case F_REPLY_SERIAL:
+		if (!(value instanceof Integer))
+		    throw new IOException("Invalid type of the reply serial");
+		replySerial = ((Integer)value).intValue();
+		break;
+	    case F_DESTINATION:
+		destination = value.toString();
+		break;
+	    case F_SENDER:
+		sender = value.toString();
+		break;
+	    case F_SIGNATURE:
+		signature = value.toString();
+		break;
+	    }
+	}
+	final Object[] body = new DBusReader(buf, bodyStart, buf.length, bigEndian).read(signature);
+	return new DBusMessage(buf[1], buf[2] & 0xff, DBusReader.getInt(buf, 8, bigEndian), replySerial,
+			       path, iface, member, errorName, destination, sender, signature, body);
+    }
+
+    static private void addField(List<Object[]> fields, int code, String type, Object value)
+    {
+	if (value != null)
+	    fields.add(new Object[]{Byte.valueOf((byte)code), new Variant(type, value)});
+    }
+
+    static private void readFully(InputStream is, byte[] buf, int pos, int len) throws IOException
+    {
+	while (len > 0)
+	{
+	    final int n = is.read(buf, pos, len);
+	    if (n < 0)
+		throw new EOFException("Unexpected end of the D-Bus message");
+	    pos += n;
+	    len -= n;
+	}
+    }
+
+    @Override public String toString()
+    {
+	final StringBuilder b = new StringBuilder();
+	switch(type)
+	{
+	case METHOD_CALL:
+	    b.append("call ");
+	    break;
+	case METHOD_RETURN:
+	    b.append("return ");
+	    break;
+	case ERROR:
+	    b.append("error ").append(errorName).append(' ');
+	    break;
+	case SIGNAL:
+	    b.append("signal ");
+	    break;
+	default:
+	    b.append("unknown ");
+	}
+	if (path != null)
+	    b.append(path).append(' ');
+	if (iface != null)
+	    b.append(iface).append('.');
+	if (member != null)
+	    b.append(member);
+	b.append('(').append(signature).append(") serial ").append(String.valueOf(serial));
+	if (replySerial != 0)
+	    b.append(" reply to ").append(String.valueOf(replySerial));
+	return new String(b);
+    }
+}
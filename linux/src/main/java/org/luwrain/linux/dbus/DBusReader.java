@@ -0,0 +1,255 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Unmarshals the values from the D-Bus wire format. The buffer must
+ * contain the whole message, the alignment is counted from its
+ * beginning. The values are mapped to the Java types as follows: the
+ * numbers of 16 bits and less to {@code Byte}, {@code Short} and
+ * {@code Integer}, the 32-bit numbers including unsigned ones to
+ * {@code Integer}, the 64-bit ones to {@code Long}, the strings, object
+ * paths and signatures to {@code String}, the arrays of bytes to
+ * {@code byte[]}, the dictionaries to {@code Map} keeping the order, the
+ * other arrays to {@code List}, the structs to {@code Object[]}; the
+ * variants are unwrapped to their values.
+ */
+final class DBusReader
+{
+    //Protects from the stack overflow on the malicious messages
+    static private final int MAX_DEPTH = 64;
+
+    private final byte[] buf;
+    private final boolean bigEndian;
+    private final int limit;
+    private int pos;
+    private int depth = 0;
+
+    DBusReader(byte[] buf, int pos, int limit, boolean bigEndian)
+    {
+	this.buf = buf;
+	this.pos = pos;
+	this.limit = limit;
+	this.bigEndian = bigEndian;
+    }
+
+    int position()
+    {
+	return pos;
+    }
+
+    /**
+     * Reads the values of the complete types of the signature.
+     */
+    Object[] read(String signature) throws IOException
+    {
+	final List<Object> res = new ArrayList<>();
+	int p = 0;
+	try {
+	    while (p < signature.length())
+	    {
+		final int end = DBusSignature.typeEnd(signature, p);
+		res.add(readType(signature.substring(p, end)));
+		p = end;
+	    }
+	}
+	catch(IllegalArgumentException e)
+	{
+	    throw new IOException(e.getMessage(), e);
+	}
+	return res.toArray(new Object[res.size()]);
+    }
+
+    Object readValue(String type) throws IOException
+    {
+	try {
+	    return readType(type);
+	}
+	catch(IllegalArgumentException e)
+	{
+	    throw new IOException(e.getMessage(), e);
+	}
+    }
+
+    private Object readType(String type) throws IOException
+    {
+	switch(type.charAt(0))
+	{
+	case 'y':
+	    return Byte.valueOf(readByte());
+	case 'b':
+	    return Boolean.valueOf(readInt() != 0);
+	case 'n':
+	    return Short.valueOf((short)readShort());
+	case 'q':
+	    return Integer.valueOf(readShort() & 0xffff);
+	case 'i':
+	case 'u':
+	case 'h':
+	    return Integer.valueOf(readInt());
+	case 'x':
+	case 't':
+	    return Long.valueOf(readLong());
+	case 'd':
+	    return Double.valueOf(Double.longBitsToDouble(readLong()));
+	case 's':
+	case 'o':
+	    return readString();
+	case 'g':
+	    return readSignature();
+	case 'v':
+	    {
+		final String sig = readSignature();
+		if (sig.isEmpty() || DBusSignature.typeEnd(sig, 0) != sig.length())
+		    throw new IOException("Invalid signature of the variant: " + sig);
+		return nested(sig);
+	    }
+	case 'a':
+	    return readArray(type.substring(1));
+	case '(':
+	    {
+		align(8);
+		final String sig = type.substring(1, type.length() - 1);
+		final List<Object> fields = new ArrayList<>();
+		for(int p = 0;p < sig.length();)
+		{
+		    final int end = DBusSignature.typeEnd(sig, p);
+		    fields.add(nested(sig.substring(p, end)));
+		    p = end;
+		}
+		return fields.toArray(new Object[fields.size()]);
+	    }
+	default:
+	    throw new IOException("Unsupported type: " + type);
+	}
+    }
+
+    byte readByte() throws IOException
+    {
+	check(1);
+	return buf[pos++];
+    }
+
+    int readShort() throws IOException
+    {
+	align(2);
+	check(2);
+	final int a = buf[pos] & 0xff, b = buf[pos + 1] & 0xff;
+	pos += 2;
+	return bigEndian?(a << 8) | b:(b << 8) | a;
+    }
+
+    int readInt() throws IOException
+    {
+	align(4);
+	check(4);
+	final int res = getInt(buf, pos, bigEndian);
+	pos += 4;
+	return res;
+    }
+
+    long readLong() throws IOException
+    {
+	align(8);
+	check(8);
+	final long a = getInt(buf, pos, bigEndian) & 0xffffffffL, b = getInt(buf, pos + 4, bigEndian) & 0xffffffffL;
+	pos += 8;
+	return bigEndian?(a << 32) | b:(b << 32) | a;
+    }
+
+    String readString() throws IOException
+    {
+	final int len = readInt();
+	if (len < 0)
+	    throw new IOException("Invalid length of the string: " + String.valueOf(len));
+	check(len + 1);
+	final String res = new String(buf, pos, len, StandardCharsets.UTF_8);
+	pos += len + 1;
+	return res;
+    }
+
+    String readSignature() throws IOException
+    {
+	final int len = readByte() & 0xff;
+	check(len + 1);
+	final String res = new String(buf, pos, len, StandardCharsets.US_ASCII);
+	pos += len + 1;
+	return res;
+    }
+
+    void align(int alignment) throws IOException
+    {
+	final int padding = (alignment - pos % alignment) % alignment;
+	check(padding);
+	pos += padding;
+    }
+
+    static int getInt(byte[] buf, int pos, boolean bigEndian)
+    {
+	final int
+	a = buf[pos] & 0xff,
+	b = buf[pos + 1] & 0xff,
+	c = buf[pos + 2] & 0xff,
+	d = buf[pos + 3] & 0xff;
+	return bigEndian?(a << 24) | (b << 16) | (c << 8) | d:(d << 24) | (c << 16) | (b << 8) | a;
+    }
+
+    private Object readArray(String elemType) throws IOException
+    {
+	final int len = readInt();
+	if (len < 0 || len > limit - pos)
+	    throw new IOException("Invalid length of the array: " + String.valueOf(len));
+	align(DBusSignature.alignment(elemType.charAt(0)));
+	final int end = pos + len;
+	if (end > limit)
+	    throw new IOException("The array exceeds the message");
+	if (elemType.charAt(0) == 'y')
+	{
+	    final byte[] res = Arrays.copyOfRange(buf, pos, end);
+	    pos = end;
+	    return res;
+	}
+	if (elemType.charAt(0) == '{')
+	{
+	    final int keyEnd = DBusSignature.typeEnd(elemType, 1);
+	    final String
+	    keyType = elemType.substring(1, keyEnd),
+	    valueType = elemType.substring(keyEnd, elemType.length() - 1);
+	    final Map<Object, Object> res = new LinkedHashMap<>();
+	    while (pos < end)
+	    {
+		align(8);
+		final Object key = nested(keyType);
+		res.put(key, nested(valueType));
+	    }
+	    return res;
+	}
+	final List<Object> res = new ArrayList<>();
+	while (pos < end)
+	    res.add(nested(elemType));
+	return res;
+    }
+
+    private Object nested(String type) throws IOException
+    {
+	if (++depth > MAX_DEPTH)
+	    throw new IOException("Too deep nesting of the values");
+	try {
+	    return readType(type);
+	}
+	finally {
+	    depth--;
+	}
+    }
+
+    private void check(int count) throws IOException
+    {
+	if (count < 0 || pos + count > limit)
+	    throw new IOException("Unexpected end of the message");
+    }
+}
@@ -0,0 +1,131 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.util.*;
+
+/**
+ * The utilities for the D-Bus type signatures.
+ */
+final class DBusSignature
+{
+    /**
+     * Finds the end of the complete type.
+     *
+     * @param signature The signature
+     * @param pos The position of the beginning of the type
+     * @return The position after the end of the type
+     * @throws IllegalArgumentException if the signature is malformed
+     */
+    static int typeEnd(String signature, int pos)
+    {
+	if (pos >= signature.length())
+	    throw new IllegalArgumentException("Incomplete signature: " + signature);
+	switch(signature.charAt(pos))
+	{
+	case 'y':
+	case 'b':
+	case 'n':
+	case 'q':
+	case 'i':
+	case 'u':
+	case 'x':
+	case 't':
+	case 'd':
+	case 'h':
+	case 's':
+	case 'o':
+	case 'g':
+	case 'v':
+	    return pos + 1;
+	case 'a':
+	    return typeEnd(signature, pos + 1);
+	case '(':
+	case '{':
+	    {
+		final char close = signature.charAt(pos) == '('?')':'}';
+		int p = pos + 1;
+		while (p < signature.length() && signature.charAt(p) != close)
+		    p = typeEnd(signature, p);
+		if (p >= signature.length() || p == pos + 1)
+		    throw new IllegalArgumentException("Malformed signature: " + signature);
+		return p + 1;
+	    }
+	default:
+	    throw new IllegalArgumentException("Unsupported type '" + signature.charAt(pos) + "' in the signature " + signature);
+	}
+    }
+
+    static int alignment(char type)
+    {
+	switch(type)
+	{
+	case 'y':
+	case 'g':
+	case 'v':
+	    return 1;
+	case 'n':
+	case 'q':
+	    return 2;
+	case 'x':
+	case 't':
+	case 'd':
+	case '(':
+	case '{':
+	    return 8;
+	default:
+	    return 4;
+	}
+    }
+
+    /**
+     * Guesses the signature of the value for writing it in the variant.
+     * The strings are written as strings, not object paths, the object
+     * arrays as structs and the empty collections as arrays of strings.
+     */
+    static String of(Object value)
+    {
+	if (value instanceof DBusMessage.Variant)
+	    return "v";
+	if (value instanceof String)
+	    return "s";
+	if (value instanceof Boolean)
+	    return "b";
+	if (value instanceof Byte)
+	    return "y";
+	if (value instanceof Short)
+	    return "n";
+	if (value instanceof Integer)
+	    return "i";
+	if (value instanceof Long)
+	    return "x";
+	if (value instanceof Double)
+	    return "d";
+	if (value instanceof byte[])
+	    return "ay";
+	if (value instanceof Object[])
+	{
+	    final StringBuilder b = new StringBuilder("(");
+	    for(Object o: (Object[])value)
+		b.append(of(o));
+	    return new String(b.append(')'));
+	}
+	if (value instanceof Collection)
+	    return "a" + elemOf((Collection<?>)value);
+	if (value instanceof Map)
+	{
+	    final Map<?, ?> m = (Map<?, ?>)value;
+	    if (m.isEmpty())
+		return "a{sv}";
+	    final Map.Entry<?, ?> e = m.entrySet().iterator().next();
+	    return "a{" + of(e.getKey()) + of(e.getValue()) + "}";
+	}
+	throw new IllegalArgumentException("Unable to guess the D-Bus type of " + value.getClass().getName());
+    }
+
+    static private String elemOf(Collection<?> c)
+    {
+	return c.isEmpty()?"s":of(c.iterator().next());
+    }
+}
@@ -0,0 +1,228 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.nio.charset.*;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Marshals the values to the D-Bus wire format in the little-endian
+ * byte order. The alignment is counted from the beginning of the buffer,
+ * which must be the beginning of the message.
+ */
+final class DBusWriter
+{
+    private byte[] buf;
+    private int pos = 0;
+
+    DBusWriter(int capacity)
+    {
+	this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    int position()
+    {
+	return pos;
+    }
+
+    byte[] toByteArray()
+    {
+	return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * Writes the values of the complete types of the signature.
+     */
+    void write(String signature, Object[] values)
+    {
+	requireNonNull(signature, "signature can't be null");
+	requireNonNull(values, "values can't be null");
+	int p = 0, i = 0;
+	while (p < signature.length())
+	{
+	    final int end = DBusSignature.typeEnd(signature, p);
+	    if (i >= values.length)
+		throw new IllegalArgumentException("Not enough values for the signature " + signature);
+	    write(signature.substring(p, end), values[i++]);
+	    p = end;
+	}
+	if (i != values.length)
+	    throw new IllegalArgumentException("Too many values for the signature " + signature);
+    }
+
+    /**
+     * Writes the value of the single complete type.
+     */
+    void write(String type, Object value)
+    {
+	requireNonNull(value, "value can't be null, the type is " + type);
+	switch(type.charAt(0))
+	{
+	case 'y':
+	    writeByte(((Number)value).intValue());
+	    return;
+	case 'b':
+	    writeInt(((Boolean)value).booleanValue()?1:0);
+	    return;
+	case 'n':
+	case 'q':
+	    align(2);
+	    ensure(2);
+	    final int s = ((Number)value).intValue();
+	    buf[pos++] = (byte)s;
+	    buf[pos++] = (byte)(s >> 8);
+	    return;
+	case 'i':
+	case 'u':
+	case 'h':
+	    writeInt(((Number)value).intValue());
+	    return;
+	case 'x':
+	case 't':
+	    writeLong(((Number)value).longValue());
+	    return;
+	case 'd':
+	    writeLong(Double.doubleToRawLongBits(((Number)value).doubleValue()));
+	    return;
+	case 's':
+	case 'o':
+	    writeString(value.toString());
+	    return;
+	case 'g':
+	    writeSignature(value.toString());
+	    return;
+	case 'v':
+	    writeVariant(value);
+	    return;
+	case 'a':
+	    writeArray(type, value);
+	    return;
+	case '(':
+	    {
+		align(8);
+		final Object[] fields = (Object[])value;
+		write(type.substring(1, type.length() - 1), fields);
+		return;
+	    }
+	default:
+	    throw new IllegalArgumentException("Unsupported type: " + type);
+	}
+    }
+
+    void writeByte(int value)
+    {
+	ensure(1);
+	buf[pos++] = (byte)value;
+    }
+
+    void writeInt(int value)
+    {
+	align(4);
+	ensure(4);
+	putInt(pos, value);
+	pos += 4;
+    }
+
+    void writeLong(long value)
+    {
+	align(8);
+	ensure(8);
+	putInt(pos, (int)value);
+	putInt(pos + 4, (int)(value >>> 32));
+	pos += 8;
+    }
+
+    void writeString(String value)
+    {
+	final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+	writeInt(bytes.length);
+	ensure(bytes.length + 1);
+	System.arraycopy(bytes, 0, buf, pos, bytes.length);
+	pos += bytes.length;
+	buf[pos++] = 0;
+    }
+
+    void writeSignature(String value)
+    {
+	final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+	if (bytes.length > 255)
+	    throw new IllegalArgumentException("Too long signature: " + value);
+	writeByte(bytes.length);
+	ensure(bytes.length + 1);
+	System.arraycopy(bytes, 0, buf, pos, bytes.length);
+	pos += bytes.length;
+	buf[pos++] = 0;
+    }
+
+    void writeBytes(byte[] bytes)
+    {
+	ensure(bytes.length);
+	System.arraycopy(bytes, 0, buf, pos, bytes.length);
+	pos += bytes.length;
+    }
+
+    void align(int alignment)
+    {
+	final int padding = (alignment - pos % alignment) % alignment;
+	ensure(padding);
+	for(int i = 0;i < padding;i++)
+	    buf[pos++] = 0;
+    }
+
+    //Puts the int at the given position without moving the current one
+    void putInt(int at, int value)
+    {
+	buf[at] = (byte)value;
+	buf[at + 1] = (byte)(value >> 8);
+	buf[at + 2] = (byte)(value >> 16);
+	buf[at + 3] = (byte)(value >> 24);
+    }
+
+    private void writeVariant(Object value)
+    {
+	final DBusMessage.Variant v = (value instanceof DBusMessage.Variant)?(DBusMessage.Variant)value:new DBusMessage.Variant(DBusSignature.of(value), value);
+	writeSignature(v.signature);
+	write(v.signature, v.value);
+    }
+
+    //The length doesn't include the padding before the first element
+    private void writeArray(String type, Object value)
+    {
+	final String elemType = type.substring(1);
+	writeInt(0);
+	final int lenPos = pos - 4;
+	align(DBusSignature.alignment(elemType.charAt(0)));
+	final int start = pos;
+	if (value instanceof byte[])
+	{
+	    final byte[] bytes = (byte[])value;
+	    ensure(bytes.length);
+	    System.arraycopy(bytes, 0, buf, pos, bytes.length);
+	    pos += bytes.length;
+	} else
+	    if (elemType.charAt(0) == '{')
+	    {
+		final String
+		keyType = elemType.substring(1, DBusSignature.typeEnd(elemType, 1)),
+		valueType = elemType.substring(1 + keyType.length(), elemType.length() - 1);
+		for(Map.Entry<?, ?> e: ((Map<?, ?>)value).entrySet())
+		{
+		    align(8);
+		    write(keyType, e.getKey());
+		    write(valueType, e.getValue());
+		}
+	    } else
+		for(Object o: (value instanceof Object[])?Arrays.asList((Object[])value):(Collection<?>)value)
+		    write(elemType, o);
+	putInt(lenPos, pos - start);
+    }
+
+    private void ensure(int count)
+    {
+	if (pos + count > buf.length)
+	    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + count));
+    }
+}
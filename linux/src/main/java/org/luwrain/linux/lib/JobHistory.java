@@ -0,0 +1,655 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.lib;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The persistent history of jobs. The texts of commands and the output of
+ * jobs are appended to the log file. The index file is memory-mapped and
+ * consists of entries of the fixed size, so the job is found by its id
+ * immediately and by its start time with the binary search. The output of
+ * the finished job is streamed to the log without copying it on the heap,
+ * only its last lines fitting in the limit are saved, and it's read from
+ * the log on demand. When the log exceeds its limit, the oldest jobs are
+ * dropped: the rest of the data is written to the new log, and the index
+ * referring to it atomically replaces the old one, so the interrupted
+ * compaction doesn't damage the history. The ids of the jobs never
+ * change. On opening the entries are checked against the log, so the
+ * history survives the log truncated after a crash: the entries referring
+ * to the lost data keep only what is left.
+ */
+public final class JobHistory implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static public final String INDEX_FILE = "jobs.idx";
+    static public final long
+	DEFAULT_MAX_LOG_BYTES = 64 * 1024 * 1024,
+	DEFAULT_MAX_OUTPUT_BYTES = 4 * 1024 * 1024;
+
+    static private final String
+	LOG_PREFIX = "jobs-",
+	LOG_SUFFIX = ".log",
+	//The log of the first version of the history
+	LEGACY_LOG_FILE = "jobs.log";
+
+    static private final int
+	MAGIC = 0x4c4a4f42,//LJOB
+	VERSION = 2,
+	HEADER_SIZE = 32,
+	ENTRY_SIZE = 64,
+	INITIAL_CAPACITY = 256,
+	MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / ENTRY_SIZE,
+	CHUNK_SIZE = 64 * 1024;
+
+    //Offsets of the header fields
+    static private final int
+	H_MAGIC = 0,
+	H_VERSION = 4,
+	H_COUNT = 8,
+	H_FIRST_ID = 16,
+	H_GENERATION = 24;
+
+    //Offsets of the entry fields
+    static private final int
+	F_START = 0,
+	F_END = 8,
+	F_EXIT_CODE = 16,
+	F_STATE = 20,
+	F_CMD_OFFSET = 24,
+	F_CMD_LEN = 32,
+	F_DIR_LEN = 36,
+	F_OUTPUT_OFFSET = 40,
+	F_OUTPUT_LEN = 48,
+	F_OUTPUT_LINES = 56;
+
+    public enum State {RUNNING, FINISHED, INTERRUPTED};
+
+    /**
+     * The immutable description of a job in the history.
+     */
+    static public final class Entry
+    {
+	public final long id, startTime, endTime;
+	public final int exitCode, outputLines;
+	public final State state;
+	public final String cmd, dir;
+	Entry(long id, long startTime, long endTime, int exitCode, int outputLines, State state, String cmd, String dir)
+	{
+	    this.id = id;
+	    this.startTime = startTime;
+	    this.endTime = endTime;
+	    this.exitCode = exitCode;
+	    this.outputLines = outputLines;
+	    this.state = state;
+	    this.cmd = cmd;
+	    this.dir = dir;
+	}
+	@Override public String toString()
+	{
+	    final StringBuilder b = new StringBuilder();
+	    b.append(String.valueOf(id)).append(": ").append(cmd);
+	    switch(state)
+	    {
+	    case RUNNING:
+		b.append(" (running)");
+		break;
+	    case INTERRUPTED:
+		b.append(" (interrupted)");
+		break;
+	    default:
+		b.append(" (exit code ").append(String.valueOf(exitCode)).append(")");
+	    }
+	    return new String(b);
+	}
+    }
+
+    private final File dir;
+    private final long maxLogBytes, maxOutputBytes;
+    private FileChannel indexChannel, logChannel = null;
+    private MappedByteBuffer index;
+    private int capacity;
+    //The number of the entries in the index, the first of them has firstId
+    private int count;
+    private long firstId;
+    //The number of the current log file, incremented on every compaction
+    private long generation;
+    private long logSize;
+
+    /**
+     * @param dir The directory of the history files
+     * @param maxLogBytes The size of the log causing the dropping of the oldest jobs
+     * @param maxOutputBytes The maximum number of bytes of the output saved for a job
+     */
+    public JobHistory(File dir, long maxLogBytes, long maxOutputBytes) throws IOException
+    {
+	requireNonNull(dir, "dir can't be null");
+	if (maxOutputBytes <= 0)
+	    throw new IllegalArgumentException("maxOutputBytes must be greater than zero");
+	if (maxLogBytes < maxOutputBytes)
+	    throw new IllegalArgumentException("maxLogBytes can't be less than maxOutputBytes");
+	this.dir = dir;
+	this.maxLogBytes = maxLogBytes;
+	this.maxOutputBytes = maxOutputBytes;
+	Files.createDirectories(dir.toPath());
+	this.indexChannel = FileChannel.open(new File(dir, INDEX_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	try {
+	    open();
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    indexChannel.close();
+	    if (logChannel != null)
+		logChannel.close();
+	    throw e;
+	}
+    }
+
+    public JobHistory(File dir) throws IOException
+    {
+	this(dir, DEFAULT_MAX_LOG_BYTES, DEFAULT_MAX_OUTPUT_BYTES);
+    }
+
+    private void open() throws IOException
+    {
+	final long indexSize = indexChannel.size();
+	if (indexSize >= 8)
+	{
+	    final ByteBuffer h = ByteBuffer.allocate(8);
+	    while (h.hasRemaining())
+		if (indexChannel.read(h, h.position()) < 0)
+		    throw new EOFException("Unexpected end of the job history index");
+	    if (h.getInt(H_MAGIC) != MAGIC)
+		throw new IOException("Unsupported format of the job history index in " + dir.getAbsolutePath());
+	    if (h.getInt(H_VERSION) == VERSION && indexSize >= HEADER_SIZE)
+	    {
+		load(indexSize);
+		return;
+	    }
+	    log.warn("Dropping the job history of the unsupported version " + String.valueOf(h.getInt(H_VERSION)) + " in " + dir.getAbsolutePath());
+	    Files.deleteIfExists(new File(dir, LEGACY_LOG_FILE).toPath());
+	}
+	indexChannel.truncate(0);
+	this.count = 0;
+	this.firstId = 0;
+	this.generation = 0;
+	map(INITIAL_CAPACITY);
+	index.putInt(H_MAGIC, MAGIC);
+	index.putInt(H_VERSION, VERSION);
+	index.putLong(H_COUNT, 0);
+	index.putLong(H_FIRST_ID, 0);
+	index.putLong(H_GENERATION, 0);
+	openLog();
+	logChannel.truncate(0);
+	logSize = 0;
+    }
+
+    private void load(long indexSize) throws IOException
+    {
+	if ((indexSize - HEADER_SIZE) / ENTRY_SIZE > MAX_CAPACITY)
+	    throw new IOException("Corrupted job history index in " + dir.getAbsolutePath());
+	map((int)Math.max(INITIAL_CAPACITY, (indexSize - HEADER_SIZE) / ENTRY_SIZE));
+	final long storedCount = index.getLong(H_COUNT);
+	this.firstId = index.getLong(H_FIRST_ID);
+	this.generation = index.getLong(H_GENERATION);
+	if (storedCount < 0 || storedCount > capacity || firstId < 0 || generation < 0)
+	    throw new IOException("Corrupted job history index in " + dir.getAbsolutePath());
+	this.count = (int)storedCount;
+	//The logs left by the interrupted compaction
+	Files.deleteIfExists(getLogFile(dir, generation + 1).toPath());
+	if (generation > 0)
+	    Files.deleteIfExists(getLogFile(dir, generation - 1).toPath());
+	openLog();
+	for(int i = 0;i < count;i++)
+	    recover(i);
+    }
+
+    private void openLog() throws IOException
+    {
+	this.logChannel = FileChannel.open(getLogFile(dir, generation).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	this.logSize = logChannel.size();
+    }
+
+    /**
+     * Fixes the entry left after the previous launch. The jobs running on
+     * the previous shutdown will never finish, the values not matching the
+     * log are dropped.
+     */
+    private void recover(int i)
+    {
+	final long id = firstId + i;
+	final int p = pos(i);
+	final int state = index.getInt(p + F_STATE);
+	if (state == State.RUNNING.ordinal() || state < 0 || state >= State.values().length)
+	    index.putInt(p + F_STATE, State.INTERRUPTED.ordinal());
+	final long cmdOffset = index.getLong(p + F_CMD_OFFSET);
+	final int cmdLen = index.getInt(p + F_CMD_LEN), dirLen = index.getInt(p + F_DIR_LEN);
+	if (cmdLen < 0 || dirLen < 0 || !inLog(cmdOffset, (long)cmdLen + dirLen))
+	{
+	    log.warn("The command of the job " + String.valueOf(id) + " is lost in the history in " + dir.getAbsolutePath());
+	    index.putLong(p + F_CMD_OFFSET, 0);
+	    index.putInt(p + F_CMD_LEN, 0);
+	    index.putInt(p + F_DIR_LEN, 0);
+	}
+	final long outputOffset = index.getLong(p + F_OUTPUT_OFFSET), outputLen = index.getLong(p + F_OUTPUT_LEN);
+	final int outputLines = index.getInt(p + F_OUTPUT_LINES);
+	if (outputOffset >= 0 && (outputLen > Integer.MAX_VALUE || outputLines < 0 || outputLines > outputLen + 1 || !inLog(outputOffset, outputLen)))
+	{
+	    log.warn("The output of the job " + String.valueOf(id) + " is lost in the history in " + dir.getAbsolutePath());
+	    index.putLong(p + F_OUTPUT_OFFSET, -1);
+	    index.putLong(p + F_OUTPUT_LEN, 0);
+	    index.putInt(p + F_OUTPUT_LINES, 0);
+	}
+    }
+
+    /**
+     * Registers the started job.
+     *
+     * @return The id of the new job
+     */
+    public synchronized long begin(String cmd, String workingDir, long startTime) throws IOException
+    {
+	requireNonNull(cmd, "cmd can't be null");
+	final byte[]
+	cmdBytes = cmd.getBytes(StandardCharsets.UTF_8),
+	dirBytes = (workingDir != null?workingDir:"").getBytes(StandardCharsets.UTF_8);
+	if (count == capacity)
+	{
+	    if (capacity == MAX_CAPACITY)
+		throw new IOException("The job history index in " + dir.getAbsolutePath() + " is full");
+	    map((int)Math.min(MAX_CAPACITY, (long)capacity * 2));
+	}
+	final long cmdOffset = append(cmdBytes, dirBytes);
+	final int p = pos(count);
+	index.putLong(p + F_START, startTime);
+	index.putLong(p + F_END, -1);
+	index.putInt(p + F_EXIT_CODE, -1);
+	index.putInt(p + F_STATE, State.RUNNING.ordinal());
+	index.putLong(p + F_CMD_OFFSET, cmdOffset);
+	index.putInt(p + F_CMD_LEN, cmdBytes.length);
+	index.putInt(p + F_DIR_LEN, dirBytes.length);
+	index.putLong(p + F_OUTPUT_OFFSET, -1);
+	index.putLong(p + F_OUTPUT_LEN, 0);
+	index.putInt(p + F_OUTPUT_LINES, 0);
+	count++;
+	index.putLong(H_COUNT, count);
+	return firstId + count - 1;
+    }
+
+    /**
+     * Saves the output and the exit code of the finished job. Only the
+     * last lines fitting in the limit are saved, they are written by
+     * chunks. The job already dropped from the history is ignored. The
+     * oldest jobs are dropped, if the log exceeds its limit after that.
+     */
+    public synchronized void finish(long id, long endTime, int exitCode, List<String> output) throws IOException
+    {
+	requireNonNull(output, "output can't be null");
+	if (id >= 0 && id < firstId)
+	{
+	    log.debug("The job " + String.valueOf(id) + " is already dropped from the history in " + dir.getAbsolutePath());
+	    return;
+	}
+	checkId(id);
+	final int size = output.size();
+	int from = size;
+	long len = 0;
+	while (from > 0)
+	{
+	    final long lineLen = utf8Length(output.get(from - 1)) + (from < size?1:0);
+	    if (len + lineLen > maxOutputBytes)
+		break;
+	    len += lineLen;
+	    from--;
+	}
+	final long offset = logSize;
+	final ByteBuffer b = ByteBuffer.allocate((int)Math.min(CHUNK_SIZE, Math.max(1, len)));
+	for(int i = from;i < size;i++)
+	{
+	    if (i > from)
+	    {
+		if (!b.hasRemaining())
+		    flush(b);
+		b.put((byte)'\n');
+	    }
+	    final byte[] bytes = output.get(i).getBytes(StandardCharsets.UTF_8);
+	    for(int pos = 0;pos < bytes.length;)
+	    {
+		if (!b.hasRemaining())
+		    flush(b);
+		final int n = Math.min(b.remaining(), bytes.length - pos);
+		b.put(bytes, pos, n);
+		pos += n;
+	    }
+	}
+	flush(b);
+	final int p = pos((int)(id - firstId));
+	index.putLong(p + F_OUTPUT_OFFSET, offset);
+	index.putLong(p + F_OUTPUT_LEN, logSize - offset);
+	index.putInt(p + F_OUTPUT_LINES, size - from);
+	index.putLong(p + F_END, endTime);
+	index.putInt(p + F_EXIT_CODE, exitCode);
+	index.putInt(p + F_STATE, State.FINISHED.ordinal());
+	if (logSize > maxLogBytes)
+	    try {
+		compact();
+	    }
+	    catch(IOException e)
+	    {
+		log.error("Unable to compact the job history in " + dir.getAbsolutePath(), e);
+	    }
+    }
+
+    /**
+     * The number of the ids given to the jobs, including the ids of the
+     * jobs already dropped from the history.
+     */
+    public synchronized long getCount()
+    {
+	return firstId + count;
+    }
+
+    /** The id of the oldest job remaining in the history. */
+    public synchronized long getFirstId()
+    {
+	return firstId;
+    }
+
+    public synchronized Entry get(long id) throws IOException
+    {
+	checkId(id);
+	final int p = pos((int)(id - firstId));
+	final int cmdLen = index.getInt(p + F_CMD_LEN), dirLen = index.getInt(p + F_DIR_LEN);
+	final byte[] bytes = read(index.getLong(p + F_CMD_OFFSET), cmdLen + dirLen);
+	return new Entry(id,
+			 index.getLong(p + F_START), index.getLong(p + F_END),
+			 index.getInt(p + F_EXIT_CODE), index.getInt(p + F_OUTPUT_LINES),
+			 getState(index.getInt(p + F_STATE)),
+			 new String(bytes, 0, cmdLen, StandardCharsets.UTF_8),
+			 new String(bytes, cmdLen, dirLen, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the first job started not earlier than the given time.
+     *
+     * @return The id of the job or the value of {@link #getCount()}, if there are no such jobs
+     */
+    public synchronized long findByTime(long time)
+    {
+	int l = 0, r = count;
+	while (l < r)
+	{
+	    final int m = (l + r) >>> 1;
+	    if (index.getLong(pos(m) + F_START) < time)
+		l = m + 1; else
+		r = m;
+	}
+	return firstId + l;
+    }
+
+    /**
+     * Lists the jobs started in the given period of time.
+     *
+     * @param fromTime The beginning of the period, inclusive
+     * @param toTime The end of the period, exclusive
+     * @param maxCount The maximum number of the returned jobs, the latest jobs are returned
+     */
+    public synchronized List<Entry> list(long fromTime, long toTime, int maxCount) throws IOException
+    {
+	final long from = findByTime(fromTime), to = findByTime(toTime);
+	final List<Entry> res = new ArrayList<>();
+	for(long i = Math.max(from, to - maxCount);i < to;i++)
+	    res.add(get(i));
+	return res;
+    }
+
+    /**
+     * Provides the output of the finished job. The lines are decoded on
+     * demand from the memory-mapped part of the log.
+     */
+    public synchronized List<String> getOutput(long id) throws IOException
+    {
+	checkId(id);
+	final int p = pos((int)(id - firstId));
+	final long offset = index.getLong(p + F_OUTPUT_OFFSET), len = index.getLong(p + F_OUTPUT_LEN);
+	final int lines = index.getInt(p + F_OUTPUT_LINES);
+	if (offset < 0 || lines <= 0)
+	    return Collections.emptyList();
+	//Mapping beyond the end would extend the log
+	if (len > Integer.MAX_VALUE || lines > len + 1 || !inLog(offset, len))
+	    throw new IOException("Corrupted job history index in " + dir.getAbsolutePath());
+	final ByteBuffer data = logChannel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+	final int[] starts = new int[lines + 1];
+	int n = 1;
+	for(int i = 0;i < len && n < lines;i++)
+	    if (data.get(i) == '\n')
+		starts[n++] = i + 1;
+	starts[lines] = (int)len + 1;
+	return new OutputView(data, starts);
+    }
+
+    @Override public synchronized void close()
+    {
+	try {
+	    index.force();
+	    indexChannel.close();
+	    logChannel.close();
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to close the job history in " + dir.getAbsolutePath(), e);
+	}
+    }
+
+    /**
+     * Drops the oldest jobs, so the rest takes no more than the half of the
+     * log limit. The remaining data goes to the log of the next
+     * generation, which becomes current with the atomic replacing of the
+     * index.
+     */
+    private void compact() throws IOException
+    {
+	int drop = count;
+	long keep = 0;
+	while (drop > 0)
+	{
+	    final long size = getDataSize(pos(drop - 1));
+	    if (keep + size > maxLogBytes / 2)
+		break;
+	    keep += size;
+	    drop--;
+	}
+	final long newGeneration = generation + 1;
+	final Path
+	indexFile = new File(dir, INDEX_FILE).toPath(),
+	newIndexFile = new File(dir, INDEX_FILE + ".tmp").toPath(),
+	newLogFile = getLogFile(dir, newGeneration).toPath();
+	final FileChannel newLog = FileChannel.open(newLogFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	long newLogSize = 0;
+	try {
+	    try (final FileChannel newIndexChannel = FileChannel.open(newIndexFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+		final MappedByteBuffer newIndex = newIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)capacity * ENTRY_SIZE);
+		for(int i = drop;i < count;i++)
+		{
+		    final int from = pos(i), to = pos(i - drop);
+		    for(int j = 0;j < ENTRY_SIZE;j++)
+			newIndex.put(to + j, index.get(from + j));
+		    newIndex.putLong(to + F_CMD_OFFSET, newLogSize);
+		    newLogSize += transfer(index.getLong(from + F_CMD_OFFSET), (long)index.getInt(from + F_CMD_LEN) + index.getInt(from + F_DIR_LEN), newLog);
+		    if (index.getLong(from + F_OUTPUT_OFFSET) < 0)
+			continue;
+		    newIndex.putLong(to + F_OUTPUT_OFFSET, newLogSize);
+		    newLogSize += transfer(index.getLong(from + F_OUTPUT_OFFSET), index.getLong(from + F_OUTPUT_LEN), newLog);
+		}
+		newIndex.putInt(H_MAGIC, MAGIC);
+		newIndex.putInt(H_VERSION, VERSION);
+		newIndex.putLong(H_COUNT, count - drop);
+		newIndex.putLong(H_FIRST_ID, firstId + drop);
+		newIndex.putLong(H_GENERATION, newGeneration);
+		newLog.force(true);
+		newIndex.force();
+	    }
+	    Files.move(newIndexFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    newLog.close();
+	    Files.deleteIfExists(newIndexFile);
+	    Files.deleteIfExists(newLogFile);
+	    throw e;
+	}
+	//The new index is already in place, switching to it
+	final Path oldLogFile = getLogFile(dir, generation).toPath();
+	indexChannel.close();
+	logChannel.close();
+	this.logChannel = newLog;
+	this.logSize = newLogSize;
+	this.indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	this.count -= drop;
+	this.firstId += drop;
+	this.generation = newGeneration;
+	map(capacity);
+	Files.deleteIfExists(oldLogFile);
+	log.debug("Dropped " + String.valueOf(drop) + " jobs from the history in " + dir.getAbsolutePath() + ", the log takes " + String.valueOf(logSize) + " bytes");
+    }
+
+    //The number of bytes taken by the entry in the log
+    private long getDataSize(int p)
+    {
+	final long cmdLen = (long)index.getInt(p + F_CMD_LEN) + index.getInt(p + F_DIR_LEN);
+	return index.getLong(p + F_OUTPUT_OFFSET) >= 0?cmdLen + index.getLong(p + F_OUTPUT_LEN):cmdLen;
+    }
+
+    private long transfer(long offset, long len, FileChannel dest) throws IOException
+    {
+	for(long done = 0;done < len;)
+	{
+	    final long n = logChannel.transferTo(offset + done, len - done, dest);
+	    if (n <= 0)
+		throw new EOFException("Unexpected end of the job history log");
+	    done += n;
+	}
+	return len;
+    }
+
+    private long append(byte[]... parts) throws IOException
+    {
+	final long offset = logSize;
+	for(byte[] bytes: parts)
+	{
+	    final ByteBuffer b = ByteBuffer.wrap(bytes);
+	    while (b.hasRemaining())
+		logSize += logChannel.write(b, logSize);
+	}
+	return offset;
+    }
+
+    //Writes the content of the buffer to the end of the log and clears the buffer
+    private void flush(ByteBuffer b) throws IOException
+    {
+	b.flip();
+	while (b.hasRemaining())
+	    logSize += logChannel.write(b, logSize);
+	b.clear();
+    }
+
+    private byte[] read(long offset, int len) throws IOException
+    {
+	final ByteBuffer b = ByteBuffer.allocate(len);
+	long p = offset;
+	while (b.hasRemaining())
+	{
+	    final int n = logChannel.read(b, p);
+	    if (n < 0)
+		throw new EOFException("Unexpected end of the job history log");
+	    p += n;
+	}
+	return b.array();
+    }
+
+    private boolean inLog(long offset, long len)
+    {
+	return offset >= 0 && len >= 0 && offset + len <= logSize;
+    }
+
+    //The index is mapped, so it may be changed from outside at any time
+    static private State getState(int value)
+    {
+	return value >= 0 && value < State.values().length?State.values()[value]:State.INTERRUPTED;
+    }
+
+    private void map(int newCapacity) throws IOException
+    {
+	this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)newCapacity * ENTRY_SIZE);
+	this.capacity = newCapacity;
+    }
+
+    private void checkId(long id)
+    {
+	if (id < firstId || id >= firstId + count)
+	    throw new IllegalArgumentException("Illegal job id: " + String.valueOf(id));
+    }
+
+    //The position of the entry with the given number in the index, not the id
+    static private int pos(int i)
+    {
+	return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    static File getLogFile(File dir, long generation)
+    {
+	return new File(dir, LOG_PREFIX + String.valueOf(generation) + LOG_SUFFIX);
+    }
+
+    //The length of the string encoded in UTF-8 as String.getBytes() does it
+    static private long utf8Length(String s)
+    {
+	long res = 0;
+	for(int i = 0;i < s.length();i++)
+	{
+	    final char c = s.charAt(i);
+	    if (c < 0x80)
+		res++; else
+		if (c < 0x800)
+		    res += 2; else
+		    if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+		    {
+			res += 4;
+			i++;
+		    } else
+			res += Character.isSurrogate(c)?1:3;
+	}
+	return res;
+    }
+
+    static private final class OutputView extends AbstractList<String> implements RandomAccess
+    {
+	private final ByteBuffer data;
+	private final int[] starts;
+	OutputView(ByteBuffer data, int[] starts)
+	{
+	    this.data = data;
+	    this.starts = starts;
+	}
+	@Override public int size()
+	{
+	    return starts.length - 1;
+	}
+	@Override public String get(int index)
+	{
+	    final byte[] bytes = new byte[starts[index + 1] - 1 - starts[index]];
+	    data.get(starts[index], bytes);
+	    return new String(bytes, StandardCharsets.UTF_8);
+	}
+    }
+}
@@ -0,0 +1,260 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.lib;
+
+import java.util.*;
+import org.apache.logging.log4j.*;
+
+import org.luwrain.linux.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Limits the number of simultaneously running processes. The tasks are
+ * queued in the FIFO order separately for each priority class, the
+ * interactive tasks are always started before the background ones. Part
+ * of the slots is reserved for the interactive tasks, so the background
+ * ones can't take all of them. The long-running tasks, like monitors or
+ * watchers, which mustn't wait in the queue and mustn't block it, are
+ * explicitly started by the caller without the slot. Each class has its
+ * own CPU and I/O priorities applied to the processes at their launch
+ * through {@code nice} and {@code ionice}.
+ */
+public final class JobScheduler
+{
+    static private final Logger log = LogManager.getLogger();
+
+    public enum Priority {INTERACTIVE, BACKGROUND};
+
+    /**
+     * The process priorities of the class.
+     */
+    static public final class ClassParams
+    {
+	final int nice, ioniceClass, ioniceLevel;
+
+	/**
+	 * @param nice The niceness of the processes, from -20 to 19
+	 * @param ioniceClass The I/O scheduling class: 1 (realtime), 2 (best-effort), 3 (idle) or 0 to leave it unchanged
+	 * @param ioniceLevel The priority inside the I/O class, from 0 to 7
+	 */
+	public ClassParams(int nice, int ioniceClass, int ioniceLevel)
+	{
+	    if (nice < -20 || nice > 19)
+		throw new IllegalArgumentException("nice must be in the range from -20 to 19");
+	    if (ioniceClass < 0 || ioniceClass > 3)
+		throw new IllegalArgumentException("ioniceClass must be in the range from 0 to 3");
+	    if (ioniceLevel < 0 || ioniceLevel > 7)
+		throw new IllegalArgumentException("ioniceLevel must be in the range from 0 to 7");
+	    this.nice = nice;
+	    this.ioniceClass = ioniceClass;
+	    this.ioniceLevel = ioniceLevel;
+	}
+
+	String getCmdPrefix()
+	{
+	    final StringBuilder b = new StringBuilder();
+	    if (nice != 0)
+		b.append("nice -n ").append(String.valueOf(nice)).append(" ");
+	    if (ioniceClass == 3)
+		b.append("ionice -c 3 "); else
+		if (ioniceClass != 0)
+		    b.append("ionice -c ").append(String.valueOf(ioniceClass)).append(" -n ").append(String.valueOf(ioniceLevel)).append(" ");
+	    return new String(b);
+	}
+    }
+
+    static public final ClassParams
+	DEFAULT_INTERACTIVE = new ClassParams(0, 0, 0),
+	DEFAULT_BACKGROUND = new ClassParams(10, 2, 7);
+
+    static private final JobScheduler defaultScheduler = new JobScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_INTERACTIVE, DEFAULT_BACKGROUND);
+
+    private final int maxRunning, maxBackground;
+    private final EnumMap<Priority, ClassParams> params = new EnumMap<>(Priority.class);
+    private final EnumMap<Priority, ArrayDeque<Runnable>> queues = new EnumMap<>(Priority.class);
+    //The tasks occupying the slots
+    private final Map<Runnable, Priority> running = new IdentityHashMap<>();
+    private int runningBackground = 0;
+
+    /**
+     * @param maxRunning The maximum number of the tasks occupying the slots
+     * @param reserved The number of the slots available only for the interactive tasks, less than {@code maxRunning}
+     */
+    public JobScheduler(int maxRunning, int reserved, ClassParams interactive, ClassParams background)
+    {
+	if (maxRunning <= 0)
+	    throw new IllegalArgumentException("maxRunning must be greater than zero");
+	if (reserved < 0 || reserved >= maxRunning)
+	    throw new IllegalArgumentException("reserved must be in the range from 0 to maxRunning - 1");
+	this.maxRunning = maxRunning;
+	this.maxBackground = maxRunning - reserved;
+	params.put(Priority.INTERACTIVE, requireNonNull(interactive, "interactive can't be null"));
+	params.put(Priority.BACKGROUND, requireNonNull(background, "background can't be null"));
+	for(Priority p: Priority.values())
+	    queues.put(p, new ArrayDeque<>());
+    }
+
+    /**
+     * Creates the scheduler reserving the half of the slots for the
+     * interactive tasks.
+     */
+    public JobScheduler(int maxRunning, ClassParams interactive, ClassParams background)
+    {
+	this(maxRunning, maxRunning / 2, interactive, background);
+    }
+
+    /**
+     * Prepares the command line to be run with the priorities of the given
+     * class. The command is wrapped into the separate bash instance, so the
+     * priorities are inherited by all processes it launches.
+     *
+     * @param cmd The command line for bash
+     * @param priority The class of the command
+     * @return The command line with the priorities applied
+     */
+    public String prepareCommand(String cmd, Priority priority)
+    {
+	requireNonNull(cmd, "cmd can't be null");
+	requireNonNull(priority, "priority can't be null");
+	final String prefix = params.get(priority).getCmdPrefix();
+	if (prefix.isEmpty())
+	    return cmd;
+	return prefix + "/bin/bash -c " + BashProcess.escape(cmd);
+    }
+
+    /**
+     * Starts the task immediately, if there is the free slot for its
+     * class, or puts it to the queue. The task must call {@link
+     * #finished(Runnable)} once its process terminates or fails to launch,
+     * the task throwing an exception is considered finished.
+     *
+     * @return True, if the task is started, false if it's queued
+     */
+    public boolean submit(Runnable task, Priority priority)
+    {
+	requireNonNull(task, "task can't be null");
+	requireNonNull(priority, "priority can't be null");
+	synchronized(this) {
+	    //The waiting tasks of the same class go first
+	    if (!queues.get(priority).isEmpty() || !hasSlot(priority))
+	    {
+		queues.get(priority).add(task);
+		log.trace("Queued a " + priority + " task, " + String.valueOf(getQueuedCount()) + " tasks waiting");
+		return false;
+	    }
+	    occupy(task, priority);
+	}
+	start(task);
+	return true;
+    }
+
+    /**
+     * Starts the long-running task at once without taking the slot, so it
+     * doesn't count against the limit. It's intended for the processes
+     * running all the time, like monitors, and mustn't be used for the
+     * tasks doing the actual work. The priorities of the class are still
+     * applied with {@link #prepareCommand(String, Priority)}, calling
+     * {@link #finished(Runnable)} for such task isn't required.
+     */
+    public void startUnlimited(Runnable task)
+    {
+	requireNonNull(task, "task can't be null");
+	log.trace("Starting a task without the slot");
+	task.run();
+    }
+
+    /**
+     * Removes the task from the queue.
+     *
+     * @return True, if the task was waiting in the queue, false if it's already started
+     */
+    public synchronized boolean cancel(Runnable task)
+    {
+	requireNonNull(task, "task can't be null");
+	for(ArrayDeque<Runnable> q: queues.values())
+	    if (q.remove(task))
+		return true;
+	return false;
+    }
+
+    /**
+     * Notifies that the task is completed and starts the next ones from
+     * the queue. The repeated calls and the calls for the tasks not
+     * occupying the slots are ignored.
+     */
+    public void finished(Runnable task)
+    {
+	requireNonNull(task, "task can't be null");
+	release(task);
+    }
+
+    /** The number of the tasks occupying the slots. */
+    public synchronized int getRunningCount() { return running.size(); }
+
+    public synchronized int getQueuedCount()
+    {
+	int res = 0;
+	for(ArrayDeque<Runnable> q: queues.values())
+	    res += q.size();
+	return res;
+    }
+
+    public int getMaxRunningCount() { return maxRunning; }
+
+    private boolean hasSlot(Priority priority)
+    {
+	if (running.size() >= maxRunning)
+	    return false;
+	return priority == Priority.INTERACTIVE || runningBackground < maxBackground;
+    }
+
+    private void occupy(Runnable task, Priority priority)
+    {
+	running.put(task, priority);
+	if (priority == Priority.BACKGROUND)
+	    runningBackground++;
+    }
+
+    private void release(Runnable task)
+    {
+	final List<Runnable> next = new ArrayList<>();
+	synchronized(this) {
+	    final Priority priority = running.remove(task);
+	    if (priority == null)
+		return;
+	    if (priority == Priority.BACKGROUND)
+		runningBackground--;
+	    for(Priority p: Priority.values())
+	    {
+		final ArrayDeque<Runnable> q = queues.get(p);
+		while (!q.isEmpty() && hasSlot(p))
+		{
+		    final Runnable t = q.poll();
+		    occupy(t, p);
+		    next.add(t);
+		}
+	    }
+	}
+	for(Runnable t: next)
+	    start(t);
+    }
+
+    private void start(Runnable task)
+    {
+	try {
+	    task.run();
+	}
+	catch(Throwable e)
+	{
+	    log.error("Unable to start the task", e);
+	    release(task);
+	}
+    }
+
+    static public JobScheduler getDefault()
+    {
+	return defaultScheduler;
+    }
+}
@@ -0,0 +1,90 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.lib;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Collects the output lines of a job and delivers them in batches. The
+ * batch is delivered no earlier than the given delay after the previous
+ * one, unless the number of pending lines reaches the limit. The
+ * deliveries never overlap and keep the order of lines.
+ */
+final class OutputBatcher
+{
+    static private final AtomicInteger threadNum = new AtomicInteger(0);
+    static private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r->{
+	    final Thread t = new Thread(r, "luwrain-job-notifications-" + String.valueOf(threadNum.incrementAndGet()));
+	    t.setDaemon(true);
+	    return t;
+	});
+
+    private final SysJob.Batching batching;
+    private final Consumer<List<String>> consumer;
+    private final Object deliveryLock = new Object();
+    private List<String> pending = new ArrayList<>();
+    private long lastDeliveryNanos = 0;
+    private ScheduledFuture<?> scheduled = null;
+
+    OutputBatcher(SysJob.Batching batching, Consumer<List<String>> consumer)
+    {
+	this.batching = requireNonNull(batching, "batching can't be null");
+	this.consumer = requireNonNull(consumer, "consumer can't be null");
+    }
+
+    void add(String line)
+    {
+	final boolean deliverNow;
+	synchronized(this) {
+	    pending.add(line);
+	    if (pending.size() >= batching.maxLines)
+		deliverNow = true; else
+	    {
+		deliverNow = false;
+		if (scheduled == null)
+		{
+		    final long sinceLast = System.nanoTime() - lastDeliveryNanos;
+		    final long delay = Math.max(0, TimeUnit.MILLISECONDS.toNanos(batching.delayMs) - sinceLast);
+		    scheduled = timer.schedule(this::deliver, delay, TimeUnit.NANOSECONDS);
+		}
+	    }
+	}
+	if (deliverNow)
+	    deliver();
+    }
+
+    /**
+     * Delivers all pending lines immediately. Must be called on the end of
+     * the output.
+     */
+    void flush()
+    {
+	deliver();
+    }
+
+    private void deliver()
+    {
+	synchronized(deliveryLock) {
+	    final List<String> batch;
+	    synchronized(this) {
+		if (scheduled != null)
+		{
+		    scheduled.cancel(false);
+		    scheduled = null;
+		}
+		if (pending.isEmpty())
+		    return;
+		batch = pending;
+		pending = new ArrayList<>();
+		lastDeliveryNanos = System.nanoTime();
+	    }
+	    consumer.accept(Collections.unmodifiableList(batch));
+	}
+    }
+}
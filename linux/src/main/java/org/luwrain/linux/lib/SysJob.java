@@ -4,7 +4,10 @@
 package org.luwrain.linux.lib;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.lang.ref.*;
+import org.apache.logging.log4j.*;
 
 import com.google.auto.service.*;
 
@@ -15,19 +18,105 @@ import static java.util.Objects.*;
 import static java.util.stream.Collectors.*;
 import static org.luwrain.core.NullCheck.*;
 
+/**
+ * Runs the commands through bash. The notifications about the "main"
+ * information are coalesced and carry only the lines appeared since the
+ * previous notification, the complete output is always available through
+ * {@code getInfo("main")}. If the job history is set, the finished jobs
+ * are saved there and can be listed with {@code getInfo("history")},
+ * the output of the saved job is provided with {@code getInfo("history:<id>")}.
+ */
 //Does not any escaping of the command
 @AutoService(JobLauncher.class)
 public final class SysJob implements JobLauncher
 {
+    static private final Logger log = LogManager.getLogger();
+
+    static private final long
+	MAX_OUTPUT_BYTES = 4 * 1024 * 1024,
+	MAX_SPILL_BYTES = 64 * 1024 * 1024;
+    static private final int MAX_HISTORY_ITEMS = 100;
+    static private final String
+	HISTORY_PREFIX = "history:",
+	STATE_QUEUED = "queued",
+	STATE_RUNNING = "running",
+	STATE_FINISHED = "finished";
+    static private final Cleaner cleaner = Cleaner.create();
+    static private volatile JobHistory history = null;
+
+    /**
+     * The parameters of coalescing the output notifications of a job.
+     */
+    static public final class Batching
+    {
+	final long delayMs;
+	final int maxLines;
+
+	/**
+	 * @param delayMs The minimal delay between two notifications in milliseconds
+	 * @param maxLines The number of pending lines causing the notification regardless of the delay
+	 */
+	public Batching(long delayMs, int maxLines)
+	{
+	    if (delayMs < 0)
+		throw new IllegalArgumentException("delayMs can't be negative");
+	    if (maxLines <= 0)
+		throw new IllegalArgumentException("maxLines must be greater than zero");
+	    this.delayMs = delayMs;
+	    this.maxLines = maxLines;
+	}
+
+	public long getDelayMs() { return delayMs; }
+	public int getMaxLines() { return maxLines; }
+    }
+
+    static public final Batching DEFAULT_BATCHING = new Batching(50, 5000);
+
     @Override public Job launch(Job.Listener listener, String[] args, String dir)
+    {
+	return launch(listener, args, dir, DEFAULT_BATCHING);
+    }
+
+    public Job launch(Job.Listener listener, String[] args, String dir, Batching batching)
+    {
+	return launch(listener, args, dir, batching, JobScheduler.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Launches the job through the default scheduler. The job waiting in the
+     * queue reports the {@code RUNNING} status, since {@link Job.Status}
+     * has no separate value for it, its actual state is provided with
+     * {@code getInfo("state")}.
+     */
+    public Job launch(Job.Listener listener, String[] args, String dir, Batching batching, JobScheduler.Priority priority)
     {
 	requireNonNull(listener, "listener can't be null");
+	requireNonNull(batching, "batching can't be null");
+	requireNonNull(priority, "priority can't be null");
 	notNullItems(args, "args");
 	if (args.length == 0 || args[0].isEmpty())
 	    return new ErrorJobInstance("sys", "No command");
+	final JobScheduler scheduler = JobScheduler.getDefault();
 	final Data data = new Data();
 	final Job ins = new Job(){
-		@Override public void stop() { if (data.stopProc != null) data.stopProc.run(); }
+		@Override public void stop()
+		{
+		    synchronized(data) {
+			if (data.queued)
+			{
+			    //If the task is already taken from the queue, it skips launching
+			    scheduler.cancel(data.startTask);
+			    data.queued = false;
+			    data.finished = true;
+			} else
+			{
+			    if (data.stopProc != null)
+				data.stopProc.run();
+			    return;
+			}
+		    }
+		    listener.onStatusChange(this);
+		}
 	    	@Override public String getInstanceName() { return data.cmd; }
 		@Override public Status getStatus() { return data.finished?Status.FINISHED:Status.RUNNING; }
 		@Override public int getExitCode() { return data.exitCode; }
@@ -38,42 +127,189 @@ public final class SysJob implements JobLauncher
 		    switch(type)
 		    {
 		    case "brief":
-			return Arrays.asList(data.state);
+			return Arrays.asList(data.queued?STATE_QUEUED:data.state);
 		    case "main":
-			return data.mlState;
+			{
+			    final List<String> saved = data.savedOutput;
+			    return saved != null?saved:data.mlState.asList();
+			}
+		    case "state":
+			return Arrays.asList(data.queued?STATE_QUEUED:(data.finished?STATE_FINISHED:STATE_RUNNING));
+		    case "history":
+			return getHistory();
 		    default:
+			if (type.startsWith(HISTORY_PREFIX))
+			    return getHistoryOutput(type.substring(HISTORY_PREFIX.length()));
 			return Arrays.asList();
 		    }
 		}
 			    };
+	//The output of the jobs not saved in the history is kept until the job object is dropped
+	cleaner.register(ins, data.mlState::close);
 	data.cmd = buildCmd(args);
-	final var p = new BashProcess(data.cmd, dir, EnumSet.noneOf(BashProcess.Flags.class), new BashProcess.Listener(){
+	final var batcher = new OutputBatcher(batching, lines -> listener.onInfoChange(ins, "main", lines));
+	final var p = new BashProcess(scheduler.prepareCommand(data.cmd, priority), dir, EnumSet.noneOf(BashProcess.Flags.class), new BashProcess.Listener(){
 		@Override public void onOutputLine(String line)
 		{
 		    data.mlState.add(line);
-		    listener.onInfoChange(ins, "main", data.mlState);
+		    batcher.add(line);
 		}
 		@Override public void onErrorLine(String line)
 		{
 		    data.mlState.add(line);
-		    listener.onInfoChange(ins, "main", data.mlState);
+		    batcher.add(line);
 		}
 		@Override public void onFinishing(int exitCode)
 		{
-		    data.finished = true;
-		    data.exitCode = exitCode;
-		    listener.onStatusChange(ins);
+		    final long endTime = System.currentTimeMillis();
+		    scheduler.finished(data.startTask);
+		    //The process is terminated, but its output may be still being read
+		    afterOutput(data, ()->{
+			    batcher.flush();
+			    data.exitCode = exitCode;
+			    data.finished = true;
+			    listener.onStatusChange(ins);
+			    saveHistory(data, endTime);
+			});
 		}
 	    });
+	data.proc = p;
+	data.startTask = ()->{
+	    final boolean notify;
+	    synchronized(data) {
+		data.queued = false;
+		//The job stopped while waiting in the queue
+		if (data.finished)
+		    notify = false; else
+		{
+		    //The history entry must exist before the process, which may finish at once
+		    beginHistory(data, dir);
+		    try {
+			p.run();
+			data.stopProc = ()->p.stop();
+			return;
+		    }
+		    catch(IOException e)
+		    {
+			log.error("Unable to launch the job '" + data.cmd + "'", e);
+			data.launchError = e.getMessage() != null?e.getMessage():e.getClass().getName();
+			data.mlState.add(data.launchError);
+			data.finished = true;
+			notify = data.launched;
+			saveHistory(data, System.currentTimeMillis());
+		    }
+		}
+	    }
+	    scheduler.finished(data.startTask);
+	    if (notify)
+		listener.onStatusChange(ins);
+	};
+	synchronized(data) {
+	    data.queued = true;
+	    if (scheduler.submit(data.startTask, priority) && data.launchError != null)
+		return new ErrorJobInstance(args[0], data.launchError);
+	    data.launched = true;
+	}
+	return ins;
+    }
+
+    static private void beginHistory(Data data, String dir)
+    {
+	final JobHistory h = history;
+	if (h == null)
+	    return;
 	try {
-	    p.run();
+	    data.historyId = h.begin(data.cmd, dir, System.currentTimeMillis());
 	}
 	catch(IOException e)
 	{
-	    return new ErrorJobInstance(args[0], e.getMessage());
+	    log.error("Unable to save the job in the history", e);
+	}
+    }
+
+    /**
+     * Sets the storage for saving the finished jobs.
+     *
+     * @param history The job history or {@code null} to stop saving the jobs
+     */
+    static public void setHistory(JobHistory history)
+    {
+	SysJob.history = history;
+    }
+
+    /**
+     * Runs the action when all output of the job is read. The waiting is
+     * done out of the process termination callback, on the thread of the
+     * process engine, if there is any free.
+     */
+    static private void afterOutput(Data data, Runnable action)
+    {
+	final Runnable r = ()->{
+	    data.proc.waitFor();
+	    action.run();
+	};
+	try {
+	    ProcessEngine.getDefault().execute(r);
+	}
+	catch(RejectedExecutionException e)
+	{
+	    r.run();
+	}
+    }
+
+    static private void saveHistory(Data data, long endTime)
+    {
+	final JobHistory h = history;
+	if (h == null || data.historyId < 0)
+	    return;
+	try {
+	    h.finish(data.historyId, endTime, data.exitCode, data.mlState.asList());
+	    //The saved output is read from the history, so the buffer with its spill file isn't needed anymore, unless only the last lines are saved
+	    final List<String> saved = h.getOutput(data.historyId);
+	    if (saved.size() < data.mlState.size())
+		return;
+	    data.savedOutput = saved;
+	    data.mlState.close();
+	}
+	//The job may be already dropped from the history
+	catch(IOException | IllegalArgumentException e)
+	{
+	    log.error("Unable to save the output of the job '" + data.cmd + "' in the history", e);
+	}
+    }
+
+    static private List<String> getHistory()
+    {
+	final JobHistory h = history;
+	if (h == null)
+	    return Arrays.asList();
+	try {
+	    return h.list(0, Long.MAX_VALUE, MAX_HISTORY_ITEMS).stream().map(JobHistory.Entry::toString).collect(toList());
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to read the job history", e);
+	    return Arrays.asList();
+	}
+    }
+
+    static private List<String> getHistoryOutput(String id)
+    {
+	final JobHistory h = history;
+	if (h == null)
+	    return Arrays.asList();
+	try {
+	    return h.getOutput(Long.parseLong(id.trim()));
+	}
+	catch(IllegalArgumentException e)
+	{
+	    return Arrays.asList();
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to read the job history", e);
+	    return Arrays.asList();
 	}
-	data.stopProc = ()->p.stop();
-	return ins;
     }
 
     @Override public String getExtObjName()
@@ -99,10 +335,19 @@ public final class SysJob implements JobLauncher
     static private final class Data
     {
 	String cmd;
-	boolean finished = false;
-	int exitCode = -1;
+	//Set on the threads of the process termination and the output reading
+	volatile boolean finished = false;
+	volatile int exitCode = -1;
 	String state = "";
-	final List<String> mlState = new ArrayList<>();
+	//The oldest lines of chatty jobs go to the temporary file, the oldest of them are dropped from it as well
+	final LineBuffer mlState = new LineBuffer(LineBuffer.Retention.TAIL, MAX_OUTPUT_BYTES, Integer.MAX_VALUE, new File(System.getProperty("java.io.tmpdir")), MAX_SPILL_BYTES);
+	volatile List<String> savedOutput = null;
 	Runnable stopProc = null;
+	BashProcess proc = null;
+	volatile long historyId = -1;
+	Runnable startTask = null;
+	volatile boolean queued = false;
+	boolean launched = false;
+	String launchError = null;
     }
 }
@@ -20,11 +20,18 @@ final class BashProcessObj implements ProxyObject
 {
     private final BashProcess p;
         private final BashProcessOutput output;
+    private final Runnable stop;
 
-    BashProcessObj(BashProcess p, BashProcessOutput output)
+    BashProcessObj(BashProcess p, BashProcessOutput output, Runnable stop)
     {
 	this.p = requireNonNull(p, "p can't be null");
 	this.output = requireNonNull(output, "output can't be null");
+	this.stop = requireNonNull(stop, "stop can't be null");
+    }
+
+    BashProcessObj(BashProcess p, BashProcessOutput output)
+    {
+	this(p, output, p::stop);
     }
 
     @Override public Object getMember(String name)
@@ -39,6 +46,8 @@ final class BashProcessObj implements ProxyObject
 		    return ProxyArray.fromArray((Object[])output.getErrorsAsArray());
 	    	    	case "waitFor":
 			    return (ProxyExecutable)this::waitFor;
+	case "stop":
+	    return (ProxyExecutable)this::stop;
 	default:
 	    return null;
 	}
@@ -51,6 +60,7 @@ final class BashProcessObj implements ProxyObject
 	case "output":
 	case "errors":
 	case "waitFor":
+	case "stop":
 	    return true;
 	    	default:
 	    return false;
@@ -63,6 +73,7 @@ final class BashProcessObj implements ProxyObject
 	    "output",
 	    "errors",
 	    "waitFor",
+	    "stop",
 	};
     }
 
@@ -75,4 +86,10 @@ final class BashProcessObj implements ProxyObject
     {
 	return p.waitFor();
     }
+
+    private Object stop(Value[] values)
+    {
+	stop.run();
+	return null;
+    }
     }
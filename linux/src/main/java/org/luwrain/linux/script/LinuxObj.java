@@ -5,6 +5,7 @@ package org.luwrain.linux.script;
 
 import java.io.*;
 import java.util.*;
+import org.apache.logging.log4j.*;
 
 import org.graalvm.polyglot.*;
 import org.graalvm.polyglot.proxy.*;
@@ -13,12 +14,15 @@ import org.luwrain.core.*;
 import org.luwrain.script.core.*;
 import org.luwrain.script.*;
 import org.luwrain.linux.*;
+import org.luwrain.linux.lib.*;
 
 import static java.util.Objects.*;
 import static org.luwrain.script.ScriptUtils.*;
 
 final class LinuxObj implements ProxyObject
 {
+    static private final Logger log = LogManager.getLogger();
+
     static private String[] KEYS = new String[]{
 	"run",
 	"runAsync",
@@ -100,8 +104,10 @@ final class LinuxObj implements ProxyObject
 	    error = args[2];
 	} else
 	    error = null;
+	final JobScheduler scheduler = JobScheduler.getDefault();
 	final BashProcessOutput baseOutput = new BashProcessOutput();
-	final BashProcess.Listener listener = new BashProcess.Listener(){
+	final AsyncLaunch launch = new AsyncLaunch(scheduler);
+	launch.listener = new BashProcess.Listener(){
 		@Override public void onOutputLine(String line)
 		{
 		    baseOutput.onOutputLine(line);
@@ -123,16 +129,72 @@ final class LinuxObj implements ProxyObject
 		@Override public void onFinishing(int exitCode)
 		{
 		    baseOutput.onFinishing(exitCode);
+		    scheduler.finished(launch);
 		}
 	    };
-	final BashProcess p = new BashProcess(cmd, null, EnumSet.noneOf(BashProcess.Flags.class), listener);
+	launch.p = new BashProcess(scheduler.prepareCommand(cmd, JobScheduler.Priority.BACKGROUND), null, EnumSet.noneOf(BashProcess.Flags.class), launch.listener);
 	try {
-	    p.run();
+	    launch.submit();
 	}
 	catch(IOException e)
 	{
 	    throw new ScriptException(e);
 	}
-	return new BashProcessObj(p, baseOutput);
+	return new BashProcessObj(launch.p, baseOutput, launch::stop);
+    }
+
+    /**
+     * Launches the process through the scheduler. The failure of the launch
+     * done at once is thrown to the caller, the failure of the launch taken
+     * from the queue is reported as the error line and the finishing of the
+     * process with the exit code -1.
+     */
+    static private final class AsyncLaunch implements Runnable
+    {
+	final JobScheduler scheduler;
+	BashProcess p = null;
+	BashProcess.Listener listener = null;
+	private boolean queued = false;
+	private IOException error = null;
+	AsyncLaunch(JobScheduler scheduler)
+	{
+	    this.scheduler = scheduler;
+	}
+	@Override public void run()
+	{
+	    //Waiting for the end of submit() if the task is taken from the queue on another thread
+	    final boolean wasQueued;
+	    synchronized(this) {
+		wasQueued = queued;
+	    }
+	    try {
+		p.run();
+	    }
+	    catch(IOException e)
+	    {
+		if (!wasQueued)
+		{
+		    error = e;
+		    scheduler.finished(this);
+		    return;
+		}
+		log.error("Unable to launch the queued process", e);
+		listener.onErrorLine(e.getMessage() != null?e.getMessage():e.getClass().getName());
+		listener.onFinishing(-1);
+	    }
+	}
+	synchronized void submit() throws IOException
+	{
+	    if (scheduler.submit(this, JobScheduler.Priority.BACKGROUND) && error != null)
+		throw error;
+	    queued = true;
+	}
+	//The process waiting in the queue is removed from it and never launched
+	void stop()
+	{
+	    p.stop();
+	    if (scheduler.cancel(this))
+		listener.onFinishing(-1);
+	}
     }
 }
@@ -0,0 +1,153 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The last known state of the devices saved between the launches, so the
+ * monitor can show the devices before asking the daemon. The cache keeps
+ * the attributes of all known disks and block devices, to tell what has
+ * changed while Luwrain wasn't running, and the devices of the snapshot.
+ * The attribute values may be only strings and booleans.
+ */
+final class DeviceCache
+{
+    static private final int
+	MAGIC = 0x4c444556,//LDEV
+	VERSION = 1,
+	MAX_COUNT = 65536;
+
+    static private final byte
+	TAG_NULL = 0,
+	TAG_STRING = 1,
+	TAG_BOOLEAN = 2;
+
+    /** The attributes of the objects by their paths, null for the objects not ready. */
+    final Map<String, Map<String, Object>> objects;
+    final List<Map<String, Object>> devices;
+
+    DeviceCache(Map<String, Map<String, Object>> objects, List<Map<String, Object>> devices)
+    {
+	this.objects = requireNonNull(objects, "objects can't be null");
+	this.devices = requireNonNull(devices, "devices can't be null");
+    }
+
+    static DeviceCache read(File file) throws IOException
+    {
+	requireNonNull(file, "file can't be null");
+	try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+	    if (in.readInt() != MAGIC || in.readInt() != VERSION)
+		throw new IOException("Unsupported format of the device cache");
+	    final Map<String, Map<String, Object>> objects = new TreeMap<>();
+	    final int objCount = readCount(in);
+	    for(int i = 0;i < objCount;i++)
+	    {
+		final String path = in.readUTF();
+		objects.put(path, readAttrs(in));
+	    }
+	    final int devCount = readCount(in);
+	    final List<Map<String, Object>> devices = new ArrayList<>(devCount);
+	    for(int i = 0;i < devCount;i++)
+	    {
+		final Map<String, Object> d = readAttrs(in);
+		if (d == null)
+		    throw new IOException("Corrupted device cache");
+		devices.add(d);
+	    }
+	    return new DeviceCache(objects, devices);
+	}
+    }
+
+    //The cache is written to the temporary file and renamed, so the interrupted writing doesn't leave the broken cache
+    void write(File file) throws IOException
+    {
+	requireNonNull(file, "file can't be null");
+	final File dir = file.getAbsoluteFile().getParentFile();
+	Files.createDirectories(dir.toPath());
+	final File tmpFile = new File(dir, file.getName() + ".tmp");
+	try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+	    out.writeInt(MAGIC);
+	    out.writeInt(VERSION);
+	    out.writeInt(objects.size());
+	    for(Map.Entry<String, Map<String, Object>> e: objects.entrySet())
+	    {
+		out.writeUTF(e.getKey());
+		writeAttrs(out, e.getValue());
+	    }
+	    out.writeInt(devices.size());
+	    for(Map<String, Object> d: devices)
+		writeAttrs(out, d);
+	}
+	Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static private Map<String, Object> readAttrs(DataInput in) throws IOException
+    {
+	final int count = in.readInt();
+	if (count < 0)
+	    return null;
+	if (count > MAX_COUNT)
+	    throw new IOException("Corrupted device cache");
+	final Map<String, Object> res = new HashMap<>();
+	for(int i = 0;i < count;i++)
+	{
+	    final String key = in.readUTF();
+	    final byte tag = in.readByte();
+	    switch(tag)
+	    {
+	    case TAG_NULL:
+		res.put(key, null);
+		break;
+	    case TAG_STRING:
+		res.put(key, in.readUTF());
+		break;
+	    case TAG_BOOLEAN:
+		res.put(key, Boolean.valueOf(in.readBoolean()));
+		break;
+	    default:
+		throw new IOException("Unknown type of the value in the device cache: " + String.valueOf(tag));
+	    }
+	}
+	return res;
+    }
+
+    static private void writeAttrs(DataOutput out, Map<String, Object> attrs) throws IOException
+    {
+	if (attrs == null)
+	{
+	    out.writeInt(-1);
+	    return;
+	}
+	out.writeInt(attrs.size());
+	for(Map.Entry<String, Object> e: attrs.entrySet())
+	{
+	    out.writeUTF(e.getKey());
+	    final Object value = e.getValue();
+	    if (value == null)
+		out.writeByte(TAG_NULL); else
+		if (value instanceof Boolean)
+		{
+		    out.writeByte(TAG_BOOLEAN);
+		    out.writeBoolean(((Boolean)value).booleanValue());
+		} else
+		{
+		    out.writeByte(TAG_STRING);
+		    out.writeUTF(value.toString());
+		}
+	}
+    }
+
+    static private int readCount(DataInput in) throws IOException
+    {
+	final int res = in.readInt();
+	if (res < 0 || res > MAX_COUNT)
+	    throw new IOException("Corrupted device cache");
+	return res;
+    }
+}
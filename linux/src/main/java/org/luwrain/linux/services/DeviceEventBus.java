@@ -0,0 +1,193 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.apache.logging.log4j.*;
+
+import org.luwrain.core.*;
+import org.luwrain.linux.*;
+import org.luwrain.script.core.*;
+
+import static java.util.Objects.*;
+import static org.luwrain.script.Hooks.*;
+
+/**
+ * The events of adding and removing of the disks and the block devices.
+ * The monitors report every change of the device, and the bus waits for
+ * the device to stay ready, with all attributes known, for the debouncing
+ * delay. Only then the single added event is sent with the latest
+ * attributes, so the flurry of the property changes during the insertion
+ * makes one event. The removed event is sent only for the devices
+ * announced as added. The devices present on the start of the monitor
+ * are taken as known without the events.
+ * <p>
+ * All events are processed and delivered on the dedicated thread, so the
+ * listeners may be slow without delaying the monitors.
+ */
+public final class DeviceEventBus implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static public final long DEFAULT_DEBOUNCE_MILLIS = 300;
+
+    public enum Kind { DISK, BLOCK_DEV };
+    public enum Type { ADDED, REMOVED };
+
+    public interface Listener
+    {
+	void onDeviceEvent(Kind kind, Type type, Map<String, Object> attrs);
+    }
+
+    static private final class Device
+    {
+	final Kind kind;
+	Map<String, Object> attrs = null;
+	boolean announced = false;
+	ScheduledFuture<?> pending = null;
+	Device(Kind kind) { this.kind = kind; }
+    }
+
+    private final long debounceMillis;
+    private final Listener listener;
+    private final ScheduledThreadPoolExecutor executor;
+    //Accessed only on the thread of the executor
+    private final Map<String, Device> devices = new HashMap<>();
+
+    public DeviceEventBus(long debounceMillis, Listener listener)
+    {
+	if (debounceMillis < 0)
+	    throw new IllegalArgumentException("debounceMillis can't be negative");
+	this.debounceMillis = debounceMillis;
+	this.listener = requireNonNull(listener, "listener can't be null");
+	this.executor = new ScheduledThreadPoolExecutor(1, r->{
+		final Thread t = new Thread(r, "luwrain-device-events");
+		t.setDaemon(true);
+		return t;
+	    });
+	executor.setRemoveOnCancelPolicy(true);
+	executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Creates the bus running the hooks {@link Hooks#DISK_ADDED},
+     * {@link Hooks#DISK_REMOVED}, {@link Hooks#BLOCK_DEV_ADDED} and
+     * {@link Hooks#BLOCK_DEV_REMOVED}.
+     */
+    static public DeviceEventBus forHooks(Luwrain luwrain)
+    {
+	requireNonNull(luwrain, "luwrain can't be null");
+	return new DeviceEventBus(DEFAULT_DEBOUNCE_MILLIS, (kind, type, attrs)->{
+		final String hook;
+		if (kind == Kind.DISK)
+		    hook = type == Type.ADDED?Hooks.DISK_ADDED:Hooks.DISK_REMOVED; else
+		    hook = type == Type.ADDED?Hooks.BLOCK_DEV_ADDED:Hooks.BLOCK_DEV_REMOVED;
+		chainOfResponsibility(luwrain, hook, new Object[]{ new MapScriptObject(attrs) });
+	    });
+    }
+
+    /**
+     * Registers the device existing on the start of the monitor, no events
+     * are sent for it until its removing.
+     *
+     * @param attrs The attributes of the device, null if the device isn't ready
+     */
+    public void initial(Kind kind, String obj, Map<String, Object> attrs)
+    {
+	requireNonNull(kind, "kind can't be null");
+	requireNonNull(obj, "obj can't be null");
+	final Map<String, Object> a = copy(attrs);
+	submit(()->{
+		final Device d = devices.computeIfAbsent(obj, k->new Device(kind));
+		d.attrs = a;
+		d.announced = a != null;
+	    });
+    }
+
+    /**
+     * Reports the new state of the device.
+     *
+     * @param attrs The attributes of the device, null if the device isn't ready yet
+     */
+    public void update(Kind kind, String obj, Map<String, Object> attrs)
+    {
+	requireNonNull(kind, "kind can't be null");
+	requireNonNull(obj, "obj can't be null");
+	final Map<String, Object> a = copy(attrs);
+	submit(()->{
+		final Device d = devices.computeIfAbsent(obj, k->new Device(kind));
+		d.attrs = a;
+		if (d.announced)
+		    return;
+		if (d.pending != null)
+		    d.pending.cancel(false);
+		d.pending = a != null?executor.schedule(()->announce(obj, d), debounceMillis, TimeUnit.MILLISECONDS):null;
+	    });
+    }
+
+    /**
+     * Reports the removing of the device.
+     *
+     * @param attrs The last attributes of the device
+     */
+    public void removed(Kind kind, String obj, Map<String, Object> attrs)
+    {
+	requireNonNull(kind, "kind can't be null");
+	requireNonNull(obj, "obj can't be null");
+	final Map<String, Object> a = copy(attrs);
+	submit(()->{
+		final Device d = devices.remove(obj);
+		if (d == null)
+		    return;
+		if (d.pending != null)
+		    d.pending.cancel(false);
+		if (d.announced)
+		    deliver(d.kind, Type.REMOVED, a != null?a:d.attrs);
+	    });
+    }
+
+    /** Drops the pending events, the events being delivered are finished. */
+    @Override public void close()
+    {
+	executor.shutdownNow();
+    }
+
+    private void announce(String obj, Device d)
+    {
+	//The device may be removed and added again while the task was waiting
+	if (devices.get(obj) != d || d.announced || d.attrs == null)
+	    return;
+	d.pending = null;
+	d.announced = true;
+	deliver(d.kind, Type.ADDED, d.attrs);
+    }
+
+    private void deliver(Kind kind, Type type, Map<String, Object> attrs)
+    {
+	try {
+	    listener.onDeviceEvent(kind, type, attrs);
+	}
+	catch(Throwable e)
+	{
+	    log.error("The device event listener failed on " + kind.toString() + " " + type.toString() + " " + attrs.toString(), e);
+	}
+    }
+
+    private void submit(Runnable r)
+    {
+	try {
+	    executor.execute(r);
+	}
+	catch(RejectedExecutionException e)
+	{
+	    //Closed
+	}
+    }
+
+    static private Map<String, Object> copy(Map<String, Object> attrs)
+    {
+	return attrs != null?Collections.unmodifiableMap(new HashMap<>(attrs)):null;
+    }
+}
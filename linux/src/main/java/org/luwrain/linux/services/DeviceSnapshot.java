@@ -0,0 +1,68 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The immutable state of the block devices published by
+ * {@link UdisksMonitor}. Every change of the devices makes the new
+ * snapshot with the greater version, so the readers take the current
+ * snapshot without any locking and may skip their work if the version
+ * is the same as they have seen before.
+ */
+public final class DeviceSnapshot
+{
+    static public final DeviceSnapshot EMPTY = new DeviceSnapshot(0, List.of());
+
+    private final long version;
+    private final List<Map<String, Object>> devices;
+
+    private DeviceSnapshot(long version, List<Map<String, Object>> devices)
+    {
+	this.version = version;
+	this.devices = devices;
+    }
+
+    /**
+     * Makes the snapshot following this one. The version stays the same if
+     * the devices are equal to the current ones.
+     *
+     * @param devices The attributes of the devices, they are copied
+     * @return The new snapshot or this one if nothing has changed
+     */
+    public DeviceSnapshot next(List<Map<String, Object>> devices)
+    {
+	requireNonNull(devices, "devices can't be null");
+	final List<Map<String, Object>> res = new ArrayList<>(devices.size());
+	for(Map<String, Object> d: devices)
+	    res.add(Collections.unmodifiableMap(new HashMap<>(d)));
+	if (res.equals(this.devices))
+	    return this;
+	return new DeviceSnapshot(version + 1, Collections.unmodifiableList(res));
+    }
+
+    public long getVersion()
+    {
+	return version;
+    }
+
+    /** True if the devices have changed after the snapshot with the given version. */
+    public boolean isChangedSince(long version)
+    {
+	return this.version != version;
+    }
+
+    /**
+     * The attributes of the devices in the format of
+     * {@link UdisksMonitor#enumRemovableBlockDevices(java.util.function.Consumer)}.
+     * The list and the maps are unmodifiable.
+     */
+    public List<Map<String, Object>> getDevices()
+    {
+	return devices;
+    }
+}
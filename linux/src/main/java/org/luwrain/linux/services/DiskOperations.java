@@ -0,0 +1,215 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The mounting, unmounting and powering off of the disks without blocking
+ * the caller. The operations run on the pool with the limited number of
+ * threads, so several disks are processed in parallel, but the operations
+ * on the same device go one after another. The request of the operation
+ * which is already waiting or running for the device gets the same
+ * future, so the repeated requests don't make the repeated calls of
+ * udisksctl.
+ */
+public final class DiskOperations implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static public final int DEFAULT_PARALLELISM = 4;
+
+    public enum Op { MOUNT, UNMOUNT, POWER_OFF };
+
+    /**
+     * The progress of the operation. The methods except
+     * {@link #onQueued(String, Op)} are called on the threads of the
+     * pool.
+     */
+    public interface Listener
+    {
+	default void onQueued(String device, Op op) {}
+	default void onStarted(String device, Op op) {}
+	/**
+	 * @param result The mount point for {@link Op#MOUNT}, null for other operations
+	 * @param error The reason of the failure, null on success
+	 */
+	default void onFinished(String device, Op op, File result, Throwable error) {}
+    }
+
+    private interface Action
+    {
+	File run(String device) throws IOException;
+    }
+
+    static private final class Task implements Runnable
+    {
+	final String device;
+	final Op op;
+	final Action action;
+	final CompletableFuture<File> future = new CompletableFuture<>();
+	private final List<Listener> listeners = new ArrayList<>();
+	private boolean finished = false;
+	Task(String device, Op op, Action action)
+	{
+	    this.device = device;
+	    this.op = op;
+	    this.action = action;
+	}
+	@Override public void run()
+	{
+	    //Cancelled while waiting
+	    if (future.isDone())
+		return;
+	    for(Listener l: getListeners(false))
+		notify(()->l.onStarted(device, op));
+	    File res = null;
+	    Throwable error = null;
+	    try {
+		res = action.run(device);
+	    }
+	    catch(Throwable e)
+	    {
+		error = e;
+	    }
+	    final File r = res;
+	    final Throwable e = error;
+	    for(Listener l: getListeners(true))
+		notify(()->l.onFinished(device, op, r, e));
+	    if (error != null)
+		future.completeExceptionally(error); else
+		future.complete(res);
+	}
+	/**
+	 * Adds the listener to the task not finished yet.
+	 *
+	 * @return False if the task is finished
+	 */
+	synchronized boolean join(Listener listener)
+	{
+	    if (finished)
+		return false;
+	    if (listener != null)
+		listeners.add(listener);
+	    return true;
+	}
+	private synchronized List<Listener> getListeners(boolean finish)
+	{
+	    if (finish)
+		finished = true;
+	    return new ArrayList<>(listeners);
+	}
+	void notify(Runnable r)
+	{
+	    try {
+		r.run();
+	    }
+	    catch(Throwable e)
+	    {
+		log.error("The listener of the disk operation failed", e);
+	    }
+	}
+    }
+
+    private final UdisksCli udisks;
+    private final ThreadPoolExecutor executor;
+    //The last requested operation for every device
+    private final Map<String, Task> tasks = new HashMap<>();
+
+    public DiskOperations(UdisksCli udisks, int parallelism)
+    {
+	this.udisks = requireNonNull(udisks, "udisks can't be null");
+	if (parallelism <= 0)
+	    throw new IllegalArgumentException("parallelism must be greater than zero");
+	this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r->{
+		final Thread t = new Thread(r, "luwrain-disk-operations");
+		t.setDaemon(true);
+		return t;
+	    });
+	executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Mounts the disk.
+     *
+     * @param device The device file, like {@code /dev/sdb1}
+     * @param listener The listener of the progress, may be null
+     * @return The future of the mount point, it may give null if the mount point isn't known
+     */
+    public CompletableFuture<File> mount(String device, Listener listener)
+    {
+	return submit(device, Op.MOUNT, udisks::mount, listener);
+    }
+
+    public CompletableFuture<File> unmount(String device, Listener listener)
+    {
+	return submit(device, Op.UNMOUNT, d->{ udisks.unmount(d); return null; }, listener);
+    }
+
+    public CompletableFuture<File> powerOff(String device, Listener listener)
+    {
+	return submit(device, Op.POWER_OFF, d->{ udisks.poweroff(d); return null; }, listener);
+    }
+
+    /** Cancels the operations not started yet, the running ones are finished. */
+    @Override public void close()
+    {
+	final List<Task> pending;
+	synchronized(this) {
+	    pending = new ArrayList<>(tasks.values());
+	    tasks.clear();
+	}
+	executor.shutdown();
+	for(Task t: pending)
+	    t.future.cancel(false);
+    }
+
+    private CompletableFuture<File> submit(String device, Op op, Action action, Listener listener)
+    {
+	requireNonNull(device, "device can't be null");
+	final Task task;
+	final Task prev;
+	synchronized(this) {
+	    prev = tasks.get(device);
+	    if (prev != null && prev.op == op && !prev.future.isDone() && prev.join(listener))
+	    {
+		if (listener != null)
+		    prev.notify(()->listener.onQueued(device, op));
+		return prev.future;
+	    }
+	    task = new Task(device, op, action);
+	    task.join(listener);
+	    tasks.put(device, task);
+	}
+	task.future.whenComplete((res, e)->{
+		synchronized(this) {
+		    if (tasks.get(device) == task)
+			tasks.remove(device);
+		}
+	    });
+	if (listener != null)
+	    task.notify(()->listener.onQueued(device, op));
+	//The operations on the same device go one after another
+	if (prev != null)
+	    prev.future.whenComplete((res, e)->execute(task)); else
+	    execute(task);
+	return task.future;
+    }
+
+    private void execute(Task task)
+    {
+	try {
+	    executor.execute(task);
+	}
+	catch(RejectedExecutionException e)
+	{
+	    task.future.completeExceptionally(new IOException("The disk operations are closed"));
+	}
+    }
+}
@@ -4,18 +4,14 @@
 package org.luwrain.linux.services;
 
 import java.util.*;
-import java.util.function.*;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 import java.io.*;
 
 import org.luwrain.core.*;
 import org.luwrain.linux.*;
-import org.luwrain.script.core.*;
 
-import static org.luwrain.script.Hooks.*;
-
-
-public final class UdisksCliMonitor implements BashProcess.Listener, AutoCloseable
+public final class UdisksCliMonitor implements UdisksMonitor, BashProcess.ChunkListener
 {
     static private final String
 	LOG_COMPONENT = "udisks";
@@ -42,23 +38,40 @@ public final class UdisksCliMonitor implements BashProcess.Listener, AutoCloseab
 	PREFIX_FS_TYPE = "IdType:",
 	PREFIX_MOUNT_POINTS = "MountPoints:";
 
-    private final Luwrain luwrain;
+    private final DeviceEventBus events;
     private final BashProcess p ;
     private boolean closed = true;
     private final Map<String, Disk> disks = new HashMap<>();
-    private final Map<String, BlockDev> blockDevs = new HashMap<>();
+    private final Map<String, BlockDev> blockDevs = new TreeMap<>();
+    private final AtomicReference<DeviceSnapshot> snapshot = new AtomicReference<>(DeviceSnapshot.EMPTY);
     private Disk activeDisk = null;
     private BlockDev activeBlockDev = null;
     private String activeIface = null;
+    //The attributes of the active object are changed, but not yet reported
+    private boolean changed = false;
 
     public UdisksCliMonitor(Luwrain luwrain) throws IOException
     {
-	this.luwrain = luwrain;
-	init();
+	this.events = DeviceEventBus.forHooks(luwrain);
+	try {
+	    init();
+	}
+	catch(IOException e)
+	{
+	    events.close();
+	    throw e;
+	}
 	this.p = new BashProcess("udisksctl monitor", null, EnumSet.noneOf(BashProcess.Flags.class), this);
 this.p.run();
 	    }
 
+    //For benchmarks, only processes the lines given to onOutputLine()
+    UdisksCliMonitor()
+    {
+	this.events = null;
+	this.p = null;
+    }
+
     @Override public synchronized void close()
     {
 	if (closed)
@@ -66,33 +79,58 @@ this.p.run();
 	Log.debug(LOG_COMPONENT, "stopping udisksctl monitor");
 	this.closed = true;
 	p.stop();
+	events.close();
     }
 
-    public synchronized void enumRemovableBlockDevices(Consumer<Map<String, Object>> consumer)
+    @Override public DeviceSnapshot getSnapshot()
     {
+	return snapshot.get();
+    }
+
+    //Called after every change, the new snapshot is made only if the devices have changed
+    private void publish()
+    {
+	final List<Map<String, Object>> devices = new ArrayList<>();
 	for(Map.Entry<String, BlockDev> e: blockDevs.entrySet())
 	    if (e.getValue().isReady())
 	    {
 		final Disk disk = disks.get(e.getValue().drive.replaceAll("'", ""));
 		if (disk == null)
 		    continue;
-		final Map<String, Object> m = new HashMap<>(e.getValue().createAttrMap());
+		final Map<String, Object> m = e.getValue().createAttrMap();
 		final boolean
 		removable = disk.removable != null && disk.removable.toLowerCase().equals("true"),
 		ejectable = disk.ejectable != null && disk.ejectable.toLowerCase().equals("true");
 		m.put("removable", Boolean.valueOf(removable));
 		m.put("ejectable", Boolean.valueOf(ejectable));
-	    consumer.accept(m);
+		devices.add(m);
 	    }
+	snapshot.set(snapshot.get().next(devices));
+    }
+
+    //The snapshot is updated once for all lines read at once, the object block split between the reads is reported in parts
+    @Override public synchronized void onOutputChunk(LineChunk chunk)
+    {
+	for(int i = 0;i < chunk.getLineCount();i++)
+	    onOutputLine(chunk.getLine(i));
+	flush();
     }
 
-    		@Override public synchronized void onOutputLine(String line)
+    @Override public void onErrorChunk(LineChunk chunk)
+    {
+	for(int i = 0;i < chunk.getLineCount();i++)
+	    Log.error(LOG_COMPONENT, "monitor error: " + chunk.getLine(i));
+    }
+
+    //The changes of the object are reported on the header of the next block or at the end of the chunk
+    synchronized void onOutputLine(String line)
 		{
 		    //		    		    Log.debug(LOG_COMPONENT, line);
 		    try {
 		    Matcher m = RE_ADDED.matcher(line);
 		    if (m.find())
 		    {
+			flush();
 			final String obj = m.group(1).trim();
 			activeDisk = null;
 			activeBlockDev = null;
@@ -120,6 +158,7 @@ this.p.run();
 m = RE_REMOVED.matcher(line);
 		    if (m.find())
 		    {
+			flush();
 			final String obj = m.group(1).trim();
 			activeDisk = null;
 			activeBlockDev = null;
@@ -130,7 +169,9 @@ m = RE_REMOVED.matcher(line);
 			    final Disk disk = disks.get(obj);
 			    disks.remove(obj);
 			    Log.debug(LOG_COMPONENT, "removed disk " + disk.obj);
-			    chainOfResponsibility(luwrain, Hooks.DISK_REMOVED, new Object[]{ new MapScriptObject(disk.createAttrMap())});
+			    publish();
+			    if (events != null)
+				events.removed(DeviceEventBus.Kind.DISK, obj, disk.createAttrMap());
 			    return;
 			}
 
@@ -139,7 +180,9 @@ m = RE_REMOVED.matcher(line);
 			    final BlockDev blockDev = blockDevs.get(obj);
 			    blockDevs.remove(obj);
 			    Log.debug(LOG_COMPONENT, "removed block device " + blockDev.obj);
-			    chainOfResponsibility(luwrain, Hooks.BLOCK_DEV_REMOVED, new Object[]{ new MapScriptObject(blockDev.createAttrMap())});
+			    publish();
+			    if (events != null)
+				events.removed(DeviceEventBus.Kind.BLOCK_DEV, obj, blockDev.createAttrMap());
 			    return;
 			}
 
@@ -150,6 +193,9 @@ m = RE_REMOVED.matcher(line);
 m = RE_PROP_CHANGED.matcher(line);
 				    if (m.find())
 				    {
+					flush();
+					activeDisk = null;
+					activeBlockDev = null;
 					final String
 					obj = m.group(1).trim(),
 					iface = m.group(2).trim();
@@ -182,9 +228,15 @@ m = RE_PROP_CHANGED.matcher(line);
 		    }
 
 		    if (activeDisk != null)
+		    {
 			activeDisk.onLine(activeIface, l);
+			changed = true;
+		    }
 		    if (activeBlockDev != null)
+		    {
 			activeBlockDev.onLine(activeIface, l);
+			changed = true;
+		    }
 		    }
 		    catch(Throwable e)
 		    {
@@ -192,6 +244,22 @@ m = RE_PROP_CHANGED.matcher(line);
 		    }
 		}
 
+    //Reports the changes of the active object to the event bus and to the snapshot
+    synchronized void flush()
+    {
+	if (!changed)
+	    return;
+	changed = false;
+	if (events != null)
+	{
+	    if (activeDisk != null)
+		events.update(DeviceEventBus.Kind.DISK, activeDisk.obj, activeDisk.isReady()?activeDisk.createAttrMap():null);
+	    if (activeBlockDev != null)
+		events.update(DeviceEventBus.Kind.BLOCK_DEV, activeBlockDev.obj, activeBlockDev.isReady()?activeBlockDev.createAttrMap():null);
+	}
+	publish();
+    }
+
     private void init() throws IOException
     {
 	final var processOutput = new BashProcessOutput();
@@ -254,19 +322,21 @@ m = RE_PROP_CHANGED.matcher(line);
 	activeDisk = null;
 	activeBlockDev = null;
 	activeIface = null;
+	for(Disk d: disks.values())
+	    events.initial(DeviceEventBus.Kind.DISK, d.obj, d.isReady()?d.createAttrMap():null);
+	for(BlockDev b: blockDevs.values())
+	    events.initial(DeviceEventBus.Kind.BLOCK_DEV, b.obj, b.isReady()?b.createAttrMap():null);
+	publish();
     }
 
-	@Override public void onErrorLine(String line)
-	{
-	    Log.error(LOG_COMPONENT, "monitor error: " + line);
-	}
-
     @Override public void onFinishing(int exitCode)
     {
 	activeDisk = null;
 	activeBlockDev = null;
+	changed = false;
 	disks.clear();
 	blockDevs.clear();
+	snapshot.set(snapshot.get().next(List.of()));
 	if (!closed)
 	{
 	    if (exitCode == 0)
@@ -299,10 +369,6 @@ m = RE_PROP_CHANGED.matcher(line);
 				    {
 		ejectable = line.substring(PREFIX_EJECTABLE.length()).trim();
 				    }
-	    /*
-	    if (isReady())
-		chainOfResponsibility(luwrain, Hooks.DISK_ADDED, new Object[]{new MapScriptObject(createAttrMap())});
-	    */
 	}
 	boolean isReady()
 	{
@@ -341,10 +407,6 @@ removable != null &&
 		fsType = line.substring(PREFIX_FS_TYPE.length()).trim();
 	    if (iface.equals(IFACE_FILESYSTEM) && line.startsWith(PREFIX_MOUNT_POINTS))
 		mountPoints = line.substring(PREFIX_MOUNT_POINTS.length()).trim();
-	    /*
-	    if (isReady())
-		chainOfResponsibility(luwrain, Hooks.BLOCK_DEV_ADDED, new Object[]{new MapScriptObject(createAttrMap())});
-	    */
 	}
 	boolean isReady()
 	{
@@ -0,0 +1,474 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.logging.log4j.*;
+
+import org.luwrain.core.*;
+import org.luwrain.linux.dbus.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The monitor of UDisks2 talking to the daemon over D-Bus. The initial
+ * state is taken with {@code GetManagedObjects}, after that the objects
+ * are updated by the signals of {@code org.freedesktop.DBus.ObjectManager}
+ * and {@code org.freedesktop.DBus.Properties}. The state is kept as the
+ * properties of every interface of every object, as the daemon sends
+ * them, and the attributes of the devices are published as the new
+ * snapshot after every change of them. The changes of the objects are
+ * also reported to {@link DeviceEventBus}, which runs the hooks. On the
+ * restart of the daemon the state is requested again and reconciled with
+ * the objects known before it, on the loss of the connection the devices
+ * are dropped, since there is no way to track them anymore.
+ */
+public final class UdisksDBusMonitor implements UdisksMonitor, DBusConnection.Listener
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static final String
+	SERVICE = "org.freedesktop.UDisks2",
+	ROOT = "/org/freedesktop/UDisks2",
+	OBJ_DRIVES = "/org/freedesktop/UDisks2/drives/",
+	OBJ_BLOCK = "/org/freedesktop/UDisks2/block_devices/",
+	IFACE_DRIVE = "org.freedesktop.UDisks2.Drive",
+	IFACE_BLOCK = "org.freedesktop.UDisks2.Block",
+	IFACE_FILESYSTEM = "org.freedesktop.UDisks2.Filesystem",
+	IFACE_OBJECT_MANAGER = "org.freedesktop.DBus.ObjectManager",
+	IFACE_PROPERTIES = "org.freedesktop.DBus.Properties";
+
+    private final DBusConnection con;
+    private final DeviceEventBus events;
+    private final File cacheFile;
+    //The state of the previous launch, dropped after the reconciling
+    private DeviceCache cache;
+    //The properties of the interfaces of the objects
+    private final Map<String, Map<String, Map<String, Object>>> objects = new TreeMap<>();
+    private final AtomicReference<DeviceSnapshot> snapshot = new AtomicReference<>(DeviceSnapshot.EMPTY);
+    //The signals received before the initial state
+    private List<DBusMessage> early = new ArrayList<>();
+    private boolean reconciled = false;
+    //Incremented on every request of the state, the replies to the previous ones are ignored
+    private int generation = 0;
+    //Completed when the state is taken from the daemon, or when it's failed
+    final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    /**
+     * Connects to UDisks2 over the system bus.
+     *
+     * @param luwrain The object to run the hooks with
+     * @param cacheFile The file of the device cache, null if there must be no cache
+     */
+    public UdisksDBusMonitor(Luwrain luwrain, File cacheFile) throws IOException
+    {
+	this(DBusConnection.openSystemBus(), DeviceEventBus.forHooks(luwrain), cacheFile);
+    }
+
+    /**
+     * Creates the monitor on the opened connection. The devices of the
+     * cache are available at once, and the state of the daemon is
+     * requested without waiting for it. When it comes, it's compared to the
+     * cache and the differences go to the event bus. The connection and
+     * the event bus are closed on errors and on closing of the monitor.
+     */
+    UdisksDBusMonitor(DBusConnection con, DeviceEventBus events, File cacheFile) throws IOException
+    {
+	this.con = requireNonNull(con, "con can't be null");
+	this.events = requireNonNull(events, "events can't be null");
+	this.cacheFile = cacheFile;
+	this.cache = readCache(cacheFile);
+	if (cache != null)
+	    snapshot.set(DeviceSnapshot.EMPTY.next(cache.devices));
+	try {
+	    con.addListener(this);
+	    con.addMatch("type='signal',sender='" + DBusConnection.BUS_NAME + "',interface='" + DBusConnection.BUS_NAME + "',member='NameOwnerChanged',arg0='" + SERVICE + "'");
+	    con.addMatch("type='signal',sender='" + SERVICE + "',interface='" + IFACE_OBJECT_MANAGER + "',path='" + ROOT + "'");
+	    con.addMatch("type='signal',sender='" + SERVICE + "',interface='" + IFACE_PROPERTIES + "',member='PropertiesChanged',path_namespace='" + ROOT + "'");
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    con.close();
+	    events.close();
+	    throw e;
+	}
+	synchronized(this) {
+	    requestState();
+	}
+    }
+
+    @Override public void close()
+    {
+	con.removeListener(this);
+	con.close();
+	events.close();
+	synchronized(this) {
+	    //Only the state taken from the daemon is saved
+	    if (reconciled && cacheFile != null)
+		writeCache();
+	    objects.clear();
+	    publish();
+	}
+    }
+
+    @Override public DeviceSnapshot getSnapshot()
+    {
+	return snapshot.get();
+    }
+
+    @Override public synchronized void onSignal(DBusConnection connection, DBusMessage signal)
+    {
+	if (DBusConnection.BUS_NAME.equals(signal.iface) && "NameOwnerChanged".equals(signal.member))
+	{
+	    if (SERVICE.equals(String.valueOf(signal.getArg(0))))
+		onOwnerChanged(String.valueOf(signal.getArg(2)));
+	    return;
+	}
+	if (early != null)
+	{
+	    early.add(signal);
+	    return;
+	}
+	process(signal);
+	publish();
+    }
+
+    @Override public void onClose(DBusConnection connection, Throwable error)
+    {
+	log.error("The connection to UDisks2 is lost, no more updates of the disks", error);
+	synchronized(this) {
+	    //The last state taken from the daemon is still good for the next launch
+	    if (reconciled && cacheFile != null)
+		writeCache();
+	    generation++;
+	    early = null;
+	    reconciled = false;
+	    objects.clear();
+	    publish();
+	}
+	ready.complete(null);
+    }
+
+    //Asks the daemon for all its objects, the signals are held until the reply
+    private void requestState()
+    {
+	final int gen = ++generation;
+	early = new ArrayList<>();
+	con.callAsync(DBusMessage.methodCall(SERVICE, ROOT, IFACE_OBJECT_MANAGER, "GetManagedObjects", "")).whenComplete((reply, e)->{
+		synchronized(this) {
+		    if (gen != generation)
+			return;
+		    try {
+			if (e != null)
+			    throw e;
+			init(reply);
+		    }
+		    catch(Throwable ex)
+		    {
+			log.error("Unable to get the state of UDisks2", ex);
+			cache = null;
+			early = null;
+			publish();
+		    }
+		}
+		ready.complete(null);
+	    });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init(DBusMessage reply)
+    {
+	final Map<Object, Object> dump = (Map<Object, Object>)reply.getArg(0);
+	for(Map.Entry<Object, Object> e: dump.entrySet())
+	    addInterfaces(e.getKey().toString(), (Map<Object, Object>)e.getValue());
+	reconcile();
+	//The daemon numbers its messages in the order of sending, the signals sent before the reply are already in it
+	for(DBusMessage m: early)
+	    if (Integer.compareUnsigned(m.serial, reply.serial) > 0)
+		process(m);
+	early = null;
+	reconciled = true;
+	publish();
+	log.debug("UDisks2 has " + String.valueOf(objects.size()) + " objects");
+    }
+
+    /**
+     * Handles the restart of the daemon. Its objects are dropped until the
+     * new instance provides them, and the state taken from the previous
+     * instance plays the role of the cache, so only the actual changes go
+     * to the event bus.
+     *
+     * @param owner The unique name of the new owner of the service, empty if the daemon is gone
+     */
+    private void onOwnerChanged(String owner)
+    {
+	log.debug("The owner of " + SERVICE + " is changed to '" + owner + "'");
+	if (reconciled)
+	    cache = new DeviceCache(createReadyAttrMaps(), List.of());
+	generation++;
+	early = null;
+	reconciled = false;
+	objects.clear();
+	publish();
+	if (!owner.isEmpty())
+	    requestState();
+    }
+
+    /**
+     * Registers the objects in the event bus. Without the cache all objects
+     * are taken as existing before the start. With the cache the objects
+     * appeared or becoming ready since the previous launch are reported
+     * as added, and the objects gone since that are reported as removed.
+     * The daemon reuses the paths of the block devices, so the object with
+     * other attributes than the cached ones is another device: the cached
+     * one is reported as removed and the new one as added.
+     */
+    private void reconcile()
+    {
+	for(Map.Entry<String, Map<String, Map<String, Object>>> e: objects.entrySet())
+	{
+	    final String path = e.getKey();
+	    final Map<String, Object> attrs = createReadyAttrMap(path, e.getValue());
+	    final Map<String, Object> cached = cache != null?cache.objects.get(path):null;
+	    if (cache == null || (cached != null && (attrs == null || isSameDevice(cached, attrs))))
+	    {
+		events.initial(getKind(path), path, attrs);
+		continue;
+	    }
+	    if (cached != null)
+	    {
+		events.initial(getKind(path), path, cached);
+		events.removed(getKind(path), path, cached);
+	    }
+	    events.update(getKind(path), path, attrs);
+	}
+	if (cache != null)
+	    for(Map.Entry<String, Map<String, Object>> e: cache.objects.entrySet())
+		if (!objects.containsKey(e.getKey()))
+		{
+		    events.initial(getKind(e.getKey()), e.getKey(), e.getValue());
+		    events.removed(getKind(e.getKey()), e.getKey(), e.getValue());
+		}
+	cache = null;
+    }
+
+    //The mount points of the previous launch aren't trusted, the devices may be unmounted or mounted elsewhere since that
+    static private DeviceCache readCache(File cacheFile)
+    {
+	if (cacheFile == null || !cacheFile.isFile())
+	    return null;
+	try {
+	    final DeviceCache cache = DeviceCache.read(cacheFile);
+	    final Map<String, Map<String, Object>> objects = new TreeMap<>();
+	    for(Map.Entry<String, Map<String, Object>> e: cache.objects.entrySet())
+		objects.put(e.getKey(), removeSessionAttrs(e.getValue()));
+	    final List<Map<String, Object>> devices = new ArrayList<>();
+	    for(Map<String, Object> d: cache.devices)
+		devices.add(removeSessionAttrs(d));
+	    return new DeviceCache(objects, devices);
+	}
+	catch(IOException e)
+	{
+	    log.warn("Unable to read the device cache " + cacheFile.getAbsolutePath(), e);
+	    return null;
+	}
+    }
+
+    private void writeCache()
+    {
+	try {
+	    new DeviceCache(createReadyAttrMaps(), snapshot.get().getDevices()).write(cacheFile);
+	}
+	catch(IOException e)
+	{
+	    log.warn("Unable to write the device cache " + cacheFile.getAbsolutePath(), e);
+	}
+    }
+
+    /**
+     * Applies the signal to the state and reports the change of the object
+     * to the event bus.
+     */
+    @SuppressWarnings("unchecked")
+    private void process(DBusMessage m)
+    {
+	if (IFACE_OBJECT_MANAGER.equals(m.iface))
+	    switch(m.member)
+	    {
+	    case "InterfacesAdded":
+		addInterfaces(m.getArg(0).toString(), (Map<Object, Object>)m.getArg(1));
+		report(m.getArg(0).toString());
+		return;
+	    case "InterfacesRemoved":
+		removeInterfaces(m.getArg(0).toString(), (List<Object>)m.getArg(1));
+		report(m.getArg(0).toString());
+		return;
+	    default:
+		return;
+	    }
+	if (IFACE_PROPERTIES.equals(m.iface) && "PropertiesChanged".equals(m.member))
+	{
+	    final Map<String, Map<String, Object>> obj = objects.get(m.path);
+	    final Map<String, Object> props = obj != null?obj.get(m.getArg(0).toString()):null;
+	    if (props == null)
+		return;
+	    for(Map.Entry<Object, Object> e: ((Map<Object, Object>)m.getArg(1)).entrySet())
+		props.put(e.getKey().toString(), e.getValue());
+	    for(Object name: (List<Object>)m.getArg(2))
+		props.remove(name.toString());
+	    report(m.path);
+	}
+    }
+
+    private void report(String path)
+    {
+	final Map<String, Map<String, Object>> obj = objects.get(path);
+	if (obj != null)
+	    events.update(getKind(path), path, createReadyAttrMap(path, obj));
+    }
+
+    //Called after every change, the new snapshot is made only if the devices have changed
+    private void publish()
+    {
+	final List<Map<String, Object>> devices = new ArrayList<>();
+	for(Map.Entry<String, Map<String, Map<String, Object>>> e: objects.entrySet())
+	{
+	    final Map<String, Object> block = e.getValue().get(IFACE_BLOCK);
+	    if (!isReady(block))
+		continue;
+	    final Map<String, Map<String, Object>> driveObj = objects.get(block.get("Drive").toString());
+	    final Map<String, Object> drive = driveObj != null?driveObj.get(IFACE_DRIVE):null;
+	    if (drive == null)
+		continue;
+	    final Map<String, Object> m = createBlockDevAttrMap(e.getKey(), e.getValue());
+	    m.put("removable", Boolean.valueOf(Boolean.TRUE.equals(drive.get("Removable"))));
+	    m.put("ejectable", Boolean.valueOf(Boolean.TRUE.equals(drive.get("Ejectable"))));
+	    devices.add(m);
+	}
+	snapshot.set(snapshot.get().next(devices));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addInterfaces(String path, Map<Object, Object> ifaces)
+    {
+	if (!path.startsWith(OBJ_DRIVES) && !path.startsWith(OBJ_BLOCK))
+	    return;
+	final Map<String, Map<String, Object>> obj = objects.computeIfAbsent(path, k->new HashMap<>());
+	for(Map.Entry<Object, Object> e: ifaces.entrySet())
+	{
+	    final Map<String, Object> props = new HashMap<>();
+	    for(Map.Entry<Object, Object> p: ((Map<Object, Object>)e.getValue()).entrySet())
+		props.put(p.getKey().toString(), p.getValue());
+	    obj.put(e.getKey().toString(), props);
+	}
+	log.trace("Added " + path + ": " + ifaces.keySet().toString());
+    }
+
+    private void removeInterfaces(String path, List<Object> ifaces)
+    {
+	final Map<String, Map<String, Object>> obj = objects.get(path);
+	if (obj == null)
+	    return;
+	//The attributes of the removed object are taken before the removing
+	final Map<String, Object> attrs = path.startsWith(OBJ_DRIVES)?createDiskAttrMap(path, obj):createBlockDevAttrMap(path, obj);
+	for(Object i: ifaces)
+	    obj.remove(i.toString());
+	if (!obj.isEmpty())
+	    return;
+	objects.remove(path);
+	events.removed(getKind(path), path, attrs);
+	log.debug("Removed " + path);
+    }
+
+    private Map<String, Map<String, Object>> createReadyAttrMaps()
+    {
+	final Map<String, Map<String, Object>> res = new TreeMap<>();
+	for(Map.Entry<String, Map<String, Map<String, Object>>> e: objects.entrySet())
+	    res.put(e.getKey(), createReadyAttrMap(e.getKey(), e.getValue()));
+	return res;
+    }
+
+    //The attributes which are valid only while the device is plugged in
+    static private Map<String, Object> removeSessionAttrs(Map<String, Object> attrs)
+    {
+	if (attrs == null || !attrs.containsKey("mountPoints"))
+	    return attrs;
+	final Map<String, Object> res = new HashMap<>(attrs);
+	res.put("mountPoints", "");
+	return res;
+    }
+
+    static private boolean isSameDevice(Map<String, Object> cached, Map<String, Object> attrs)
+    {
+	return removeSessionAttrs(cached).equals(removeSessionAttrs(attrs));
+    }
+
+    static private DeviceEventBus.Kind getKind(String path)
+    {
+	return path.startsWith(OBJ_DRIVES)?DeviceEventBus.Kind.DISK:DeviceEventBus.Kind.BLOCK_DEV;
+    }
+
+    static private boolean isReady(Map<String, Object> block)
+    {
+	return block != null && block.get("Device") != null && block.get("Drive") != null && block.get("IdType") != null;
+    }
+
+    //The attributes for the event bus, null if the object isn't ready
+    static private Map<String, Object> createReadyAttrMap(String path, Map<String, Map<String, Object>> obj)
+    {
+	if (path.startsWith(OBJ_DRIVES))
+	    return obj.containsKey(IFACE_DRIVE)?createDiskAttrMap(path, obj):null;
+	return isReady(obj.get(IFACE_BLOCK))?createBlockDevAttrMap(path, obj):null;
+    }
+
+    static private Map<String, Object> createDiskAttrMap(String path, Map<String, Map<String, Object>> obj)
+    {
+	final Map<String, Object> drive = obj.getOrDefault(IFACE_DRIVE, Map.of());
+	final Map<String, Object> d = new HashMap<>();
+	d.put("obj", path);
+	d.put("model", toStr(drive.get("Model")));
+	d.put("vendor", toStr(drive.get("Vendor")));
+	return d;
+    }
+
+    @SuppressWarnings("unchecked")
+    static private Map<String, Object> createBlockDevAttrMap(String path, Map<String, Map<String, Object>> obj)
+    {
+	final Map<String, Object> block = obj.getOrDefault(IFACE_BLOCK, Map.of());
+	final Map<String, Object> fs = obj.get(IFACE_FILESYSTEM);
+	//Only the first mount point, the users of the attributes take it as the single path
+	String mountPoints = "";
+	if (fs != null && fs.get("MountPoints") instanceof List)
+	{
+	    final List<Object> points = (List<Object>)fs.get("MountPoints");
+	    if (!points.isEmpty())
+		mountPoints = toStr(points.get(0));
+	}
+	final Map<String, Object> d = new HashMap<>();
+	d.put("obj", path);
+	d.put("device", toStr(block.get("Device")));
+	d.put("drive", toStr(block.get("Drive")));
+	d.put("fsType", toStr(block.get("IdType")));
+	d.put("mountPoints", mountPoints);
+	return d;
+    }
+
+    //The paths are given as the byte arrays with the terminating zero
+    static private String toStr(Object value)
+    {
+	if (value == null)
+	    return null;
+	if (!(value instanceof byte[]))
+	    return value.toString();
+	final byte[] bytes = (byte[])value;
+	int len = bytes.length;
+	while (len > 0 && bytes[len - 1] == 0)
+	    len--;
+	return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+}
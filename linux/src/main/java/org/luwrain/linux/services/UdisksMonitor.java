@@ -0,0 +1,33 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The tracking of the disks and the block devices known to UDisks2.
+ */
+public interface UdisksMonitor extends AutoCloseable
+{
+    /**
+     * The current state of the block devices. The call takes no locks, so
+     * it doesn't wait for the processing of the changes.
+     */
+    DeviceSnapshot getSnapshot();
+
+    /**
+     * Enumerates the block devices with known device files, drives and
+     * file system types. The attributes of every device are given in the
+     * unmodifiable map with the keys {@code obj}, {@code device},
+     * {@code drive}, {@code fsType}, {@code mountPoints}, {@code removable}
+     * and {@code ejectable}; the last two are {@code Boolean}.
+     */
+    default void enumRemovableBlockDevices(Consumer<Map<String, Object>> consumer)
+    {
+	getSnapshot().getDevices().forEach(consumer);
+    }
+
+    @Override void close();
+}
@@ -0,0 +1,674 @@
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.util.function.*;
+import java.nio.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The incremental parser of the terminal output. The parser follows the
+ * state machine of the VT500-series terminals and recognizes all the
+ * ECMA-48 sequences: CSI, OSC, DCS, SOS, PM, APC and the escape
+ * sequences with intermediate bytes, introduced either by ESC or by the
+ * 8-bit C1 controls. The state is kept between the calls, so the
+ * sequences split across the chunks of the output are handled properly.
+ * The text between the sequences is delivered in runs of characters, C0
+ * controls inside of the text remain in its runs. The parser isn't
+ * thread-safe.
+ */
+public final class Parser
+{
+    static private final Logger log = LogManager.getLogger();
+
+    static private final int
+	MAX_PARAMS = 32,
+	MAX_PARAM_VALUE = 65535,
+	MAX_INTERMEDIATES = 2,
+	MAX_STRING_LEN = 4096,
+	CHUNK_SIZE = 4096;
+
+    static private final char
+	BEL = 0x07,
+	CAN = 0x18,
+	SUB = 0x1a,
+	ESC = 0x1b,
+	DEL = 0x7f,
+	C1_DCS = 0x90,
+	C1_SOS = 0x98,
+	C1_CSI = 0x9b,
+	C1_ST = 0x9c,
+	C1_OSC = 0x9d,
+	C1_PM = 0x9e,
+	C1_APC = 0x9f;
+
+    private enum State {
+	GROUND,
+	ESCAPE, ESCAPE_INTERMEDIATE,
+	CSI_ENTRY, CSI_PARAM, CSI_INTERMEDIATE, CSI_IGNORE,
+	DCS_ENTRY, DCS_PARAM, DCS_INTERMEDIATE, DCS_PASSTHROUGH, DCS_IGNORE,
+	OSC_STRING,
+	SOS_PM_APC_STRING};
+
+    private State state = State.GROUND;
+    private final StringBuilder raw = new StringBuilder();
+    private final StringBuilder intermediates = new StringBuilder();
+    private final StringBuilder data = new StringBuilder();
+    //The empty parameters are stored as -1
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount = 0;
+    private boolean paramsOverflow = false;
+    private char privateMarker = 0;
+    //The final character of DCS or the kind of SOS/PM/APC string
+    private char stringKind = 0;
+    //ESC inside of a string, it's ST if followed by a backslash
+    private boolean stringEsc = false;
+    private char[] chunk = null;
+
+    /**
+     * Parses the portion of the terminal output. The text runs and the
+     * completed sequences are passed to the consumer in the order of their
+     * appearance, the incomplete sequence at the end is continued on the
+     * next call.
+     */
+    public void parse(char[] buf, int off, int len, Consumer<Output> consumer)
+    {
+	requireNonNull(buf, "buf can't be null");
+	requireNonNull(consumer, "consumer can't be null");
+	Objects.checkFromIndexSize(off, len, buf.length);
+	final int end = off + len;
+	int i = off;
+	while (i < end)
+	{
+	    if (state == State.GROUND)
+	    {
+		final int textStart = i;
+		while (i < end && !isIntroducer(buf[i]))
+		    i++;
+		if (i > textStart)
+		    consumer.accept(new OutputText(new String(buf, textStart, i - textStart)));
+		if (i == end)
+		    break;
+	    }
+	    onChar(buf[i], consumer);
+	    i++;
+	}
+    }
+
+    /**
+     * Parses all remaining characters of the buffer.
+     */
+    public void parse(CharBuffer buf, Consumer<Output> consumer)
+    {
+	requireNonNull(buf, "buf can't be null");
+	if (buf.hasArray())
+	{
+	    parse(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), consumer);
+	    buf.position(buf.limit());
+	    return;
+	}
+	if (chunk == null)
+	    chunk = new char[CHUNK_SIZE];
+	while (buf.hasRemaining())
+	{
+	    final int n = Math.min(chunk.length, buf.remaining());
+	    buf.get(chunk, 0, n);
+	    parse(chunk, 0, n, consumer);
+	}
+    }
+
+    /**
+     * Parses the string collecting the output to the list.
+     */
+    public List<Output> parse(String input)
+    {
+	requireNonNull(input, "input can't be null");
+	final List<Output> res = new ArrayList<>();
+	final char[] chars = input.toCharArray();
+	parse(chars, 0, chars.length, res::add);
+	return res;
+    }
+
+    /**
+     * Drops the incomplete sequence, if there is any.
+     */
+    public void reset()
+    {
+	state = State.GROUND;
+	stringEsc = false;
+	raw.setLength(0);
+	data.setLength(0);
+	intermediates.setLength(0);
+    }
+
+    private void onChar(char c, Consumer<Output> consumer)
+    {
+	if (stringEsc)
+	{
+	    stringEsc = false;
+	    if (c == '\\')
+	    {
+		finishString(consumer);
+		state = State.GROUND;
+		return;
+	    }
+	    //Any other sequence terminates the string as well
+	    finishString(consumer);
+	    enterEscape(ESC);
+	}
+	switch(c)
+	{
+	case CAN:
+	case SUB:
+	    state = State.GROUND;
+	    return;
+	case ESC:
+	    if (isString())
+		stringEsc = true; else
+		enterEscape(c);
+	    return;
+	case C1_ST:
+	    if (isString())
+		finishString(consumer);
+	    state = State.GROUND;
+	    return;
+	case C1_CSI:
+	case C1_DCS:
+	case C1_OSC:
+	case C1_SOS:
+	case C1_PM:
+	case C1_APC:
+	    if (isString())
+		break;
+	    enterEscape(c);
+	    onIntroducer(c);
+	    return;
+	case DEL:
+	    if (!isString())
+		return;
+	}
+	if (!isString())
+	    raw.append(c);
+	switch(state)
+	{
+	case ESCAPE:
+	    if (isC0(c))
+	    {
+		execute(c, consumer);
+		return;
+	    }
+	    if (isIntermediate(c))
+	    {
+		collect(c);
+		state = State.ESCAPE_INTERMEDIATE;
+		return;
+	    }
+	    switch(c)
+	    {
+	    case '[':
+		onIntroducer(C1_CSI);
+		return;
+	    case ']':
+		onIntroducer(C1_OSC);
+		return;
+	    case 'P':
+		onIntroducer(C1_DCS);
+		return;
+	    case 'X':
+		onIntroducer(C1_SOS);
+		return;
+	    case '^':
+		onIntroducer(C1_PM);
+		return;
+	    case '_':
+		onIntroducer(C1_APC);
+		return;
+	    }
+	    if (c >= 0x30 && c <= 0x7e)
+		dispatchEscape(c, consumer);
+	    return;
+	case ESCAPE_INTERMEDIATE:
+	    if (isC0(c))
+		execute(c, consumer); else
+		if (isIntermediate(c))
+		    collect(c); else
+		    if (c >= 0x30 && c <= 0x7e)
+			dispatchEscape(c, consumer);
+	    return;
+	case CSI_ENTRY:
+	case CSI_PARAM:
+	case CSI_INTERMEDIATE:
+	    if (isC0(c))
+	    {
+		execute(c, consumer);
+		return;
+	    }
+	    onSequenceChar(c, State.CSI_PARAM, State.CSI_INTERMEDIATE, State.CSI_IGNORE);
+	    if (isFinal(c))
+		dispatchCsi(c, consumer);
+	    return;
+	case CSI_IGNORE:
+	    if (isC0(c))
+		execute(c, consumer); else
+		if (isFinal(c))
+		{
+		    log.trace("Ignoring the malformed control sequence {}", raw.toString().replace("\033", "\\e"));
+		    state = State.GROUND;
+		}
+	    return;
+	case DCS_ENTRY:
+	case DCS_PARAM:
+	case DCS_INTERMEDIATE:
+	    if (isC0(c))
+		return;
+	    onSequenceChar(c, State.DCS_PARAM, State.DCS_INTERMEDIATE, State.DCS_IGNORE);
+	    if (isFinal(c))
+	    {
+		stringKind = c;
+		data.setLength(0);
+		state = State.DCS_PASSTHROUGH;
+	    }
+	    return;
+	case DCS_PASSTHROUGH:
+	case SOS_PM_APC_STRING:
+	    appendData(c);
+	    return;
+	case OSC_STRING:
+	    if (c == BEL)
+	    {
+		finishString(consumer);
+		state = State.GROUND;
+		return;
+	    }
+	    if (!isC0(c))
+		appendData(c);
+	    return;
+	case DCS_IGNORE:
+	default:
+	    return;
+	}
+    }
+
+    //Handles the parameters, intermediates and private markers of CSI and DCS
+    private void onSequenceChar(char c, State param, State intermediate, State ignore)
+    {
+	if (isIntermediate(c))
+	{
+	    if (!collect(c))
+		state = ignore; else
+		state = intermediate;
+	    return;
+	}
+	if (c >= 0x30 && c <= 0x3f)
+	{
+	    if (state == intermediate)
+	    {
+		state = ignore;
+		return;
+	    }
+	    //The private markers are allowed only as the first character
+	    if (c >= 0x3c)
+	    {
+		if (state == param)
+		    state = ignore; else
+		{
+		    privateMarker = c;
+		    state = param;
+		}
+		return;
+	    }
+	    onParamChar(c);
+	    state = param;
+	    return;
+	}
+	if (!isFinal(c))
+	    state = ignore;
+    }
+
+    private void onParamChar(char c)
+    {
+	if (paramCount == 0)
+	    paramCount = 1;
+	if (c == ';' || c == ':')
+	{
+	    //The sub-parameters separated by colons are handled as the ordinary ones
+	    if (paramCount < MAX_PARAMS)
+		params[paramCount++] = -1; else
+		paramsOverflow = true;
+	    return;
+	}
+	if (paramsOverflow)
+	    return;
+	final int index = paramCount - 1;
+	final int value = Math.max(params[index], 0) * 10 + (c - '0');
+	params[index] = Math.min(value, MAX_PARAM_VALUE);
+    }
+
+    private void onIntroducer(char c)
+    {
+	switch(c)
+	{
+	case C1_CSI:
+	    state = State.CSI_ENTRY;
+	    break;
+	case C1_DCS:
+	    state = State.DCS_ENTRY;
+	    break;
+	case C1_OSC:
+	    data.setLength(0);
+	    state = State.OSC_STRING;
+	    break;
+	default:
+	    data.setLength(0);
+	    stringKind = toEscapeChar(c);
+	    state = State.SOS_PM_APC_STRING;
+	}
+    }
+
+    private void enterEscape(char c)
+    {
+	raw.setLength(0);
+	raw.append(c);
+	intermediates.setLength(0);
+	params[0] = -1;
+	paramCount = 0;
+	paramsOverflow = false;
+	privateMarker = 0;
+	state = State.ESCAPE;
+    }
+
+    private boolean collect(char c)
+    {
+	if (intermediates.length() >= MAX_INTERMEDIATES)
+	    return false;
+	intermediates.append(c);
+	return true;
+    }
+
+    private void appendData(char c)
+    {
+	if (data.length() < MAX_STRING_LEN)
+	    data.append(c);
+    }
+
+    private void execute(char c, Consumer<Output> consumer)
+    {
+	consumer.accept(new OutputText(String.valueOf(c)));
+    }
+
+    private void dispatchEscape(char c, Consumer<Output> consumer)
+    {
+	state = State.GROUND;
+	consumer.accept(new EscCommand(raw.toString(), c, intermediates.toString()));
+    }
+
+    private void dispatchCsi(char c, Consumer<Output> consumer)
+    {
+	state = State.GROUND;
+	final String marker = privateMarker != 0?String.valueOf(privateMarker):"";
+	final List<Integer> p = getParams();
+	consumer.accept(new AnsiCommand(raw.toString(), c, marker, intermediates.toString(), p, resolveCommandDescription(c, marker, p)));
+    }
+
+    private void finishString(Consumer<Output> consumer)
+    {
+	switch(state)
+	{
+	case OSC_STRING:
+	    consumer.accept(new OscCommand(data.toString()));
+	    break;
+	case DCS_PASSTHROUGH:
+	    consumer.accept(new DcsCommand(raw.toString(), stringKind, privateMarker != 0?String.valueOf(privateMarker):"", intermediates.toString(), getParams(), data.toString()));
+	    break;
+	case SOS_PM_APC_STRING:
+	    consumer.accept(new ControlString(stringKind, data.toString()));
+	    break;
+	default:
+	    break;
+	}
+	data.setLength(0);
+    }
+
+    private List<Integer> getParams()
+    {
+	if (paramCount == 0)
+	    return new ArrayList<>();
+	final List<Integer> res = new ArrayList<>(paramCount);
+	for(int i = 0;i < paramCount;i++)
+	    res.add(Integer.valueOf(Math.max(params[i], 0)));
+	return res;
+    }
+
+    private boolean isString()
+    {
+	switch(state)
+	{
+	case OSC_STRING:
+	case DCS_PASSTHROUGH:
+	case DCS_IGNORE:
+	case SOS_PM_APC_STRING:
+	    return true;
+	default:
+	    return false;
+	}
+    }
+
+    static private boolean isIntroducer(char c)
+    {
+	return c == ESC || c == CAN || c == SUB ||
+	c == C1_CSI || c == C1_DCS || c == C1_OSC || c == C1_ST || c == C1_SOS || c == C1_PM || c == C1_APC;
+    }
+
+    static private boolean isC0(char c)
+    {
+	return c < 0x20;
+    }
+
+    static private boolean isIntermediate(char c)
+    {
+	return c >= 0x20 && c <= 0x2f;
+    }
+
+    static private boolean isFinal(char c)
+    {
+	return c >= 0x40 && c <= 0x7e;
+    }
+
+    static private char toEscapeChar(char c1)
+    {
+	return (char)(c1 - 0x40);
+    }
+
+    /**
+     * Translates command codes to the human readable form.
+     */
+    private String resolveCommandDescription(char finalChar, String marker, List<Integer> params)
+    {
+        if ("?".equals(marker))
+	{
+            switch (finalChar)
+	    {
+                case 'h':
+		    return "DecSet";
+                case 'l':
+		    return "DecReset";
+                default:
+		    return "DEC Private Command";
+            }
+        }
+        switch (finalChar)
+	{
+            case 'A':
+		return "CursorUp";
+            case 'B':
+		return "CursorDown";
+            case 'C':
+		return "CursorForward";
+            case 'D':
+		return "CursorBack";
+            case 'H':
+            case 'f':
+		return "CursorPosition";
+            case 'J':
+		return "EraseInDisplay";
+            case 'K':
+		return "EraseInLine";
+            case 'm':
+                return "TextColor";
+            case 's':
+		return "SaveCursor";
+            case 'u':
+		return "RestoreCursorPos";
+            default:
+		return "Unknown/Other Control Sequence";
+        }
+    }
+
+    static public class Output
+    {
+    }
+
+    static public final class OutputText extends Output
+    {
+	public final String text;
+
+	OutputText(String text)
+	{
+	    this.text = text;
+	}
+
+	@Override public String toString()
+	{
+	    return text;
+	}
+    }
+
+    static public final class AnsiCommand extends Output
+    {
+        public final String rawSequence;
+        public final char finalChar;
+        public final String privateMarker;
+	public final String intermediates;
+        public final List<Integer> params;
+        public final String description;
+
+        AnsiCommand(String rawSequence, char finalChar, String privateMarker, String intermediates, List<Integer> params, String description)
+	{
+            this.rawSequence = rawSequence;
+            this.finalChar = finalChar;
+            this.privateMarker = privateMarker;
+	    this.intermediates = intermediates;
+            this.params = requireNonNullElse(params, new ArrayList<>());
+            this.description = description;
+        }
+
+        @Override public String toString()
+	{
+            return String.format("ANSI: %-30s, marker: '%s', params: %-10s, final: '%c', raw: %s",
+                    description, privateMarker, params, finalChar,
+                    rawSequence.replace("\033", "\\e"));
+        }
+    }
+
+    /**
+     * The escape sequence without parameters, like ESC 7 or ESC ( B.
+     */
+    static public final class EscCommand extends Output
+    {
+	public final String rawSequence;
+	public final char finalChar;
+	public final String intermediates;
+
+	EscCommand(String rawSequence, char finalChar, String intermediates)
+	{
+	    this.rawSequence = rawSequence;
+	    this.finalChar = finalChar;
+	    this.intermediates = intermediates;
+	}
+
+	@Override public String toString()
+	{
+	    return "ESC: " + rawSequence.replace("\033", "\\e");
+	}
+    }
+
+    /**
+     * The operating system command, like setting of the window title.
+     */
+    static public final class OscCommand extends Output
+    {
+	//-1, if the string doesn't begin with the number
+	public final int code;
+	public final String text;
+
+	OscCommand(String data)
+	{
+	    int pos = 0, code = 0;
+	    while (pos < data.length() && pos < 9 && Character.isDigit(data.charAt(pos)))
+		code = code * 10 + (data.charAt(pos++) - '0');
+	    if (pos == 0)
+	    {
+		this.code = -1;
+		this.text = data;
+		return;
+	    }
+	    this.code = code;
+	    this.text = (pos < data.length() && data.charAt(pos) == ';')?data.substring(pos + 1):data.substring(pos);
+	}
+
+	@Override public String toString()
+	{
+	    return "OSC: " + String.valueOf(code) + ", text: " + text;
+	}
+    }
+
+    /**
+     * The device control string.
+     */
+    static public final class DcsCommand extends Output
+    {
+	public final String rawSequence;
+	public final char finalChar;
+	public final String privateMarker;
+	public final String intermediates;
+	public final List<Integer> params;
+	public final String data;
+
+	DcsCommand(String rawSequence, char finalChar, String privateMarker, String intermediates, List<Integer> params, String data)
+	{
+	    this.rawSequence = rawSequence;
+	    this.finalChar = finalChar;
+	    this.privateMarker = privateMarker;
+	    this.intermediates = intermediates;
+	    this.params = params;
+	    this.data = data;
+	}
+
+	@Override public String toString()
+	{
+	    return "DCS: " + rawSequence.replace("\033", "\\e") + ", data: " + data;
+	}
+    }
+
+    /**
+     * The SOS, PM or APC string. The kind is the character following ESC in
+     * the 7-bit form of the introducer: 'X', '^' or '_' respectively.
+     */
+    static public final class ControlString extends Output
+    {
+	public final char kind;
+	public final String data;
+
+	ControlString(char kind, String data)
+	{
+	    this.kind = kind;
+	    this.data = data;
+	}
+
+	@Override public String toString()
+	{
+	    return "String '" + kind + "': " + data;
+	}
+    }
+}
@@ -0,0 +1,148 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The input of the program running in the terminal. The characters are
+ * encoded to UTF-8 with one reused encoder and collected in the buffer,
+ * which goes to the stream only when it's full or on {@link #flush()}.
+ * The caller flushes on the boundaries of the input, like the end of the
+ * batch of keystrokes, so the typing and the pasting cost a few writes
+ * instead of a write per character. All methods are thread-safe.
+ */
+public final class PtyWriter
+{
+    static private final int BUF_SIZE = 4096;
+    static private final byte[]
+	PASTE_START = "\033[200~".getBytes(StandardCharsets.US_ASCII),
+	PASTE_END = "\033[201~".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream os;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
+    //The high surrogate waits here for its pair
+    private final CharBuffer pending = CharBuffer.allocate(2);
+
+    public PtyWriter(OutputStream os)
+    {
+	this.os = requireNonNull(os, "os can't be null");
+    }
+
+    /** Adds the UTF-16 character to the buffer, the surrogate pairs are taken in two calls. */
+    public synchronized void write(int ch) throws IOException
+    {
+	pending.put((char)ch);
+	pending.flip();
+	encode(pending);
+	pending.compact();
+    }
+
+    /** Adds the characters to the buffer. */
+    public synchronized void write(CharSequence str) throws IOException
+    {
+	requireNonNull(str, "str can't be null");
+	if (str.length() == 0)
+	    return;
+	int from = 0;
+	if (pending.position() > 0)
+	{
+	    write(str.charAt(0));
+	    from = 1;
+	}
+	final CharBuffer chars = CharBuffer.wrap(str, from, str.length());
+	encode(chars);
+	//The trailing high surrogate
+	pending.put(chars);
+    }
+
+    /** Adds the bytes to the buffer as they are, the long arrays are written directly. */
+    public synchronized void write(byte[] bytes) throws IOException
+    {
+	requireNonNull(bytes, "bytes can't be null");
+	if (bytes.length > buf.remaining())
+	    drain();
+	if (bytes.length > buf.remaining())
+	{
+	    os.write(bytes);
+	    return;
+	}
+	buf.put(bytes);
+    }
+
+    /**
+     * Sends the pasted text and flushes. In the bracketed paste mode the
+     * text is enclosed in the paste markers, so the program can tell it
+     * from typing. The control characters except the tabs and the line
+     * breaks are removed from the text in this mode, it makes the text
+     * unable to close the paste by itself.
+     *
+     * @param str The text to paste
+     * @param bracketed True if the program has enabled the bracketed paste mode
+     */
+    public synchronized void paste(CharSequence str, boolean bracketed) throws IOException
+    {
+	requireNonNull(str, "str can't be null");
+	if (!bracketed)
+	{
+	    write(str);
+	    flush();
+	    return;
+	}
+	write(PASTE_START);
+	int from = 0;
+	for(int i = 0;i < str.length();i++)
+	{
+	    final char ch = str.charAt(i);
+	    if (ch >= 32 && ch != 127 || ch == '\t' || ch == '\n' || ch == '\r')
+		continue;
+	    if (i > from)
+		write(str.subSequence(from, i));
+	    from = i + 1;
+	}
+	if (from < str.length())
+	    write(str.subSequence(from, str.length()));
+	write(PASTE_END);
+	flush();
+    }
+
+    /** Writes the buffered input to the stream and flushes it. */
+    public synchronized void flush() throws IOException
+    {
+	drain();
+	os.flush();
+    }
+
+    /** True if there is the buffered input, not written to the stream yet. */
+    public synchronized boolean hasPending()
+    {
+	return buf.position() > 0;
+    }
+
+    private void encode(CharBuffer chars) throws IOException
+    {
+	while(true)
+	{
+	    final CoderResult res = encoder.encode(chars, buf, false);
+	    if (!res.isOverflow())
+		return;
+	    drain();
+	}
+    }
+
+    private void drain() throws IOException
+    {
+	if (buf.position() == 0)
+	    return;
+	os.write(buf.array(), 0, buf.position());
+	buf.clear();
+    }
+}
@@ -0,0 +1,145 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Writes the output of the terminal to the file in the asciicast v2
+ * format: the header with the screen size followed by the lines with the
+ * output and resize events, each with the time in seconds since the
+ * beginning of the recording. The file is only appended and flushed not
+ * more often than once a second, so the recording costs little more than
+ * the copying of the output. The failure of writing stops the recording
+ * without affecting the terminal.
+ */
+public final class Recorder implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+    static private final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    static private final int BUF_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Writer writer;
+    private final long startTime = System.nanoTime();
+    private long lastFlush = startTime;
+    private final StringBuilder line = new StringBuilder();
+    private boolean closed = false;
+
+    /**
+     * Creates the recording. The existing file is overwritten.
+     *
+     * @param file The file to write to
+     * @param rows The number of rows of the screen
+     * @param cols The number of columns of the screen
+     */
+    public Recorder(File file, int rows, int cols) throws IOException
+    {
+	this.file = requireNonNull(file, "file can't be null");
+	this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUF_SIZE);
+	writer.write("{\"version\": 2, \"width\": " + String.valueOf(cols) + ", \"height\": " + String.valueOf(rows) +
+		     ", \"timestamp\": " + String.valueOf(System.currentTimeMillis() / 1000) + ", \"env\": {\"TERM\": \"linux\"}}\n");
+    }
+
+    /** Records the chunk of the output. */
+    public synchronized void output(String data)
+    {
+	requireNonNull(data, "data can't be null");
+	writeEvent('o', data);
+    }
+
+    /** Records the change of the screen size. */
+    public synchronized void resize(int rows, int cols)
+    {
+	writeEvent('r', String.valueOf(cols) + "x" + String.valueOf(rows));
+    }
+
+    public File getFile()
+    {
+	return file;
+    }
+
+    @Override public synchronized void close() throws IOException
+    {
+	if (closed)
+	    return;
+	closed = true;
+	writer.close();
+    }
+
+    private void writeEvent(char type, String data)
+    {
+	if (closed)
+	    return;
+	final long now = System.nanoTime();
+	final long micros = TimeUnit.NANOSECONDS.toMicros(now - startTime);
+	final String fraction = String.valueOf(1000000 + micros % 1000000);
+	line.setLength(0);
+	line.append('[').append(micros / 1000000).append('.').append(fraction, 1, fraction.length());
+	line.append(", \"").append(type).append("\", ");
+	appendString(line, data);
+	line.append("]\n");
+	try {
+	    writer.append(line);
+	    if (now - lastFlush >= FLUSH_INTERVAL)
+	    {
+		writer.flush();
+		lastFlush = now;
+	    }
+	}
+	catch(IOException e)
+	{
+	    log.error("Unable to write the terminal recording to " + file.getAbsolutePath() + ", the recording is stopped", e);
+	    closed = true;
+	    try {
+		writer.close();
+	    }
+	    catch(IOException ee)
+	    {
+		log.debug("Unable to close " + file.getAbsolutePath(), ee);
+	    }
+	}
+    }
+
+    //The JSON string
+    static void appendString(StringBuilder b, String s)
+    {
+	b.append('"');
+	for(int i = 0;i < s.length();i++)
+	{
+	    final char ch = s.charAt(i);
+	    switch(ch)
+	    {
+	    case '"':
+		b.append("\\\"");
+		break;
+	    case '\\':
+		b.append("\\\\");
+		break;
+	    case '\n':
+		b.append("\\n");
+		break;
+	    case '\r':
+		b.append("\\r");
+		break;
+	    case '\t':
+		b.append("\\t");
+		break;
+	    default:
+		if (ch < 0x20 || ch == 0x7f)
+		{
+		    final String hex = Integer.toHexString(0x10000 | ch);
+		    b.append("\\u").append(hex, 1, hex.length());
+		} else
+		    b.append(ch);
+	    }
+	}
+	b.append('"');
+    }
+}
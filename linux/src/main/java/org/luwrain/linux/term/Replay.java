@@ -0,0 +1,295 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.regex.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Plays the terminal recording in the asciicast v2 format made by
+ * {@link Recorder}. The events are applied to the screen as fast as
+ * possible, without the pauses of the original session. The events are
+ * loaded to memory and indexed by time, so seeking forward applies only
+ * the events up to the given time; seeking backward replays the
+ * recording from the beginning. The malformed lines, like the truncated
+ * last line of the interrupted recording, are skipped.
+ */
+public final class Replay
+{
+    static private final Logger log = LogManager.getLogger();
+    static private final Pattern
+	WIDTH = Pattern.compile("\"width\"\\s*:\\s*(\\d+)"),
+	HEIGHT = Pattern.compile("\"height\"\\s*:\\s*(\\d+)"),
+	SIZE = Pattern.compile("(\\d+)x(\\d+)");
+
+    private final int initialRows, initialCols, scrollbackLines;
+    private double[] times = new double[1024];
+    private char[] types = new char[1024];
+    private String[] data = new String[1024];
+    private int count = 0;
+
+    private TermText text = null;
+    private Parser parser = null;
+    private TermInterpreter interpreter = null;
+    //The index of the next event to apply
+    private int pos = 0;
+
+    /**
+     * Loads the recording.
+     *
+     * @param reader The source of the recording
+     * @param scrollbackLines The maximum number of lines in the scrollback of the screen
+     */
+    public Replay(BufferedReader reader, int scrollbackLines) throws IOException
+    {
+	requireNonNull(reader, "reader can't be null");
+	if (scrollbackLines < 0)
+	    throw new IllegalArgumentException("scrollbackLines can't be negative");
+	this.scrollbackLines = scrollbackLines;
+	final String header = reader.readLine();
+	if (header == null)
+	    throw new IOException("The recording is empty");
+	this.initialCols = getHeaderValue(WIDTH, header);
+	this.initialRows = getHeaderValue(HEIGHT, header);
+	int lineNum = 1;
+	for(String line = reader.readLine();line != null;line = reader.readLine())
+	{
+	    lineNum++;
+	    if (!line.isEmpty() && !parseEvent(line))
+		log.warn("Skipping the malformed line " + String.valueOf(lineNum) + " of the recording");
+	}
+	restart();
+    }
+
+    static public Replay read(File file) throws IOException
+    {
+	requireNonNull(file, "file can't be null");
+	try (final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+	    return new Replay(r, TermText.DEFAULT_SCROLLBACK_LINES);
+	}
+    }
+
+    /**
+     * Applies the events up to the given time.
+     *
+     * @param time The time in seconds from the beginning of the recording
+     */
+    public void seek(double time)
+    {
+	if (pos > 0 && times[pos - 1] > time)
+	    restart();
+	//The first event after the time
+	int lo = pos, hi = count;
+	while (lo < hi)
+	{
+	    final int mid = (lo + hi) >>> 1;
+	    if (times[mid] <= time)
+		lo = mid + 1; else
+		hi = mid;
+	}
+	while (pos < lo)
+	    apply(pos++);
+    }
+
+    /**
+     * Applies the next event.
+     *
+     * @return False if there are no more events
+     */
+    public boolean step()
+    {
+	if (pos >= count)
+	    return false;
+	apply(pos++);
+	return true;
+    }
+
+    /** Applies all remaining events. */
+    public void playToEnd()
+    {
+	while (pos < count)
+	    apply(pos++);
+    }
+
+    /** The time of the last applied event, zero if nothing is applied yet. */
+    public double getPosition()
+    {
+	return pos > 0?times[pos - 1]:0;
+    }
+
+    /** The time of the next event, negative if there are no more events. */
+    public double getNextEventTime()
+    {
+	return pos < count?times[pos]:-1;
+    }
+
+    /** The time of the last event of the recording. */
+    public double getDuration()
+    {
+	return count > 0?times[count - 1]:0;
+    }
+
+    public int getEventCount()
+    {
+	return count;
+    }
+
+    /** The total number of characters of the output in the recording. */
+    public long getOutputLength()
+    {
+	long res = 0;
+	for(int i = 0;i < count;i++)
+	    if (types[i] == 'o')
+		res += data[i].length();
+	return res;
+    }
+
+    /** The screen in the state after the applied events. */
+    public TermText getText()
+    {
+	return text;
+    }
+
+    private void restart()
+    {
+	text = new TermText(initialRows, initialCols, scrollbackLines);
+	parser = new Parser();
+	//The replies to the queries have no one to go to
+	interpreter = new TermInterpreter(text, reply->{});
+	pos = 0;
+    }
+
+    private void apply(int index)
+    {
+	switch(types[index])
+	{
+	case 'o': {
+	    final char[] chars = data[index].toCharArray();
+	    parser.parse(chars, 0, chars.length, interpreter::onCommand);
+	    break;
+	}
+	case 'r': {
+	    final Matcher m = SIZE.matcher(data[index]);
+	    if (m.matches())
+		text.resize(Math.max(1, Integer.parseInt(m.group(2))), Math.max(1, Integer.parseInt(m.group(1))));
+	    break;
+	}
+	}
+    }
+
+    // [time, "type", "data"]
+    private boolean parseEvent(String line)
+    {
+	final int comma = line.indexOf(',');
+	if (!line.startsWith("[") || !line.endsWith("]") || comma < 0)
+	    return false;
+	final double time;
+	try {
+	    time = Double.parseDouble(line.substring(1, comma).trim());
+	}
+	catch(NumberFormatException e)
+	{
+	    return false;
+	}
+	final int[] p = new int[]{comma + 1};
+	final String type = parseString(line, p);
+	if (type == null || type.length() != 1)
+	    return false;
+	while (p[0] < line.length() && (line.charAt(p[0]) == ',' || line.charAt(p[0]) == ' '))
+	    p[0]++;
+	final String value = parseString(line, p);
+	if (value == null)
+	    return false;
+	if (count == times.length)
+	{
+	    times = Arrays.copyOf(times, count * 2);
+	    types = Arrays.copyOf(types, count * 2);
+	    data = Arrays.copyOf(data, count * 2);
+	}
+	//The events must go in the order of time for seeking
+	times[count] = count > 0?Math.max(time, times[count - 1]):time;
+	types[count] = type.charAt(0);
+	data[count] = value;
+	count++;
+	return true;
+    }
+
+    //The JSON string beginning at p[0] after optional spaces, p[0] is moved after its end
+    static String parseString(String line, int[] p)
+    {
+	int i = p[0];
+	while (i < line.length() && line.charAt(i) == ' ')
+	    i++;
+	if (i >= line.length() || line.charAt(i) != '"')
+	    return null;
+	i++;
+	final StringBuilder b = new StringBuilder();
+	while (i < line.length())
+	{
+	    final char ch = line.charAt(i++);
+	    if (ch == '"')
+	    {
+		p[0] = i;
+		return new String(b);
+	    }
+	    if (ch != '\\')
+	    {
+		b.append(ch);
+		continue;
+	    }
+	    if (i >= line.length())
+		return null;
+	    final char esc = line.charAt(i++);
+	    switch(esc)
+	    {
+	    case 'n':
+		b.append('\n');
+		break;
+	    case 'r':
+		b.append('\r');
+		break;
+	    case 't':
+		b.append('\t');
+		break;
+	    case 'b':
+		b.append('\b');
+		break;
+	    case 'f':
+		b.append('\f');
+		break;
+	    case 'u':
+		if (i + 4 > line.length())
+		    return null;
+		try {
+		    b.append((char)Integer.parseInt(line.substring(i, i + 4), 16));
+		}
+		catch(NumberFormatException e)
+		{
+		    return null;
+		}
+		i += 4;
+		break;
+	    default:
+		b.append(esc);
+	    }
+	}
+	return null;
+    }
+
+    static private int getHeaderValue(Pattern pattern, String header) throws IOException
+    {
+	final Matcher m = pattern.matcher(header);
+	if (!m.find())
+	    throw new IOException("The header of the recording has no screen size: " + header);
+	final int value = Integer.parseInt(m.group(1));
+	if (value <= 0)
+	    throw new IOException("Invalid screen size in the header of the recording: " + header);
+	return value;
+    }
+}
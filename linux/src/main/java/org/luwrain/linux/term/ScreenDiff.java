@@ -0,0 +1,118 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Finds the changes of the terminal screen since the previous call. The
+ * lines are matched by their absolute indices, so the lines just moved by
+ * scrolling aren't reported. Only the rows touched since the previous call
+ * are compared, and only inside of their touched ranges. The lines
+ * scrolled off the screen in the meantime are compared with their
+ * previous state as well, since their changes might not be reported yet.
+ */
+public final class ScreenDiff
+{
+    //The limit of the lines gone from the screen between the calls, the older ones aren't compared
+    static private final int MAX_SCROLLED_LINES = 500;
+
+    /**
+     * The changed part of the line.
+     */
+    static public final class Change
+    {
+	//The absolute index of the line
+	public final long line;
+	//The bounds of the changed part in the line, the end is exclusive
+	public final int from, to;
+	//The new text of the changed part, empty if the text is deleted
+	public final String text;
+
+	Change(long line, int from, int to, String text)
+	{
+	    this.line = line;
+	    this.from = from;
+	    this.to = to;
+	    this.text = text;
+	}
+
+	@Override public String toString()
+	{
+	    return String.valueOf(line) + " [" + String.valueOf(from) + ", " + String.valueOf(to) + "): " + text;
+	}
+    }
+
+    private long generation = -1;
+    private long firstRowIndex = 0;
+    private String[] rows = new String[0];
+
+    /**
+     * Computes the changes and remembers the current state of the screen.
+     * The dirty ranges of the text are cleared.
+     *
+     * @return The changes in the order of lines, the empty list if there are no changes
+     */
+    public List<Change> update(TermText text)
+    {
+	requireNonNull(text, "text can't be null");
+	if (text.getGeneration() == generation)
+	    return Collections.emptyList();
+	final List<Change> res = new ArrayList<>();
+	final long first = text.getFirstRowIndex();
+	final int count = text.getRowCount();
+
+	//The lines gone from the screen since the previous call
+	final long scrolledFrom = Math.max(firstRowIndex, first - MAX_SCROLLED_LINES);
+	final long scrollbackStart = first - text.getScrollbackSize();
+	for(long line = Math.max(scrolledFrom, scrollbackStart);line < first;line++)
+	    compare(res, line, getOld(line), text.getLine((int)(line - scrollbackStart)), 0, Integer.MAX_VALUE);
+
+	final String[] newRows = new String[count];
+	for(int r = 0;r < count;r++)
+	{
+	    final long line = first + r;
+	    newRows[r] = text.getRowText(r);
+	    final String old = getOld(line);
+	    //The untouched rows being on the screen previously are the same
+	    if (!text.isRowDirty(r) && (old != null || generation < 0))
+		continue;
+	    compare(res, line, old, newRows[r], text.getDirtyStart(r), text.getDirtyEnd(r));
+	}
+	this.rows = newRows;
+	this.firstRowIndex = first;
+	this.generation = text.getGeneration();
+	text.clearDirty();
+	return res;
+    }
+
+    private String getOld(long line)
+    {
+	if (line < firstRowIndex || line >= firstRowIndex + rows.length)
+	    return null;
+	return rows[(int)(line - firstRowIndex)];
+    }
+
+    //The changed part is looked for inside of the range only, the cells after the line end are spaces
+    static private void compare(List<Change> res, long line, String oldText, String newText, int rangeFrom, int rangeTo)
+    {
+	final String old = oldText != null?oldText:"";
+	int from = Math.max(rangeFrom, 0);
+	int to = Math.min(rangeTo, Math.max(old.length(), newText.length()));
+	while (from < to && charAt(old, from) == charAt(newText, from))
+	    from++;
+	while (to > from && charAt(old, to - 1) == charAt(newText, to - 1))
+	    to--;
+	if (from >= to)
+	    return;
+	res.add(new Change(line, from, to, newText.substring(Math.min(from, newText.length()), Math.min(to, newText.length()))));
+    }
+
+    static private char charAt(String s, int index)
+    {
+	return index < s.length()?s.charAt(index):' ';
+    }
+}
@@ -0,0 +1,79 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.concurrent.atomic.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The bounded lock-free queue for exactly one producer thread and one
+ * consumer thread. The items are stored in the ring buffer, the producer
+ * publishes them by advancing the tail, the consumer releases the slots by
+ * advancing the head, so neither of them ever waits for the other.
+ */
+public final class SpscQueue<E>
+{
+    private final Object[] items;
+    private final int mask;
+    //The index of the next item to take, changed only by the consumer
+    private final AtomicLong head = new AtomicLong(0);
+    //The index of the next free slot, changed only by the producer
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * @param capacity The maximum number of items, rounded up to the power of two
+     */
+    public SpscQueue(int capacity)
+    {
+	if (capacity <= 0 || capacity > (1 << 30))
+	    throw new IllegalArgumentException("capacity must be in the range from 1 to 2^30");
+	final int size = Integer.highestOneBit(capacity - 1) << 1;
+	this.items = new Object[Math.max(size, 1)];
+	this.mask = items.length - 1;
+    }
+
+    /**
+     * Adds the item, must be called only by the producer.
+     *
+     * @return True, if the item is added, false if the queue is full
+     */
+    public boolean offer(E item)
+    {
+	requireNonNull(item, "item can't be null");
+	final long t = tail.get();
+	if (t - head.getAcquire() == items.length)
+	    return false;
+	items[(int)(t & mask)] = item;
+	tail.setRelease(t + 1);
+	return true;
+    }
+
+    /**
+     * Takes the item, must be called only by the consumer.
+     *
+     * @return The oldest item or null, if the queue is empty
+     */
+    @SuppressWarnings("unchecked") public E poll()
+    {
+	final long h = head.get();
+	if (h == tail.getAcquire())
+	    return null;
+	final int index = (int)(h & mask);
+	final E res = (E)items[index];
+	items[index] = null;
+	head.setRelease(h + 1);
+	return res;
+    }
+
+    public boolean isEmpty()
+    {
+	return head.getAcquire() == tail.getAcquire();
+    }
+
+    public int getCapacity()
+    {
+	return items.length;
+    }
+}
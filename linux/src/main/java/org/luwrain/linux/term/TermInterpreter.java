@@ -0,0 +1,549 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2025 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.util.function.*;
+import org.apache.logging.log4j.*;
+
+import static java.util.Objects.*;
+import static org.luwrain.linux.term.TermText.*;
+
+/**
+ * Applies the parsed terminal output to the text of the screen. The
+ * commands are dispatched through the tables indexed by the final
+ * character, separate for each private marker of CSI sequences, so no
+ * strings are compared while processing the output. The handlers cover
+ * the command set of the Linux console and the common part of xterm:
+ * cursor movement, erasing, insertion and deletion of lines and
+ * characters, scroll regions, the alternate screen, SGR attributes,
+ * ANSI and DEC modes, the line drawing character set and the window
+ * title. The bell is only remembered to be taken by the user of the
+ * terminal.
+ */
+final class TermInterpreter
+{
+    static private final Logger log = LogManager.getLogger();
+
+    //The final characters of CSI sequences are in the range 0x40-0x7e
+    static private final int
+	CSI_FIRST = 0x40,
+	ESC_FIRST = 0x30,
+	TABLE_SIZE = 0x7f;
+
+    //The indices of the CSI tables: no private marker, '?', '>'
+    static private final int
+	MARKER_NONE = 0,
+	MARKER_DEC = 1,
+	MARKER_GT = 2;
+
+    //DEC Special Graphics for the characters 0x5f-0x7e
+    static private final String LINE_DRAWING = " ◆▒␉␌␍␊°±␤␋┘┐┌└┼⎺⎻─⎼⎽├┤┴┬│≤≥π≠£·";
+
+    private interface CsiHandler
+    {
+	void handle(TermInterpreter t, Parser.AnsiCommand cmd);
+    }
+
+    private interface EscHandler
+    {
+	void handle(TermInterpreter t);
+    }
+
+    static private final CsiHandler[][] CSI = new CsiHandler[3][TABLE_SIZE - CSI_FIRST];
+    static private final EscHandler[] ESC = new EscHandler[TABLE_SIZE - ESC_FIRST];
+
+    static {
+	csi(MARKER_NONE, '@', (t, c)->t.text.insertChars(count(c, 0)));
+	csi(MARKER_NONE, 'A', (t, c)->t.text.cursorUp(count(c, 0)));
+	csi(MARKER_NONE, 'B', (t, c)->t.text.cursorDown(count(c, 0)));
+	csi(MARKER_NONE, 'C', (t, c)->t.text.cursorRight(count(c, 0)));
+	csi(MARKER_NONE, 'D', (t, c)->t.text.cursorLeft(count(c, 0)));
+	csi(MARKER_NONE, 'E', (t, c)->{ t.text.cursorDown(count(c, 0)); t.text.carriageReturn(); });
+	csi(MARKER_NONE, 'F', (t, c)->{ t.text.cursorUp(count(c, 0)); t.text.carriageReturn(); });
+	csi(MARKER_NONE, 'G', (t, c)->t.text.setCursorCol(count(c, 0) - 1));
+	csi(MARKER_NONE, 'H', (t, c)->t.text.setCursorPos(count(c, 0) - 1, count(c, 1) - 1));
+	csi(MARKER_NONE, 'I', (t, c)->t.text.tab(count(c, 0)));
+	csi(MARKER_NONE, 'J', (t, c)->t.text.eraseInDisplay(param(c, 0, 0)));
+	csi(MARKER_NONE, 'K', (t, c)->t.text.eraseInLine(param(c, 0, 0)));
+	csi(MARKER_NONE, 'L', (t, c)->t.text.insertLines(count(c, 0)));
+	csi(MARKER_NONE, 'M', (t, c)->t.text.deleteLines(count(c, 0)));
+	csi(MARKER_NONE, 'P', (t, c)->t.text.deleteChars(count(c, 0)));
+	csi(MARKER_NONE, 'S', (t, c)->t.text.scrollUp(count(c, 0)));
+	csi(MARKER_NONE, 'T', (t, c)->t.text.scrollDown(count(c, 0)));
+	csi(MARKER_NONE, 'X', (t, c)->t.text.fillSpaces(count(c, 0)));
+	csi(MARKER_NONE, 'Z', (t, c)->t.text.backTab(count(c, 0)));
+	csi(MARKER_NONE, '`', (t, c)->t.text.setCursorCol(count(c, 0) - 1));
+	csi(MARKER_NONE, 'a', (t, c)->t.text.cursorRight(count(c, 0)));
+	csi(MARKER_NONE, 'b', TermInterpreter::onRepeat);
+	csi(MARKER_NONE, 'c', (t, c)->t.reply("\033[?6c"));
+	csi(MARKER_NONE, 'd', (t, c)->t.text.setCursorRow(count(c, 0) - 1));
+	csi(MARKER_NONE, 'e', (t, c)->t.text.cursorDown(count(c, 0)));
+	csi(MARKER_NONE, 'f', (t, c)->t.text.setCursorPos(count(c, 0) - 1, count(c, 1) - 1));
+	csi(MARKER_NONE, 'g', (t, c)->t.text.clearTabStop(param(c, 0, 0) == 3));
+	csi(MARKER_NONE, 'h', (t, c)->t.setAnsiModes(c, true));
+	csi(MARKER_NONE, 'l', (t, c)->t.setAnsiModes(c, false));
+	csi(MARKER_NONE, 'm', TermInterpreter::onSgr);
+	csi(MARKER_NONE, 'n', TermInterpreter::onStatusReport);
+	csi(MARKER_NONE, 'p', TermInterpreter::onSoftReset);
+	csi(MARKER_NONE, 'r', (t, c)->t.text.setScrollRegion(count(c, 0) - 1, count(c, 1, t.text.getRowCount()) - 1));
+	csi(MARKER_NONE, 's', (t, c)->t.text.saveCursor());
+	csi(MARKER_NONE, 'u', (t, c)->t.text.restoreCursor());
+	csi(MARKER_DEC, 'h', (t, c)->t.setDecModes(c, true));
+	csi(MARKER_DEC, 'l', (t, c)->t.setDecModes(c, false));
+	csi(MARKER_DEC, 'J', (t, c)->t.text.eraseInDisplay(param(c, 0, 0)));
+	csi(MARKER_DEC, 'K', (t, c)->t.text.eraseInLine(param(c, 0, 0)));
+	csi(MARKER_GT, 'c', (t, c)->t.reply("\033[>0;0;0c"));
+
+	esc('7', t->t.text.saveCursor());
+	esc('8', t->t.text.restoreCursor());
+	esc('D', t->t.text.index());
+	esc('E', t->t.text.newLine());
+	esc('H', t->t.text.setTabStop());
+	esc('M', t->t.text.reverseIndex());
+	esc('c', TermInterpreter::reset);
+	//The keypad modes don't change anything in the output
+	esc('=', t->{});
+	esc('>', t->{});
+    }
+
+    private final TermText text;
+    //The answers to the queries, like the cursor position report, sent back to the terminal
+    private final Consumer<String> reply;
+    private boolean bell = false;
+    private String title = "";
+    private char lastChar = ' ';
+
+    //The character sets G0 and G1, true for the line drawing, and the shift to G1
+    private boolean g0LineDrawing = false, g1LineDrawing = false, shifted = false;
+
+    //The modes affecting the input
+    private boolean appCursorKeys = false, bracketedPaste = false, cursorVisible = true, newLineMode = false;
+
+    TermInterpreter(TermText text, Consumer<String> reply)
+    {
+	this.text = requireNonNull(text, "text can't be null");
+	this.reply = requireNonNull(reply, "reply can't be null");
+    }
+
+    void onCommand(Parser.Output cmd)
+    {
+	if (cmd instanceof Parser.OutputText t)
+	{
+	    onText(t.text);
+	    return;
+	}
+	if (cmd instanceof Parser.AnsiCommand ansi)
+	{
+	    onAnsiCommand(ansi);
+	    return;
+	}
+	if (cmd instanceof Parser.EscCommand esc)
+	{
+	    onEscCommand(esc);
+	    return;
+	}
+	if (cmd instanceof Parser.OscCommand osc)
+	{
+	    //The icon name and the window title, or just the window title
+	    if (osc.code == 0 || osc.code == 2)
+		title = osc.text;
+	    return;
+	}
+	log.trace("Unhandled {}", cmd);
+    }
+
+    private void onText(String str)
+    {
+	for(int i = 0;i < str.length();i++)
+	{
+	    final char ch = str.charAt(i);
+	    if (ch >= 32 && ch != 0x7f)
+	    {
+		final boolean lineDrawing = shifted?g1LineDrawing:g0LineDrawing;
+		lastChar = (lineDrawing && ch >= 0x5f && ch <= 0x7e)?LINE_DRAWING.charAt(ch - 0x5f):ch;
+		text.writeChar(lastChar);
+		continue;
+	    }
+	    switch(ch)
+	    {
+	    case 7:
+		bell = true;
+		break;
+	    case '\b':
+		text.cursorLeft(1);
+		break;
+	    case '\t':
+		text.tab(1);
+		break;
+	    case '\n':
+	    case 0x0b:
+	    case 0x0c:
+		if (newLineMode)
+		    text.newLine(); else
+		    text.index();
+		break;
+	    case '\r':
+		text.carriageReturn();
+		break;
+	    case 0x0e:
+		shifted = true;
+		break;
+	    case 0x0f:
+		shifted = false;
+		break;
+	    }
+	}
+    }
+
+    private void onAnsiCommand(Parser.AnsiCommand cmd)
+    {
+	final char ch = cmd.finalChar;
+	final int marker;
+	if (cmd.privateMarker.isEmpty())
+	    marker = MARKER_NONE; else
+	    switch(cmd.privateMarker.charAt(0))
+	    {
+	    case '?':
+		marker = MARKER_DEC;
+		break;
+	    case '>':
+		marker = MARKER_GT;
+		break;
+	    default:
+		marker = -1;
+	    }
+	//The commands with intermediates are handled only by DECSTR, the rest are ignored
+	if (marker < 0 || ch < CSI_FIRST || ch >= TABLE_SIZE || (!cmd.intermediates.isEmpty() && ch != 'p'))
+	{
+	    log.trace("Unhandled {}", cmd);
+	    return;
+	}
+	final CsiHandler h = CSI[marker][ch - CSI_FIRST];
+	if (h == null)
+	{
+	    log.trace("Unhandled {}", cmd);
+	    return;
+	}
+	h.handle(this, cmd);
+    }
+
+    private void onEscCommand(Parser.EscCommand cmd)
+    {
+	final char ch = cmd.finalChar;
+	if (!cmd.intermediates.isEmpty())
+	{
+	    //The designation of the character sets G0 and G1
+	    switch(cmd.intermediates.charAt(0))
+	    {
+	    case '(':
+		g0LineDrawing = ch == '0';
+		return;
+	    case ')':
+		g1LineDrawing = ch == '0';
+		return;
+	    }
+	    log.trace("Unhandled {}", cmd);
+	    return;
+	}
+	final EscHandler h = (ch >= ESC_FIRST && ch < TABLE_SIZE)?ESC[ch - ESC_FIRST]:null;
+	if (h == null)
+	{
+	    log.trace("Unhandled {}", cmd);
+	    return;
+	}
+	h.handle(this);
+    }
+
+    private void onSgr(Parser.AnsiCommand cmd)
+    {
+	final List<Integer> p = cmd.params;
+	int attr = text.getAttr();
+	if (p.isEmpty())
+	    attr = 0;
+	for(int i = 0;i < p.size();i++)
+	{
+	    final int value = p.get(i).intValue();
+	    switch(value)
+	    {
+	    case 0:
+		attr = 0;
+		break;
+	    case 1:
+		attr |= ATTR_BOLD;
+		break;
+	    case 2:
+		attr |= ATTR_DIM;
+		break;
+	    case 3:
+		attr |= ATTR_ITALIC;
+		break;
+	    case 4:
+		attr |= ATTR_UNDERLINE;
+		break;
+	    case 5:
+	    case 6:
+		attr |= ATTR_BLINK;
+		break;
+	    case 7:
+		attr |= ATTR_INVERSE;
+		break;
+	    case 8:
+		attr |= ATTR_INVISIBLE;
+		break;
+	    case 9:
+		attr |= ATTR_STRIKE;
+		break;
+	    case 21:
+	    case 22:
+		attr &= ~(ATTR_BOLD | ATTR_DIM);
+		break;
+	    case 23:
+		attr &= ~ATTR_ITALIC;
+		break;
+	    case 24:
+		attr &= ~ATTR_UNDERLINE;
+		break;
+	    case 25:
+		attr &= ~ATTR_BLINK;
+		break;
+	    case 27:
+		attr &= ~ATTR_INVERSE;
+		break;
+	    case 28:
+		attr &= ~ATTR_INVISIBLE;
+		break;
+	    case 29:
+		attr &= ~ATTR_STRIKE;
+		break;
+	    case 38:
+	    case 48: {
+		//The extended colour: 5;index or 2;r;g;b
+		final int shift = value == 38?ATTR_FG_SHIFT:ATTR_BG_SHIFT;
+		final int mode = i + 1 < p.size()?p.get(i + 1).intValue():-1;
+		if (mode == 5 && i + 2 < p.size())
+		{
+		    attr = setColor(attr, shift, Math.min(p.get(i + 2).intValue(), 255));
+		    i += 2;
+		    break;
+		}
+		if (mode == 2 && i + 4 < p.size())
+		{
+		    attr = setColor(attr, shift, rgbToIndex(p.get(i + 2).intValue(), p.get(i + 3).intValue(), p.get(i + 4).intValue()));
+		    i += 4;
+		    break;
+		}
+		//The rest of the parameters can't be interpreted
+		i = p.size();
+		break;
+	    }
+	    case 39:
+		attr = setColor(attr, ATTR_FG_SHIFT, -1);
+		break;
+	    case 49:
+		attr = setColor(attr, ATTR_BG_SHIFT, -1);
+		break;
+	    default:
+		if (value >= 30 && value <= 37)
+		    attr = setColor(attr, ATTR_FG_SHIFT, value - 30); else
+		if (value >= 40 && value <= 47)
+		    attr = setColor(attr, ATTR_BG_SHIFT, value - 40); else
+		if (value >= 90 && value <= 97)
+		    attr = setColor(attr, ATTR_FG_SHIFT, value - 90 + 8); else
+		if (value >= 100 && value <= 107)
+		    attr = setColor(attr, ATTR_BG_SHIFT, value - 100 + 8);
+		//The fonts 10-11 of the Linux console and the rest are ignored
+	    }
+	}
+	text.setAttr(attr);
+    }
+
+    private void setAnsiModes(Parser.AnsiCommand cmd, boolean on)
+    {
+	for(Integer m: cmd.params)
+	    switch(m.intValue())
+	    {
+	    case 4:
+		text.setInsertMode(on);
+		break;
+	    case 20:
+		newLineMode = on;
+		break;
+	    default:
+		log.trace("Unhandled ANSI mode {}", m);
+	    }
+    }
+
+    private void setDecModes(Parser.AnsiCommand cmd, boolean on)
+    {
+	for(Integer m: cmd.params)
+	    switch(m.intValue())
+	    {
+	    case 1:
+		appCursorKeys = on;
+		break;
+	    case 6:
+		text.setOriginMode(on);
+		break;
+	    case 7:
+		text.setAutoWrap(on);
+		break;
+	    case 25:
+		cursorVisible = on;
+		break;
+	    case 47:
+	    case 1047:
+		text.setAlternateScreen(on);
+		break;
+	    case 1048:
+		if (on)
+		    text.saveCursor(); else
+		    text.restoreCursor();
+		break;
+	    case 1049:
+		if (on)
+		{
+		    text.saveCursor();
+		    text.setAlternateScreen(true);
+		} else
+		{
+		    text.setAlternateScreen(false);
+		    text.restoreCursor();
+		}
+		break;
+	    case 2004:
+		bracketedPaste = on;
+		break;
+	    default:
+		log.trace("Unhandled DEC mode {}", m);
+	    }
+    }
+
+    private void onStatusReport(Parser.AnsiCommand cmd)
+    {
+	switch(param(cmd, 0, 0))
+	{
+	case 5:
+	    reply("\033[0n");
+	    break;
+	case 6:
+	    reply("\033[" + String.valueOf(text.getCursorRow() + 1) + ";" + String.valueOf(Math.min(text.getCursorCol(), text.getColCount() - 1) + 1) + "R");
+	    break;
+	}
+    }
+
+    private void onRepeat(Parser.AnsiCommand cmd)
+    {
+	final int n = Math.min(count(cmd, 0), text.getRowCount() * text.getColCount());
+	for(int i = 0;i < n;i++)
+	    text.writeChar(lastChar);
+    }
+
+    private void onSoftReset(Parser.AnsiCommand cmd)
+    {
+	//CSI ! p
+	if (!cmd.intermediates.equals("!"))
+	    return;
+	text.softReset();
+	resetModes();
+    }
+
+    private void reset()
+    {
+	text.reset();
+	resetModes();
+	title = "";
+    }
+
+    private void resetModes()
+    {
+	g0LineDrawing = false;
+	g1LineDrawing = false;
+	shifted = false;
+	appCursorKeys = false;
+	bracketedPaste = false;
+	cursorVisible = true;
+	newLineMode = false;
+    }
+
+    private void reply(String str)
+    {
+	reply.accept(str);
+    }
+
+    /** The title set by the application with OSC 0 or OSC 2, the empty string if there is no title. */
+    String getTitle()
+    {
+	return title;
+    }
+
+    /** True if the cursor keys must send the application sequences (ESC O A instead of ESC [ A). */
+    boolean isAppCursorKeys()
+    {
+	return appCursorKeys;
+    }
+
+    boolean isBracketedPaste()
+    {
+	return bracketedPaste;
+    }
+
+    boolean isCursorVisible()
+    {
+	return cursorVisible;
+    }
+
+    /** Returns true if there was the bell since the previous call. */
+    boolean takeBell()
+    {
+	final boolean res = bell;
+	bell = false;
+	return res;
+    }
+
+    static private void csi(int marker, char finalChar, CsiHandler handler)
+    {
+	CSI[marker][finalChar - CSI_FIRST] = handler;
+    }
+
+    static private void esc(char finalChar, EscHandler handler)
+    {
+	ESC[finalChar - ESC_FIRST] = handler;
+    }
+
+    //The parameter or the default value if it's absent
+    static private int param(Parser.AnsiCommand cmd, int index, int def)
+    {
+	return index < cmd.params.size()?cmd.params.get(index).intValue():def;
+    }
+
+    //The number of the repetitions, zero and absent parameters mean the default value
+    static private int count(Parser.AnsiCommand cmd, int index, int def)
+    {
+	final int value = param(cmd, index, 0);
+	return value > 0?value:def;
+    }
+
+    static private int count(Parser.AnsiCommand cmd, int index)
+    {
+	return count(cmd, index, 1);
+    }
+
+    //The index -1 means the default colour
+    static private int setColor(int attr, int shift, int index)
+    {
+	return (attr & ~(ATTR_COLOR_MASK << shift)) | ((index + 1) << shift);
+    }
+
+    //The nearest colour of the 6x6x6 cube of the 256-colour palette
+    static private int rgbToIndex(int r, int g, int b)
+    {
+	return 16 + 36 * cube(r) + 6 * cube(g) + cube(b);
+    }
+
+    static private int cube(int value)
+    {
+	return (Math.max(0, Math.min(value, 255)) * 5 + 127) / 255;
+    }
+}
@@ -0,0 +1,943 @@
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+import org.luwrain.linux.*;
+
+/**
+ * Text content of ANSI terminal emulation. The screen is the grid of
+ * cells: each row is an array of characters and an array of their
+ * attributes. The rows are kept in the circular array, so scrolling of
+ * the whole screen only moves its beginning. The lines leaving the top of
+ * the screen go to the scrollback, stored compactly in {@link LineBuffer},
+ * and are available above the screen lines. The strings of lines are
+ * cached until the rows change, so the repeated reading of the same lines
+ * doesn't create new objects.
+ * <p>
+ * The cursor position and the scroll region are 0-based and relative to
+ * the screen, not including the scrollback.
+ * <p>
+ * The changes are tracked for each row as the range of touched cells, the
+ * generation counter grows on every change. The screen rows also have the
+ * absolute indices, growing as the screen scrolls, so the changes can be
+ * matched with the previous state of the same lines (see {@link
+ * ScreenDiff}).
+ * <p>
+ * The alternate screen has its own grid of cells and no scrollback, the
+ * lines leaving it are lost. The scrollback isn't shown while the
+ * alternate screen is active.
+ * <p>
+ * The screen can be resized keeping its content. The arrays of cells
+ * never shrink, the narrowing only clears their ends, and the rows
+ * removed from the bottom are kept for later growth, so frequent resizing
+ * doesn't allocate new rows.
+ */
+public class TermText implements Lines, HotPoint
+{
+    static public final int DEFAULT_SCROLLBACK_LINES = 100000;
+    static private final long SCROLLBACK_MAX_BYTES = 16 * 1024 * 1024;
+    static private final int SCROLLBACK_CACHE_SIZE = 256;
+
+    // The attributes of cells
+    static public final int
+	ATTR_BOLD = 0x01,
+	ATTR_DIM = 0x02,
+	ATTR_ITALIC = 0x04,
+	ATTR_UNDERLINE = 0x08,
+	ATTR_BLINK = 0x10,
+	ATTR_INVERSE = 0x20,
+	ATTR_INVISIBLE = 0x40,
+	ATTR_STRIKE = 0x80,
+	// The colours are stored as the index in the 256-colour palette plus one, zero means the default colour
+	ATTR_FG_SHIFT = 8,
+	ATTR_BG_SHIFT = 17,
+	ATTR_COLOR_MASK = 0x1ff;
+    static private final int TAB_WIDTH = 8;
+
+    // Screen dimensions
+    private int rows, cols;
+
+    // The logical row r is stored in the physical row (top + r) % rows
+    private char[][] chars;
+    private int[][] attrs;
+    // The number of cells of the row up to the last non-blank one, the rest are spaces with no attributes
+    private int[] lengths;
+    // The grid of the inactive screen, the alternate one is allocated on its first use
+    private char[][] otherChars = null;
+    private int[][] otherAttrs = null;
+    private int[] otherLengths = null;
+    private int otherTop = 0;
+    private boolean alternate = false;
+    // The strings of the rows, null if the row has changed
+    private String[] cache;
+    // The touched cells of the rows since the last clearDirty(), the start equal to cols means the row isn't touched
+    private int[] dirtyStart, dirtyEnd;
+    private int top = 0;
+    private long generation = 0;
+    // The absolute index of the first screen row, the number of lines scrolled off the screen
+    private long firstRowIndex = 0;
+
+    // The lines gone from the screen, null if the scrollback is disabled
+    private final LineBuffer scrollback;
+    private final String[] scrollbackCache;
+    private final long[] scrollbackCacheKeys;
+
+    // Current cursor position (0-based)
+    private int cursorRow, cursorCol;
+    // The attributes of the new characters
+    private int attr = 0;
+
+    private boolean originMode;
+    private boolean autoWrap = true;
+    private boolean insertMode = false;
+    private boolean[] tabStops;
+    // The rows left after reducing the screen, reused when it grows again
+    private final ArrayDeque<char[]> spareChars = new ArrayDeque<>();
+    private final ArrayDeque<int[]> spareAttrs = new ArrayDeque<>();
+
+    // The state saved by saveCursor()
+    private int savedRow = 0, savedCol = 0, savedAttr = 0;
+    private boolean savedOriginMode = false;
+
+    // Scroll region (topMargin, bottomMargin inclusive, 0-based)
+    private int topMargin, bottomMargin;
+
+    /**
+     * Creates a terminal text buffer of the given size.
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param scrollbackLines The maximum number of lines in the scrollback, zero disables it
+     */
+    public TermText(int rows, int cols, int scrollbackLines)
+    {
+	if (rows <= 0)
+	    throw new IllegalArgumentException("rows must be greater than zero");
+	if (cols <= 0)
+	    throw new IllegalArgumentException("cols must be greater than zero");
+	if (scrollbackLines < 0)
+	    throw new IllegalArgumentException("scrollbackLines can't be negative");
+        this.rows = rows;
+        this.cols = cols;
+	this.chars = new char[rows][cols];
+	this.attrs = new int[rows][cols];
+	this.lengths = new int[rows];
+	this.cache = new String[rows];
+	this.dirtyStart = new int[rows];
+	this.dirtyEnd = new int[rows];
+	Arrays.fill(dirtyStart, cols);
+	for(char[] r: chars)
+	    Arrays.fill(r, ' ');
+	this.tabStops = new boolean[cols];
+	resetTabStops();
+	if (scrollbackLines > 0)
+	{
+	    this.scrollback = new LineBuffer(LineBuffer.Retention.TAIL, SCROLLBACK_MAX_BYTES, scrollbackLines);
+	    this.scrollbackCache = new String[SCROLLBACK_CACHE_SIZE];
+	    this.scrollbackCacheKeys = new long[SCROLLBACK_CACHE_SIZE];
+	    Arrays.fill(scrollbackCacheKeys, -1);
+	} else
+	{
+	    this.scrollback = null;
+	    this.scrollbackCache = null;
+	    this.scrollbackCacheKeys = null;
+	}
+        this.cursorRow = 0;
+        this.cursorCol = 0;
+        this.originMode = false;
+        this.topMargin = 0;
+        this.bottomMargin = rows - 1;
+    }
+
+    public TermText(int rows, int cols)
+    {
+	this(rows, cols, DEFAULT_SCROLLBACK_LINES);
+    }
+
+    // Cursor positioning commands
+    /**
+     * Analog of CUP (Cursor Position).
+     * Sets the cursor to the specified position.
+     * If originMode is on, the row is relative to the top of the scroll region.
+     * @param row row number (0..rows-1)
+     * @param col column number (0..cols-1)
+     */
+    public void setCursorPos(int row, int col)
+    {
+	if (originMode)
+	    cursorRow = clamp(topMargin + row, topMargin, bottomMargin); else
+	    cursorRow = clamp(row, 0, rows - 1);
+        cursorCol = clamp(col, 0, cols - 1);
+    }
+
+    /**
+     * Moves cursor to home position.
+     * In originMode — to the top of the scroll region, otherwise to (0, 0).
+     */
+    public void cursorHome()
+    {
+	setCursorPos(0, 0);
+    }
+
+    /** Move up by n lines. */
+    public void cursorUp(int n) {
+        final int maxUp = (originMode ? topMargin : 0);
+        cursorRow = Math.max(cursorRow - n, maxUp);
+    }
+
+    /** Move down by n lines. */
+    public void cursorDown(int n) {
+        final int maxDown = (originMode ? bottomMargin : rows - 1);
+        cursorRow = Math.min(cursorRow + n, maxDown);
+    }
+
+    /** Move right by n columns. */
+    public void cursorRight(int n) {
+        cursorCol = Math.min(cursorCol + n, cols - 1);
+    }
+
+    /** Move left by n columns. */
+    public void cursorLeft(int n)
+    {
+        cursorCol = Math.max(Math.min(cursorCol, cols - 1) - n, 0);
+    }
+
+    /** Analog of CHA (Cursor Character Absolute), the row doesn't change. */
+    public void setCursorCol(int col)
+    {
+	cursorCol = clamp(col, 0, cols - 1);
+    }
+
+    /** Analog of VPA (Line Position Absolute), the column doesn't change. */
+    public void setCursorRow(int row)
+    {
+	final int col = cursorCol;
+	setCursorPos(row, 0);
+	cursorCol = col;
+    }
+
+    /** Carriage return (CR). */
+    public void carriageReturn()
+    {
+	cursorCol = 0;
+    }
+
+    /** Moves the cursor to the next tab stop n times, stopping at the last column. */
+    public void tab(int n)
+    {
+	int col = Math.min(cursorCol, cols - 1);
+	for(int k = 0;k < n && col < cols - 1;k++)
+	{
+	    col++;
+	    while (col < cols - 1 && !tabStops[col])
+		col++;
+	}
+	cursorCol = col;
+    }
+
+    /** Moves the cursor to the previous tab stop n times (CBT). */
+    public void backTab(int n)
+    {
+	int col = Math.min(cursorCol, cols - 1);
+	for(int k = 0;k < n && col > 0;k++)
+	{
+	    col--;
+	    while (col > 0 && !tabStops[col])
+		col--;
+	}
+	cursorCol = col;
+    }
+
+    /** Sets the tab stop at the cursor column (HTS). */
+    public void setTabStop()
+    {
+	if (cursorCol < cols)
+	    tabStops[cursorCol] = true;
+    }
+
+    /** Clears the tab stop at the cursor column or all of them (TBC). */
+    public void clearTabStop(boolean all)
+    {
+	if (all)
+	    Arrays.fill(tabStops, false); else
+	    if (cursorCol < cols)
+		tabStops[cursorCol] = false;
+    }
+
+    /** Saves the cursor position, the attributes and the origin mode (DECSC). */
+    public void saveCursor()
+    {
+	savedRow = cursorRow;
+	savedCol = Math.min(cursorCol, cols - 1);
+	savedAttr = attr;
+	savedOriginMode = originMode;
+    }
+
+    /** Restores the state saved by {@link #saveCursor()} (DECRC). */
+    public void restoreCursor()
+    {
+	cursorRow = clamp(savedRow, 0, rows - 1);
+	cursorCol = clamp(savedCol, 0, cols - 1);
+	attr = savedAttr;
+	originMode = savedOriginMode;
+    }
+
+    // Mode and scroll region management
+    /**
+     * Enables/disables origin mode.
+     * After changing the mode, the cursor moves to the home position.
+     */
+    public void setOriginMode(boolean on)
+    {
+        this.originMode = on;
+        cursorHome();
+    }
+
+    /** Enables/disables the automatic line wrap at the right edge (DECAWM). */
+    public void setAutoWrap(boolean on)
+    {
+	this.autoWrap = on;
+    }
+
+    /** Enables/disables the insertion of new characters instead of overwriting (IRM). */
+    public void setInsertMode(boolean on)
+    {
+	this.insertMode = on;
+    }
+
+    /** Set the scroll region (rows inclusive). */
+    public void setScrollRegion(int top, int bottom)
+    {
+        if (top < 0)
+	    top = 0;
+        if (bottom >= rows)
+	    bottom = rows - 1;
+        if (top >= bottom)
+	    return; // invalid
+        this.topMargin = top;
+        this.bottomMargin = bottom;
+        // Cursor may be outside the region — adjust
+        cursorHome();
+    }
+
+    /** Sets the attributes of the characters written after this call. */
+    public void setAttr(int attr)
+    {
+	this.attr = attr;
+    }
+
+    public int getAttr()
+    {
+	return attr;
+    }
+
+    // Text output
+    /**
+     * Outputs a single character at the current cursor position.
+     * Operates in overwrite mode, unless the insert mode is enabled; after output, the cursor moves right.
+     * If the right boundary is exceeded, an automatic line wrap occurs, if enabled.
+     * The special character '\n' causes a line feed, '\r' returns the cursor to the beginning of the line.
+     */
+    public void writeChar(char ch)
+    {
+	switch(ch)
+	{
+	case '\n':
+            newLine();
+            return;
+	case '\r':
+	    cursorCol = 0;
+	    return;
+        }
+        // If cursor is beyond the right edge, first do a line feed
+        if (cursorCol >= cols)
+	{
+	    if (autoWrap)
+		newLine(); else
+		cursorCol = cols - 1;
+	}
+	final int p = phys(cursorRow);
+	if (insertMode)
+	    insertChars(1);
+	chars[p][cursorCol] = ch;
+	attrs[p][cursorCol] = attr;
+	if (cursorCol >= lengths[p])
+	    lengths[p] = cursorCol + 1;
+	touch(p, cursorCol, cursorCol + 1);
+        // Move cursor right
+        cursorCol++;
+    }
+
+    /**
+     * Fills the text with spaces from the current position.
+     * The cursor doesn't change its position.
+     * @param num The number of characters to fill
+     */
+    public void fillSpaces(int num)
+    {
+	if (cursorCol >= cols || num <= 0)
+	    return;
+	eraseCells(phys(cursorRow), cursorCol, Math.min(cols, cursorCol + num));
+    }
+
+    /**
+     * Analog of EL (Erase in Line).
+     * @param mode 0 - from the cursor to the end, 1 - from the beginning to the cursor, 2 - the whole line
+     */
+    public void eraseInLine(int mode)
+    {
+	final int p = phys(cursorRow);
+	switch(mode)
+	{
+	case 0:
+	    eraseCells(p, Math.min(cursorCol, cols - 1), cols);
+	    break;
+	case 1:
+	    eraseCells(p, 0, Math.min(cursorCol, cols - 1) + 1);
+	    break;
+	case 2:
+	    clearRow(p);
+	    break;
+	}
+    }
+
+    /**
+     * Analog of ED (Erase in Display).
+     * @param mode 0 - from the cursor to the end, 1 - from the beginning to the cursor, 2 - the whole screen
+     */
+    public void eraseInDisplay(int mode)
+    {
+	switch(mode)
+	{
+	case 0:
+	    eraseInLine(0);
+	    for(int r = cursorRow + 1;r < rows;r++)
+		clearRow(phys(r));
+	    break;
+	case 1:
+	    for(int r = 0;r < cursorRow;r++)
+		clearRow(phys(r));
+	    eraseInLine(1);
+	    break;
+	case 2:
+	    for(int r = 0;r < rows;r++)
+		clearRow(phys(r));
+	    break;
+	}
+    }
+
+    /** Inserts n blank cells at the cursor, shifting the rest of the line right (ICH). */
+    public void insertChars(int n)
+    {
+	final int col = Math.min(cursorCol, cols - 1);
+	final int p = phys(cursorRow);
+	n = Math.min(n, cols - col);
+	if (n <= 0 || lengths[p] <= col)
+	    return;
+	System.arraycopy(chars[p], col, chars[p], col + n, cols - col - n);
+	System.arraycopy(attrs[p], col, attrs[p], col + n, cols - col - n);
+	Arrays.fill(chars[p], col, col + n, ' ');
+	Arrays.fill(attrs[p], col, col + n, 0);
+	lengths[p] = Math.min(cols, lengths[p] + n);
+	touch(p, col, lengths[p]);
+    }
+
+    /** Deletes n cells at the cursor, shifting the rest of the line left (DCH). */
+    public void deleteChars(int n)
+    {
+	final int col = Math.min(cursorCol, cols - 1);
+	final int p = phys(cursorRow);
+	n = Math.min(n, cols - col);
+	if (n <= 0 || lengths[p] <= col)
+	    return;
+	System.arraycopy(chars[p], col + n, chars[p], col, cols - col - n);
+	System.arraycopy(attrs[p], col + n, attrs[p], col, cols - col - n);
+	Arrays.fill(chars[p], cols - n, cols, ' ');
+	Arrays.fill(attrs[p], cols - n, cols, 0);
+	final int oldLen = lengths[p];
+	lengths[p] = Math.max(col, oldLen - n);
+	touch(p, col, oldLen);
+    }
+
+    /** Inserts n blank lines at the cursor row inside of the scroll region (IL). */
+    public void insertLines(int n)
+    {
+	if (cursorRow < topMargin || cursorRow > bottomMargin)
+	    return;
+	final int count = Math.min(n, bottomMargin - cursorRow + 1);
+	for(int k = 0;k < count;k++)
+	    rotateDown(cursorRow, bottomMargin);
+	touchRows(cursorRow, bottomMargin);
+	cursorCol = 0;
+    }
+
+    /** Deletes n lines at the cursor row inside of the scroll region (DL). */
+    public void deleteLines(int n)
+    {
+	if (cursorRow < topMargin || cursorRow > bottomMargin)
+	    return;
+	final int count = Math.min(n, bottomMargin - cursorRow + 1);
+	for(int k = 0;k < count;k++)
+	    rotateUp(cursorRow, bottomMargin);
+	touchRows(cursorRow, bottomMargin);
+	cursorCol = 0;
+    }
+
+    /** Line feed (LF) with the carriage return. */
+    public void newLine()
+    {
+	cursorCol = 0;
+	index();
+    }
+
+    /** Moves the cursor down, scrolling the region on its bottom line (IND). */
+    public void index()
+    {
+        if (cursorRow == bottomMargin)
+	{
+            // On the last line of the scroll region — scroll, the cursor stays on bottomMargin
+            scrollUp(1);
+	    return;
+	}
+	if (cursorRow < rows - 1)
+            cursorRow++;
+    }
+
+    /** Moves the cursor up, scrolling the region down on its top line (RI). */
+    public void reverseIndex()
+    {
+	if (cursorRow == topMargin)
+	{
+	    scrollDown(1);
+	    return;
+	}
+	if (cursorRow > 0)
+	    cursorRow--;
+    }
+
+    /**
+     * Scroll the scroll region up by the specified number of lines.
+     * New lines at the bottom of the region are cleared. When the region
+     * covers the whole screen, the lines leaving the screen go to the
+     * scrollback.
+     */
+    public void scrollUp(int count)
+    {
+        final int regionSize = bottomMargin - topMargin + 1;
+	final int n = Math.min(count, regionSize);
+	if (topMargin == 0 && bottomMargin == rows - 1 && !alternate)
+	{
+	    for(int k = 0;k < n;k++)
+	    {
+		final int p = phys(0);
+		if (scrollback != null)
+		    scrollback.add(getScreenLine(p));
+		clearRow(p);
+		top = (top + 1) % rows;
+		firstRowIndex++;
+	    }
+	    return;
+	}
+	for (int k = 0; k < n; k++)
+	    rotateUp(topMargin, bottomMargin);
+	// The lines of the region have changed their content, not their indices
+	touchRows(topMargin, bottomMargin);
+    }
+
+    /** Scroll the scroll region down, new lines at the top of the region are cleared. */
+    public void scrollDown(int count)
+    {
+	final int n = Math.min(count, bottomMargin - topMargin + 1);
+	for (int k = 0; k < n; k++)
+	    rotateDown(topMargin, bottomMargin);
+	touchRows(topMargin, bottomMargin);
+    }
+
+    /**
+     * Switches between the main and the alternate screens. The alternate
+     * screen is cleared on every switch to it.
+     */
+    public void setAlternateScreen(boolean on)
+    {
+	if (on == alternate)
+	    return;
+	if (otherChars == null)
+	{
+	    otherChars = new char[rows][cols];
+	    otherAttrs = new int[rows][cols];
+	    otherLengths = new int[rows];
+	    for(char[] r: otherChars)
+		Arrays.fill(r, ' ');
+	}
+	final char[][] c = chars;
+	final int[][] a = attrs;
+	final int[] l = lengths;
+	final int t = top;
+	chars = otherChars;
+	attrs = otherAttrs;
+	lengths = otherLengths;
+	top = otherTop;
+	otherChars = c;
+	otherAttrs = a;
+	otherLengths = l;
+	otherTop = t;
+	alternate = on;
+	Arrays.fill(cache, null);
+	if (alternate)
+	    eraseInDisplay(2); else
+	    touchRows(0, rows - 1);
+    }
+
+    public boolean isAlternateScreen()
+    {
+	return alternate;
+    }
+
+    /**
+     * Returns to the initial state: the main screen is cleared, the
+     * attributes, the modes, the scroll region and the tab stops are reset.
+     * The scrollback is kept.
+     */
+    public void reset()
+    {
+	setAlternateScreen(false);
+	softReset();
+	eraseInDisplay(2);
+	resetTabStops();
+	cursorRow = 0;
+	cursorCol = 0;
+	savedRow = 0;
+	savedCol = 0;
+    }
+
+    /** Resets the attributes, the modes and the scroll region keeping the screen content (DECSTR). */
+    public void softReset()
+    {
+	attr = 0;
+	savedAttr = 0;
+	originMode = false;
+	savedOriginMode = false;
+	autoWrap = true;
+	insertMode = false;
+	topMargin = 0;
+	bottomMargin = rows - 1;
+    }
+
+    /**
+     * Changes the size of the screen. The lines above the cursor leave the
+     * screen to the scrollback if the cursor doesn't fit otherwise, the rest
+     * of the lines are kept from the top, the text beyond the right edge is
+     * truncated. The scroll region is reset to the whole screen.
+     * @param newRows The new number of rows
+     * @param newCols The new number of columns
+     */
+    public void resize(int newRows, int newCols)
+    {
+	if (newRows <= 0)
+	    throw new IllegalArgumentException("newRows must be greater than zero");
+	if (newCols <= 0)
+	    throw new IllegalArgumentException("newCols must be greater than zero");
+	if (newRows == rows && newCols == cols)
+	    return;
+	final int shift = Math.max(0, cursorRow - newRows + 1);
+	if (!alternate)
+	{
+	    for(int r = 0;r < shift;r++)
+		if (scrollback != null)
+		    scrollback.add(getScreenLine(phys(r)));
+	    firstRowIndex += shift;
+	}
+	if (otherChars != null)
+	{
+	    final char[][] c = new char[newRows][];
+	    final int[][] a = new int[newRows][];
+	    final int[] l = new int[newRows];
+	    reshape(otherChars, otherAttrs, otherLengths, otherTop, 0, c, a, l, newCols);
+	    otherChars = c;
+	    otherAttrs = a;
+	    otherLengths = l;
+	    otherTop = 0;
+	}
+	final char[][] c = new char[newRows][];
+	final int[][] a = new int[newRows][];
+	final int[] l = new int[newRows];
+	reshape(chars, attrs, lengths, top, shift, c, a, l, newCols);
+	chars = c;
+	attrs = a;
+	lengths = l;
+	top = 0;
+	final boolean[] oldTabStops = tabStops;
+	tabStops = new boolean[newCols];
+	resetTabStops();
+	System.arraycopy(oldTabStops, 0, tabStops, 0, Math.min(cols, newCols));
+	rows = newRows;
+	cols = newCols;
+	cache = new String[rows];
+	dirtyStart = new int[rows];
+	dirtyEnd = new int[rows];
+	touchRows(0, rows - 1);
+	topMargin = 0;
+	bottomMargin = rows - 1;
+	cursorRow = clamp(cursorRow - shift, 0, rows - 1);
+	cursorCol = Math.min(cursorCol, cols);
+    }
+
+    /** Grows on every change of the screen content. */
+    public long getGeneration()
+    {
+	return generation;
+    }
+
+    /** The absolute index of the first screen row, growing as the whole screen scrolls. */
+    public long getFirstRowIndex()
+    {
+	return firstRowIndex;
+    }
+
+    /** The text of the screen row without trailing spaces. */
+    public String getRowText(int row)
+    {
+	return getScreenLine(phys(row));
+    }
+
+    boolean isRowDirty(int row)
+    {
+	return dirtyStart[phys(row)] < cols;
+    }
+
+    /** The first touched cell of the row. */
+    int getDirtyStart(int row)
+    {
+	return dirtyStart[phys(row)];
+    }
+
+    /** The cell after the last touched one. */
+    int getDirtyEnd(int row)
+    {
+	return dirtyEnd[phys(row)];
+    }
+
+    /** Marks all rows as not touched. */
+    void clearDirty()
+    {
+	Arrays.fill(dirtyStart, cols);
+	Arrays.fill(dirtyEnd, 0);
+    }
+
+    /** The cursor row on the screen, not including the scrollback. */
+    public int getCursorRow()
+    {
+	return cursorRow;
+    }
+
+    public int getCursorCol()
+    {
+	return cursorCol;
+    }
+
+    public int getRowCount()
+    {
+	return rows;
+    }
+
+    public int getColCount()
+    {
+	return cols;
+    }
+
+    /** The number of lines above the screen, the scrollback isn't shown with the alternate screen. */
+    public int getScrollbackSize()
+    {
+	return (scrollback != null && !alternate)?scrollback.size():0;
+    }
+
+    /** The attributes of the cell on the screen. */
+    public int getCellAttr(int row, int col)
+    {
+	return attrs[phys(row)][col];
+    }
+
+    private int clamp(int value, int min, int max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int phys(int row)
+    {
+	final int p = top + row;
+	return p < rows?p:p - rows;
+    }
+
+    // Fills the grid of the new size in the logical order of rows, beginning from the row shift
+    private void reshape(char[][] oldChars, int[][] oldAttrs, int[] oldLengths, int oldTop, int shift,
+			 char[][] c, int[][] a, int[] l, int newCols)
+    {
+	final int newRows = c.length;
+	for(int r = 0;r < rows;r++)
+	{
+	    final int p = (oldTop + r) % rows;
+	    final int to = r - shift;
+	    if (to < 0 || to >= newRows)
+	    {
+		// The row leaves the screen, keeping its arrays blank for reuse
+		Arrays.fill(oldChars[p], 0, oldLengths[p], ' ');
+		Arrays.fill(oldAttrs[p], 0, oldLengths[p], 0);
+		spareChars.push(oldChars[p]);
+		spareAttrs.push(oldAttrs[p]);
+		continue;
+	    }
+	    c[to] = oldChars[p];
+	    a[to] = oldAttrs[p];
+	    l[to] = oldLengths[p];
+	}
+	for(int r = 0;r < newRows;r++)
+	{
+	    if (c[r] == null)
+	    {
+		c[r] = spareChars.isEmpty()?new char[0]:spareChars.pop();
+		a[r] = spareAttrs.isEmpty()?new int[0]:spareAttrs.pop();
+	    }
+	    if (c[r].length < newCols)
+	    {
+		final int len = c[r].length;
+		c[r] = Arrays.copyOf(c[r], newCols);
+		a[r] = Arrays.copyOf(a[r], newCols);
+		Arrays.fill(c[r], len, newCols, ' ');
+	    }
+	    if (l[r] > newCols)
+	    {
+		Arrays.fill(c[r], newCols, l[r], ' ');
+		Arrays.fill(a[r], newCols, l[r], 0);
+		l[r] = newCols;
+	    }
+	}
+    }
+
+    private void resetTabStops()
+    {
+	for(int i = 0;i < tabStops.length;i++)
+	    tabStops[i] = i > 0 && i % TAB_WIDTH == 0;
+    }
+
+    private void eraseCells(int p, int from, int to)
+    {
+	if (from >= to)
+	    return;
+	Arrays.fill(chars[p], from, to, ' ');
+	Arrays.fill(attrs[p], from, to, 0);
+	if (to >= lengths[p])
+	    lengths[p] = Math.min(lengths[p], from);
+	touch(p, from, to);
+    }
+
+    private void clearRow(int p)
+    {
+	Arrays.fill(chars[p], 0, lengths[p], ' ');
+	Arrays.fill(attrs[p], 0, lengths[p], 0);
+	lengths[p] = 0;
+	touch(p, 0, cols);
+    }
+
+    private void touch(int p, int from, int to)
+    {
+	cache[p] = null;
+	if (from < dirtyStart[p])
+	    dirtyStart[p] = from;
+	if (to > dirtyEnd[p])
+	    dirtyEnd[p] = to;
+	generation++;
+    }
+
+    private void touchRows(int from, int to)
+    {
+	for(int r = from;r <= to;r++)
+	    touch(phys(r), 0, cols);
+    }
+
+    // The topmost row of the range is reused as the new bottom one
+    private void rotateUp(int from, int to)
+    {
+	final int first = phys(from);
+	final char[] c = chars[first];
+	final int[] a = attrs[first];
+	final int len = lengths[first];
+	for(int r = from;r < to;r++)
+	    moveRow(phys(r + 1), phys(r));
+	final int last = phys(to);
+	chars[last] = c;
+	attrs[last] = a;
+	lengths[last] = len;
+	clearRow(last);
+    }
+
+    // The bottom row of the range is reused as the new top one
+    private void rotateDown(int from, int to)
+    {
+	final int last = phys(to);
+	final char[] c = chars[last];
+	final int[] a = attrs[last];
+	final int len = lengths[last];
+	for(int r = to;r > from;r--)
+	    moveRow(phys(r - 1), phys(r));
+	final int first = phys(from);
+	chars[first] = c;
+	attrs[first] = a;
+	lengths[first] = len;
+	clearRow(first);
+    }
+
+    private void moveRow(int from, int to)
+    {
+	chars[to] = chars[from];
+	attrs[to] = attrs[from];
+	lengths[to] = lengths[from];
+	cache[to] = cache[from];
+	dirtyStart[to] = dirtyStart[from];
+	dirtyEnd[to] = dirtyEnd[from];
+    }
+
+    private String getScreenLine(int p)
+    {
+	if (cache[p] == null)
+	    cache[p] = new String(chars[p], 0, lengths[p]);
+	return cache[p];
+    }
+
+    private String getScrollbackLine(int index)
+    {
+	final long key = scrollback.getTotalLineCount() - scrollback.size() + index;
+	final int slot = (int)(key % SCROLLBACK_CACHE_SIZE);
+	if (scrollbackCacheKeys[slot] != key)
+	{
+	    scrollbackCache[slot] = scrollback.get(index);
+	    scrollbackCacheKeys[slot] = key;
+	}
+	return scrollbackCache[slot];
+    }
+
+        @Override public int getHotPointX()
+    {
+	return Math.min(cursorCol, cols - 1);
+    }
+
+    @Override public int getHotPointY()
+    {
+	return getScrollbackSize() + cursorRow;
+    }
+
+    @Override public int getLineCount()
+    {
+	return getScrollbackSize() + rows;
+    }
+
+    @Override public String getLine(int index)
+    {
+	final int sb = getScrollbackSize();
+	if (index < 0 || index >= sb + rows)
+	    return "";
+	if (index < sb)
+	    return getScrollbackLine(index);
+	return getScreenLine(phys(index - sb));
+    }
+}
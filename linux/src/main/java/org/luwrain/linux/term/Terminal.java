@@ -0,0 +1,478 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import org.apache.logging.log4j.*;
+
+import org.luwrain.linux.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The headless terminal emulator. The terminal reads the output of the
+ * program from the connection, usually a PTY, applies it to the screen
+ * and notifies the listener about the changes. The UI isn't required, so
+ * any number of terminals can run simultaneously, for example, to
+ * automate interactive command line tools.
+ * <p>
+ * Each running terminal takes two threads of {@link ProcessEngine}: one
+ * for reading the output and one for batching it. The batching thread
+ * sleeps until the output arrives and makes one screen update for the
+ * whole burst of the output after the short quiet period. The updates
+ * and the listener calls are made through the executor given on start:
+ * it may be the UI thread or the direct executor for the headless use.
+ * The screen can be read through {@link #getText()} only from the
+ * updating thread, {@link #snapshot()} can be called from any thread.
+ */
+public final class Terminal implements AutoCloseable
+{
+    static private final Logger log = LogManager.getLogger();
+
+    //The bounds of the quiet period after the output before updating the screen, in milliseconds
+    static private final long
+	MIN_QUIET_PERIOD = 2,
+	INITIAL_QUIET_PERIOD = 10,
+	MAX_QUIET_PERIOD = 50,
+	//The continuous output is shown at least this often
+	MAX_UPDATE_DELAY = 200;
+    static private final int
+	READ_BUF_SIZE = 16 * 1024,
+	QUEUE_CAPACITY = 1024;
+
+    /**
+     * The program running in the terminal, usually behind a PTY.
+     */
+    public interface Connection
+    {
+	/** The output of the program. */
+	InputStream getInputStream();
+	/** The input of the program. */
+	OutputStream getOutputStream();
+	/** Called on the change of the screen size, the PTY should set its window size here. */
+	default void setWinSize(int rows, int cols) {}
+	/** The read errors after the program ends are treated as the end of the output. */
+	default boolean isAlive() { return true; }
+	default void close() throws IOException
+	{
+	    getOutputStream().close();
+	}
+    }
+
+    public interface Listener
+    {
+	/**
+	 * Called after applying every batch of the output.
+	 *
+	 * @param changes The changes of the screen, may be empty if only the cursor has moved
+	 * @param bell True if the output contained the bell
+	 */
+	void onUpdate(Terminal terminal, List<ScreenDiff.Change> changes, boolean bell);
+
+	/**
+	 * Called once after the end of the output.
+	 *
+	 * @param error The reason of the failure, null if the output just finished
+	 */
+	default void onClose(Terminal terminal, Throwable error) {}
+    }
+
+    /**
+     * The immutable copy of the screen.
+     */
+    static public final class Snapshot
+    {
+	public final List<String> lines;
+	public final int cursorRow, cursorCol;
+	public final String title;
+	public final boolean alternateScreen;
+	//The generation of the screen content, see TermText.getGeneration()
+	public final long generation;
+
+	Snapshot(List<String> lines, int cursorRow, int cursorCol, String title, boolean alternateScreen, long generation)
+	{
+	    this.lines = lines;
+	    this.cursorRow = cursorRow;
+	    this.cursorCol = cursorCol;
+	    this.title = title;
+	    this.alternateScreen = alternateScreen;
+	    this.generation = generation;
+	}
+
+	/** The whole screen as the text, one line per row without trailing spaces. */
+	public String getText()
+	{
+	    return String.join("\n", lines);
+	}
+
+	@Override public String toString()
+	{
+	    return getText();
+	}
+    }
+
+    private final Connection connection;
+    private final PtyWriter writer;
+    private final TermText text;
+    private final Parser parser = new Parser();
+    private final TermInterpreter interpreter;
+    private final ScreenDiff diff = new ScreenDiff();
+    private Executor executor = null;
+    private Listener listener = null;
+    private volatile Recorder recorder = null;
+
+    //The decoded chunks of the output, written by the reading thread and taken by the batching one
+    private final SpscQueue<String> output = new SpscQueue<>(QUEUE_CAPACITY);
+    private volatile long latestOutputTimestamp = System.nanoTime();
+    private volatile boolean outputFinished = false, closed = false;
+    private volatile Throwable error = null;
+    private volatile Thread batchingThread = null;
+    //Set by the batching thread when it's going to park until new output
+    private final AtomicBoolean batchingWaiting = new AtomicBoolean(false);
+
+    /**
+     * @param connection The connection to the program
+     * @param rows The initial number of rows of the screen
+     * @param cols The initial number of columns of the screen
+     * @param scrollbackLines The maximum number of lines in the scrollback, zero disables it
+     */
+    public Terminal(Connection connection, int rows, int cols, int scrollbackLines)
+    {
+	this.connection = requireNonNull(connection, "connection can't be null");
+	this.writer = new PtyWriter(connection.getOutputStream());
+	this.text = new TermText(rows, cols, scrollbackLines);
+	this.interpreter = new TermInterpreter(text, this::reply);
+    }
+
+    public Terminal(Connection connection, int rows, int cols)
+    {
+	this(connection, rows, cols, TermText.DEFAULT_SCROLLBACK_LINES);
+    }
+
+    /**
+     * Starts reading the output of the program.
+     *
+     * @param engine The pool for the reading and the batching threads
+     * @param executor The executor for the screen updates and the listener calls
+     * @param listener The listener of the screen changes
+     * @throws RejectedExecutionException if the engine has no free threads
+     */
+    public void start(ProcessEngine engine, Executor executor, Listener listener)
+    {
+	requireNonNull(engine, "engine can't be null");
+	this.executor = requireNonNull(executor, "executor can't be null");
+	this.listener = requireNonNull(listener, "listener can't be null");
+	engine.execute(this::batching);
+	engine.execute(this::readOutput);
+    }
+
+    /**
+     * Sends the input to the program right away. The input of many
+     * characters, like the typing, should go through {@link #getWriter()}
+     * and be flushed once for the whole batch.
+     */
+    public void write(byte[] bytes) throws IOException
+    {
+	requireNonNull(bytes, "bytes can't be null");
+	writer.write(bytes);
+	writer.flush();
+    }
+
+    public void write(String str) throws IOException
+    {
+	requireNonNull(str, "str can't be null");
+	writer.write(str);
+	writer.flush();
+    }
+
+    /**
+     * Sends the pasted text, enclosing it in the paste markers if the
+     * program has enabled the bracketed paste mode.
+     */
+    public void paste(String str) throws IOException
+    {
+	requireNonNull(str, "str can't be null");
+	writer.paste(str, interpreter.isBracketedPaste());
+    }
+
+    /** The buffered input of the program, it's not flushed automatically. */
+    public PtyWriter getWriter()
+    {
+	return writer;
+    }
+
+    /**
+     * Starts or stops recording of the output. The recorder isn't closed
+     * by the terminal.
+     *
+     * @param recorder The recorder to write the output to, null stops the recording
+     */
+    public void setRecorder(Recorder recorder)
+    {
+	this.recorder = recorder;
+    }
+
+    /**
+     * Changes the size of the screen and of the PTY window. Must be called
+     * from the updating thread.
+     */
+    public void resize(int rows, int cols)
+    {
+	synchronized(this) {
+	    if (rows == text.getRowCount() && cols == text.getColCount())
+		return;
+	    text.resize(rows, cols);
+	}
+	connection.setWinSize(rows, cols);
+	final Recorder r = recorder;
+	if (r != null)
+	    r.resize(rows, cols);
+    }
+
+    /**
+     * The screen of the terminal. Must be read only from the updating
+     * thread, see {@link #start(ProcessEngine, Executor, Listener)}.
+     */
+    public TermText getText()
+    {
+	return text;
+    }
+
+    /**
+     * Makes the copy of the screen. Can be called from any thread.
+     */
+    public synchronized Snapshot snapshot()
+    {
+	final int rows = text.getRowCount();
+	final List<String> lines = new ArrayList<>(rows);
+	for(int i = 0;i < rows;i++)
+	    lines.add(text.getRowText(i));
+	return new Snapshot(Collections.unmodifiableList(lines), text.getCursorRow(), Math.min(text.getCursorCol(), text.getColCount() - 1),
+			    interpreter.getTitle(), text.isAlternateScreen(), text.getGeneration());
+    }
+
+    /** The title set by the program, the empty string if there is no title. */
+    public String getTitle()
+    {
+	return interpreter.getTitle();
+    }
+
+    /** True if the cursor keys must send ESC O instead of CSI. */
+    public boolean isAppCursorKeys()
+    {
+	return interpreter.isAppCursorKeys();
+    }
+
+    /** True if the program has enabled the bracketed paste mode. */
+    public boolean isBracketedPaste()
+    {
+	return interpreter.isBracketedPaste();
+    }
+
+    /** True if the output of the program has finished. */
+    public boolean isClosed()
+    {
+	return closed;
+    }
+
+    /**
+     * Closes the connection. The reading stops on the end of the output,
+     * the listener gets {@link Listener#onClose(Terminal, Throwable)}.
+     */
+    @Override public void close() throws IOException
+    {
+	connection.close();
+    }
+
+    private void readOutput()
+    {
+	try {
+	    final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+	    .onMalformedInput(CodingErrorAction.REPLACE)
+	    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+	    final ByteBuffer bytes = ByteBuffer.allocate(READ_BUF_SIZE);
+	    //UTF-8 never gives more chars than bytes
+	    final CharBuffer chars = CharBuffer.allocate(READ_BUF_SIZE);
+	    try (final InputStream is = connection.getInputStream()) {
+		while(true)
+		{
+		    final int n;
+		    try {
+			n = is.read(bytes.array(), bytes.position(), bytes.remaining());
+		    }
+		    catch(IOException e)
+		    {
+			//The closed PTY may give an error instead of the end of the stream
+			if (connection.isAlive())
+			    throw e;
+			break;
+		    }
+		    if (n < 0)
+			break;
+		    bytes.position(bytes.position() + n);
+		    bytes.flip();
+		    decoder.decode(bytes, chars, false);
+		    bytes.compact();
+		    pushOutput(chars);
+		}
+		log.debug("Closing the terminal");
+		bytes.flip();
+		decoder.decode(bytes, chars, true);
+		decoder.flush(chars);
+		pushOutput(chars);
+	    }
+	}
+	catch(Throwable e)
+	{
+	    log.error("Terminal failure", e);
+	    error = e;
+	}
+	finally {
+	    outputFinished = true;
+	    wakeBatching();
+	}
+    }
+
+    private void pushOutput(CharBuffer chars)
+    {
+	if (chars.position() == 0)
+	    return;
+	chars.flip();
+	final String chunk = chars.toString();
+	chars.clear();
+	final Recorder r = recorder;
+	if (r != null)
+	    r.output(chunk);
+	//The batching thread is behind, waiting for it unless the program has finished
+	while (!output.offer(chunk))
+	{
+	    if (!connection.isAlive())
+		return;
+	    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+	}
+	latestOutputTimestamp = System.nanoTime();
+	wakeBatching();
+    }
+
+    private void wakeBatching()
+    {
+	if (batchingWaiting.getAndSet(false))
+	    LockSupport.unpark(batchingThread);
+    }
+
+    private String pollOutput()
+    {
+	final String first = output.poll();
+	if (first == null)
+	    return "";
+	String chunk = output.poll();
+	if (chunk == null)
+	    return first;
+	final StringBuilder b = new StringBuilder(first);
+	for(;chunk != null;chunk = output.poll())
+	    b.append(chunk);
+	return new String(b);
+    }
+
+    /**
+     * Delivers the output to the screen. The thread sleeps until the reading
+     * thread wakes it on new output, so the idle terminal costs nothing.
+     * Once the output arrives, the screen is updated after the quiet period
+     * without new chunks, making one update for the whole burst. The quiet
+     * period grows while the output keeps coming during it and shrinks back
+     * for the short responses like the echo of typed characters. The
+     * continuous output is delivered at least every {@code MAX_UPDATE_DELAY}
+     * milliseconds.
+     */
+    private void batching()
+    {
+	batchingThread = Thread.currentThread();
+	final long
+	minQuiet = TimeUnit.MILLISECONDS.toNanos(MIN_QUIET_PERIOD),
+	maxQuiet = TimeUnit.MILLISECONDS.toNanos(MAX_QUIET_PERIOD),
+	maxDelay = TimeUnit.MILLISECONDS.toNanos(MAX_UPDATE_DELAY);
+	long quiet = TimeUnit.MILLISECONDS.toNanos(INITIAL_QUIET_PERIOD);
+	try {
+	    while(!Thread.currentThread().isInterrupted())
+	    {
+		if (output.isEmpty())
+		{
+		    if (outputFinished)
+			break;
+		    batchingWaiting.set(true);
+		    //Checking again, the output could come before setting the flag
+		    if (output.isEmpty() && !outputFinished)
+			LockSupport.park(this);
+		    batchingWaiting.set(false);
+		    continue;
+		}
+		final long first = System.nanoTime();
+		boolean continued = false;
+		while(!outputFinished)
+		{
+		    final long now = System.nanoTime(), latest = latestOutputTimestamp;
+		    if (latest - first > 0)
+			continued = true;
+		    final long wait = Math.min(latest + quiet - now, first + maxDelay - now);
+		    if (wait <= 0)
+			break;
+		    LockSupport.parkNanos(this, wait);
+		}
+		quiet = continued?Math.min(quiet * 2, maxQuiet):Math.max(quiet / 2, minQuiet);
+		deliverOutput(pollOutput());
+	    }
+	}
+	finally {
+	    log.trace("Finishing the batching thread, alive=" + connection.isAlive());
+	    deliverOutput(pollOutput());
+	    closed = true;
+	    runUpdate(()->listener.onClose(this, error));
+	}
+    }
+
+    private void deliverOutput(String str)
+    {
+	if (str.isEmpty())
+	    return;
+	runUpdate(()->{
+		final List<ScreenDiff.Change> changes;
+		final boolean bell;
+		synchronized(this) {
+		    final char[] chars = str.toCharArray();
+		    parser.parse(chars, 0, chars.length, interpreter::onCommand);
+		    changes = diff.update(text);
+		    bell = interpreter.takeBell();
+		}
+		listener.onUpdate(this, changes, bell);
+	    });
+    }
+
+    private void runUpdate(Runnable r)
+    {
+	try {
+	    executor.execute(r);
+	}
+	catch(RejectedExecutionException e)
+	{
+	    log.debug("The update of the terminal is rejected", e);
+	}
+    }
+
+    private void reply(String str)
+    {
+	try {
+	    write(str);
+	}
+	catch(IOException e)
+	{
+	    log.debug("Unable to send the reply to the terminal", e);
+	}
+    }
+}
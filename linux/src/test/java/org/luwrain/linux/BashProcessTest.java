@@ -16,6 +16,10 @@
 
 package org.luwrain.linux;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -54,5 +58,31 @@ public class BashProcessTest
 	
     }
 
-    
+    @Test public void rejected() throws Exception
+    {
+	final CountDownLatch release = new CountDownLatch(1);
+	//The only free thread reads the output, there is none for the errors
+	final ProcessEngine engine = new ProcessEngine("test", 2);
+	engine.execute(()->{
+		try {
+		    release.await();
+		}
+		catch(InterruptedException e)
+		{
+		    Thread.currentThread().interrupt();
+		}
+	    });
+	try {
+	    final BashProcess b = new BashProcess("sleep 30", null, EnumSet.noneOf(BashProcess.Flags.class), new BashProcessOutput(), engine);
+	    assertThrows(IOException.class, b::run);
+	    //The child is killed and waitFor() doesn't hang
+	    final Optional<ProcessHandle> h = ProcessHandle.of(b.getPid());
+	    if (h.isPresent())
+		h.get().onExit().get(10, TimeUnit.SECONDS);
+	    assertEquals(-1, CompletableFuture.supplyAsync(b::waitFor).get(10, TimeUnit.SECONDS).intValue());
+	}
+	finally {
+	    release.countDown();
+	}
+    }
 }
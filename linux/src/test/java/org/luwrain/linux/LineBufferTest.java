@@ -0,0 +1,169 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineBufferTest
+{
+    private File spillDir = null;
+
+    @Test public void simple()
+    {
+	final var b = new LineBuffer();
+	b.add("abc");
+	b.add("");
+	b.add("Привет");
+	assertEquals(3, b.size());
+	assertEquals(Arrays.asList("abc", "", "Привет"), b.asList());
+	assertArrayEquals(new String[]{"abc", "", "Привет"}, b.toArray());
+    }
+
+    @Test public void tailDropping()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.TAIL, 1024);
+	for(int i = 0;i < 10000;i++)
+	    b.add(line(i));
+	assertTrue(b.getMemoryBytes() <= 1024);
+	assertTrue(b.size() < 10000);
+	assertEquals(10000, b.getTotalLineCount());
+	assertEquals(10000, b.size() + b.getDroppedLineCount());
+	assertEquals(line(9999), b.get(b.size() - 1));
+	assertEquals(line(10000 - b.size()), b.get(0));
+    }
+
+    @Test public void tailSpilling()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.TAIL, 1024, spillDir);
+	for(int i = 0;i < 10000;i++)
+	    b.add(line(i));
+	assertTrue(b.getMemoryBytes() <= 1024);
+	assertEquals(10000, b.size());
+	assertEquals(0, b.getDroppedLineCount());
+	for(int i = 0;i < 10000;i++)
+	    assertEquals(line(i), b.get(i));
+	//The spill file is never visible in the directory
+	assertEquals(0, spillDir.list().length);
+	b.close();
+    }
+
+    @Test public void tailSpillLimit()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.TAIL, 1024, Integer.MAX_VALUE, spillDir, 4096);
+	for(int i = 0;i < 100000;i++)
+	{
+	    b.add(line(i));
+	    assertTrue(b.getSpillBytes() <= 4096);
+	}
+	assertTrue(b.getMemoryBytes() <= 1024);
+	assertEquals(100000, b.size() + b.getDroppedLineCount());
+	assertTrue(b.size() > 4096 / line(99999).length());
+	//The lines remaining in the spill file after its compactions
+	final int first = 100000 - b.size();
+	for(int i = 0;i < b.size();i++)
+	    assertEquals(line(first + i), b.get(i));
+	b.close();
+    }
+
+    @Test public void headSpillLimit()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.HEAD, 1024, Integer.MAX_VALUE, spillDir, 4096);
+	for(int i = 0;i < 10000;i++)
+	    b.add(line(i));
+	assertTrue(b.getSpillBytes() <= 4096);
+	assertEquals(10000, b.size() + b.getDroppedLineCount());
+	for(int i = 0;i < b.size();i++)
+	    assertEquals(line(i), b.get(i));
+	b.close();
+    }
+
+    @Test public void smallOutput()
+    {
+	final var b = new LineBuffer();
+	b.add("a");
+	//The block grows with the lines
+	final String l = "x".repeat(300);
+	for(int i = 0;i < 1000;i++)
+	    b.add(l);
+	assertEquals(1001, b.size());
+	assertEquals(l, b.get(1000));
+	assertEquals("a", b.get(0));
+    }
+
+    @Test public void headDropping()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.HEAD, 1024);
+	for(int i = 0;i < 10000;i++)
+	    b.add(line(i));
+	assertTrue(b.getMemoryBytes() <= 1024);
+	assertEquals(10000, b.size() + b.getDroppedLineCount());
+	for(int i = 0;i < b.size();i++)
+	    assertEquals(line(i), b.get(i));
+    }
+
+    @Test public void headSpilling()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.HEAD, 1024, spillDir);
+	for(int i = 0;i < 10000;i++)
+	    b.add(line(i));
+	assertEquals(10000, b.size());
+	for(int i = 0;i < 10000;i++)
+	    assertEquals(line(i), b.get(i));
+	b.close();
+    }
+
+    @Test public void tailLineLimit()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.TAIL, 1024 * 1024, 100);
+	for(int i = 0;i < 10000;i++)
+	{
+	    b.add(line(i));
+	    assertEquals(Math.min(i + 1, 100), b.size());
+	    assertEquals(line(i), b.get(b.size() - 1));
+	}
+	assertEquals(line(9900), b.get(0));
+	assertEquals(9900, b.getDroppedLineCount());
+    }
+
+    @Test public void headLineLimit()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.HEAD, 1024 * 1024, 100);
+	for(int i = 0;i < 1000;i++)
+	    b.add(line(i));
+	assertEquals(100, b.size());
+	assertEquals(line(99), b.get(99));
+	assertEquals(900, b.getDroppedLineCount());
+    }
+
+    @Test public void longLines()
+    {
+	final var b = new LineBuffer(LineBuffer.Retention.TAIL, 256, spillDir);
+	final String longLine = "x".repeat(1000);
+	b.add("a");
+	b.add(longLine);
+	b.add("b");
+	assertEquals(Arrays.asList("a", longLine, "b"), b.asList());
+	b.close();
+    }
+
+    @BeforeEach public void createSpillDir() throws IOException
+    {
+	this.spillDir = Files.createTempDirectory("luwrain-test-").toFile();
+    }
+
+    @AfterEach public void deleteSpillDir()
+    {
+	spillDir.delete();
+    }
+
+    static private String line(int index)
+    {
+	return "Line " + String.valueOf(index);
+    }
+}
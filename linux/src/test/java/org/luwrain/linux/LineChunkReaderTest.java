@@ -0,0 +1,84 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineChunkReaderTest
+{
+    @Test public void simple() throws IOException
+    {
+	assertEquals(Arrays.asList("abc", "def"), read("abc\ndef\n", 8192));
+    }
+
+    @Test public void lastLineWithoutTerminator() throws IOException
+    {
+	assertEquals(Arrays.asList("abc", "def"), read("abc\ndef", 8192));
+    }
+
+    @Test public void emptyLines() throws IOException
+    {
+	assertEquals(Arrays.asList("", "a", ""), read("\na\n\n", 8192));
+	assertEquals(Arrays.asList(), read("", 8192));
+    }
+
+    @Test public void carriageReturn() throws IOException
+    {
+	assertEquals(Arrays.asList("a", "b", "c", "", "d"), read("a\r\nb\rc\n\nd", 8192));
+    }
+
+    @Test public void carriageReturnBetweenBlocks() throws IOException
+    {
+	assertEquals(Arrays.asList("a", "b"), read("a\r\nb", 1));
+    }
+
+    @Test public void longLine() throws IOException
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int i = 0;i < 1000;i++)
+	    b.append((char)('a' + i % 26));
+	final String line = new String(b);
+	assertEquals(Arrays.asList(line, "x"), read(line + "\nx\n", 16));
+    }
+
+    @Test public void multibyteCharsBetweenBlocks() throws IOException
+    {
+	assertEquals(Arrays.asList("Привет", "мир"), read("Привет\nмир\n", 3));
+    }
+
+    @Test public void inPlaceScanning() throws IOException
+    {
+	final var r = new LineChunkReader(new ByteArrayInputStream("Size: 1\nModel: abc\n".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, 8192);
+	final List<Boolean> res = new ArrayList<>();
+	r.read(chunk -> {
+		for(int i = 0;i < chunk.getLineCount();i++)
+		    res.add(Boolean.valueOf(chunk.lineStartsWith(i, "Model:")));
+	    });
+	assertEquals(Arrays.asList(Boolean.FALSE, Boolean.TRUE), res);
+    }
+
+    private List<String> read(String text, int blockSize) throws IOException
+    {
+	final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+	//Returning no more than blockSize bytes at once to check the splitting between blocks
+	final InputStream is = new ByteArrayInputStream(bytes){
+		@Override public int read(byte[] b, int off, int len)
+		{
+		    return super.read(b, off, Math.min(len, blockSize));
+		}
+	    };
+	final var r = new LineChunkReader(is, StandardCharsets.UTF_8, Math.max(blockSize, 4));
+	final List<String> res = new ArrayList<>();
+	r.read(chunk -> {
+		for(int i = 0;i < chunk.getLineCount();i++)
+		    res.add(chunk.getLine(i));
+	    });
+	return res;
+    }
+}
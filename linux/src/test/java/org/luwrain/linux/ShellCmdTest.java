@@ -0,0 +1,80 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShellCmdTest
+{
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test public void outputRejected() throws Exception
+    {
+	final ShellCmd cmd = new ShellCmd("sleep 30", "/", busyEngine(1));
+	assertRejected(cmd);
+	//The child must be killed, nobody reads its output
+	assertTrue(cmd.p.waitFor(10, TimeUnit.SECONDS));
+    }
+
+    @Test public void errorsRejected() throws Exception
+    {
+	//The only free thread reads the output, there is none for the errors
+	final ProcessEngine engine = busyEngine(2);
+	final ShellCmd cmd = new ShellCmd("sleep 30; echo done", "/", engine);
+	final ProcessHandle child = waitForChild(cmd.p);
+	assertRejected(cmd);
+	assertTrue(cmd.p.waitFor(10, TimeUnit.SECONDS));
+	//The children of bash keep the pipes open, so they are killed as well
+	child.onExit().get(10, TimeUnit.SECONDS);
+	//The reader of the output is released
+	final long deadline = System.currentTimeMillis() + 10000;
+	while (engine.getBusyThreadCount() > 1 && System.currentTimeMillis() < deadline)
+	    Thread.sleep(10);
+	assertEquals(1, engine.getBusyThreadCount());
+    }
+
+    //The engine of the given size with one of its threads busy
+    private ProcessEngine busyEngine(int maxThreads)
+    {
+	final ProcessEngine engine = new ProcessEngine("test", maxThreads);
+	engine.execute(()->{
+		try {
+		    release.await();
+		}
+		catch(InterruptedException e)
+		{
+		    Thread.currentThread().interrupt();
+		}
+	    });
+	return engine;
+    }
+
+    //waitFor() must fail at once instead of waiting for the readers never started
+    static private void assertRejected(ShellCmd cmd)
+    {
+	final ExecutionException e = assertThrows(ExecutionException.class, ()->CompletableFuture.supplyAsync(cmd::waitFor).get(10, TimeUnit.SECONDS));
+	assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    static private ProcessHandle waitForChild(Process p) throws InterruptedException
+    {
+	final long deadline = System.currentTimeMillis() + 10000;
+	while (System.currentTimeMillis() < deadline)
+	{
+	    final var child = p.children().findFirst();
+	    if (child.isPresent())
+		return child.get();
+	    Thread.sleep(10);
+	}
+	throw new AssertionError("No child of " + String.valueOf(p.pid()));
+    }
+
+    @AfterEach public void releaseEngine()
+    {
+	release.countDown();
+    }
+}
@@ -0,0 +1,225 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermInfoTest
+{
+    static private final String TEXT =
+	"linux|Linux console,\tam, bce, colors#8," +
+	"\tbel=^G, kbs=^?, kcbt=\\E^I, kcub1=\\E[D, kcuu1=\\E[A," +
+	"\tkdch1=\\E[3~, kf1=\\E[[A, kf10=\\E[21~, kf11=\\E[23~," +
+	"\tsgr0=\\E[m\\017, acsc=++\\,\\,--, ht=\\t, u7=\\E[6n,";
+
+    private File dir = null;
+    private int sourceCalls = 0;
+
+    @Test public void find()
+    {
+	final TermInfo t = new TermInfo(TEXT);
+	t.read();
+	check(t);
+    }
+
+    @Test public void cache() throws IOException
+    {
+	dir = Files.createTempDirectory("luwrain-terminfo-").toFile();
+	final File db = new File(dir, "linux"), cache = new File(new File(dir, "cache"), "terminfo.cache");
+	Files.write(db.toPath(), new byte[]{ 1, 2, 3 });
+	final TermInfo.Source source = ()->{
+	    sourceCalls++;
+	    final TermInfo t = new TermInfo(TEXT);
+	    t.read();
+	    return t;
+	};
+	check(TermInfo.load(cache, db, source));
+	assertEquals(1, sourceCalls);
+	assertTrue(cache.isFile());
+	check(TermInfo.load(cache, db, source));
+	assertEquals(1, sourceCalls);
+	assertTrue(db.setLastModified(db.lastModified() - 10000));
+	check(TermInfo.load(cache, db, source));
+	assertEquals(2, sourceCalls);
+	check(TermInfo.load(cache, db, source));
+	assertEquals(2, sourceCalls);
+	Files.write(cache.toPath(), new byte[]{ 1, 2 });
+	check(TermInfo.load(cache, db, source));
+	assertEquals(3, sourceCalls);
+    }
+
+    @Test public void damagedCache() throws IOException
+    {
+	dir = Files.createTempDirectory("luwrain-terminfo-").toFile();
+	final File db = new File(dir, "linux"), cache = new File(new File(dir, "cache"), "terminfo.cache");
+	Files.write(db.toPath(), new byte[]{ 1, 2, 3 });
+	final TermInfo.Source source = ()->{
+	    sourceCalls++;
+	    final TermInfo t = new TermInfo(TEXT);
+	    t.read();
+	    return t;
+	};
+	TermInfo.load(cache, db, source);
+	//The huge number of the flags
+	final byte[] bytes = Files.readAllBytes(cache.toPath());
+	final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+	in.readInt();
+	in.readInt();
+	in.readUTF();
+	in.readLong();
+	in.readLong();
+	in.readUTF();
+	ByteBuffer.wrap(bytes).putInt(bytes.length - in.available(), Integer.MAX_VALUE);
+	Files.write(cache.toPath(), bytes);
+	check(TermInfo.load(cache, db, source));
+	assertEquals(2, sourceCalls);
+	check(TermInfo.load(cache, db, source));
+	assertEquals(2, sourceCalls);
+    }
+
+    @Test public void damagedTrie() throws IOException
+    {
+	final ByteArrayOutputStream b = new ByteArrayOutputStream();
+	new ByteTrie.Builder().add(new byte[]{ 1, 2 }, 0).add(new byte[]{ 1, 3 }, 5).build().write(new DataOutputStream(b));
+	final byte[] bytes = b.toByteArray();
+	final ByteTrie t = ByteTrie.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length, 6);
+	assertEquals(ByteTrie.PREFIX, t.find("\001"));
+	assertEquals(5, t.find("\001\003"));
+	//The value not matching any capability
+	assertThrows(IOException.class, ()->ByteTrie.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length, 5));
+	//The number of nodes not fitting in the input
+	ByteBuffer.wrap(bytes).putInt(0, Integer.MAX_VALUE);
+	assertThrows(IOException.class, ()->ByteTrie.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length, 6));
+    }
+
+    @Test public void compiled() throws IOException
+    {
+	for(boolean wide: new boolean[]{false, true})
+	{
+	    final TermInfo t = TermInfo.readCompiled(compile(wide));
+	    assertEquals("test|Test terminal", t.getTermName());
+	    assertTrue(t.hasFlag("am"));
+	    assertFalse(t.hasFlag("bw"));
+	    assertTrue(t.hasFlag("AX"));
+	    assertEquals(80, t.getNumber("cols"));
+	    assertEquals(wide?65536:256, t.getNumber("colors"));
+	    assertEquals(-1, t.getNumber("lines"));
+	    assertEquals(1, t.getNumber("U8"));
+	    assertEquals("\033[A", t.getString("kcuu1"));
+	    assertEquals("\033[1;5A", t.getString("kUP5"));
+	    assertNull(t.getString("kf1"));
+	    assertEquals("kcuu1", t.find("\033[A"));
+	    assertEquals("kUP5", t.find("\033[1;5A"));
+	    assertEquals("bel", t.find("\007"));
+	    assertEquals("", t.find("\033[1;5"));
+	    assertNull(t.find("\033[B"));
+	}
+	assertThrows(IOException.class, ()->TermInfo.readCompiled(new byte[]{ 0x1a, 0x01, 10 }));
+	assertThrows(IOException.class, ()->TermInfo.readCompiled("not terminfo".getBytes()));
+    }
+
+    //The compiled description in the format of ncurses with the extended capabilities
+    static private byte[] compile(boolean wide)
+    {
+	final ByteArrayOutputStream b = new ByteArrayOutputStream();
+	final List<String> strCaps = Arrays.asList(TermInfoCaps.STRINGS);
+	final int bel = strCaps.indexOf("bel"), kcuu1 = strCaps.indexOf("kcuu1");
+	final byte[] names = "test|Test terminal\0".getBytes(StandardCharsets.ISO_8859_1);
+	final byte[] table = "\007\0\033[A\0".getBytes(StandardCharsets.ISO_8859_1);
+	putShort(b, wide?01036:0432);
+	putShort(b, names.length);
+	putShort(b, 2);
+	putShort(b, 14);
+	putShort(b, kcuu1 + 1);
+	putShort(b, table.length);
+	b.write(names, 0, names.length);
+	b.write(0);
+	b.write(1);
+	if (b.size() % 2 != 0)
+	    b.write(0);
+	for(int i = 0;i < 14;i++)
+	{
+	    final int value = i == 0?80:(i == 13?(wide?65536:256):-1);
+	    if (wide)
+		putInt(b, value); else
+		putShort(b, value);
+	}
+	for(int i = 0;i <= kcuu1;i++)
+	    putShort(b, i == bel?0:(i == kcuu1?2:-1));
+	b.write(table, 0, table.length);
+	if (b.size() % 2 != 0)
+	    b.write(0);
+	final byte[] extTable = "\033[1;5A\0AX\0U8\0kUP5\0".getBytes(StandardCharsets.ISO_8859_1);
+	putShort(b, 1);
+	putShort(b, 1);
+	putShort(b, 1);
+	putShort(b, 4);
+	putShort(b, extTable.length);
+	b.write(1);
+	b.write(0);
+	if (wide)
+	    putInt(b, 1); else
+	    putShort(b, 1);
+	putShort(b, 0);
+	putShort(b, 0);
+	putShort(b, 3);
+	putShort(b, 6);
+	b.write(extTable, 0, extTable.length);
+	return b.toByteArray();
+    }
+
+    static private void putShort(ByteArrayOutputStream b, int value)
+    {
+	b.write(value & 0xff);
+	b.write((value >> 8) & 0xff);
+    }
+
+    static private void putInt(ByteArrayOutputStream b, int value)
+    {
+	putShort(b, value & 0xffff);
+	putShort(b, (value >> 16) & 0xffff);
+    }
+
+    private void check(TermInfo t)
+    {
+	assertEquals("linux|Linux console", t.getTermName());
+	assertEquals("kcuu1", t.find("\033[A"));
+	assertEquals("kf1", t.find("\033[[A"));
+	assertEquals("", t.find("\033[["));
+	assertEquals("", t.find("\033[2"));
+	assertEquals("kf10", t.find("\033[21~"));
+	assertEquals("kdch1", t.find("\033[3~"));
+	assertEquals("kbs", t.find("\177"));
+	assertEquals("bel", t.find("\007"));
+	assertEquals("kcbt", t.find("\033\t"));
+	assertEquals("ht", t.find("\t"));
+	assertEquals("sgr0", t.find("\033[m\017"));
+	assertEquals("acsc", t.find("++,,--"));
+	assertEquals("", t.find("\033"));
+	assertEquals("color", t.find("\033[1;31m"));
+	assertNull(t.find("\033[Z"));
+	assertNull(t.find("x"));
+	assertNull(t.find("\033[AЖ"));
+    }
+
+    @AfterEach public void removeFiles() throws IOException
+    {
+	if (dir == null)
+	    return;
+	final File[] files = new File(dir, "cache").listFiles();
+	if (files != null)
+	    for(File f: files)
+		Files.delete(f.toPath());
+	Files.deleteIfExists(new File(dir, "cache").toPath());
+	Files.delete(new File(dir, "linux").toPath());
+	Files.delete(dir.toPath());
+    }
+}
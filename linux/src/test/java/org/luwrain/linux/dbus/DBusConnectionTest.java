@@ -0,0 +1,82 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.luwrain.linux.*;
+
+public class DBusConnectionTest
+{
+    private FakeBus bus;
+    private DBusConnection con;
+
+    @BeforeEach public void open() throws IOException
+    {
+	bus = new FakeBus();
+	bus.setHandler(call->{
+		if ("Echo".equals(call.member))
+		    return DBusMessage.methodReturn(call, call.signature, call.getArgs());
+		return DBusMessage.error(call, "org.example.Error.Failed", "unknown " + call.member);
+	    });
+	con = DBusConnection.open(bus.getAddress(), ProcessEngine.getDefault());
+    }
+
+    @AfterEach public void close() throws IOException
+    {
+	con.close();
+	bus.close();
+    }
+
+    @Test public void hello()
+    {
+	assertEquals(":1.1", con.getUniqueName());
+	assertFalse(con.isClosed());
+    }
+
+    @Test public void call() throws IOException
+    {
+	final DBusMessage reply = con.call(DBusMessage.methodCall("org.example", "/", "org.example.Iface", "Echo", "sat", "text", List.of(Long.valueOf(1), Long.valueOf(2))));
+	assertEquals(DBusMessage.METHOD_RETURN, reply.type);
+	assertEquals("text", reply.getArg(0));
+	assertEquals(List.of(Long.valueOf(1), Long.valueOf(2)), reply.getArg(1));
+    }
+
+    @Test public void error()
+    {
+	final DBusException e = assertThrows(DBusException.class, ()->con.call(DBusMessage.methodCall("org.example", "/", "org.example.Iface", "Fail", "")));
+	assertEquals("org.example.Error.Failed", e.getName());
+    }
+
+    @Test public void signals() throws Exception
+    {
+	final BlockingQueue<DBusMessage> signals = new LinkedBlockingQueue<>();
+	con.addListener((c, s)->signals.add(s));
+	con.addMatch("type='signal',interface='org.example.Iface'");
+	assertEquals(List.of("type='signal',interface='org.example.Iface'"), bus.getMatches());
+	bus.emit(DBusMessage.signal("/obj", "org.example.Iface", "Changed", "u", Integer.valueOf(5)));
+	final DBusMessage s = signals.poll(5, TimeUnit.SECONDS);
+	assertNotNull(s);
+	assertEquals("Changed", s.member);
+	assertEquals(FakeBus.SENDER, s.sender);
+	assertEquals(Integer.valueOf(5), s.getArg(0));
+    }
+
+    @Test public void closing() throws Exception
+    {
+	final CountDownLatch closed = new CountDownLatch(1);
+	con.addListener(new DBusConnection.Listener(){
+		@Override public void onSignal(DBusConnection c, DBusMessage s) {}
+		@Override public void onClose(DBusConnection c, Throwable error) { closed.countDown(); }
+	    });
+	con.close();
+	assertTrue(closed.await(5, TimeUnit.SECONDS));
+	assertThrows(IOException.class, ()->con.call(DBusMessage.methodCall("org.example", "/", "org.example.Iface", "Echo", "")));
+    }
+}
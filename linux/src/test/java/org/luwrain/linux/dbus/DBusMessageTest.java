@@ -0,0 +1,102 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DBusMessageTest
+{
+    @Test public void methodCall() throws IOException
+    {
+	final DBusMessage m = roundTrip(DBusMessage.methodCall("org.example", "/org/example", "org.example.Iface", "Do", "sybxa{sv}",
+							       "str", Byte.valueOf((byte)7), Boolean.TRUE, Long.valueOf(-5),
+							       Map.of("key", new DBusMessage.Variant("u", Integer.valueOf(42)))), 3);
+	assertEquals(DBusMessage.METHOD_CALL, m.type);
+	assertEquals(3, m.serial);
+	assertEquals("org.example", m.destination);
+	assertEquals("/org/example", m.path);
+	assertEquals("org.example.Iface", m.iface);
+	assertEquals("Do", m.member);
+	assertEquals("sybxa{sv}", m.signature);
+	assertEquals(5, m.getArgCount());
+	assertEquals("str", m.getArg(0));
+	assertEquals(Byte.valueOf((byte)7), m.getArg(1));
+	assertEquals(Boolean.TRUE, m.getArg(2));
+	assertEquals(Long.valueOf(-5), m.getArg(3));
+	assertEquals(Map.of("key", Integer.valueOf(42)), m.getArg(4));
+    }
+
+    //The reply of GetManagedObjects of UDisks2
+    @Test public void managedObjects() throws IOException
+    {
+	final Map<String, Object> block = new LinkedHashMap<>();
+	block.put("Device", new DBusMessage.Variant("ay", "/dev/sdb1\0".getBytes()));
+	block.put("Drive", new DBusMessage.Variant("o", "/org/freedesktop/UDisks2/drives/Flash"));
+	final Map<String, Object> fs = Map.of("MountPoints", new DBusMessage.Variant("aay", List.of("/media/flash\0".getBytes())));
+	final Map<String, Object> ifaces = new LinkedHashMap<>();
+	ifaces.put("org.freedesktop.UDisks2.Block", block);
+	ifaces.put("org.freedesktop.UDisks2.Filesystem", fs);
+	final DBusMessage call = DBusMessage.methodCall("org.freedesktop.UDisks2", "/org/freedesktop/UDisks2", "org.freedesktop.DBus.ObjectManager", "GetManagedObjects", "").withSender(":1.5");
+	final DBusMessage m = roundTrip(DBusMessage.methodReturn(roundTrip(call, 9), "a{oa{sa{sv}}}", Map.of("/org/freedesktop/UDisks2/block_devices/sdb1", ifaces)), 10);
+	assertEquals(DBusMessage.METHOD_RETURN, m.type);
+	assertEquals(9, m.replySerial);
+	assertEquals(":1.5", m.destination);
+	final Map<?, ?> objs = (Map<?, ?>)m.getArg(0);
+	final Map<?, ?> i = (Map<?, ?>)objs.get("/org/freedesktop/UDisks2/block_devices/sdb1");
+	assertEquals(List.of("org.freedesktop.UDisks2.Block", "org.freedesktop.UDisks2.Filesystem"), new ArrayList<>(i.keySet()));
+	final Map<?, ?> b = (Map<?, ?>)i.get("org.freedesktop.UDisks2.Block");
+	assertArrayEquals("/dev/sdb1\0".getBytes(), (byte[])b.get("Device"));
+	assertEquals("/org/freedesktop/UDisks2/drives/Flash", b.get("Drive"));
+	final List<?> points = (List<?>)((Map<?, ?>)i.get("org.freedesktop.UDisks2.Filesystem")).get("MountPoints");
+	assertEquals(1, points.size());
+	assertArrayEquals("/media/flash\0".getBytes(), (byte[])points.get(0));
+    }
+
+    @Test public void error() throws IOException
+    {
+	final DBusMessage call = roundTrip(DBusMessage.methodCall("org.example", "/", null, "Do", "").withSender(":1.7"), 4);
+	final DBusMessage m = roundTrip(DBusMessage.error(call, "org.example.Error.Failed", "no way"), 5);
+	assertEquals(DBusMessage.ERROR, m.type);
+	assertEquals("org.example.Error.Failed", m.errorName);
+	assertEquals(4, m.replySerial);
+	assertEquals("no way", m.getArg(0));
+    }
+
+    @Test public void stream() throws IOException
+    {
+	final ByteArrayOutputStream os = new ByteArrayOutputStream();
+	os.write(DBusMessage.signal("/a", "org.example.Iface", "First", "(is)", new Object[]{ new Object[]{ Integer.valueOf(1), "one" } }).marshal(1));
+	os.write(DBusMessage.signal("/b", "org.example.Iface", "Second", "as", List.of("x", "y")).marshal(2));
+	final InputStream is = new ByteArrayInputStream(os.toByteArray());
+	final DBusMessage first = DBusMessage.read(is);
+	assertEquals("First", first.member);
+	assertArrayEquals(new Object[]{ Integer.valueOf(1), "one" }, (Object[])first.getArg(0));
+	final DBusMessage second = DBusMessage.read(is);
+	assertEquals("/b", second.path);
+	assertEquals(List.of("x", "y"), second.getArg(0));
+	assertNull(DBusMessage.read(is));
+    }
+
+    @Test public void truncated()
+    {
+	final byte[] bytes = DBusMessage.signal("/a", "org.example.Iface", "Sig", "s", "text").marshal(1);
+	assertThrows(EOFException.class, ()->DBusMessage.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))));
+    }
+
+    @Test public void address() throws IOException
+    {
+	assertEquals("/run/dbus/system_bus_socket", DBusConnection.parseAddress("unix:path=/run/dbus/system_bus_socket"));
+	assertEquals("/tmp/a b", DBusConnection.parseAddress("tcp:host=localhost,port=1;unix:guid=1,path=/tmp/a%20b"));
+	assertThrows(IOException.class, ()->DBusConnection.parseAddress("unix:abstract=/tmp/bus"));
+    }
+
+    static private DBusMessage roundTrip(DBusMessage m, int serial) throws IOException
+    {
+	return DBusMessage.read(new ByteArrayInputStream(m.marshal(serial)));
+    }
+}
@@ -0,0 +1,152 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.dbus;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * The stand-in of the message bus for the tests. It authenticates any
+ * client, answers {@code Hello} and {@code AddMatch} and passes the
+ * other method calls to the handler, as if all services live in the bus
+ * itself. The signals are sent to all clients regardless of the match
+ * rules.
+ */
+public final class FakeBus implements AutoCloseable
+{
+    static public final String SENDER = ":1.0";
+
+    private final Path dir, socket;
+    private final ServerSocketChannel server;
+    private final List<OutputStream> clients = new CopyOnWriteArrayList<>();
+    private final List<String> matches = new CopyOnWriteArrayList<>();
+    private volatile Function<DBusMessage, DBusMessage> handler = call->DBusMessage.error(call, "org.freedesktop.DBus.Error.ServiceUnknown", "No such service");
+    private int serial = 0;
+    private int clientCount = 0;
+
+    public FakeBus() throws IOException
+    {
+	this.dir = Files.createTempDirectory("dbus");
+	this.socket = dir.resolve("bus");
+	this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	server.bind(UnixDomainSocketAddress.of(socket));
+	final Thread t = new Thread(this::accept, "fake-dbus");
+	t.setDaemon(true);
+	t.start();
+    }
+
+    public String getAddress()
+    {
+	return "unix:path=" + socket.toString();
+    }
+
+    /** Sets the function making the replies to the method calls. */
+    public void setHandler(Function<DBusMessage, DBusMessage> handler)
+    {
+	this.handler = handler;
+    }
+
+    public List<String> getMatches()
+    {
+	return matches;
+    }
+
+    public void emit(DBusMessage signal) throws IOException
+    {
+	for(OutputStream os: clients)
+	    send(os, signal.withSender(SENDER));
+    }
+
+    /** Drops the connections of all clients, as if the bus is stopped. */
+    public void disconnect() throws IOException
+    {
+	for(OutputStream os: clients)
+	    os.close();
+    }
+
+    @Override public void close() throws IOException
+    {
+	server.close();
+	Files.deleteIfExists(socket);
+	Files.deleteIfExists(dir);
+    }
+
+    private void accept()
+    {
+	try {
+	    while(true)
+	    {
+		final SocketChannel ch = server.accept();
+		final Thread t = new Thread(()->serve(ch), "fake-dbus-client");
+		t.setDaemon(true);
+		t.start();
+	    }
+	}
+	catch(IOException e)
+	{
+	    //Closed
+	}
+    }
+
+    private void serve(SocketChannel ch)
+    {
+	final String name;
+	synchronized(this) {
+	    name = ":1." + String.valueOf(++clientCount);
+	}
+	try (final InputStream is = ChannelStreams.input(ch)) {
+	    final OutputStream os = ChannelStreams.output(ch);
+	    if (is.read() != 0 || !readLine(is).startsWith("AUTH EXTERNAL "))
+		return;
+	    os.write("OK 0123456789abcdef0123456789abcdef\r\n".getBytes(StandardCharsets.US_ASCII));
+	    if (!readLine(is).equals("BEGIN"))
+		return;
+	    clients.add(os);
+	    final InputStream in = new BufferedInputStream(is);
+	    for(DBusMessage m = DBusMessage.read(in);m != null;m = DBusMessage.read(in))
+	    {
+		if (m.type != DBusMessage.METHOD_CALL)
+		    continue;
+		final DBusMessage call = m.withSender(name);
+		final DBusMessage reply;
+		if (DBusConnection.BUS_NAME.equals(call.destination) && "Hello".equals(call.member))
+		    reply = DBusMessage.methodReturn(call, "s", name); else
+		    if (DBusConnection.BUS_NAME.equals(call.destination) && "AddMatch".equals(call.member))
+		    {
+			matches.add(call.getArg(0).toString());
+			reply = DBusMessage.methodReturn(call, "");
+		    } else
+			reply = handler.apply(call);
+		if (reply != null)
+		    send(os, reply.withSender(SENDER));
+	    }
+	    clients.remove(os);
+	}
+	catch(IOException e)
+	{
+	    //The client is gone
+	}
+    }
+
+    private synchronized void send(OutputStream os, DBusMessage m) throws IOException
+    {
+	os.write(m.marshal(++serial));
+	os.flush();
+    }
+
+    static private String readLine(InputStream is) throws IOException
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int ch = is.read();ch >= 0 && ch != '\n';ch = is.read())
+	    if (ch != '\r')
+		b.append((char)ch);
+	return new String(b);
+    }
+}
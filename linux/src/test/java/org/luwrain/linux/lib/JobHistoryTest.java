@@ -0,0 +1,197 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.lib;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JobHistoryTest
+{
+    private File dir = null;
+
+    @Test public void beginFinish() throws IOException
+    {
+	try (final JobHistory h = new JobHistory(dir)) {
+	    assertEquals(0, h.begin("ls -l", "/tmp", 100));
+	    assertEquals(1, h.begin("echo Привет", null, 200));
+	    h.finish(0, 150, 0, Arrays.asList("a", "", "Привет"));
+	    assertEquals(2, h.getCount());
+	    final JobHistory.Entry e = h.get(0);
+	    assertEquals("ls -l", e.cmd);
+	    assertEquals("/tmp", e.dir);
+	    assertEquals(JobHistory.State.FINISHED, e.state);
+	    assertEquals(100, e.startTime);
+	    assertEquals(150, e.endTime);
+	    assertEquals(3, e.outputLines);
+	    assertEquals(Arrays.asList("a", "", "Привет"), h.getOutput(0));
+	    assertEquals(JobHistory.State.RUNNING, h.get(1).state);
+	    assertEquals("echo Привет", h.get(1).cmd);
+	    assertEquals("", h.get(1).dir);
+	    assertTrue(h.getOutput(1).isEmpty());
+	    assertEquals(1, h.findByTime(150));
+	    assertEquals(2, h.findByTime(300));
+	    assertEquals(1, h.list(150, 300, 10).size());
+	    assertThrows(IllegalArgumentException.class, ()->h.get(2));
+	}
+    }
+
+    @Test public void reopen() throws IOException
+    {
+	try (final JobHistory h = new JobHistory(dir)) {
+	    //More than the initial capacity of the index
+	    for(int i = 0;i < 300;i++)
+		h.begin("cmd" + String.valueOf(i), "/", i);
+	    h.finish(0, 10, 1, Arrays.asList("out"));
+	}
+	try (final JobHistory h = new JobHistory(dir)) {
+	    assertEquals(300, h.getCount());
+	    assertEquals(JobHistory.State.FINISHED, h.get(0).state);
+	    assertEquals(1, h.get(0).exitCode);
+	    assertEquals(Arrays.asList("out"), h.getOutput(0));
+	    //The jobs running on closing will never finish
+	    assertEquals(JobHistory.State.INTERRUPTED, h.get(299).state);
+	    assertEquals("cmd299", h.get(299).cmd);
+	    assertEquals(300, h.begin("next", "/", 1000));
+	}
+    }
+
+    @Test public void truncatedLog() throws IOException
+    {
+	try (final JobHistory h = new JobHistory(dir)) {
+	    h.begin("first", "/", 1);
+	    h.finish(0, 2, 0, Arrays.asList("line 1", "line 2"));
+	    h.begin("second", "/", 3);
+	}
+	//The output of the first job and the command of the second one are lost
+	final File logFile = JobHistory.getLogFile(dir, 0);
+	try (final FileChannel c = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+	    c.truncate("first/".length() + 3);
+	}
+	try (final JobHistory h = new JobHistory(dir)) {
+	    assertEquals(2, h.getCount());
+	    assertEquals("first", h.get(0).cmd);
+	    assertEquals(JobHistory.State.FINISHED, h.get(0).state);
+	    assertEquals(0, h.get(0).outputLines);
+	    assertTrue(h.getOutput(0).isEmpty());
+	    assertEquals("", h.get(1).cmd);
+	    assertEquals(JobHistory.State.INTERRUPTED, h.get(1).state);
+	    //The new data goes after the remaining part of the log
+	    assertEquals(2, h.begin("third", "/", 4));
+	    h.finish(2, 5, 0, Arrays.asList("out"));
+	    assertEquals("third", h.get(2).cmd);
+	    assertEquals(Arrays.asList("out"), h.getOutput(2));
+	}
+	assertEquals("first/".length() + 3 + "third/".length() + "out".length(), logFile.length());
+    }
+
+    @Test public void corruptedIndex() throws IOException
+    {
+	try (final JobHistory h = new JobHistory(dir)) {
+	    h.begin("first", "/", 1);
+	    h.finish(0, 2, 0, Arrays.asList("out"));
+	    h.begin("second", "/", 3);
+	    h.finish(1, 4, 0, Arrays.asList("out"));
+	}
+	//The unknown state of the first job and the number of output lines of the second one exceeding the output length
+	writeIndexInt(32 + 20, 1000);
+	writeIndexInt(32 + 64 + 56, 1000);
+	try (final JobHistory h = new JobHistory(dir)) {
+	    assertEquals(JobHistory.State.INTERRUPTED, h.get(0).state);
+	    assertEquals(Arrays.asList("out"), h.getOutput(0));
+	    assertEquals("second", h.get(1).cmd);
+	    assertTrue(h.getOutput(1).isEmpty());
+	    assertEquals(2, h.list(0, Long.MAX_VALUE, 10).size());
+	}
+	//The number of jobs exceeding the index size
+	try (final FileChannel c = FileChannel.open(new File(dir, JobHistory.INDEX_FILE).toPath(), StandardOpenOption.WRITE)) {
+	    c.write(ByteBuffer.allocate(8).putLong(0, 1000000), 8);
+	}
+	assertThrows(IOException.class, ()->new JobHistory(dir));
+    }
+
+    @Test public void outputLimit() throws IOException
+    {
+	try (final JobHistory h = new JobHistory(dir, 1000, 10)) {
+	    h.begin("first", "/", 1);
+	    //Only the last lines fitting in 10 bytes are saved
+	    h.finish(0, 2, 0, Arrays.asList("aaaa", "bbbb", "cccc"));
+	    assertEquals(2, h.get(0).outputLines);
+	    assertEquals(Arrays.asList("bbbb", "cccc"), h.getOutput(0));
+	    h.begin("second", "/", 3);
+	    h.finish(1, 4, 0, Arrays.asList("aaaa", "too long line"));
+	    assertTrue(h.getOutput(1).isEmpty());
+	}
+	assertEquals("first/".length() + "bbbb\ncccc".length() + "second/".length(), JobHistory.getLogFile(dir, 0).length());
+    }
+
+    @Test public void retention() throws IOException
+    {
+	final String out = "0123456789";
+	try (final JobHistory h = new JobHistory(dir, 1000, 100)) {
+	    for(int i = 0;i < 100;i++)
+	    {
+		final long id = h.begin("cmd" + String.valueOf(i), "/", i);
+		assertEquals(i, id);
+		h.finish(id, i, 0, Arrays.asList(out, out, out, String.valueOf(i)));
+	    }
+	    assertEquals(100, h.getCount());
+	    assertTrue(h.getFirstId() > 0);
+	    assertThrows(IllegalArgumentException.class, ()->h.get(h.getFirstId() - 1));
+	    assertEquals("cmd99", h.get(99).cmd);
+	    assertEquals(Arrays.asList(out, out, out, "99"), h.getOutput(99));
+	    assertEquals(h.getFirstId(), h.findByTime(0));
+	    //The job dropped before its finishing
+	    final long id = h.begin("long", "/", 100);
+	    for(int i = 0;i < 30;i++)
+		h.finish(h.begin("cmd", "/", 101), 101, 0, Arrays.asList(out, out, out));
+	    assertTrue(h.getFirstId() > id);
+	    h.finish(id, 200, 0, Arrays.asList(out));
+	}
+	final File[] logs = dir.listFiles((d, name)->name.endsWith(".log"));
+	assertEquals(1, logs.length);
+	assertTrue(logs[0].length() <= 1000);
+	try (final JobHistory h = new JobHistory(dir, 1000, 100)) {
+	    assertEquals(131, h.getCount());
+	    assertEquals("cmd", h.get(130).cmd);
+	    assertEquals(Arrays.asList(out, out, out), h.getOutput(130));
+	    assertEquals(JobHistory.State.FINISHED, h.get(h.getFirstId()).state);
+	}
+    }
+
+    @Test public void oldVersion() throws IOException
+    {
+	try (final FileChannel c = FileChannel.open(new File(dir, JobHistory.INDEX_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+	    c.write(ByteBuffer.allocate(16).putInt(0, 0x4c4a4f42).putInt(4, 1).putLong(8, 5), 0);
+	}
+	try (final JobHistory h = new JobHistory(dir)) {
+	    assertEquals(0, h.getCount());
+	    assertEquals(0, h.begin("first", "/", 1));
+	}
+    }
+
+    private void writeIndexInt(long pos, int value) throws IOException
+    {
+	try (final FileChannel c = FileChannel.open(new File(dir, JobHistory.INDEX_FILE).toPath(), StandardOpenOption.WRITE)) {
+	    c.write(ByteBuffer.allocate(4).putInt(0, value), pos);
+	}
+    }
+
+    @BeforeEach public void createDir() throws IOException
+    {
+	dir = Files.createTempDirectory("luwrain-jobs-").toFile();
+    }
+
+    @AfterEach public void deleteDir()
+    {
+	for(File f: dir.listFiles())
+	    f.delete();
+	dir.delete();
+    }
+}
@@ -0,0 +1,75 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.lib;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.luwrain.linux.lib.JobScheduler.Priority.*;
+
+public class JobSchedulerTest
+{
+    private final List<String> started = new CopyOnWriteArrayList<>();
+
+    @Test public void reservedSlots()
+    {
+	final JobScheduler s = new JobScheduler(3, 1, JobScheduler.DEFAULT_INTERACTIVE, JobScheduler.DEFAULT_BACKGROUND);
+	final Runnable b1 = task("b1"), b2 = task("b2"), b3 = task("b3"), i1 = task("i1"), i2 = task("i2");
+	assertTrue(s.submit(b1, BACKGROUND));
+	assertTrue(s.submit(b2, BACKGROUND));
+	//The last slot is only for the interactive tasks
+	assertFalse(s.submit(b3, BACKGROUND));
+	assertTrue(s.submit(i1, INTERACTIVE));
+	assertFalse(s.submit(i2, INTERACTIVE));
+	assertEquals(3, s.getRunningCount());
+	//The interactive task goes first
+	s.finished(b1);
+	assertEquals(Arrays.asList("b1", "b2", "i1", "i2"), started);
+	//The repeated notification changes nothing
+	s.finished(b1);
+	assertEquals(3, s.getRunningCount());
+	s.finished(i1);
+	assertEquals(Arrays.asList("b1", "b2", "i1", "i2", "b3"), started);
+	assertEquals(0, s.getQueuedCount());
+    }
+
+    @Test public void longRunning()
+    {
+	final JobScheduler s = new JobScheduler(2, 1, JobScheduler.DEFAULT_INTERACTIVE, JobScheduler.DEFAULT_BACKGROUND);
+	final Runnable b1 = task("b1"), b2 = task("b2"), m = task("m");
+	assertTrue(s.submit(b1, BACKGROUND));
+	//The background task keeps its slot however long it runs
+	assertFalse(s.submit(b2, BACKGROUND));
+	//The monitor doesn't wait for the slot and doesn't take it
+	s.startUnlimited(m);
+	assertEquals(Arrays.asList("b1", "m"), started);
+	assertEquals(1, s.getRunningCount());
+	s.finished(m);
+	assertEquals(1, s.getQueuedCount());
+	s.finished(b1);
+	assertEquals(Arrays.asList("b1", "m", "b2"), started);
+	assertEquals(1, s.getRunningCount());
+    }
+
+    @Test public void cancel()
+    {
+	final JobScheduler s = new JobScheduler(1, 0, JobScheduler.DEFAULT_INTERACTIVE, JobScheduler.DEFAULT_BACKGROUND);
+	final Runnable i1 = task("i1"), i2 = task("i2");
+	assertTrue(s.submit(i1, INTERACTIVE));
+	assertFalse(s.submit(i2, INTERACTIVE));
+	assertTrue(s.cancel(i2));
+	assertFalse(s.cancel(i1));
+	s.finished(i1);
+	assertEquals(Arrays.asList("i1"), started);
+	assertEquals(0, s.getRunningCount());
+    }
+
+    private Runnable task(String name)
+    {
+	return ()->started.add(name);
+    }
+}
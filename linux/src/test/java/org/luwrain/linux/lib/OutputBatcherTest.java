@@ -0,0 +1,111 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.lib;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutputBatcherTest
+{
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+
+    @Test public void sizeBound() throws Exception
+    {
+	final OutputBatcher b = new OutputBatcher(new SysJob.Batching(60000, 5000), this::onBatch);
+	start(b);
+	for(int i = 0;i < 12000;i++)
+	    b.add(String.valueOf(i));
+	//The delay is long, so only the limit of lines causes the deliveries
+	synchronized(this) {
+	    assertEquals(3, batches.size());
+	    assertEquals(5000, batches.get(1).size());
+	    assertEquals(5000, batches.get(2).size());
+	}
+	b.flush();
+	synchronized(this) {
+	    assertEquals(4, batches.size());
+	    assertEquals(2000, batches.get(3).size());
+	}
+	checkOrder(12000);
+    }
+
+    @Test public void timeBound() throws Exception
+    {
+	final OutputBatcher b = new OutputBatcher(SysJob.DEFAULT_BATCHING, this::onBatch);
+	start(b);
+	for(int i = 0;i < 100;i++)
+	{
+	    b.add(String.valueOf(i));
+	    Thread.sleep(5);
+	}
+	b.flush();
+	checkOrder(100);
+	synchronized(this) {
+	    //About 500 ms of the output with 50 ms between the deliveries
+	    assertTrue(batches.size() <= 13, String.valueOf(batches.size()));
+	    for(int i = 1;i < times.size() - 1;i++)
+		assertTrue(times.get(i) - times.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(45), String.valueOf(times.get(i) - times.get(i - 1)));
+	    for(int i = 1;i < batches.size() - 1;i++)
+		assertTrue(batches.get(i).size() > 1);
+	}
+    }
+
+    @Test public void finalFlush() throws Exception
+    {
+	final OutputBatcher b = new OutputBatcher(new SysJob.Batching(60000, 5000), this::onBatch);
+	start(b);
+	b.add("0");
+	b.add("1");
+	Thread.sleep(100);
+	synchronized(this) {
+	    assertEquals(1, batches.size());
+	}
+	//The end of the output delivers the rest at once
+	b.flush();
+	synchronized(this) {
+	    assertEquals(2, batches.size());
+	    assertEquals(Arrays.asList("0", "1"), batches.get(1));
+	}
+	b.flush();
+	synchronized(this) {
+	    assertEquals(2, batches.size());
+	}
+    }
+
+    //The first line is delivered without waiting, the rest wait for the delay after it
+    private void start(OutputBatcher b) throws InterruptedException
+    {
+	b.add("first");
+	final long deadline = System.currentTimeMillis() + 5000;
+	synchronized(this) {
+	    while (batches.isEmpty() && System.currentTimeMillis() < deadline)
+		wait(100);
+	    assertEquals(Arrays.asList(Arrays.asList("first")), batches);
+	}
+    }
+
+    private synchronized void checkOrder(int count)
+    {
+	final List<String> lines = new ArrayList<>();
+	for(List<String> batch: batches.subList(1, batches.size()))
+	{
+	    assertTrue(batch.size() <= 5000);
+	    lines.addAll(batch);
+	}
+	assertEquals(count, lines.size());
+	for(int i = 0;i < count;i++)
+	    assertEquals(String.valueOf(i), lines.get(i));
+    }
+
+    private synchronized void onBatch(List<String> lines)
+    {
+	batches.add(lines);
+	times.add(System.nanoTime());
+	notifyAll();
+    }
+}
@@ -0,0 +1,100 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.luwrain.linux.services.DeviceEventBus.Kind.*;
+import static org.luwrain.linux.services.DeviceEventBus.Type.*;
+
+public class DeviceEventBusTest
+{
+    static private final String OBJ = "/org/freedesktop/UDisks2/block_devices/sdb1";
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private DeviceEventBus bus;
+
+    @BeforeEach public void create()
+    {
+	bus = new DeviceEventBus(50, (kind, type, attrs)->events.add(kind.toString() + " " + type.toString() + " " + attrs.get("fsType")));
+    }
+
+    @AfterEach public void close()
+    {
+	bus.close();
+    }
+
+    @Test public void debouncing() throws InterruptedException
+    {
+	bus.update(BLOCK_DEV, OBJ, null);
+	bus.update(BLOCK_DEV, OBJ, attrs(""));
+	bus.update(BLOCK_DEV, OBJ, attrs("vfat"));
+	assertEquals("BLOCK_DEV ADDED vfat", events.poll(5, TimeUnit.SECONDS));
+	//No more events after the announcing
+	bus.update(BLOCK_DEV, OBJ, attrs("ext4"));
+	assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+	bus.removed(BLOCK_DEV, OBJ, attrs("ext4"));
+	assertEquals("BLOCK_DEV REMOVED ext4", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void notReady() throws InterruptedException
+    {
+	bus.update(DISK, OBJ, attrs("vfat"));
+	bus.update(DISK, OBJ, null);
+	assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+	bus.update(DISK, OBJ, attrs("vfat"));
+	assertEquals("DISK ADDED vfat", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void removedBeforeReady() throws InterruptedException
+    {
+	bus.update(BLOCK_DEV, OBJ, attrs("vfat"));
+	bus.removed(BLOCK_DEV, OBJ, attrs("vfat"));
+	assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test public void initial() throws InterruptedException
+    {
+	bus.initial(BLOCK_DEV, OBJ, attrs("vfat"));
+	bus.update(BLOCK_DEV, OBJ, attrs("vfat"));
+	assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+	bus.removed(BLOCK_DEV, OBJ, attrs("vfat"));
+	assertEquals("BLOCK_DEV REMOVED vfat", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void slowListener() throws InterruptedException
+    {
+	bus.close();
+	final CountDownLatch release = new CountDownLatch(1);
+	bus = new DeviceEventBus(0, (kind, type, attrs)->{
+		try {
+		    release.await();
+		}
+		catch(InterruptedException e)
+		{
+		    Thread.currentThread().interrupt();
+		}
+		events.add(attrs.get("fsType").toString());
+	    });
+	final long start = System.nanoTime();
+	for(int i = 0;i < 100;i++)
+	    bus.update(BLOCK_DEV, OBJ + String.valueOf(i), attrs("vfat"));
+	assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+	release.countDown();
+	for(int i = 0;i < 100;i++)
+	    assertNotNull(events.poll(5, TimeUnit.SECONDS));
+    }
+
+    static private Map<String, Object> attrs(String fsType)
+    {
+	final Map<String, Object> res = new HashMap<>();
+	res.put("obj", OBJ);
+	res.put("fsType", fsType);
+	return res;
+    }
+}
@@ -0,0 +1,113 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskOperationsTest
+{
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private final AtomicInteger running = new AtomicInteger(0), maxRunning = new AtomicInteger(0);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DiskOperations ops;
+
+    @BeforeEach public void create()
+    {
+	ops = new DiskOperations(new UdisksCli(args->{
+		    calls.add(args[0] + " " + args[2]);
+		    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+		    try {
+			release.await();
+		    }
+		    catch(InterruptedException e)
+		    {
+			throw new InterruptedIOException();
+		    }
+		    finally {
+			running.decrementAndGet();
+		    }
+		    if (args[2].equals("/dev/bad"))
+			throw new IOException("udisksctl returned 1");
+		    if (args[0].equals("mount"))
+			return new String[]{ "Mounted " + args[2] + " at /media/user/" + args[2].substring(5) };
+		    return new String[0];
+		}), 2);
+    }
+
+    @AfterEach public void close()
+    {
+	release.countDown();
+	ops.close();
+    }
+
+    @Test public void mount() throws Exception
+    {
+	final List<String> progress = new CopyOnWriteArrayList<>();
+	final CompletableFuture<File> f = ops.mount("/dev/sdb1", new DiskOperations.Listener(){
+		@Override public void onQueued(String device, DiskOperations.Op op) { progress.add("queued " + op.toString()); }
+		@Override public void onStarted(String device, DiskOperations.Op op) { progress.add("started " + op.toString()); }
+		@Override public void onFinished(String device, DiskOperations.Op op, File res, Throwable e) { progress.add("finished " + res.getPath()); }
+	    });
+	//The caller isn't blocked
+	assertFalse(f.isDone());
+	release.countDown();
+	assertEquals(new File("/media/user/sdb1"), f.get(5, TimeUnit.SECONDS));
+	assertEquals(List.of("queued MOUNT", "started MOUNT", "finished /media/user/sdb1"), progress);
+    }
+
+    @Test public void deduplication() throws Exception
+    {
+	final CompletableFuture<File> first = ops.mount("/dev/sdb1", null);
+	final CompletableFuture<File> second = ops.mount("/dev/sdb1", null);
+	assertSame(first, second);
+	release.countDown();
+	first.get(5, TimeUnit.SECONDS);
+	assertEquals(List.of("mount /dev/sdb1"), calls);
+    }
+
+    @Test public void sameDevice() throws Exception
+    {
+	final CompletableFuture<File> mount = ops.mount("/dev/sdb1", null);
+	final CompletableFuture<File> unmount = ops.unmount("/dev/sdb1", null);
+	final CompletableFuture<File> powerOff = ops.powerOff("/dev/sdb1", null);
+	release.countDown();
+	powerOff.get(5, TimeUnit.SECONDS);
+	assertTrue(mount.isDone());
+	assertTrue(unmount.isDone());
+	assertEquals(List.of("mount /dev/sdb1", "unmount /dev/sdb1", "power-off /dev/sdb1"), calls);
+	assertEquals(1, maxRunning.get());
+    }
+
+    @Test public void parallelism() throws Exception
+    {
+	final List<CompletableFuture<File>> futures = new ArrayList<>();
+	for(String d: new String[]{ "/dev/sdb1", "/dev/sdc1", "/dev/sdd1", "/dev/sde1" })
+	    futures.add(ops.mount(d, null));
+	final long deadline = System.currentTimeMillis() + 5000;
+	while (running.get() < 2 && System.currentTimeMillis() < deadline)
+	    Thread.sleep(10);
+	assertEquals(2, running.get());
+	release.countDown();
+	for(CompletableFuture<File> f: futures)
+	    assertNotNull(f.get(5, TimeUnit.SECONDS));
+	assertEquals(2, maxRunning.get());
+	assertEquals(4, calls.size());
+    }
+
+    @Test public void failure() throws Exception
+    {
+	final CompletableFuture<File> f = ops.unmount("/dev/bad", null);
+	release.countDown();
+	final ExecutionException e = assertThrows(ExecutionException.class, ()->f.get(5, TimeUnit.SECONDS));
+	assertTrue(e.getCause() instanceof IOException);
+	//The failed operation isn't reused
+	assertNotSame(f, ops.unmount("/dev/bad", null));
+    }
+}
@@ -0,0 +1,287 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.services;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.luwrain.linux.*;
+import org.luwrain.linux.dbus.*;
+
+public class UdisksDBusMonitorTest
+{
+    static private final String
+	DRIVE = "/org/freedesktop/UDisks2/drives/Flash_123",
+	DRIVE2 = "/org/freedesktop/UDisks2/drives/Flash_456",
+	SDB1 = "/org/freedesktop/UDisks2/block_devices/sdb1",
+	SDB2 = "/org/freedesktop/UDisks2/block_devices/sdb2";
+
+    private final Map<String, Object> objects = new HashMap<>();
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private CountDownLatch dumping = new CountDownLatch(0);
+    private FakeBus bus;
+    private DBusConnection con;
+    private UdisksDBusMonitor monitor;
+
+    @BeforeEach public void open() throws Exception
+    {
+	objects.put(DRIVE, Map.of(UdisksDBusMonitor.IFACE_DRIVE, drive()));
+	objects.put(SDB1, blockDev("/dev/sdb1", "vfat", "/media/flash"));
+	bus = new FakeBus();
+	bus.setHandler(call->{
+		if (!"GetManagedObjects".equals(call.member))
+		    return DBusMessage.methodReturn(call, "");
+		try {
+		    dumping.await();
+		}
+		catch(InterruptedException e)
+		{
+		    Thread.currentThread().interrupt();
+		}
+		return DBusMessage.methodReturn(call, "a{oa{sa{sv}}}", objects);
+	    });
+	monitor = open(null);
+	monitor.ready.get(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach public void close() throws IOException
+    {
+	monitor.close();
+	bus.close();
+    }
+
+    private UdisksDBusMonitor open(File cacheFile) throws IOException
+    {
+	con = DBusConnection.open(bus.getAddress(), ProcessEngine.getDefault());
+	return new UdisksDBusMonitor(con, new DeviceEventBus(20, (kind, type, attrs)->events.add(kind.toString() + " " + type.toString() + " " + attrs.get("obj"))), cacheFile);
+    }
+
+    @Test public void initial()
+    {
+	assertEquals(3, bus.getMatches().size());
+	final List<Map<String, Object>> devs = devices();
+	assertEquals(1, devs.size());
+	final Map<String, Object> d = devs.get(0);
+	assertEquals(SDB1, d.get("obj"));
+	assertEquals("/dev/sdb1", d.get("device"));
+	assertEquals(DRIVE, d.get("drive"));
+	assertEquals("vfat", d.get("fsType"));
+	assertEquals("/media/flash", d.get("mountPoints"));
+	assertEquals(Boolean.TRUE, d.get("removable"));
+	assertEquals(Boolean.FALSE, d.get("ejectable"));
+    }
+
+    @Test public void added() throws IOException
+    {
+	bus.emit(DBusMessage.signal(UdisksDBusMonitor.ROOT, UdisksDBusMonitor.IFACE_OBJECT_MANAGER, "InterfacesAdded", "oa{sa{sv}}", SDB2, blockDev("/dev/sdb2", "ext4", null)));
+	sync();
+	final List<Map<String, Object>> devs = devices();
+	assertEquals(2, devs.size());
+	assertEquals("/dev/sdb2", devs.get(1).get("device"));
+	assertEquals("", devs.get(1).get("mountPoints"));
+    }
+
+    @Test public void propertiesChanged() throws IOException
+    {
+	bus.emit(DBusMessage.signal(SDB1, UdisksDBusMonitor.IFACE_PROPERTIES, "PropertiesChanged", "sa{sv}as",
+				    UdisksDBusMonitor.IFACE_FILESYSTEM, Map.of("MountPoints", new DBusMessage.Variant("aay", List.of())), List.of()));
+	sync();
+	assertEquals("", devices().get(0).get("mountPoints"));
+	bus.emit(DBusMessage.signal(SDB1, UdisksDBusMonitor.IFACE_PROPERTIES, "PropertiesChanged", "sa{sv}as",
+				    UdisksDBusMonitor.IFACE_BLOCK, Map.of(), List.of("IdType")));
+	sync();
+	assertTrue(devices().isEmpty());
+    }
+
+    @Test public void removed() throws IOException
+    {
+	bus.emit(DBusMessage.signal(UdisksDBusMonitor.ROOT, UdisksDBusMonitor.IFACE_OBJECT_MANAGER, "InterfacesRemoved", "oas", SDB1, List.of(UdisksDBusMonitor.IFACE_FILESYSTEM)));
+	sync();
+	assertEquals("", devices().get(0).get("mountPoints"));
+	bus.emit(DBusMessage.signal(UdisksDBusMonitor.ROOT, UdisksDBusMonitor.IFACE_OBJECT_MANAGER, "InterfacesRemoved", "oas", DRIVE, List.of(UdisksDBusMonitor.IFACE_DRIVE)));
+	sync();
+	assertTrue(devices().isEmpty());
+    }
+
+    @Test public void versions() throws IOException
+    {
+	final DeviceSnapshot first = monitor.getSnapshot();
+	assertEquals(1, first.getVersion());
+	//The change of the property not going to the attributes
+	bus.emit(DBusMessage.signal(DRIVE, UdisksDBusMonitor.IFACE_PROPERTIES, "PropertiesChanged", "sa{sv}as",
+				    UdisksDBusMonitor.IFACE_DRIVE, Map.of("Size", new DBusMessage.Variant("t", Long.valueOf(1L << 30))), List.of()));
+	sync();
+	assertSame(first, monitor.getSnapshot());
+	assertFalse(monitor.getSnapshot().isChangedSince(first.getVersion()));
+	bus.emit(DBusMessage.signal(UdisksDBusMonitor.ROOT, UdisksDBusMonitor.IFACE_OBJECT_MANAGER, "InterfacesAdded", "oa{sa{sv}}", SDB2, blockDev("/dev/sdb2", "ext4", null)));
+	sync();
+	final DeviceSnapshot second = monitor.getSnapshot();
+	assertTrue(second.isChangedSince(first.getVersion()));
+	assertEquals(2, second.getVersion());
+	assertEquals(1, first.getDevices().size());
+	assertEquals(2, second.getDevices().size());
+	assertThrows(UnsupportedOperationException.class, ()->second.getDevices().get(0).put("device", "/dev/sdc"));
+    }
+
+    @Test public void events() throws Exception
+    {
+	bus.emit(DBusMessage.signal(UdisksDBusMonitor.ROOT, UdisksDBusMonitor.IFACE_OBJECT_MANAGER, "InterfacesAdded", "oa{sa{sv}}", SDB2, blockDev("/dev/sdb2", "", null)));
+	bus.emit(DBusMessage.signal(SDB2, UdisksDBusMonitor.IFACE_PROPERTIES, "PropertiesChanged", "sa{sv}as",
+				    UdisksDBusMonitor.IFACE_BLOCK, Map.of("IdType", new DBusMessage.Variant("s", "vfat")), List.of()));
+	assertEquals("BLOCK_DEV ADDED " + SDB2, events.poll(5, TimeUnit.SECONDS));
+	bus.emit(DBusMessage.signal(UdisksDBusMonitor.ROOT, UdisksDBusMonitor.IFACE_OBJECT_MANAGER, "InterfacesRemoved", "oas", SDB1,
+				    List.of(UdisksDBusMonitor.IFACE_BLOCK, UdisksDBusMonitor.IFACE_FILESYSTEM)));
+	assertEquals("BLOCK_DEV REMOVED " + SDB1, events.poll(5, TimeUnit.SECONDS));
+	assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test public void cache() throws Exception
+    {
+	final File cacheFile = new File(Files.createTempDirectory("disks").toFile(), "disks.cache");
+	monitor.close();
+	monitor = open(cacheFile);
+	monitor.ready.get(5, TimeUnit.SECONDS);
+	monitor.close();
+	assertTrue(cacheFile.isFile());
+	//The flash drive is repartitioned while the monitor isn't running
+	objects.remove(SDB1);
+	objects.put(SDB2, blockDev("/dev/sdb2", "ext4", null));
+	dumping = new CountDownLatch(1);
+	monitor = open(cacheFile);
+	try {
+	    assertFalse(monitor.ready.isDone());
+	    final List<Map<String, Object>> cached = devices();
+	    assertEquals(1, cached.size());
+	    assertEquals("/dev/sdb1", cached.get(0).get("device"));
+	    //The device may be not mounted anymore
+	    assertEquals("", cached.get(0).get("mountPoints"));
+	    assertEquals(Boolean.TRUE, cached.get(0).get("removable"));
+	}
+	finally {
+	    dumping.countDown();
+	}
+	monitor.ready.get(5, TimeUnit.SECONDS);
+	final List<Map<String, Object>> devs = devices();
+	assertEquals(1, devs.size());
+	assertEquals("/dev/sdb2", devs.get(0).get("device"));
+	final Set<String> changes = new HashSet<>();
+	for(int i = 0;i < 2;i++)
+	    changes.add(events.poll(5, TimeUnit.SECONDS));
+	assertEquals(Set.of("BLOCK_DEV REMOVED " + SDB1, "BLOCK_DEV ADDED " + SDB2), changes);
+	//The drive is the same, so there is nothing about it
+	assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+	Files.delete(cacheFile.toPath());
+	Files.delete(cacheFile.getParentFile().toPath());
+    }
+
+    @Test public void restart() throws Exception
+    {
+	bus.emit(ownerChanged(":1.5", ""));
+	sync();
+	//Nothing is known until the daemon is back
+	assertTrue(devices().isEmpty());
+	objects.remove(SDB1);
+	objects.put(SDB2, blockDev("/dev/sdb2", "ext4", null));
+	bus.emit(ownerChanged("", ":1.6"));
+	final Set<String> changes = new HashSet<>();
+	for(int i = 0;i < 2;i++)
+	    changes.add(events.poll(5, TimeUnit.SECONDS));
+	assertEquals(Set.of("BLOCK_DEV REMOVED " + SDB1, "BLOCK_DEV ADDED " + SDB2), changes);
+	assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+	final List<Map<String, Object>> devs = devices();
+	assertEquals(1, devs.size());
+	assertEquals("/dev/sdb2", devs.get(0).get("device"));
+    }
+
+    @Test public void connectionLost() throws Exception
+    {
+	final DeviceSnapshot first = monitor.getSnapshot();
+	bus.disconnect();
+	//The last known devices aren't served as the current ones
+	for(int i = 0;i < 100 && !devices().isEmpty();i++)
+	    Thread.sleep(20);
+	assertTrue(devices().isEmpty());
+	assertTrue(con.isClosed());
+	assertTrue(monitor.getSnapshot().isChangedSince(first.getVersion()));
+    }
+
+    static private DBusMessage ownerChanged(String oldOwner, String newOwner)
+    {
+	return DBusMessage.signal(DBusConnection.BUS_PATH, DBusConnection.BUS_NAME, "NameOwnerChanged", "sss", UdisksDBusMonitor.SERVICE, oldOwner, newOwner);
+    }
+
+    @Test public void cacheSamePath() throws Exception
+    {
+	final File cacheFile = new File(Files.createTempDirectory("disks").toFile(), "disks.cache");
+	monitor.close();
+	monitor = open(cacheFile);
+	monitor.ready.get(5, TimeUnit.SECONDS);
+	monitor.close();
+	//Another flash drive gets the same name of the block device
+	objects.remove(DRIVE);
+	objects.put(DRIVE2, Map.of(UdisksDBusMonitor.IFACE_DRIVE, drive()));
+	objects.put(SDB1, blockDev("/dev/sdb1", DRIVE2, "ext4", null));
+	monitor = open(cacheFile);
+	monitor.ready.get(5, TimeUnit.SECONDS);
+	final List<String> changes = new ArrayList<>();
+	for(int i = 0;i < 4;i++)
+	    changes.add(events.poll(5, TimeUnit.SECONDS));
+	assertEquals(Set.of("DISK REMOVED " + DRIVE, "DISK ADDED " + DRIVE2, "BLOCK_DEV REMOVED " + SDB1, "BLOCK_DEV ADDED " + SDB1), new HashSet<>(changes));
+	assertTrue(changes.indexOf("BLOCK_DEV REMOVED " + SDB1) < changes.indexOf("BLOCK_DEV ADDED " + SDB1));
+	assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+	final List<Map<String, Object>> devs = devices();
+	assertEquals(1, devs.size());
+	assertEquals(DRIVE2, devs.get(0).get("drive"));
+	Files.delete(cacheFile.toPath());
+	Files.delete(cacheFile.getParentFile().toPath());
+    }
+
+    //The signals are processed before the reply following them
+    private void sync() throws IOException
+    {
+	con.call(DBusMessage.methodCall("org.example", "/", "org.example.Iface", "Sync", ""));
+    }
+
+    private List<Map<String, Object>> devices()
+    {
+	final List<Map<String, Object>> res = new ArrayList<>();
+	monitor.enumRemovableBlockDevices(res::add);
+	res.sort((a, b)->a.get("obj").toString().compareTo(b.get("obj").toString()));
+	return res;
+    }
+
+    static private Map<String, Object> drive()
+    {
+	final Map<String, Object> res = new HashMap<>();
+	res.put("Vendor", new DBusMessage.Variant("s", "Kingston"));
+	res.put("Model", new DBusMessage.Variant("s", "DataTraveler"));
+	res.put("Removable", new DBusMessage.Variant("b", Boolean.TRUE));
+	res.put("Ejectable", new DBusMessage.Variant("b", Boolean.FALSE));
+	return res;
+    }
+
+    static private Map<String, Object> blockDev(String device, String fsType, String mountPoint)
+    {
+	return blockDev(device, DRIVE, fsType, mountPoint);
+    }
+
+    static private Map<String, Object> blockDev(String device, String drive, String fsType, String mountPoint)
+    {
+	final Map<String, Object> block = new HashMap<>();
+	block.put("Device", new DBusMessage.Variant("ay", (device + "\0").getBytes()));
+	block.put("Drive", new DBusMessage.Variant("o", drive));
+	block.put("IdType", new DBusMessage.Variant("s", fsType));
+	final Map<String, Object> fs = new HashMap<>();
+	fs.put("MountPoints", new DBusMessage.Variant("aay", mountPoint != null?List.of((mountPoint + "\0").getBytes()):List.of()));
+	final Map<String, Object> res = new HashMap<>();
+	res.put(UdisksDBusMonitor.IFACE_BLOCK, block);
+	res.put(UdisksDBusMonitor.IFACE_FILESYSTEM, fs);
+	return res;
+    }
+}
@@ -0,0 +1,137 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.nio.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.luwrain.linux.term.Parser.*;
+
+public class ParserTest
+{
+    private Parser parser = null;
+
+    @Test public void textRuns()
+    {
+	final List<Output> res = parser.parse("abc\r\ndef");
+	assertEquals(1, res.size());
+	assertEquals("abc\r\ndef", ((OutputText)res.get(0)).text);
+    }
+
+    @Test public void csi()
+    {
+	final List<Output> res = parser.parse("a\033[1;31mb\033[?25l\033[K");
+	assertEquals(5, res.size());
+	final AnsiCommand sgr = (AnsiCommand)res.get(1);
+	assertEquals('m', sgr.finalChar);
+	assertEquals(Arrays.asList(1, 31), sgr.params);
+	assertEquals("\033[1;31m", sgr.rawSequence);
+	final AnsiCommand decReset = (AnsiCommand)res.get(3);
+	assertEquals("?", decReset.privateMarker);
+	assertEquals("DecReset", decReset.description);
+	assertEquals(Arrays.asList(25), decReset.params);
+	assertTrue(((AnsiCommand)res.get(4)).params.isEmpty());
+    }
+
+    @Test public void emptyParams()
+    {
+	final AnsiCommand c = (AnsiCommand)parser.parse("\033[;5;H").get(0);
+	assertEquals(Arrays.asList(0, 5, 0), c.params);
+    }
+
+    @Test public void intermediates()
+    {
+	final AnsiCommand c = (AnsiCommand)parser.parse("\033[2 q").get(0);
+	assertEquals('q', c.finalChar);
+	assertEquals(" ", c.intermediates);
+	final EscCommand e = (EscCommand)parser.parse("\033(B").get(0);
+	assertEquals('B', e.finalChar);
+	assertEquals("(", e.intermediates);
+    }
+
+    @Test public void splitBetweenChunks()
+    {
+	final String s = "ab\033[12;3Hcd\033]0;title\007ef";
+	final List<Output> res = new ArrayList<>();
+	for(int i = 0;i < s.length();i++)
+	    parser.parse(new char[]{s.charAt(i)}, 0, 1, res::add);
+	final StringBuilder text = new StringBuilder();
+	AnsiCommand cup = null;
+	OscCommand osc = null;
+	for(Output o: res)
+	    if (o instanceof OutputText t)
+		text.append(t.text); else
+		if (o instanceof AnsiCommand c)
+		    cup = c; else
+		    if (o instanceof OscCommand c)
+			osc = c;
+	assertEquals("abcdef", new String(text));
+	assertNotNull(cup);
+	assertEquals(Arrays.asList(12, 3), cup.params);
+	assertEquals("CursorPosition", cup.description);
+	assertNotNull(osc);
+	assertEquals(0, osc.code);
+	assertEquals("title", osc.text);
+    }
+
+    @Test public void strings()
+    {
+	final List<Output> res = parser.parse("\033]2;Заголовок\033\\\033P1$qm\033\\\033_apc\033\\x");
+	assertEquals(4, res.size());
+	final OscCommand osc = (OscCommand)res.get(0);
+	assertEquals(2, osc.code);
+	assertEquals("Заголовок", osc.text);
+	final DcsCommand dcs = (DcsCommand)res.get(1);
+	assertEquals('q', dcs.finalChar);
+	assertEquals("$", dcs.intermediates);
+	assertEquals(Arrays.asList(1), dcs.params);
+	assertEquals("m", dcs.data);
+	final ControlString apc = (ControlString)res.get(2);
+	assertEquals('_', apc.kind);
+	assertEquals("apc", apc.data);
+	assertEquals("x", ((OutputText)res.get(3)).text);
+    }
+
+    @Test public void c1Controls()
+    {
+	final List<Output> res = parser.parse("\u009b5A\u009d0;t\u009cz");
+	assertEquals(3, res.size());
+	assertEquals(Arrays.asList(5), ((AnsiCommand)res.get(0)).params);
+	assertEquals("t", ((OscCommand)res.get(1)).text);
+    }
+
+    @Test public void cancel()
+    {
+	final List<Output> res = parser.parse("\033[12\030a");
+	assertEquals(1, res.size());
+	assertEquals("a", ((OutputText)res.get(0)).text);
+    }
+
+    @Test public void controlsInsideSequence()
+    {
+	final List<Output> res = parser.parse("\033[1\r2C");
+	assertEquals(2, res.size());
+	assertEquals("\r", ((OutputText)res.get(0)).text);
+	assertEquals(Arrays.asList(12), ((AnsiCommand)res.get(1)).params);
+    }
+
+    @Test public void charBuffer()
+    {
+	final List<Output> res = new ArrayList<>();
+	final CharBuffer b = ByteBuffer.allocateDirect(64).asCharBuffer();
+	b.put("x\033[3Dy").flip();
+	parser.parse(b, res::add);
+	assertEquals(3, res.size());
+	assertFalse(b.hasRemaining());
+	assertEquals("CursorBack", ((AnsiCommand)res.get(1)).description);
+    }
+
+    @BeforeEach public void createParser()
+    {
+	parser = new Parser();
+    }
+}
@@ -0,0 +1,88 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.io.*;
+import java.nio.charset.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PtyWriterTest
+{
+    private CountingStream os;
+    private PtyWriter w;
+
+    @BeforeEach public void create()
+    {
+	os = new CountingStream();
+	w = new PtyWriter(os);
+    }
+
+    @Test public void keystrokes() throws IOException
+    {
+	for(char ch: "lsé\n".toCharArray())
+	    w.write(ch);
+	w.write(new byte[]{ '\033', '[', 'A' });
+	assertTrue(w.hasPending());
+	assertEquals(0, os.writes);
+	w.flush();
+	assertFalse(w.hasPending());
+	assertEquals(1, os.writes);
+	assertEquals(1, os.flushes);
+	assertEquals("lsé\n\033[A", os.text());
+    }
+
+    @Test public void surrogates() throws IOException
+    {
+	final String str = "a😀b";
+	for(char ch: str.toCharArray())
+	    w.write(ch);
+	w.write("\ud83d");
+	w.write("\ude00");
+	w.flush();
+	assertEquals(str + "😀", os.text());
+    }
+
+    @Test public void largePaste() throws IOException
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int i = 0;i < 10000;i++)
+	    b.append("line ").append(i).append("ж\n");
+	w.paste(b, false);
+	assertEquals(new String(b), os.text());
+	assertTrue(os.writes <= b.length() * 2 / 4096 + 2, String.valueOf(os.writes));
+	assertEquals(1, os.flushes);
+    }
+
+    @Test public void bracketedPaste() throws IOException
+    {
+	w.write('x');
+	w.paste("echo 1\n\033[201~rm\t\u0007-rf\n", true);
+	assertEquals("x\033[200~echo 1\n[201~rm\t-rf\n\033[201~", os.text());
+	assertEquals(1, os.writes);
+    }
+
+    static private final class CountingStream extends ByteArrayOutputStream
+    {
+	int writes = 0, flushes = 0;
+	@Override public void write(byte[] b, int off, int len)
+	{
+	    writes++;
+	    super.write(b, off, len);
+	}
+	@Override public void write(byte[] b)
+	{
+	    write(b, 0, b.length);
+	}
+	@Override public void flush()
+	{
+	    flushes++;
+	}
+	String text()
+	{
+	    return new String(toByteArray(), StandardCharsets.UTF_8);
+	}
+    }
+}
@@ -0,0 +1,64 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayTest
+{
+    @Test public void recordAndReplay() throws Exception
+    {
+	final File file = File.createTempFile("luwrain-term-", ".cast");
+	try {
+	    try (final Recorder r = new Recorder(file, 3, 20)) {
+		r.output("first\r\n\"quoted\" \\ \033[1mbold\033[0m\u0007");
+		r.resize(4, 30);
+		r.output("\r\nsecond ünicode\t.");
+	    }
+	    final List<String> lines = Files.readAllLines(file.toPath());
+	    assertEquals(4, lines.size());
+	    assertTrue(lines.get(0).contains("\"width\": 20, \"height\": 3"));
+	    assertTrue(lines.get(2).endsWith(", \"r\", \"30x4\"]"));
+	    final Replay replay = Replay.read(file);
+	    assertEquals(3, replay.getEventCount());
+	    replay.playToEnd();
+	    final TermText text = replay.getText();
+	    assertEquals(30, text.getColCount());
+	    assertEquals("first", text.getRowText(0));
+	    assertEquals("\"quoted\" \\ bold", text.getRowText(1));
+	    assertEquals("second ünicode  .", text.getRowText(2));
+	    //Seeking backward replays from the beginning
+	    replay.seek(-1);
+	    assertEquals(0.0, replay.getPosition());
+	    assertEquals("", replay.getText().getRowText(0));
+	    replay.seek(replay.getDuration());
+	    assertEquals("first", replay.getText().getRowText(0));
+	    assertFalse(replay.step());
+	}
+	finally {
+	    file.delete();
+	}
+    }
+
+    @Test public void malformedLines() throws Exception
+    {
+	final String cast = "{\"version\": 2, \"width\": 5, \"height\": 2}\n" +
+	"[0.5, \"o\", \"ab\\u001b[1mc\"]\n" +
+	"garbage\n" +
+	"[1.0, \"o\", \"de\"]\n" +
+	"[1.5, \"o\", \"tru";
+	final Replay replay = new Replay(new BufferedReader(new StringReader(cast)), 0);
+	assertEquals(2, replay.getEventCount());
+	replay.seek(0.7);
+	assertEquals("abc", replay.getText().getRowText(0));
+	assertEquals(1.0, replay.getNextEventTime());
+	replay.seek(2);
+	assertEquals("abcde", replay.getText().getRowText(0));
+    }
+}
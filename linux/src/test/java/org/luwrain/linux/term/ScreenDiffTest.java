@@ -0,0 +1,86 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScreenDiffTest
+{
+    private TermText text = null;
+    private ScreenDiff diff = null;
+
+    @Test public void newText()
+    {
+	write("abc\r\ndef");
+	assertEquals(Arrays.asList("abc", "def"), texts(diff.update(text)));
+	assertTrue(diff.update(text).isEmpty());
+    }
+
+    @Test public void sameRedraw()
+    {
+	write("status: 10");
+	diff.update(text);
+	text.cursorHome();
+	write("status: 11");
+	final List<ScreenDiff.Change> changes = diff.update(text);
+	assertEquals(1, changes.size());
+	assertEquals("1", changes.get(0).text);
+	assertEquals(9, changes.get(0).from);
+	text.cursorHome();
+	write("status: 11");
+	assertTrue(diff.update(text).isEmpty());
+    }
+
+    @Test public void scrolling()
+    {
+	write("l1\nl2\nl3\nl4");
+	diff.update(text);
+	write("\nl5");
+	assertEquals(Arrays.asList("l5"), texts(diff.update(text)));
+    }
+
+    @Test public void linesGoneFromScreen()
+    {
+	write("l1");
+	diff.update(text);
+	write("\nl2\nl3\nl4\nl5\nl6\nl7");
+	assertEquals(Arrays.asList("l2", "l3", "l4", "l5", "l6", "l7"), texts(diff.update(text)));
+    }
+
+    @Test public void deletion()
+    {
+	write("abc");
+	diff.update(text);
+	text.setCursorPos(0, 1);
+	text.fillSpaces(10);
+	final List<ScreenDiff.Change> changes = diff.update(text);
+	assertEquals(1, changes.size());
+	assertEquals("", changes.get(0).text);
+	assertEquals(1, changes.get(0).from);
+	assertEquals(3, changes.get(0).to);
+    }
+
+    @BeforeEach public void create()
+    {
+	text = new TermText(4, 20, 100);
+	diff = new ScreenDiff();
+    }
+
+    private void write(String s)
+    {
+	for(int i = 0;i < s.length();i++)
+	    text.writeChar(s.charAt(i));
+    }
+
+    static private List<String> texts(List<ScreenDiff.Change> changes)
+    {
+	final List<String> res = new ArrayList<>();
+	for(ScreenDiff.Change c: changes)
+	    res.add(c.text);
+	return res;
+    }
+}
@@ -0,0 +1,98 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.concurrent.atomic.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpscQueueTest
+{
+    @Test public void capacity()
+    {
+	assertEquals(1, new SpscQueue<String>(1).getCapacity());
+	assertEquals(2, new SpscQueue<String>(2).getCapacity());
+	assertEquals(4, new SpscQueue<String>(3).getCapacity());
+	assertEquals(4, new SpscQueue<String>(4).getCapacity());
+	assertEquals(8, new SpscQueue<String>(5).getCapacity());
+	assertThrows(IllegalArgumentException.class, ()->new SpscQueue<String>(0));
+	assertThrows(IllegalArgumentException.class, ()->new SpscQueue<String>((1 << 30) + 1));
+    }
+
+    @Test public void single()
+    {
+	final SpscQueue<String> q = new SpscQueue<>(1);
+	assertTrue(q.isEmpty());
+	assertNull(q.poll());
+	assertTrue(q.offer("a"));
+	assertFalse(q.offer("b"));
+	assertFalse(q.isEmpty());
+	assertEquals("a", q.poll());
+	assertNull(q.poll());
+	assertTrue(q.offer("c"));
+	assertEquals("c", q.poll());
+	assertThrows(NullPointerException.class, ()->q.offer(null));
+    }
+
+    @Test public void wraparound()
+    {
+	final SpscQueue<Integer> q = new SpscQueue<>(3);
+	int next = 0, expected = 0;
+	//Every round starts at the new position in the ring
+	for(int round = 0;round < 10;round++)
+	{
+	    for(int i = 0;i < 4;i++)
+		assertTrue(q.offer(next++));
+	    assertFalse(q.offer(-1));
+	    for(int i = 0;i < 3;i++)
+		assertEquals(Integer.valueOf(expected++), q.poll());
+	    for(int i = 0;i < 3;i++)
+		assertTrue(q.offer(next++));
+	    assertFalse(q.offer(-1));
+	    while (!q.isEmpty())
+		assertEquals(Integer.valueOf(expected++), q.poll());
+	    assertNull(q.poll());
+	}
+	assertEquals(next, expected);
+    }
+
+    @Test public void twoThreads() throws Exception
+    {
+	final int count = 100000;
+	final SpscQueue<Integer> q = new SpscQueue<>(16);
+	final AtomicReference<Throwable> error = new AtomicReference<>();
+	final Thread consumer = new Thread(()->{
+		try {
+		    for(int expected = 0;expected < count;)
+		    {
+			final Integer value = q.poll();
+			if (value == null)
+			{
+			    Thread.yield();
+			    continue;
+			}
+			assertEquals(expected++, value.intValue());
+		    }
+		}
+		catch(Throwable e)
+		{
+		    error.set(e);
+		}
+	});
+	consumer.start();
+	for(int i = 0;i < count;i++)
+	    while (!q.offer(i))
+	    {
+		if (!consumer.isAlive())
+		    break;
+		Thread.yield();
+	    }
+	consumer.join(30000);
+	assertFalse(consumer.isAlive());
+	if (error.get() != null)
+	    fail("The consumer failed", error.get());
+	assertTrue(q.isEmpty());
+    }
+}
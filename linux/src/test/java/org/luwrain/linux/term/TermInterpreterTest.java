@@ -0,0 +1,98 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.luwrain.linux.term.TermText.*;
+
+public class TermInterpreterTest
+{
+    private TermText text = null;
+    private TermInterpreter term = null;
+    private Parser parser = null;
+    private final List<String> replies = new ArrayList<>();
+
+    @Test public void cursorAndErase()
+    {
+	out("abcdef\033[1;3H\033[K\033[2;2Hx\033[H\033[2C\033[1@-");
+	assertEquals(Arrays.asList("ab-", " x", "", ""), lines());
+	out("\033[1;1H\033[2P");
+	assertEquals("-", text.getLine(0));
+	out("\033[2J");
+	assertEquals(Arrays.asList("", "", "", ""), lines());
+    }
+
+    @Test public void linesInRegion()
+    {
+	out("r0\r\nr1\r\nr2\r\nr3\033[2;3r\033[2;1H\033[L");
+	assertEquals(Arrays.asList("r0", "", "r1", "r3"), lines());
+	out("\033[2M");
+	assertEquals(Arrays.asList("r0", "", "", "r3"), lines());
+	out("\033[r\033[1;1H\033M");
+	assertEquals(Arrays.asList("", "r0", "", ""), lines());
+    }
+
+    @Test public void alternateScreen()
+    {
+	out("main\033[?1049h\033[2;2Halt");
+	assertTrue(text.isAlternateScreen());
+	assertEquals(Arrays.asList("", " alt", "", ""), lines());
+	out("\033[?1049l");
+	assertEquals(Arrays.asList("main", "", "", ""), lines());
+	assertEquals(4, text.getCursorCol());
+    }
+
+    @Test public void sgr()
+    {
+	out("\033[1;31ma\033[38;5;200;44mb\033[0mc");
+	assertEquals(ATTR_BOLD | (2 << ATTR_FG_SHIFT), text.getCellAttr(0, 0));
+	assertEquals(ATTR_BOLD | (201 << ATTR_FG_SHIFT) | (5 << ATTR_BG_SHIFT), text.getCellAttr(0, 1));
+	assertEquals(0, text.getCellAttr(0, 2));
+    }
+
+    @Test public void modesAndReplies()
+    {
+	out("\033[?1h\033]2;vim\007\033[3;5H\033[6n\033(0qx\033(Bq");
+	assertTrue(term.isAppCursorKeys());
+	assertEquals("vim", term.getTitle());
+	assertEquals(Arrays.asList("\033[3;5R"), replies);
+	assertEquals("    ─│q", text.getLine(2));
+	out("\033c");
+	assertFalse(term.isAppCursorKeys());
+	assertEquals("", text.getLine(2));
+    }
+
+    @Test public void tabs()
+    {
+	out("a\tb\033[3g\tc");
+	//No tab stops left, the cursor goes to the last column
+	assertEquals("a       b          c", text.getLine(0));
+    }
+
+    @BeforeEach public void create()
+    {
+	text = new TermText(4, 20, 10);
+	term = new TermInterpreter(text, replies::add);
+	parser = new Parser();
+	replies.clear();
+    }
+
+    private void out(String s)
+    {
+	for(Parser.Output o: parser.parse(s))
+	    term.onCommand(o);
+    }
+
+    private List<String> lines()
+    {
+	final List<String> res = new ArrayList<>();
+	for(int i = text.getScrollbackSize();i < text.getLineCount();i++)
+	    res.add(text.getLine(i));
+	return res;
+    }
+}
@@ -0,0 +1,122 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermTextTest
+{
+    @Test public void writing()
+    {
+	final TermText t = new TermText(3, 10, 0);
+	write(t, "abc\r\nde");
+	assertEquals("abc", t.getLine(0));
+	assertEquals("de", t.getLine(1));
+	assertEquals("", t.getLine(2));
+	assertEquals(2, t.getHotPointX());
+	assertEquals(1, t.getHotPointY());
+	write(t, "\rX");
+	assertEquals("Xe", t.getLine(1));
+    }
+
+    @Test public void wrapping()
+    {
+	final TermText t = new TermText(3, 4, 0);
+	write(t, "abcdef");
+	assertEquals("abcd", t.getLine(0));
+	assertEquals("ef", t.getLine(1));
+    }
+
+    @Test public void scrollback()
+    {
+	final TermText t = new TermText(3, 10, 5);
+	for(int i = 0;i < 10;i++)
+	    write(t, "line" + String.valueOf(i) + (i < 9?"\n":""));
+	assertEquals(5, t.getScrollbackSize());
+	assertEquals(8, t.getLineCount());
+	for(int i = 0;i < 8;i++)
+	    assertEquals("line" + String.valueOf(i + 2), t.getLine(i));
+	assertEquals(7, t.getHotPointY());
+	assertSame(t.getLine(7), t.getLine(7));
+	assertSame(t.getLine(0), t.getLine(0));
+    }
+
+    @Test public void scrollRegion()
+    {
+	final TermText t = new TermText(4, 10, 10);
+	for(int i = 0;i < 4;i++)
+	{
+	    t.setCursorPos(i, 0);
+	    write(t, "r" + String.valueOf(i));
+	}
+	t.setScrollRegion(1, 2);
+	t.scrollUp(1);
+	assertEquals(0, t.getScrollbackSize());
+	assertEquals(Arrays.asList("r0", "r2", "", "r3"), lines(t));
+	t.setCursorPos(2, 0);
+	write(t, "x");
+	assertEquals(Arrays.asList("r0", "r2", "x", "r3"), lines(t));
+    }
+
+    @Test public void fillSpaces()
+    {
+	final TermText t = new TermText(2, 10, 0);
+	write(t, "abcdef");
+	t.setCursorPos(0, 2);
+	t.fillSpaces(2);
+	assertEquals("ab  ef", t.getLine(0));
+	t.fillSpaces(100);
+	assertEquals("ab", t.getLine(0));
+    }
+
+    @Test public void resize()
+    {
+	final TermText t = new TermText(4, 10, 10);
+	write(t, "r0\r\nr1\r\nr2 abcdef\r\nr3");
+	t.resize(2, 5);
+	assertEquals(2, t.getScrollbackSize());
+	assertEquals(Arrays.asList("r2 ab", "r3"), lines(t));
+	assertEquals(2, t.getFirstRowIndex());
+	assertEquals(1, t.getHotPointY() - t.getScrollbackSize());
+	t.resize(3, 12);
+	assertEquals(Arrays.asList("r2 ab", "r3", ""), lines(t));
+	t.setCursorPos(2, 0);
+	write(t, "0123456789AB");
+	assertEquals("0123456789AB", t.getLine(t.getScrollbackSize() + 2));
+	t.setCursorPos(2, 11);
+	t.writeChar('x');
+	assertEquals(Arrays.asList("r2 ab", "r3", "0123456789Ax"), lines(t));
+    }
+
+    @Test public void resizeAlternate()
+    {
+	final TermText t = new TermText(3, 10, 10);
+	write(t, "main");
+	t.setAlternateScreen(true);
+	t.cursorHome();
+	write(t, "alternate");
+	t.resize(2, 4);
+	assertEquals(Arrays.asList("alte", ""), lines(t));
+	t.setAlternateScreen(false);
+	assertEquals(Arrays.asList("main", ""), lines(t));
+	assertEquals(0, t.getScrollbackSize());
+    }
+
+    static private void write(TermText t, String s)
+    {
+	for(int i = 0;i < s.length();i++)
+	    t.writeChar(s.charAt(i));
+    }
+
+    static private List<String> lines(TermText t)
+    {
+	final List<String> res = new ArrayList<>();
+	for(int i = t.getScrollbackSize();i < t.getLineCount();i++)
+	    res.add(t.getLine(i));
+	return res;
+    }
+}
@@ -0,0 +1,53 @@
+// SPDX-License-Identifier: BUSL-1.1
+// Copyright 2012-2026 Michael Pozhidaev <msp@luwrain.org>
+
+package org.luwrain.linux.term;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.charset.*;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.luwrain.linux.*;
+
+public class TerminalTest
+{
+    @Test public void headless() throws Exception
+    {
+	final ByteArrayInputStream is = new ByteArrayInputStream("\033]2;title\007hello\r\n\033[1mworéld\033[6n\007".getBytes(StandardCharsets.UTF_8));
+	final ByteArrayOutputStream os = new ByteArrayOutputStream();
+	final Terminal term = new Terminal(new Terminal.Connection(){
+		@Override public InputStream getInputStream() { return is; }
+		@Override public OutputStream getOutputStream() { return os; }
+	    }, 3, 20, 0);
+	final List<String> changes = new ArrayList<>();
+	final boolean[] bell = new boolean[1];
+	final CountDownLatch closed = new CountDownLatch(1);
+	term.start(new ProcessEngine("test", 2), Runnable::run, new Terminal.Listener(){
+		@Override public void onUpdate(Terminal terminal, List<ScreenDiff.Change> c, boolean b)
+		{
+		    for(ScreenDiff.Change i: c)
+			changes.add(i.text);
+		    bell[0] |= b;
+		}
+		@Override public void onClose(Terminal terminal, Throwable error)
+		{
+		    assertNull(error);
+		    closed.countDown();
+		}
+	    });
+	assertTrue(closed.await(10, TimeUnit.SECONDS));
+	assertTrue(term.isClosed());
+	assertEquals(Arrays.asList("hello", "woréld"), changes);
+	assertTrue(bell[0]);
+	final Terminal.Snapshot s = term.snapshot();
+	assertEquals("title", s.title);
+	assertEquals("hello\nworéld\n", s.getText());
+	assertEquals(1, s.cursorRow);
+	assertEquals(6, s.cursorCol);
+	assertEquals("\033[2;7R", new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+}